@@ -0,0 +1,49 @@
+package android.bluetooth;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * JVM version of the framework class for the benchmarks. The framework one cannot be
+ * created outside of the Bluetooth stack, scan results need one to compare devices by address.
+ */
+public final class BluetoothDevice implements Parcelable {
+    private final String mAddress;
+
+    public BluetoothDevice(String address) {
+        mAddress = address;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return mAddress;
+    }
+
+    @Override
+    public int hashCode() {
+        return mAddress.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof BluetoothDevice && mAddress.equals(((BluetoothDevice) object).mAddress);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        throw new UnsupportedOperationException("Not parcelled on the JVM");
+    }
+}
@@ -0,0 +1,54 @@
+package android.os;
+
+import java.util.UUID;
+
+/**
+ * JVM version of the framework class for the benchmarks, the mockable android.jar one
+ * neither holds the UUID nor compares equal, so service data lookups would always miss.
+ */
+public final class ParcelUuid implements Parcelable {
+    private final UUID mUuid;
+
+    public ParcelUuid(UUID uuid) {
+        mUuid = uuid;
+    }
+
+    public static ParcelUuid fromString(String uuid) {
+        return new ParcelUuid(UUID.fromString(uuid));
+    }
+
+    public UUID getUuid() {
+        return mUuid;
+    }
+
+    @Override
+    public String toString() {
+        return mUuid.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return mUuid.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof ParcelUuid)) {
+            return false;
+        }
+        return mUuid.equals(((ParcelUuid) object).mUuid);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        throw new UnsupportedOperationException("Not parcelled on the JVM");
+    }
+}
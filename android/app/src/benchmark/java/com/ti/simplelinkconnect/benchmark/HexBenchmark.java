@@ -0,0 +1,58 @@
+package com.ti.simplelinkconnect.benchmark;
+
+import com.ti.simplelinkconnect.util.HexUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Hex conversions used for keys, composition data parameters and image hashes
+ * ({@code MeshRepository.bytesToHexString}, {@code DFUModule.bytesToHex} and {@code DFUModule.hexToBytes}).
+ * The {@code format*} benchmarks keep the previous String.format implementation as a reference.
+ */
+@State(Scope.Benchmark)
+public class HexBenchmark {
+
+    // 16 bytes for keys, 32 for image hashes, 380 for a large composition data page
+    @Param({"16", "32", "380"})
+    public int size;
+
+    private byte[] bytes;
+    private String hex;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        hex = HexUtils.toHexString(bytes, true);
+    }
+
+    @Benchmark
+    public String bytesToHexLower() {
+        return HexUtils.toHexString(bytes, false);
+    }
+
+    @Benchmark
+    public String bytesToHexUpper() {
+        return HexUtils.toHexString(bytes, true);
+    }
+
+    @Benchmark
+    public byte[] hexToBytes() {
+        return HexUtils.toByteArray(hex);
+    }
+
+    @Benchmark
+    public String formatBytesToHexLower() {
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.ti.simplelinkconnect.benchmark;
+
+import com.ti.simplelinkconnect.mesh.MeshTask;
+import com.ti.simplelinkconnect.mesh.MeshTask.TaskType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+import no.nordicsemi.android.mesh.ApplicationKey;
+import no.nordicsemi.android.mesh.NetworkKey;
+
+/**
+ * Creation of the {@link MeshTask}s queued by the quick setup of a node, title and configuration message
+ * included.
+ */
+@State(Scope.Benchmark)
+public class MeshTaskBenchmark {
+
+    public int elementAddress = 0x0002;
+    public int modelId = 0x1000;
+    public int groupAddress = 0xC001;
+    public int appKeyIndex = 0;
+    public String modelName = "Generic On Off Server";
+
+    private NetworkKey networkKey;
+    private ApplicationKey applicationKey;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        final byte[] netKey = new byte[16];
+        final byte[] appKey = new byte[16];
+        random.nextBytes(netKey);
+        random.nextBytes(appKey);
+        networkKey = new NetworkKey(0, netKey);
+        applicationKey = new ApplicationKey(appKeyIndex, appKey);
+    }
+
+    @Benchmark
+    public MeshTask bind() {
+        return new MeshTask(TaskType.BIND, elementAddress, modelId, appKeyIndex, modelName);
+    }
+
+    @Benchmark
+    public MeshTask subscribe() {
+        return new MeshTask(TaskType.SUBSCRIBE, elementAddress, groupAddress, modelId, modelName);
+    }
+
+    @Benchmark
+    public MeshTask sendApplicationKey() {
+        return new MeshTask(TaskType.SEND_APPLICATION_KEY, networkKey, applicationKey);
+    }
+
+    /**
+     * The tasks of a node with a single model: composition data, default TTL, application key, bind and
+     * subscribe.
+     */
+    @Benchmark
+    public void quickSetup(final Blackhole blackhole) {
+        blackhole.consume(new MeshTask(TaskType.GET_COMPOSITION_DATA, 0));
+        blackhole.consume(new MeshTask(TaskType.GET_DEFAULT_TTL));
+        blackhole.consume(new MeshTask(TaskType.SEND_APPLICATION_KEY, networkKey, applicationKey));
+        blackhole.consume(new MeshTask(TaskType.BIND, elementAddress, modelId, appKeyIndex, modelName));
+        blackhole.consume(new MeshTask(TaskType.SUBSCRIBE, elementAddress, groupAddress, modelId, modelName));
+    }
+}
@@ -0,0 +1,65 @@
+package com.ti.simplelinkconnect.benchmark;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReadableArray;
+import com.ti.simplelinkconnect.mesh.MeshRepository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.mesh.models.SigModelParser;
+import no.nordicsemi.android.mesh.transport.Element;
+import no.nordicsemi.android.mesh.transport.MeshModel;
+
+/**
+ * Conversion of the models selected in the app to the per element lists used by the bind, subscribe and
+ * publication quick setup ({@code MeshRepository.convertArrayToModelsMap}).
+ */
+@State(Scope.Benchmark)
+public class ModelsMapBenchmark {
+
+    private static final int FIRST_ELEMENT = 0x0002;
+    private static final int[] MODELS = {
+            SigModelParser.GENERIC_ON_OFF_SERVER,
+            SigModelParser.GENERIC_LEVEL_SERVER,
+            SigModelParser.SCENE_SERVER,
+            SigModelParser.LIGHT_LIGHTNESS_SERVER
+    };
+
+    // A light with one element, a multi-channel dimmer with four
+    @Param({"1", "4"})
+    public int elementCount;
+
+    private Map<Integer, Element> elements;
+    private ReadableArray selection;
+
+    @Setup
+    public void setup() {
+        elements = new HashMap<>();
+        final List<Object> selected = new ArrayList<>();
+        for (int address = FIRST_ELEMENT; address < FIRST_ELEMENT + elementCount; address++) {
+            final Map<Integer, MeshModel> models = new LinkedHashMap<>();
+            for (int modelId : MODELS) {
+                models.put(modelId, SigModelParser.getSigModel(modelId));
+                selected.add(JavaOnlyMap.of("elementId", address, "modelId", modelId, "modelType", "SIG"));
+            }
+            elements.put(address, new Element(address, 0, models));
+        }
+        selection = JavaOnlyArray.from(selected);
+    }
+
+    @Benchmark
+    public Map<Integer, List<MeshModel>> convertArrayToModelsMap() {
+        return MeshRepository.convertArrayToModelsMap(selection, elements);
+    }
+}
@@ -0,0 +1,148 @@
+package com.ti.simplelinkconnect.benchmark;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.ti.simplelinkconnect.mesh.BleMeshManager;
+import com.ti.simplelinkconnect.mesh.ExtendedBluetoothDevice;
+import com.ti.simplelinkconnect.mesh.ProvisioningQueue;
+import com.ti.simplelinkconnect.mesh.Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * Work done for every scan result while scanning for unprovisioned devices and proxies: parsing the
+ * advertisement, looking up the mesh service data and filtering the devices before provisioning.
+ */
+@State(Scope.Benchmark)
+public class ScanResultBenchmark {
+
+    private static final int TYPE_FLAGS = 0x01;
+    private static final int TYPE_COMPLETE_16_BIT_UUIDS = 0x03;
+    private static final int TYPE_COMPLETE_NAME = 0x09;
+    private static final int TYPE_SERVICE_DATA_16_BIT_UUID = 0x16;
+    private static final int MESH_PROVISIONING = 0x1827;
+    private static final int MESH_PROXY = 0x1828;
+
+    // The parser the scanner library runs on every advertisement is package private
+    private static final Method PARSE_FROM_BYTES = parseFromBytes();
+
+    // Devices seen in a scan, from a desk to a lab full of boards
+    @Param({"10", "100"})
+    public int devices;
+
+    private byte[] provisioningAdvertisement;
+    private byte[] proxyAdvertisement;
+    private ScanResult provisioningResult;
+    private ScanResult proxyResult;
+    private List<ExtendedBluetoothDevice> scanned;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        final byte[] deviceUuid = new byte[18];
+        random.nextBytes(deviceUuid);
+        final byte[] networkId = new byte[9];
+        random.nextBytes(networkId);
+        networkId[0] = 0x00;
+        provisioningAdvertisement = advertisement(MESH_PROVISIONING, deviceUuid, "SimpleLink Mesh");
+        proxyAdvertisement = advertisement(MESH_PROXY, networkId, "SimpleLink Proxy");
+        provisioningResult = scanResult(0, provisioningAdvertisement, -60);
+        proxyResult = scanResult(1, proxyAdvertisement, -60);
+
+        scanned = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            scanned.add(new ExtendedBluetoothDevice(scanResult(i, provisioningAdvertisement, -40 - random.nextInt(60))));
+        }
+    }
+
+    private static Method parseFromBytes() {
+        try {
+            final Method method = ScanRecord.class.getDeclaredMethod("parseFromBytes", byte[].class);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("Scanner library without a scan record parser", ex);
+        }
+    }
+
+    private static ScanRecord parse(final byte[] advertisement) {
+        try {
+            return (ScanRecord) PARSE_FROM_BYTES.invoke(null, (Object) advertisement);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Unable to parse the advertisement", ex);
+        }
+    }
+
+    private static ScanResult scanResult(final int index, final byte[] advertisement, final int rssi) {
+        final String address = String.format(Locale.US, "F0:F8:F2:00:%02X:%02X", (index >> 8) & 0xFF, index & 0xFF);
+        return new ScanResult(new BluetoothDevice(address), parse(advertisement), rssi, 0);
+    }
+
+    private static byte[] advertisement(final int serviceUuid, final byte[] serviceData, final String name) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(2);
+        out.write(TYPE_FLAGS);
+        out.write(0x06);
+        out.write(3);
+        out.write(TYPE_COMPLETE_16_BIT_UUIDS);
+        out.write(serviceUuid & 0xFF);
+        out.write(serviceUuid >> 8);
+        out.write(3 + serviceData.length);
+        out.write(TYPE_SERVICE_DATA_16_BIT_UUID);
+        out.write(serviceUuid & 0xFF);
+        out.write(serviceUuid >> 8);
+        out.write(serviceData, 0, serviceData.length);
+        final byte[] nameBytes = name.getBytes();
+        out.write(1 + nameBytes.length);
+        out.write(TYPE_COMPLETE_NAME);
+        out.write(nameBytes, 0, nameBytes.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Service data lookups of the scan callback for an unprovisioned device, one hit and one miss.
+     */
+    @Benchmark
+    public void serviceDataOfProvisioningResult(final Blackhole blackhole) {
+        blackhole.consume(Utils.getServiceData(provisioningResult, BleMeshManager.MESH_PROVISIONING_UUID));
+        blackhole.consume(Utils.getServiceData(provisioningResult, BleMeshManager.MESH_PROXY_UUID));
+    }
+
+    @Benchmark
+    public void serviceDataOfProxyResult(final Blackhole blackhole) {
+        blackhole.consume(Utils.getServiceData(proxyResult, BleMeshManager.MESH_PROVISIONING_UUID));
+        blackhole.consume(Utils.getServiceData(proxyResult, BleMeshManager.MESH_PROXY_UUID));
+    }
+
+    /**
+     * A scan result as the scanner reports it, from the raw advertisement to the device added to the list.
+     */
+    @Benchmark
+    public ExtendedBluetoothDevice parseAndMatchProvisioningResult() {
+        final ScanResult result = new ScanResult(provisioningResult.getDevice(), parse(provisioningAdvertisement), -60, 0);
+        if (Utils.getServiceData(result, BleMeshManager.MESH_PROVISIONING_UUID) == null) {
+            throw new IllegalStateException("Provisioning service data not found");
+        }
+        return new ExtendedBluetoothDevice(result);
+    }
+
+    @Benchmark
+    public List<ExtendedBluetoothDevice> filterScannedDevices() {
+        return ProvisioningQueue.filter(null, scanned, -70, null);
+    }
+}
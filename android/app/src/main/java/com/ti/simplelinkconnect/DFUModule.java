@@ -1,10 +1,6 @@
 package com.ti.connectivity.simplelinkconnect;
 
-import static io.runtime.mcumgr.dfu.FirmwareUpgradeManager.Mode.CONFIRM_ONLY;
-import static io.runtime.mcumgr.dfu.FirmwareUpgradeManager.Mode.NONE;
-import static io.runtime.mcumgr.dfu.FirmwareUpgradeManager.Mode.TEST_AND_CONFIRM;
-import static io.runtime.mcumgr.dfu.FirmwareUpgradeManager.Mode.TEST_ONLY;
-
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -19,6 +15,7 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeMap;
@@ -26,8 +23,31 @@ import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.ti.simplelinkconnect.dfu.DeviceInfoService;
+import com.ti.simplelinkconnect.dfu.DfuParameterTuner;
+import com.ti.simplelinkconnect.dfu.DfuSession;
+import com.ti.simplelinkconnect.dfu.DfuSessionManager;
+import com.ti.simplelinkconnect.dfu.DfuSettings;
+import com.ti.simplelinkconnect.dfu.DfuTelemetry;
+import com.ti.simplelinkconnect.dfu.FirmwareImageInspector;
+import com.ti.simplelinkconnect.dfu.FirmwareImageSource;
+import com.ti.simplelinkconnect.dfu.FirmwarePackage;
+import com.ti.simplelinkconnect.dfu.HeapUsageMonitor;
+import com.ti.simplelinkconnect.dfu.ImageOperationQueue;
+import com.ti.simplelinkconnect.dfu.McuBootImageInfo;
+import com.ti.simplelinkconnect.dfu.McuMgrTransportCache;
+import com.ti.simplelinkconnect.dfu.StreamingFirmwareUpgrade;
+import com.ti.simplelinkconnect.dfu.StreamingImageUploader;
+import com.ti.simplelinkconnect.dfu.UploadProgressStore;
+import com.ti.simplelinkconnect.util.HexUtils;
+
 import java.io.File;
-import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrTransport;
@@ -40,10 +60,6 @@ import io.runtime.mcumgr.exception.McuMgrException;
 import io.runtime.mcumgr.managers.DefaultManager;
 import io.runtime.mcumgr.managers.ImageManager;
 import io.runtime.mcumgr.response.McuMgrResponse;
-import io.runtime.mcumgr.response.dflt.McuMgrAppInfoResponse;
-import io.runtime.mcumgr.response.dflt.McuMgrBootloaderInfoResponse;
-import io.runtime.mcumgr.response.dflt.McuMgrParamsResponse;
-import io.runtime.mcumgr.response.img.McuMgrImageResponse;
 import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
 
 
@@ -53,33 +69,104 @@ public class DFUModule extends ReactContextBaseJavaModule {
     private DefaultManager defaultManager;
     private ImageManager imageManager;
     private final ReactApplicationContext reactContext;
+    // Heap in use during the last upload
+    private final HeapUsageMonitor heapUsageMonitor = new HeapUsageMonitor();
+    private StreamingImageUploader streamingUploader;
+    // Upgrade of a single image streamed from the mapping of the file, and that mapping
+    private StreamingFirmwareUpgrade streamingUpgrade;
+    private FirmwareImageSource imageSource;
+    private DfuSessionManager fleetManager;
+    // Throughput, latency and state timing of the last upgrade or upload
+    private final DfuTelemetry telemetry = new DfuTelemetry();
+    // Progress of the interrupted uploads, per device and image
+    private final UploadProgressStore uploadProgressStore;
+    private String deviceAddress;
+    private String uploadImageKey;
+    // Header and hashes of the firmware files, computed in the background
+    private final FirmwareImageInspector imageInspector = new FirmwareImageInspector();
+    // Parameters, application and bootloader info per device
+    private final DeviceInfoService deviceInfoService = new DeviceInfoService();
+    // Transports and managers per device, kept connected between operations
+    private final DfuSessionManager.TransportFactory transportFactory;
+    private final McuMgrTransportCache transportCache;
+    private boolean transportBusy;
+    // Image management operations per device, answered in order
+    private final ImageOperationQueue imageOperationQueue = new ImageOperationQueue();
+    // SMP buffers reported by the device, 0 until read
+    private int deviceBufCount;
+    private int deviceBufSize;
+    // Settings of the running upgrade and the throughput achieved by the last automatic and manual ones
+    private DfuSettings dfuSettings;
+    private boolean dfuAutoTuned;
+    private long uploadStartTimestamp;
+    private int uploadStartBytes;
+    private double uploadThroughput;
+    private WritableMap lastAutoTuning;
+    private WritableMap lastManualTuning;
 
     FirmwareUpgradeCallback firmwareUpgradeCallback = new FirmwareUpgradeCallback() {
         @Override
         public void onUploadProgressChanged(int byteSent, int imageSize, long timeStamp) {
+            // Measured from the first progress report, so that the slot preparation is not counted
+            if (uploadStartTimestamp == 0 || byteSent < uploadStartBytes) {
+                uploadStartTimestamp = timeStamp;
+                uploadStartBytes = byteSent;
+            }
+            else if (timeStamp > uploadStartTimestamp) {
+                uploadThroughput = (byteSent - uploadStartBytes) * 1000.0 / (timeStamp - uploadStartTimestamp);
+            }
+            telemetry.onProgress(byteSent, imageSize);
+            if (streamingUpgrade == null && dfuSettings != null) {
+                // The streaming uploader times its chunks itself, FirmwareUpgradeManager only reports their progress
+                telemetry.onAcknowledged(timeStamp, dfuSettings.getWindowCapacity());
+            }
+            if (!telemetry.shouldEmitProgress()) {
+                return;
+            }
+            uploadProgressStore.save(deviceAddress, uploadImageKey, imageSize, byteSent);
             double percent = ((double) byteSent / imageSize) * 100;
             Log.d(TAG, "DFU Progress: " + percent + "%");
             WritableMap map = Arguments.createMap();
             map.putDouble("percent", percent);
             map.putInt("bytesSent", byteSent);
             map.putInt("imageSize", imageSize);
+            map.putDouble("throughput", uploadThroughput);
+            map.putDouble("instantThroughput", telemetry.getInstantThroughput());
             sendEvent("DFUProgress", map);
         }
 
         @Override
         public void onUpgradeCompleted() {
             Log.i(TAG, "DFU Completed!");
+            closeImageSource();
+            heapUsageMonitor.stop();
+            setTransportBusy(false);
+            telemetry.finish("completed");
+            uploadProgressStore.clear(deviceAddress, uploadImageKey);
+            // The device runs another application now
+            if (deviceAddress != null) {
+                deviceInfoService.invalidate(deviceAddress);
+            }
             WritableMap map = Arguments.createMap();
             map.putString("state", "completed");
+            putHeapUsage(map);
+            putTuning(map, recordTuning());
+            map.putMap("telemetry", createTelemetryReport());
             sendEvent("DFUStateChanged", map);
         }
 
         @Override
         public void onUpgradeFailed(FirmwareUpgradeManager.State state, McuMgrException e) {
             Log.e(TAG, "DFU Error: " + e.getMessage() + state.name());
+            closeImageSource();
+            heapUsageMonitor.stop();
+            setTransportBusy(false);
+            telemetry.finish("error");
             WritableMap map = Arguments.createMap();
             map.putString("state", "error");
             map.putString("error", "DFU Error: " + e.getMessage());
+            putHeapUsage(map);
+            map.putMap("telemetry", createTelemetryReport());
             sendEvent("DFUStateChanged", map);
         }
 
@@ -92,13 +179,20 @@ public class DFUModule extends ReactContextBaseJavaModule {
         @Override
         public void onStateChanged(FirmwareUpgradeManager.State state, FirmwareUpgradeManager.State state1) {
             Log.i(TAG, "onStateChanged from " + state.name() + " to " + state1.name());
+            telemetry.onStateChanged(state1.name());
         }
 
         @Override
         public void onUpgradeCanceled(FirmwareUpgradeManager.State state) {
             Log.i(TAG, "onUpgradeCanceled");
+            closeImageSource();
+            heapUsageMonitor.stop();
+            setTransportBusy(false);
+            telemetry.finish("aborted");
             WritableMap map = Arguments.createMap();
             map.putString("state", "aborted");
+            putHeapUsage(map);
+            map.putMap("telemetry", createTelemetryReport());
             sendEvent("DFUStateChanged", map);
         }
 
@@ -128,6 +222,20 @@ public class DFUModule extends ReactContextBaseJavaModule {
     public DFUModule(ReactApplicationContext context) {
         super(context);
         this.reactContext = context;
+        this.uploadProgressStore = new UploadProgressStore(context);
+        this.transportFactory = new DfuSessionManager.TransportFactory() {
+            @Override
+            public McuMgrTransport create(@NonNull String address) {
+                BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+                return new McuMgrBleTransport(reactContext, device);
+            }
+
+            @Override
+            public void release(@NonNull String address, @NonNull McuMgrTransport transport) {
+                transport.release();
+            }
+        };
+        this.transportCache = new McuMgrTransportCache(transportFactory);
     }
 
     @NonNull
@@ -136,12 +244,119 @@ public class DFUModule extends ReactContextBaseJavaModule {
         return "DFUModule";
     }
 
-    private byte[] readFileToByteArray(File file) throws Exception {
-        FileInputStream fis = new FileInputStream(file);
-        byte[] data = new byte[(int) file.length()];
-        int readBytes = fis.read(data);
-        fis.close();
-        return data;
+    private static File toFirmwareFile(String filePath) {
+        return new File(filePath.startsWith("file://") ? filePath.substring(7) : filePath);
+    }
+
+    /**
+     * Keeps the link of the initialized device while an upgrade or upload runs on it.
+     */
+    private void setTransportBusy(boolean busy) {
+        if (deviceAddress == null || busy == transportBusy) {
+            return;
+        }
+        transportBusy = busy;
+        transportCache.setBusy(deviceAddress, busy);
+    }
+
+    /**
+     * Marks the initialized device as used, connecting it again if it was released while idle.
+     */
+    private void touchTransport() {
+        if (deviceAddress != null) {
+            transportCache.touch(deviceAddress);
+        }
+    }
+
+    /**
+     * Releases the mapping of the image of the last upgrade or upload, once nothing reads it anymore.
+     */
+    private void closeImageSource() {
+        if (imageSource != null) {
+            imageSource.close();
+            imageSource = null;
+        }
+    }
+
+    private void putHeapUsage(WritableMap map) {
+        map.putDouble("baselineHeapBytes", heapUsageMonitor.getBaselineBytes());
+        map.putDouble("peakHeapBytes", heapUsageMonitor.getPeakBytes());
+        map.putDouble("peakHeapDeltaBytes", heapUsageMonitor.getPeakDeltaBytes());
+    }
+
+    /**
+     * Keeps the settings and throughput of the upload that just completed, next to the last one of the other kind.
+     */
+    private WritableMap recordTuning() {
+        WritableMap map = Arguments.createMap();
+        if (dfuSettings == null) {
+            return map;
+        }
+        map.putBoolean("auto", dfuAutoTuned);
+        map.putInt("windowCapacity", dfuSettings.getWindowCapacity());
+        map.putInt("memoryAlignment", dfuSettings.getMemoryAlignment());
+        map.putDouble("throughput", uploadThroughput);
+        StreamingImageUploader uploader = streamingUpgrade != null ? streamingUpgrade.getUploader() : null;
+        if (uploader != null) {
+            map.putInt("finalWindow", uploader.getWindow());
+            map.putInt("chunkSize", uploader.getChunkSize());
+        }
+        if (dfuAutoTuned) {
+            lastAutoTuning = map;
+        }
+        else {
+            lastManualTuning = map;
+        }
+        return map;
+    }
+
+    private WritableMap createTelemetryReport() {
+        WritableMap map = Arguments.createMap();
+        if (telemetry.getOutcome() != null) {
+            map.putString("outcome", telemetry.getOutcome());
+        }
+        map.putBoolean("finished", telemetry.isFinished());
+        map.putDouble("elapsedMs", telemetry.getElapsedMs());
+        map.putInt("bytesSent", telemetry.getBytesSent());
+        map.putInt("imageSize", telemetry.getImageSize());
+        map.putDouble("averageThroughput", telemetry.getAverageThroughput());
+        map.putDouble("instantThroughput", telemetry.getInstantThroughput());
+        map.putInt("retransmits", telemetry.getRetransmits());
+        map.putDouble("retransmittedBytes", telemetry.getRetransmittedBytes());
+
+        WritableMap states = Arguments.createMap();
+        for (Map.Entry<String, Long> entry : telemetry.getStateDurations().entrySet()) {
+            states.putDouble(entry.getKey(), entry.getValue());
+        }
+        map.putMap("stateDurationsMs", states);
+
+        WritableMap rtt = Arguments.createMap();
+        rtt.putInt("count", telemetry.getRttCount());
+        rtt.putDouble("minMs", telemetry.getMinRttMs());
+        rtt.putDouble("averageMs", telemetry.getAverageRttMs());
+        rtt.putDouble("maxMs", telemetry.getMaxRttMs());
+        WritableArray bounds = Arguments.createArray();
+        for (int bound : DfuTelemetry.getRttBucketBoundsMs()) {
+            bounds.pushInt(bound);
+        }
+        WritableArray counts = Arguments.createArray();
+        for (int count : telemetry.getRttHistogram()) {
+            counts.pushInt(count);
+        }
+        rtt.putArray("bucketBoundsMs", bounds);
+        rtt.putArray("histogram", counts);
+        map.putMap("rtt", rtt);
+        return map;
+    }
+
+    private static void putTuning(WritableMap map, WritableMap tuning) {
+        map.putMap("tuning", tuning.copy());
+    }
+
+    private void resetThroughput() {
+        uploadStartTimestamp = 0;
+        uploadStartBytes = 0;
+        uploadThroughput = 0;
     }
 
     @ReactMethod
@@ -154,11 +369,17 @@ public class DFUModule extends ReactContextBaseJavaModule {
                 return;
             }
 
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
-            McuMgrTransport transport = new McuMgrBleTransport(reactContext, device);
-            this.defaultManager = new DefaultManager(transport);
-            this.imageManager = new ImageManager(transport);
-            this.firmwareUpgradeManager = new FirmwareUpgradeManager(transport);
+            if (!deviceAddress.equals(this.deviceAddress)) {
+                setTransportBusy(false);
+            }
+            McuMgrTransportCache.Entry entry = transportCache.get(deviceAddress);
+            Log.i(TAG, (entry.isConnected() ? "Reusing the connection to " : "Connecting to ") + deviceAddress);
+            this.defaultManager = entry.getDefaultManager();
+            this.imageManager = entry.getImageManager();
+            this.firmwareUpgradeManager = entry.getFirmwareUpgradeManager();
+            this.deviceAddress = deviceAddress;
+            deviceBufCount = 0;
+            deviceBufSize = 0;
 
             promise.resolve("success");
 
@@ -172,6 +393,12 @@ public class DFUModule extends ReactContextBaseJavaModule {
         Log.i(TAG, "cancelDfu");
 
         try {
+            if (streamingUploader != null) {
+                streamingUploader.cancel();
+            }
+            if (streamingUpgrade != null) {
+                streamingUpgrade.cancel();
+            }
             this.firmwareUpgradeManager.cancel();
             promise.resolve("success");
 
@@ -180,146 +407,814 @@ public class DFUModule extends ReactContextBaseJavaModule {
         }
     }
 
+    /**
+     * Queues an image management operation on the initialized device, behind the operations queued before it.
+     * Rejects the promise and returns false if no device was initialized.
+     */
+    private boolean queueImageOperation(ImageOperationQueue.Type type, @Nullable byte[] hash, int image,
+                                        ImageOperationQueue.Callback callback, Promise promise) {
+        if (this.imageManager == null || deviceAddress == null) {
+            promise.reject("DFU_NOT_INITIALIZED", "dfuInit was not called");
+            return false;
+        }
+        touchTransport();
+        imageOperationQueue.enqueue(deviceAddress, this.imageManager, this.defaultManager, type, hash, image, null, callback);
+        return true;
+    }
+
+    /**
+     * Sends the outcome of an erase, confirm or test in a DFUImagesUpdated event and settles the promise with it.
+     */
+    private void sendImageUpdate(ImageOperationQueue.Operation operation, String successMessage, String errorMessage, Promise promise) {
+        WritableMap response = new WritableNativeMap();
+        if (operation.getStatus() == ImageOperationQueue.Status.SUCCEEDED) {
+            Log.i(TAG, operation.getType() + " onResponse " + operation.getResponse());
+            response.putString("status", "success");
+            response.putString("message", successMessage);
+            sendEvent("DFUImagesUpdated", response);
+            promise.resolve("success");
+        }
+        else {
+            Log.i(TAG, operation.getType() + " onError " + operation.getError());
+            response.putString("status", "failed");
+            response.putString("message", errorMessage + operation.getError());
+            sendEvent("DFUImagesUpdated", response);
+            promise.reject("IMG_ERROR", operation.getError());
+        }
+    }
+
+    /**
+     * Erases the image slot. The promise settles once the device answered, the outcome is also sent in a
+     * DFUImagesUpdated event.
+     */
     @ReactMethod
     public void eraseImage(int imagePosition, Promise promise) {
+        try {
+            queueImageOperation(ImageOperationQueue.Type.ERASE, null, imagePosition, operation ->
+                    sendImageUpdate(operation, "Image " + imagePosition + " Erased Successfully", "Error erasing image: ", promise), promise);
+
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
 
+    @ReactMethod
+    public void confirmImage(String imageHash, int imagePosition, Promise promise) {
         try {
-            this.imageManager.erase(imagePosition, new McuMgrCallback<McuMgrImageResponse>() {
-                @Override
-                public void onResponse(@NotNull McuMgrImageResponse mcuMgrImageResponse) {
-                    Log.i("erase onResponse", mcuMgrImageResponse.toString());
-                    WritableMap response = new WritableNativeMap();
-                    response.putString("status", "success");
-                    response.putString("message", "Image " + imagePosition + " Erased Successfully");
-                    sendEvent("DFUImagesUpdated", response);
-                }
+            byte[] imgBytes = hexToBytes(imageHash);
+            queueImageOperation(ImageOperationQueue.Type.CONFIRM, imgBytes, imagePosition, operation ->
+                    sendImageUpdate(operation, "Image " + imagePosition + " Confirmed Successfully", "Error confirm image: ", promise), promise);
 
-                @Override
-                public void onError(@NotNull McuMgrException e) {
-                    Log.i("erase onError", e.toString());
-                    WritableMap response = new WritableNativeMap();
-                    response.putString("status", "failed");
-                    response.putString("message", "Error erasing image: " + e.getLocalizedMessage());
-                    sendEvent("DFUImagesUpdated", response);
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
 
-                }
-            });
-            promise.resolve("success");
+    @ReactMethod
+    public void testImage(String imageHash, int imagePosition, Promise promise) {
+        try {
+            byte[] imgBytes = hexToBytes(imageHash);
+            queueImageOperation(ImageOperationQueue.Type.TEST, imgBytes, imagePosition, operation ->
+                    sendImageUpdate(operation, "Image " + imagePosition + " Tested Successfully", "Error test image: ", promise), promise);
 
         } catch (Exception e) {
             promise.reject(e.getMessage());
         }
     }
 
+    /**
+     * Starts the upgrade. When {@code numMcuMgrBuffers} is 0 the window capacity and memory alignment are
+     * derived from the parameters read from the device by {@link #readMcuMgrInfo}, the chunks from its buffer
+     * size and the MTU, and {@code memoryAlignment} is ignored. The window of a single image then adapts to the
+     * response times during the upload.
+     * <p>
+     * A single image is streamed from a mapping of the file, without a copy on the heap. When an earlier upload
+     * of the same image to the device was interrupted, only the rest of the image is sent.
+     * <p>
+     * The file can also be a multi-image package, a zip with a manifest, whose images are all uploaded before
+     * a single swap and reset.
+     */
     @ReactMethod
-    public void confirmImage(String imageHash, int imagePosition, Promise promise) {
+    public void startDfu(String filePath, Boolean eraseStorage, int swapTimeSeconds, int memoryAlignment, int numMcuMgrBuffers, String upgradeMode, Promise promise) {
+        Log.d(TAG, "Starting DFU " + filePath);
+
+        File firmwareFile = toFirmwareFile(filePath);
+        if (!firmwareFile.exists()) {
+            promise.reject("ENOENT", "Firmware file not found: " + firmwareFile.getPath());
+            return;
+        }
+
+        closeImageSource();
+        this.firmwareUpgradeManager.setFirmwareUpgradeCallback(firmwareUpgradeCallback);
+        dfuAutoTuned = numMcuMgrBuffers <= 0;
+        dfuSettings = dfuAutoTuned
+                ? DfuParameterTuner.derive(deviceBufCount, eraseStorage, swapTimeSeconds, DfuSettings.parseMode(upgradeMode))
+                : new DfuSettings(eraseStorage, swapTimeSeconds, memoryAlignment, numMcuMgrBuffers, DfuSettings.parseMode(upgradeMode));
+        dfuSettings.applyTo(this.firmwareUpgradeManager);
+        resetThroughput();
+        telemetry.start();
+        Log.i(TAG, "Window capacity " + dfuSettings.getWindowCapacity() + ", memory alignment " + dfuSettings.getMemoryAlignment()
+                + (dfuAutoTuned ? " (auto)" : ""));
 
         try {
-            byte[] imgBytes = hexToBytes(imageHash);
-            this.imageManager.confirm(imgBytes, new McuMgrCallback<McuMgrImageStateResponse>() {
+            heapUsageMonitor.start();
+            setTransportBusy(true);
+            if (FirmwarePackage.isPackage(firmwareFile)) {
+                startPackageDfu(firmwareFile, eraseStorage, promise);
+                return;
+            }
+            FirmwareImageSource source = FirmwareImageSource.open(firmwareFile);
+            imageSource = source;
+            // Hashing the image takes a while, it is done on the inspector thread unless inspectFirmware already did
+            imageInspector.inspect(firmwareFile, new FirmwareImageInspector.Callback() {
+                @Override
+                public void onInspected(@NonNull FirmwareImageInspector.Inspection inspection) {
+                    uploadImageKey = HexUtils.toHexString(inspection.getSha256(), false);
+                    findImageOnDevice(inspection.getImageHash(), slot -> {
+                        if (slot != null && slot.active && slot.confirmed) {
+                            // Already running and confirmed, there is nothing to upgrade
+                            closeImageSource();
+                            uploadProgressStore.clear(deviceAddress, uploadImageKey);
+                            sendSkipped(slot, inspection, "skipped");
+                            WritableMap result = Arguments.createMap();
+                            result.putBoolean("skipped", true);
+                            promise.resolve(result);
+                            return;
+                        }
+                        try {
+                            beginDfu(source, inspection, slot, promise);
+                        } catch (Exception e) {
+                            closeImageSource();
+                            heapUsageMonitor.stop();
+                            setTransportBusy(false);
+                            promise.reject("DFU_INIT_ERROR", e);
+                        }
+                    });
+                }
 
                 @Override
-                public void onResponse(@NotNull McuMgrImageStateResponse mcuMgrImageStateResponse) {
-                    Log.i("confirm onResponse", mcuMgrImageStateResponse.toString());
-                    WritableMap response = new WritableNativeMap();
-                    response.putString("status", "success");
-                    response.putString("message", "Image " + imagePosition + " Confirmed Successfully");
-                    sendEvent("DFUImagesUpdated", response);
+                public void onError(@NonNull Exception error) {
+                    closeImageSource();
+                    heapUsageMonitor.stop();
+                    setTransportBusy(false);
+                    promise.reject("DFU_INIT_ERROR", error);
                 }
+            });
+        } catch (Exception e) {
+            closeImageSource();
+            heapUsageMonitor.stop();
+            setTransportBusy(false);
+            promise.reject("DFU_INIT_ERROR", e);
+        }
+    }
+
+    /**
+     * Loads the package in the background and upgrades every image it holds in one session.
+     */
+    private void startPackageDfu(File packageFile, boolean eraseStorage, Promise promise) {
+        uploadImageKey = null;
+        streamingUpgrade = null;
+        imageInspector.loadPackage(packageFile, new FirmwareImageInspector.PackageCallback() {
+            @Override
+            public void onPackageLoaded(@NonNull FirmwarePackage firmwarePackage) {
+                try {
+                    McuMgrImageSet set = new McuMgrImageSet();
+                    set.add(firmwarePackage.getBinaries());
+                    heapUsageMonitor.sample();
+                    Log.i(TAG, "Upgrading " + firmwarePackage.getImages().size() + " images, " + firmwarePackage.getTotalSize() + " bytes");
+                    firmwareUpgradeManager.start(set, eraseStorage);
+
+                    WritableMap result = convertPackageToMap(firmwarePackage);
+                    result.putBoolean("auto", dfuAutoTuned);
+                    result.putInt("windowCapacity", dfuSettings.getWindowCapacity());
+                    result.putInt("memoryAlignment", dfuSettings.getMemoryAlignment());
+                    promise.resolve(result);
+                } catch (Exception e) {
+                    heapUsageMonitor.stop();
+                    setTransportBusy(false);
+                    promise.reject("DFU_INIT_ERROR", e);
+                }
+            }
+
+            @Override
+            public void onError(@NonNull Exception error) {
+                heapUsageMonitor.stop();
+                setTransportBusy(false);
+                promise.reject("DFU_PACKAGE_ERROR", error);
+            }
+        });
+    }
+
+    private WritableMap convertPackageToMap(FirmwarePackage firmwarePackage) {
+        WritableArray images = Arguments.createArray();
+        for (FirmwarePackage.Image image : firmwarePackage.getImages()) {
+            WritableMap map = Arguments.createMap();
+            map.putInt("image", image.getImageIndex());
+            map.putString("file", image.getFileName());
+            map.putInt("size", image.getData().length);
+            if (image.getType() != null) {
+                map.putString("type", image.getType());
+            }
+            if (image.getInfo() != null) {
+                map.putString("version", image.getInfo().getVersion());
+                map.putString("hash", bytesToHex(image.getInfo().getHash()));
+            }
+            images.pushMap(map);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putBoolean("package", true);
+        map.putArray("images", images);
+        map.putInt("totalSize", firmwarePackage.getTotalSize());
+        return map;
+    }
+
+    /**
+     * Starts the upgrade once the device images are known, streaming the image from its mapping.
+     *
+     * @param slot the slot already holding the image, or null
+     */
+    private void beginDfu(FirmwareImageSource source, FirmwareImageInspector.Inspection inspection,
+                          @Nullable McuMgrImageStateResponse.ImageSlot slot, Promise promise) throws Exception {
+        McuMgrTransportCache.Entry entry = transportCache.get(deviceAddress);
+        StreamingFirmwareUpgrade upgrade = new StreamingFirmwareUpgrade(deviceAddress, entry.getTransport(), this.imageManager,
+                this.defaultManager, imageOperationQueue, source, dfuSettings, firmwareUpgradeCallback);
+        upgrade.setImageHash(inspection.getImageHash());
+        upgrade.setChunkSize(DfuParameterTuner.getChunkSize(deviceBufSize, this.imageManager.getMtu()));
+        upgrade.setTelemetry(telemetry);
+        streamingUpgrade = upgrade;
+        heapUsageMonitor.sample();
 
+        WritableMap result = Arguments.createMap();
+        if (slot != null) {
+            // The upgrade goes on with the image in the slot without uploading it, running what the mode still requires
+            Log.i(TAG, "Image already in slot " + slot.slot + ", skipping the upload");
+            uploadProgressStore.clear(deviceAddress, uploadImageKey);
+            result.putBoolean("uploadSkipped", true);
+            result.putInt("slot", slot.slot);
+            sendEvent("DFUStateChanged", createImageFoundEvent("alreadyUploaded", slot, inspection));
+            upgrade.startFromSlot(slot);
+        }
+        else {
+            int savedOffset = uploadProgressStore.getOffset(deviceAddress, uploadImageKey, source.getSize());
+            if (savedOffset > 0) {
+                Log.i(TAG, "Resuming the upload interrupted at " + savedOffset + " of " + source.getSize() + " bytes");
+                result.putInt("savedOffset", savedOffset);
+            }
+            upgrade.start(savedOffset > 0);
+        }
+
+        result.putBoolean("auto", dfuAutoTuned);
+        result.putInt("windowCapacity", dfuSettings.getWindowCapacity());
+        result.putInt("memoryAlignment", dfuSettings.getMemoryAlignment());
+        promise.resolve(result);
+    }
+
+    private interface ImageLookupCallback {
+        void onImageLookup(@Nullable McuMgrImageStateResponse.ImageSlot slot);
+    }
+
+    /**
+     * Looks for a slot of the device holding the image with the given hash. The callback gets null when the hash is
+     * unknown, the image is not on the device or the images could not be listed.
+     */
+    private void findImageOnDevice(@Nullable byte[] imageHash, @NonNull ImageLookupCallback callback) {
+        if (imageHash == null || this.imageManager == null) {
+            callback.onImageLookup(null);
+            return;
+        }
+        this.imageManager.list(new McuMgrCallback<McuMgrImageStateResponse>() {
+            @Override
+            public void onResponse(@NotNull McuMgrImageStateResponse response) {
+                McuMgrImageStateResponse.ImageSlot found = null;
+                if (response.images != null) {
+                    for (McuMgrImageStateResponse.ImageSlot slot : response.images) {
+                        if (slot.hash != null && Arrays.equals(slot.hash, imageHash) && (found == null || slot.active)) {
+                            found = slot;
+                        }
+                    }
+                }
+                callback.onImageLookup(found);
+            }
+
+            @Override
+            public void onError(@NotNull McuMgrException error) {
+                Log.w(TAG, "Unable to list the device images: " + error.getMessage());
+                callback.onImageLookup(null);
+            }
+        });
+    }
+
+    /**
+     * Ends the operation without uploading, the device holding the image already.
+     *
+     * @param state skipped when the device runs the image and confirmed it, alreadyUploaded when it holds the image
+     *              but the mode would still test or confirm it
+     */
+    private void sendSkipped(McuMgrImageStateResponse.ImageSlot slot, FirmwareImageInspector.Inspection inspection, String state) {
+        Log.i(TAG, "Image already in slot " + slot.slot + ", nothing to upload");
+        heapUsageMonitor.stop();
+        setTransportBusy(false);
+        telemetry.finish(state);
+        sendEvent("DFUStateChanged", createImageFoundEvent(state, slot, inspection));
+    }
+
+    private WritableMap createImageFoundEvent(String state, McuMgrImageStateResponse.ImageSlot slot,
+                                              FirmwareImageInspector.Inspection inspection) {
+        WritableMap map = Arguments.createMap();
+        map.putString("state", state);
+        map.putInt("slot", slot.slot);
+        map.putBoolean("active", slot.active);
+        if (inspection.getImageInfo() != null) {
+            map.putString("version", inspection.getImageInfo().getVersion());
+        }
+        map.putBoolean("confirmed", slot.confirmed);
+        map.putBoolean("pending", slot.pending);
+        map.putString("hash", bytesToHex(slot.hash));
+        return map;
+    }
+
+    /**
+     * Parses the header and hashes the firmware file in the background, so that the upgrade can start right away.
+     * Resolves with the image version and hash, as the device would report them, or with the images of a
+     * multi-image package.
+     */
+    @ReactMethod
+    public void inspectFirmware(String filePath, Promise promise) {
+        File firmwareFile = toFirmwareFile(filePath);
+        if (FirmwarePackage.isPackage(firmwareFile)) {
+            imageInspector.loadPackage(firmwareFile, new FirmwareImageInspector.PackageCallback() {
                 @Override
-                public void onError(@NotNull McuMgrException e) {
-                    Log.i("confirm onError", e.toString());
-                    WritableMap response = new WritableNativeMap();
-                    response.putString("status", "failed");
-                    response.putString("message", "Error confirm image: " + e.getLocalizedMessage());
-                    sendEvent("DFUImagesUpdated", response);
+                public void onPackageLoaded(@NonNull FirmwarePackage firmwarePackage) {
+                    promise.resolve(convertPackageToMap(firmwarePackage));
+                }
 
+                @Override
+                public void onError(@NonNull Exception error) {
+                    promise.reject(error.getMessage());
                 }
             });
-            promise.resolve("success");
+            return;
+        }
+        imageInspector.inspect(firmwareFile, new FirmwareImageInspector.Callback() {
+            @Override
+            public void onInspected(@NonNull FirmwareImageInspector.Inspection inspection) {
+                WritableMap map = Arguments.createMap();
+                map.putDouble("fileSize", inspection.getFile().length());
+                map.putString("sha256", bytesToHex(inspection.getSha256()));
+                McuBootImageInfo info = inspection.getImageInfo();
+                map.putBoolean("mcuboot", info != null);
+                if (info != null) {
+                    map.putString("version", info.getVersion());
+                    map.putString("hash", bytesToHex(info.getHash()));
+                    map.putString("hashAlgorithm", info.getHashAlgorithm());
+                    map.putBoolean("hashValid", inspection.isHashValid());
+                    map.putBoolean("signed", info.getKeyHash() != null);
+                    map.putInt("imageSize", info.getImageSize());
+                    map.putInt("headerSize", info.getHeaderSize());
+                    map.putDouble("loadAddress", info.getLoadAddress() & 0xFFFFFFFFL);
+                }
+                promise.resolve(map);
+            }
+
+            @Override
+            public void onError(@NonNull Exception error) {
+                promise.reject(error.getMessage());
+            }
+        });
+    }
+
+
+    /**
+     * Uploads an image to the secondary slot chunk by chunk from a memory mapping of the file, without
+     * holding the image on the heap. Testing, confirming and resetting are left to the caller.
+     * With a {@code window} of 0 the window is derived from the device parameters and adapted to the
+     * response times during the upload. An upload of the same image interrupted earlier is continued.
+     * Resolves with 0 when the device already holds the image, sending a skipped state if it runs the image and
+     * confirmed it, an alreadyUploaded state otherwise.
+     */
+    @ReactMethod
+    public void startStreamingUpload(String filePath, int image, int window, Promise promise) {
+        File firmwareFile = toFirmwareFile(filePath);
+        if (!firmwareFile.exists()) {
+            promise.reject("ENOENT", "Firmware file not found: " + firmwareFile.getPath());
+            return;
+        }
+        try {
+            closeImageSource();
+            FirmwareImageSource source = FirmwareImageSource.open(firmwareFile);
+            imageSource = source;
+            heapUsageMonitor.start();
+            setTransportBusy(true);
+            telemetry.start();
+            imageInspector.inspect(firmwareFile, new FirmwareImageInspector.Callback() {
+                @Override
+                public void onInspected(@NonNull FirmwareImageInspector.Inspection inspection) {
+                    uploadImageKey = HexUtils.toHexString(inspection.getSha256(), false);
+                    findImageOnDevice(inspection.getImageHash(), slot -> {
+                        if (slot != null) {
+                            closeImageSource();
+                            uploadProgressStore.clear(deviceAddress, uploadImageKey);
+                            sendSkipped(slot, inspection, slot.active && slot.confirmed ? "skipped" : "alreadyUploaded");
+                            promise.resolve(0);
+                            return;
+                        }
+                        try {
+                            telemetry.onStateChanged("UPLOAD");
+                            boolean adaptive = window <= 0;
+                            int maxWindow = adaptive ? DfuParameterTuner.getWindow(deviceBufCount) : window;
+                            StreamingImageUploader uploader = createStreamingUploader(source, image, maxWindow, adaptive);
+                            byte[] imageHash = inspection.getImageHash();
+                            if (imageHash != null) {
+                                uploader.setImageHash(imageHash);
+                            }
+                            uploader.start(uploadProgressStore.getOffset(deviceAddress, uploadImageKey, source.getSize()) > 0);
+                            promise.resolve(source.getSize());
+                        } catch (Exception e) {
+                            closeImageSource();
+                            heapUsageMonitor.stop();
+                            setTransportBusy(false);
+                            promise.reject("DFU_INIT_ERROR", e);
+                        }
+                    });
+                }
 
+                @Override
+                public void onError(@NonNull Exception error) {
+                    closeImageSource();
+                    heapUsageMonitor.stop();
+                    setTransportBusy(false);
+                    promise.reject("DFU_INIT_ERROR", error);
+                }
+            });
         } catch (Exception e) {
-            promise.reject(e.getMessage());
+            closeImageSource();
+            heapUsageMonitor.stop();
+            setTransportBusy(false);
+            promise.reject("DFU_INIT_ERROR", e);
+        }
+    }
+
+    /**
+     * Creates the uploader of an image, which records its progress so that it can be resumed.
+     */
+    private StreamingImageUploader createStreamingUploader(FirmwareImageSource source, int image, int maxWindow, boolean adaptive) {
+        String address = deviceAddress;
+        String imageKey = uploadImageKey;
+        int chunkSize = DfuParameterTuner.getChunkSize(deviceBufSize, this.imageManager.getMtu());
+        StreamingImageUploader uploader = new StreamingImageUploader(this.imageManager, source, image, maxWindow, adaptive, chunkSize,
+                DfuParameterTuner.getMemoryAlignment(maxWindow), new StreamingImageUploader.Listener() {
+            @Override
+            public void onProgress(int bytesSent, int imageSize) {
+                telemetry.onProgress(bytesSent, imageSize);
+                if (!telemetry.shouldEmitProgress()) {
+                    return;
+                }
+                uploadProgressStore.save(address, imageKey, imageSize, bytesSent);
+                WritableMap map = Arguments.createMap();
+                map.putDouble("percent", (double) bytesSent / imageSize * 100);
+                map.putInt("bytesSent", bytesSent);
+                map.putInt("imageSize", imageSize);
+                map.putInt("window", streamingUploader.getWindow());
+                map.putDouble("throughput", streamingUploader.getThroughput());
+                map.putDouble("instantThroughput", telemetry.getInstantThroughput());
+                map.putInt("bytesSaved", streamingUploader.getResumedOffset());
+                sendEvent("DFUProgress", map);
+            }
+
+            @Override
+            public void onCompleted(int imageSize, long elapsedMs) {
+                uploadProgressStore.clear(address, imageKey);
+                Log.i(TAG, "Upload completed, " + streamingUploader.getResumedOffset() + " bytes were already on the device");
+                closeImageSource();
+                heapUsageMonitor.stop();
+                setTransportBusy(false);
+                telemetry.finish("uploaded");
+                dfuAutoTuned = adaptive;
+                dfuSettings = new DfuSettings(false, 0, DfuParameterTuner.getMemoryAlignment(maxWindow), maxWindow, FirmwareUpgradeManager.Mode.NONE);
+                uploadThroughput = streamingUploader.getThroughput();
+                WritableMap map = Arguments.createMap();
+                map.putString("state", "uploaded");
+                map.putInt("imageSize", imageSize);
+                map.putDouble("elapsedMs", elapsedMs);
+                map.putInt("bytesSaved", streamingUploader.getResumedOffset());
+                map.putDouble("minRttMs", streamingUploader.getMinRttMs());
+                map.putDouble("smoothedRttMs", streamingUploader.getSmoothedRttMs());
+                map.putInt("retransmittedBytes", streamingUploader.getRetransmittedBytes());
+                putHeapUsage(map);
+                putTuning(map, recordTuning());
+                map.putMap("telemetry", createTelemetryReport());
+                sendEvent("DFUStateChanged", map);
+            }
+
+            @Override
+            public void onFailed(@NonNull McuMgrException error, int bytesSent) {
+                uploadProgressStore.save(address, imageKey, source.getSize(), bytesSent);
+                closeImageSource();
+                heapUsageMonitor.stop();
+                setTransportBusy(false);
+                telemetry.finish("error");
+                WritableMap map = Arguments.createMap();
+                map.putString("state", "error");
+                map.putString("error", "Upload Error: " + error.getMessage());
+                map.putInt("bytesSent", bytesSent);
+                putHeapUsage(map);
+                map.putMap("telemetry", createTelemetryReport());
+                sendEvent("DFUStateChanged", map);
+            }
+        });
+        uploader.setTelemetry(telemetry);
+        streamingUploader = uploader;
+        return uploader;
+    }
+
+    /**
+     * Returns the offset reached by an interrupted upload of the image to the initialized device, 0 if none.
+     */
+    @ReactMethod
+    public void getResumableUpload(String filePath, Promise promise) {
+        imageInspector.inspect(toFirmwareFile(filePath), new FirmwareImageInspector.Callback() {
+            @Override
+            public void onInspected(@NonNull FirmwareImageInspector.Inspection inspection) {
+                int imageSize = (int) inspection.getFile().length();
+                String imageKey = HexUtils.toHexString(inspection.getSha256(), false);
+                WritableMap map = Arguments.createMap();
+                map.putInt("offset", uploadProgressStore.getOffset(deviceAddress, imageKey, imageSize));
+                map.putInt("imageSize", imageSize);
+                promise.resolve(map);
+            }
+
+            @Override
+            public void onError(@NonNull Exception error) {
+                promise.reject(error.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void cancelStreamingUpload(Promise promise) {
+        if (streamingUploader != null) {
+            streamingUploader.cancel();
         }
+        closeImageSource();
+        heapUsageMonitor.stop();
+        setTransportBusy(false);
+        telemetry.finish("aborted");
+        promise.resolve("success");
     }
 
+    /**
+     * Sets how long a device stays connected after its last use.
+     */
     @ReactMethod
-    public void testImage(String imageHash, int imagePosition, Promise promise) {
+    public void setTransportIdleTimeout(int idleTimeoutMs, Promise promise) {
+        transportCache.setIdleTimeout(idleTimeoutMs);
+        promise.resolve(null);
+    }
 
-        try {
-            byte[] imgBytes = hexToBytes(imageHash);
-            this.imageManager.test(imgBytes, new McuMgrCallback<McuMgrImageStateResponse>() {
+    /**
+     * Resolves with the connection figures of every device used, showing the connections spared by reuse.
+     */
+    @ReactMethod
+    public void getTransportReport(Promise promise) {
+        WritableArray devices = Arguments.createArray();
+        for (McuMgrTransportCache.Entry entry : transportCache.getEntries()) {
+            WritableMap map = Arguments.createMap();
+            map.putString("address", entry.getAddress());
+            map.putBoolean("connected", entry.isConnected());
+            map.putInt("connections", entry.getConnections());
+            map.putDouble("lastConnectMs", entry.getLastConnectMs());
+            map.putDouble("averageConnectMs", entry.getAverageConnectMs());
+            map.putInt("warmUses", entry.getWarmUses());
+            map.putInt("coldUses", entry.getColdUses());
+            // Time the warm uses would have spent connecting
+            map.putDouble("savedConnectMs", (double) entry.getWarmUses() * entry.getAverageConnectMs());
+            map.putDouble("idleMs", entry.getIdleMs());
+            devices.pushMap(map);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putArray("devices", devices);
+        map.putDouble("idleTimeoutMs", transportCache.getIdleTimeout());
+        promise.resolve(map);
+    }
 
+    @ReactMethod
+    public void getDfuMemoryReport(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        putHeapUsage(map);
+        map.putDouble("samples", heapUsageMonitor.getSampleCount());
+        promise.resolve(map);
+    }
+
+    /**
+     * Returns the telemetry of the running upgrade or upload, or of the last one once finished.
+     */
+    @ReactMethod
+    public void getDfuTelemetryReport(Promise promise) {
+        promise.resolve(createTelemetryReport());
+    }
+
+    /**
+     * Returns the settings and throughput of the last automatically tuned upload and of the last one with
+     * manual settings, along with the settings auto mode would use for the connected device.
+     */
+    @ReactMethod
+    public void getDfuTuningReport(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        int window = DfuParameterTuner.getWindow(deviceBufCount);
+        map.putInt("deviceBufCount", deviceBufCount);
+        map.putInt("deviceBufSize", deviceBufSize);
+        map.putInt("autoWindowCapacity", window);
+        map.putInt("autoMemoryAlignment", DfuParameterTuner.getMemoryAlignment(window));
+        if (this.imageManager != null) {
+            map.putInt("chunkSize", DfuParameterTuner.getChunkSize(deviceBufSize, this.imageManager.getMtu()));
+        }
+        if (lastAutoTuning != null) {
+            map.putMap("auto", lastAutoTuning.copy());
+        }
+        if (lastManualTuning != null) {
+            map.putMap("manual", lastManualTuning.copy());
+        }
+        promise.resolve(map);
+    }
+
+    /**
+     * Upgrades several devices with the same image, at most {@code concurrency} at the same time.
+     * Each device reports its progress with DFUFleetProgress events, DFUFleetFinished is sent at the end.
+     * The file can also be a multi-image package, whose images are all uploaded to every device.
+     */
+    @ReactMethod
+    public void startFleetDfu(ReadableArray deviceAddresses, String filePath, Boolean eraseStorage, int swapTimeSeconds, int memoryAlignment,
+                              int numMcuMgrBuffers, String upgradeMode, int concurrency, Promise promise) {
+        File firmwareFile = toFirmwareFile(filePath);
+        if (!firmwareFile.exists()) {
+            promise.reject("ENOENT", "Firmware file not found: " + firmwareFile.getPath());
+            return;
+        }
+        try {
+            if (fleetManager != null && fleetManager.isRunning()) {
+                promise.reject("DFU_BUSY", "Fleet update is already running");
+                return;
+            }
+            List<String> addresses = new ArrayList<>();
+            for (int i = 0; i < deviceAddresses.size(); i++) {
+                addresses.add(deviceAddresses.getString(i));
+            }
+            // The parameters of the devices are not known here, auto mode starts from the default window and adapts it
+            DfuSettings settings = numMcuMgrBuffers <= 0
+                    ? DfuParameterTuner.derive(0, eraseStorage, swapTimeSeconds, DfuSettings.parseMode(upgradeMode))
+                    : new DfuSettings(eraseStorage, swapTimeSeconds, memoryAlignment, numMcuMgrBuffers, DfuSettings.parseMode(upgradeMode));
+            // The devices stay connected for a while after their upgrade, for the image checks that follow
+            fleetManager = new DfuSessionManager(new DfuSessionManager.TransportFactory() {
                 @Override
-                public void onResponse(@NotNull McuMgrImageStateResponse mcuMgrImageStateResponse) {
-                    Log.i("test onResponse", mcuMgrImageStateResponse.toString());
-                    WritableMap response = new WritableNativeMap();
-                    response.putString("status", "success");
-                    response.putString("message", "Image " + imagePosition + " Tested Successfully");
-                    sendEvent("DFUImagesUpdated", response);
+                public McuMgrTransport create(@NonNull String address) throws Exception {
+                    McuMgrTransport transport = transportCache.get(address).getTransport();
+                    transportCache.setBusy(address, true);
+                    return transport;
                 }
 
                 @Override
-                public void onError(@NotNull McuMgrException e) {
-                    Log.i("test onError", e.toString());
-                    WritableMap response = new WritableNativeMap();
-                    response.putString("status", "failed");
-                    response.putString("message", "Error test image: " + e.getLocalizedMessage());
-                    sendEvent("DFUImagesUpdated", response);
+                public void release(@NonNull String address, @NonNull McuMgrTransport transport) {
+                    transportCache.setBusy(address, false);
+                }
+            }, imageOperationQueue, fleetListener);
+            DfuSessionManager manager = fleetManager;
+            if (FirmwarePackage.isPackage(firmwareFile)) {
+                // Same loader as startDfu, the images are swapped together on every device
+                imageInspector.loadPackage(firmwareFile, new FirmwareImageInspector.PackageCallback() {
+                    @Override
+                    public void onPackageLoaded(@NonNull FirmwarePackage firmwarePackage) {
+                        try {
+                            Log.i(TAG, "Updating " + addresses.size() + " devices with " + firmwarePackage.getImages().size() + " images");
+                            manager.start(addresses, firmwarePackage.getBinaries(), settings,
+                                    concurrency > 0 ? concurrency : DfuSessionManager.DEFAULT_CONCURRENCY);
+                            promise.resolve(addresses.size());
+                        } catch (Exception e) {
+                            promise.reject("DFU_INIT_ERROR", e);
+                        }
+                    }
+
+                    @Override
+                    public void onError(@NonNull Exception error) {
+                        promise.reject("DFU_INIT_ERROR", error);
+                    }
+                });
+                return;
+            }
+            imageInspector.inspect(firmwareFile, new FirmwareImageInspector.Callback() {
+                @Override
+                public void onInspected(@NonNull FirmwareImageInspector.Inspection inspection) {
+                    FirmwareImageSource source = null;
+                    try {
+                        // Every device is sent the image from this mapping, the manager closes it at the end
+                        source = FirmwareImageSource.open(firmwareFile);
+                        manager.start(addresses, source, inspection.getImageHash(), settings,
+                                concurrency > 0 ? concurrency : DfuSessionManager.DEFAULT_CONCURRENCY);
+                        promise.resolve(addresses.size());
+                    } catch (Exception e) {
+                        if (source != null) {
+                            source.close();
+                        }
+                        promise.reject("DFU_INIT_ERROR", e);
+                    }
+                }
 
+                @Override
+                public void onError(@NonNull Exception error) {
+                    promise.reject("DFU_INIT_ERROR", error);
                 }
             });
-            promise.resolve("success");
-
         } catch (Exception e) {
-            promise.reject(e.getMessage());
+            promise.reject("DFU_INIT_ERROR", e);
         }
     }
 
     @ReactMethod
-    public void startDfu(String filePath, Boolean eraseStorage, int swapTimeSeconds, int memoryAlignment, int numMcuMgrBuffers, String upgradeMode, Promise promise) {
-        Log.d(TAG, "Starting DFU " + filePath);
+    public void cancelFleetDfu(Promise promise) {
+        if (fleetManager != null) {
+            fleetManager.cancel();
+        }
+        promise.resolve("success");
+    }
 
-        String realPath = filePath.startsWith("file://") ? filePath.substring(7) : filePath;
-        File firmwareFile = new File(realPath);
-        if (!firmwareFile.exists()) {
-            promise.reject("ENOENT", "Firmware file not found: " + realPath);
+    @ReactMethod
+    public void getFleetDfuReport(Promise promise) {
+        if (fleetManager == null) {
+            promise.reject("Fleet update was never started");
             return;
         }
+        WritableMap map = createFleetReport(fleetManager.getSessions(), fleetManager.getElapsedMs());
+        map.putBoolean("running", fleetManager.isRunning());
+        promise.resolve(map);
+    }
+
+    private final DfuSessionManager.Listener fleetListener = new DfuSessionManager.Listener() {
+        @Override
+        public void onSessionProgress(@NonNull DfuSession session) {
+            // Every chunk of every device is reported, the bridge gets a few events per second per device
+            if (session.shouldEmitProgress()) {
+                sendEvent("DFUFleetProgress", convertSessionToMap(session));
+            }
+        }
 
-        this.firmwareUpgradeManager.setFirmwareUpgradeCallback(firmwareUpgradeCallback);
-        this.firmwareUpgradeManager.setMemoryAlignment(memoryAlignment);
-        this.firmwareUpgradeManager.setEstimatedSwapTime(swapTimeSeconds * 1000);
-        this.firmwareUpgradeManager.setWindowUploadCapacity(numMcuMgrBuffers);
-
-        switch (upgradeMode) {
-            case "Test and Confirm":
-                this.firmwareUpgradeManager.setMode(TEST_AND_CONFIRM);
-                break;
-            case "Test Only":
-                this.firmwareUpgradeManager.setMode(TEST_ONLY);
-                break;
-            case "Confirm Only":
-                this.firmwareUpgradeManager.setMode(CONFIRM_ONLY);
-                break;
-            default:
-                this.firmwareUpgradeManager.setMode(NONE);
-                break;
+        @Override
+        public void onSessionStateChanged(@NonNull DfuSession session) {
+            sendEvent("DFUFleetProgress", convertSessionToMap(session));
         }
 
-        try {
-            byte[] data = readFileToByteArray(firmwareFile);
-            McuMgrImageSet set = new McuMgrImageSet();
-            set.add(data);
-            this.firmwareUpgradeManager.start(set, eraseStorage);
+        @Override
+        public void onSessionFinished(@NonNull DfuSession session, int remaining) {
+            WritableMap map = convertSessionToMap(session);
+            map.putInt("remaining", remaining);
+            sendEvent("DFUFleetProgress", map);
+        }
 
-            promise.resolve("DFU started");
-        } catch (Exception e) {
-            promise.reject("DFU_INIT_ERROR", e);
+        @Override
+        public void onFleetFinished(@NonNull List<DfuSession> sessions, long elapsedMs) {
+            sendEvent("DFUFleetFinished", createFleetReport(sessions, elapsedMs));
+        }
+    };
+
+    private WritableMap convertSessionToMap(DfuSession session) {
+        WritableMap map = Arguments.createMap();
+        map.putString("address", session.getAddress());
+        map.putString("status", session.getStatus().name());
+        map.putString("state", session.getState().name());
+        map.putInt("bytesSent", session.getBytesSent());
+        map.putInt("imageSize", session.getImageSize());
+        map.putDouble("percent", session.getImageSize() == 0 ? 0 : (double) session.getBytesSent() / session.getImageSize() * 100);
+        map.putDouble("queuedMs", session.getQueuedMs());
+        map.putDouble("durationMs", session.getDurationMs());
+        if (session.getError() != null) {
+            map.putString("error", session.getError());
         }
+        return map;
     }
 
+    private WritableMap createFleetReport(List<DfuSession> sessions, long elapsedMs) {
+        int completed = 0;
+        int skipped = 0;
+        long totalDurationMs = 0;
+        WritableArray devices = Arguments.createArray();
+        for (DfuSession session : sessions) {
+            devices.pushMap(convertSessionToMap(session));
+            if (session.getStatus() == DfuSession.Status.COMPLETED) {
+                completed++;
+                totalDurationMs += session.getDurationMs();
+            }
+            else if (session.getStatus() == DfuSession.Status.SKIPPED) {
+                skipped++;
+            }
+        }
+        WritableMap map = Arguments.createMap();
+        map.putArray("devices", devices);
+        map.putInt("total", sessions.size());
+        map.putInt("completed", completed);
+        map.putInt("skipped", skipped);
+        map.putDouble("elapsedMs", elapsedMs);
+        // Sum of the individual upgrade times, compared to the elapsed time it shows the gain of running in parallel
+        map.putDouble("serialMs", totalDurationMs);
+        return map;
+    }
 
     private WritableMap getImagesInfoMap(McuMgrImageStateResponse response) {
         WritableMap result = Arguments.createMap();
@@ -357,200 +1252,240 @@ public class DFUModule extends ReactContextBaseJavaModule {
     }
 
     private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02X", b));
-        }
-        return sb.toString();
+        return HexUtils.toHexString(bytes, true);
     }
 
     private static byte[] hexToBytes(String hex) {
-        if (hex == null) {
-            throw new IllegalArgumentException("Hex string cannot be null");
-        }
-        int len = hex.length();
-        if (len % 2 != 0) {
-            throw new IllegalArgumentException("Hex string must have even length");
-        }
-
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-//            data[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-//                    + Character.digit(hex.charAt(i+1), 16));
-            int digit1 = Character.digit(hex.charAt(i), 16);
-            int digit2 = Character.digit(hex.charAt(i + 1), 16);
-            if (digit1 < 0 || digit2 < 0) {
-                throw new IllegalArgumentException("Invalid hex character in string");
-            }
-            data[i / 2] = (byte) ((digit1 << 4) + digit2);
-        }
-        return data;
+        return HexUtils.toByteArray(hex);
     }
 
     @ReactMethod
     public void getDeviceImagesList(Promise promise) {
-        Log.i("getDeviceImagesList", this.imageManager.toString());
-        this.imageManager.list(new McuMgrCallback<McuMgrImageStateResponse>() {
-            @Override
-            public void onResponse(@NotNull McuMgrImageStateResponse response) {
-                WritableMap map = getImagesInfoMap(response);
+        queueImageOperation(ImageOperationQueue.Type.LIST, null, 0, operation -> {
+            if (operation.getStatus() == ImageOperationQueue.Status.SUCCEEDED) {
+                WritableMap map = getImagesInfoMap((McuMgrImageStateResponse) operation.getResponse());
                 sendEvent("DFUDeviceImagesInfo", map);
                 promise.resolve(null);
             }
-
-            @Override
-            public void onError(@NotNull McuMgrException error) {
-                Log.e(TAG, "ImageManager error: " + error.getMessage());
-                promise.reject("IMG_ERROR", error);
-            }
-        });
-    }
-
-    @ReactMethod
-    public void readMcuMgrInfo(Promise promise) throws McuMgrException {
-        // Read sequentially:
-        // 1. MCU Manager parameters
-        // 2. Application info (parameter: "sv" will return the kernel name and version)
-        // 3. Bootloader name
-        // and, if the bootloader is "MCUboot":
-        // 4. Bootloader mode
-        readMcuMgrParams(() -> readAppInfo("sv", () -> readBootloaderName((name) -> {
-            if ("MCUboot".equals(name)) {
-                readMcuBootMode(() -> promise.resolve(null));
-            }
             else {
-                promise.resolve(null);
+                Log.e(TAG, "ImageManager error: " + operation.getError());
+                promise.reject("IMG_ERROR", operation.getError());
             }
-        })));
-
-
+        }, promise);
     }
 
-
     /**
-     * Reads the MCU Manager parameters.
-     *
-     * @param then a callback to be invoked when the parameters are read.
+     * Runs the steps on every device, the devices in parallel and the steps of a device in order. Each step is a
+     * map with an "op" among list, test, confirm, erase and reset, the image "hash" for test and confirm and the
+     * "image" slot for erase. A confirm without hash confirms the running image.
+     * <p>
+     * Consecutive list steps are pipelined, the other steps wait for the previous ones to be answered. A device
+     * stops at its first failed step, its remaining steps being skipped. A DFUImageScriptProgress event is sent as
+     * each step completes and the promise resolves with the outcome of every step once all devices are done.
      */
-    private void readMcuMgrParams(@Nullable final Runnable then) {
-        defaultManager.params(new McuMgrCallback<McuMgrParamsResponse>() {
-            @Override
-            public void onResponse(@NotNull final McuMgrParamsResponse response) {
-                Log.i(TAG, "McuMgrParamsResponse" + response);
-                WritableMap map = Arguments.createMap();
-                map.putInt("bufCount", response.bufCount);
-                map.putInt("bufSize", response.bufSize);
-                sendEvent("DFUDeviceParams", map);
-
-                if (then != null) {
-                    then.run();
+    @ReactMethod
+    public void runImageScript(ReadableArray addresses, ReadableArray steps, Promise promise) {
+        final int stepCount = steps.size();
+        final ImageOperationQueue.Type[] types = new ImageOperationQueue.Type[stepCount];
+        final byte[][] hashes = new byte[stepCount][];
+        final int[] images = new int[stepCount];
+        try {
+            for (int i = 0; i < stepCount; i++) {
+                ReadableMap step = steps.getMap(i);
+                types[i] = ImageOperationQueue.Type.valueOf(step.getString("op").toUpperCase(Locale.US));
+                hashes[i] = step.hasKey("hash") && !step.isNull("hash") ? hexToBytes(step.getString("hash")) : null;
+                images[i] = step.hasKey("image") ? step.getInt("image") : 0;
+                if (types[i] == ImageOperationQueue.Type.TEST && hashes[i] == null) {
+                    promise.reject("INVALID_STEP", "Step " + i + ": test requires a hash");
+                    return;
                 }
             }
-
-            @Override
-            public void onError(@NotNull final McuMgrException error) {
-                Log.i(TAG, "onError" + error);
-                if (then != null) {
-                    then.run();
+        } catch (Exception e) {
+            promise.reject("INVALID_STEP", e.getMessage());
+            return;
+        }
+        final int deviceCount = addresses.size();
+        if (deviceCount == 0 || stepCount == 0) {
+            promise.resolve(createImageScriptReport(new String[0], new String[0], new ImageOperationQueue.Operation[0][], 0));
+            return;
+        }
+        final long startMs = SystemClock.elapsedRealtime();
+        final String[] deviceAddresses = new String[deviceCount];
+        final String[] deviceErrors = new String[deviceCount];
+        final ImageOperationQueue.Operation[][] operations = new ImageOperationQueue.Operation[deviceCount][stepCount];
+        final int[] remaining = new int[deviceCount];
+        final AtomicInteger remainingDevices = new AtomicInteger(deviceCount);
+        // Identifies the operations of this script in the device queues
+        final Object script = new Object();
+
+        for (int d = 0; d < deviceCount; d++) {
+            deviceAddresses[d] = addresses.getString(d);
+            remaining[d] = stepCount;
+        }
+        for (int d = 0; d < deviceCount; d++) {
+            final int device = d;
+            final String address = deviceAddresses[d];
+            McuMgrTransportCache.Entry entry;
+            try {
+                entry = transportCache.get(address);
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to open " + address + ": " + e.getMessage());
+                deviceErrors[d] = e.getMessage();
+                if (remainingDevices.decrementAndGet() == 0) {
+                    promise.resolve(createImageScriptReport(deviceAddresses, deviceErrors, operations, startMs));
                 }
+                continue;
             }
-        });
-    }
-
-    /**
-     * Reads application info.
-     *
-     * @param format See {@link DefaultManager#appInfo(String)} for details.
-     *
-     * @noinspection SameParameterValue
-     */
-    private void readAppInfo(@Nullable final String format, @Nullable final Runnable then) {
-        defaultManager.appInfo(format, new McuMgrCallback<McuMgrAppInfoResponse>() {
-            @Override
-            public void onResponse(@NotNull McuMgrAppInfoResponse response) {
-                Log.i(TAG, "McuMgrAppInfoResponse" + response);
-                WritableMap map = Arguments.createMap();
-                map.putString("output", response.output);
-                sendEvent("DFUDeviceParams", map);
-                if (then != null) {
-                    then.run();
-                }
+            transportCache.setBusy(address, true);
+            for (int i = 0; i < stepCount; i++) {
+                final int index = i;
+                imageOperationQueue.enqueue(address, entry.getImageManager(), entry.getDefaultManager(), types[i], hashes[i],
+                        images[i], script, operation -> {
+                            boolean deviceDone;
+                            synchronized (operations) {
+                                operations[device][index] = operation;
+                                deviceDone = --remaining[device] == 0;
+                            }
+                            if (operation.getStatus() == ImageOperationQueue.Status.FAILED) {
+                                imageOperationQueue.skipPending(address, script);
+                            }
+                            WritableMap progress = convertImageOperationToMap(operation);
+                            progress.putString("address", address);
+                            progress.putInt("step", index);
+                            sendEvent("DFUImageScriptProgress", progress);
+                            if (!deviceDone) {
+                                return;
+                            }
+                            transportCache.setBusy(address, false);
+                            // The steps may have reset the device or changed its images
+                            deviceInfoService.invalidate(address);
+                            if (remainingDevices.decrementAndGet() == 0) {
+                                WritableMap report;
+                                synchronized (operations) {
+                                    report = createImageScriptReport(deviceAddresses, deviceErrors, operations, startMs);
+                                }
+                                promise.resolve(report);
+                            }
+                        });
             }
+        }
+    }
 
-            @Override
-            public void onError(@NotNull McuMgrException error) {
-                Log.i(TAG, "onError" + error);
+    private WritableMap convertImageOperationToMap(ImageOperationQueue.Operation operation) {
+        WritableMap map = Arguments.createMap();
+        map.putString("op", operation.getType().name().toLowerCase(Locale.US));
+        map.putString("status", operation.getStatus().name().toLowerCase(Locale.US));
+        if (operation.getError() != null) {
+            map.putString("error", operation.getError());
+        }
+        if (operation.getStatus() != ImageOperationQueue.Status.SKIPPED) {
+            map.putDouble("durationMs", operation.getDurationMs());
+        }
+        if (operation.getResponse() instanceof McuMgrImageStateResponse) {
+            map.putMap("images", getImagesInfoMap((McuMgrImageStateResponse) operation.getResponse()));
+        }
+        return map;
+    }
 
-                if (then != null) {
-                    then.run();
+    private WritableMap createImageScriptReport(String[] addresses, String[] errors, ImageOperationQueue.Operation[][] operations,
+                                                long startMs) {
+        WritableArray devices = Arguments.createArray();
+        int succeeded = 0;
+        for (int d = 0; d < addresses.length; d++) {
+            WritableMap device = Arguments.createMap();
+            device.putString("address", addresses[d]);
+            boolean success = errors[d] == null;
+            if (errors[d] != null) {
+                device.putString("error", errors[d]);
+            }
+            WritableArray steps = Arguments.createArray();
+            for (ImageOperationQueue.Operation operation : operations[d]) {
+                if (operation == null) {
+                    continue;
                 }
+                success &= operation.getStatus() == ImageOperationQueue.Status.SUCCEEDED;
+                steps.pushMap(convertImageOperationToMap(operation));
             }
-        });
+            device.putBoolean("success", success);
+            device.putArray("steps", steps);
+            devices.pushMap(device);
+            if (success) {
+                succeeded++;
+            }
+        }
+        WritableMap map = Arguments.createMap();
+        map.putArray("devices", devices);
+        map.putInt("succeeded", succeeded);
+        map.putInt("failed", addresses.length - succeeded);
+        map.putDouble("elapsedMs", startMs == 0 ? 0 : SystemClock.elapsedRealtime() - startMs);
+        return map;
     }
 
     /**
-     * A callback to be invoked when the bootloader name is read.
+     * Reads the MCU Manager parameters, the application info, the bootloader name and, for MCUboot, the
+     * bootloader mode, and sends them in a single DFUDeviceParams event. The information read less than
+     * {@link DeviceInfoService#DEFAULT_TTL_MS} ago is sent without querying the device.
      */
-    private interface BootloaderNameCallback {
-        void onBootloaderNameReceived(@NonNull String bootloaderName);
+    @ReactMethod
+    public void readMcuMgrInfo(Promise promise) {
+        readDeviceInfo(false, promise);
     }
 
     /**
-     * Reads the name of the bootloader.
-     *
-     * @param then a callback to be invoked when the name is read.
+     * Same as {@link #readMcuMgrInfo}, always querying the device.
      */
-    private void readBootloaderName(@Nullable final BootloaderNameCallback then) {
-        defaultManager.bootloaderInfo(DefaultManager.BOOTLOADER_INFO_QUERY_BOOTLOADER, new McuMgrCallback<McuMgrBootloaderInfoResponse>() {
-            @Override
-            public void onResponse(@NotNull McuMgrBootloaderInfoResponse response) {
-                Log.i(TAG, "McuMgrBootloaderInfoResponse" + response);
-                WritableMap map = Arguments.createMap();
-                map.putString("bootloader", response.bootloader);
-                map.putInt("rc", response.rc);
-                map.putString("mode", bootloaderModeToString(response.mode));
-                sendEvent("DFUDeviceParams", map);
-                if (then != null) {
-                    then.onBootloaderNameReceived(response.bootloader);
-                }
-            }
-
-            @Override
-            public void onError(@NotNull McuMgrException error) {
+    @ReactMethod
+    public void refreshMcuMgrInfo(Promise promise) {
+        readDeviceInfo(true, promise);
+    }
 
+    private void readDeviceInfo(boolean refresh, Promise promise) {
+        if (this.defaultManager == null || deviceAddress == null) {
+            promise.reject("DFU_NOT_INITIALIZED", "dfuInit was not called");
+            return;
+        }
+        touchTransport();
+        deviceInfoService.read(deviceAddress, this.defaultManager, refresh, info -> {
+            Log.i(TAG, "Device info of " + info.getAddress() + ", errors " + info.getErrors());
+            if (info.getBufCount() != null && info.getBufSize() != null && info.getAddress().equals(deviceAddress)) {
+                deviceBufCount = info.getBufCount();
+                deviceBufSize = info.getBufSize();
             }
+            sendEvent("DFUDeviceParams", convertDeviceInfoToMap(info));
+            promise.resolve(null);
         });
     }
 
-    /**
-     * Reads the mode of the bootloader.
-     * This method is only supported by MCUboot bootloader.
-     *
-     * @param then a callback to be invoked when the mode is read.
-     *
-     * @noinspection SameParameterValue
-     */
-    private void readMcuBootMode(@Nullable final Runnable then) {
-        defaultManager.bootloaderInfo(DefaultManager.BOOTLOADER_INFO_MCUBOOT_QUERY_MODE, new McuMgrCallback<McuMgrBootloaderInfoResponse>() {
-            @Override
-            public void onResponse(@NotNull McuMgrBootloaderInfoResponse response) {
-                Log.i(TAG, "McuMgrBootloaderInfoResponse" + response);
-                WritableMap map = Arguments.createMap();
-                map.putString("mode", bootloaderModeToString(response.mode));
-                sendEvent("DFUDeviceParams", map);
-                if (then != null) {
-                    then.run();
-                }
-            }
-
-            @Override
-            public void onError(@NotNull McuMgrException error) {
-                Log.i(TAG, "onError" + error);
-                if (then != null) {
-                    then.run();
-                }
-            }
-        });
+    private WritableMap convertDeviceInfoToMap(DeviceInfoService.DeviceInfo info) {
+        WritableMap map = Arguments.createMap();
+        map.putString("address", info.getAddress());
+        if (info.getBufCount() != null && info.getBufSize() != null) {
+            map.putInt("bufCount", info.getBufCount());
+            map.putInt("bufSize", info.getBufSize());
+            int window = DfuParameterTuner.getWindow(info.getBufCount());
+            map.putInt("autoWindowCapacity", window);
+            map.putInt("autoMemoryAlignment", DfuParameterTuner.getMemoryAlignment(window));
+        }
+        if (info.getAppInfo() != null) {
+            map.putString("output", info.getAppInfo());
+        }
+        if (info.getBootloader() != null) {
+            map.putString("bootloader", info.getBootloader());
+        }
+        if (info.getBootloaderRc() != null) {
+            map.putInt("rc", info.getBootloaderRc());
+        }
+        if (info.getMcuBootMode() != null) {
+            map.putString("mode", bootloaderModeToString(info.getMcuBootMode()));
+        }
+        WritableMap errors = Arguments.createMap();
+        for (Map.Entry<String, String> entry : info.getErrors().entrySet()) {
+            errors.putString(entry.getKey(), entry.getValue());
+        }
+        map.putMap("errors", errors);
+        map.putDouble("durationMs", info.getDurationMs());
+        map.putDouble("ageMs", info.getAgeMs());
+        return map;
     }
 
     private void sendEvent(String eventName, Object params) {
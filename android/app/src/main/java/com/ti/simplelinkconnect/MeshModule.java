@@ -1,6 +1,13 @@
 package com.ti.connectivity.simplelinkconnect;
 
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.BULK_RESET_FINISHED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.BULK_RESET_PROGRESS;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.KEY_REFRESH_FINISHED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.KEY_REFRESH_PHASE_CHANGED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.KEY_REFRESH_PROGRESS;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.NODE_CONNECTED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.PROVISIONING_QUEUE_FINISHED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.PROVISIONING_QUEUE_PROGRESS;
 import static com.ti.simplelinkconnect.mesh.MeshRepository.bytesToHexString;
 import static com.ti.simplelinkconnect.mesh.Utils.supportsModelBinding;
 import static com.ti.simplelinkconnect.mesh.Utils.supportsModelPublication;
@@ -25,13 +32,27 @@ import com.facebook.react.bridge.WritableNativeArray;
 import com.facebook.react.bridge.WritableNativeMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.ti.simplelinkconnect.mesh.BleMeshManagerProvider;
+import com.ti.simplelinkconnect.mesh.BulkNodeReset;
+import com.ti.simplelinkconnect.mesh.CompositionDataCache;
 import com.ti.simplelinkconnect.mesh.ExtendedBluetoothDevice;
 import com.ti.simplelinkconnect.mesh.ExtendedConnectedDevice;
+import com.ti.simplelinkconnect.mesh.GroupMembershipIndex;
+import com.ti.simplelinkconnect.mesh.KeyRefreshEngine;
 import com.ti.simplelinkconnect.mesh.MeshModuleEvents;
 import com.ti.simplelinkconnect.mesh.MeshRepository;
-
+import com.ti.simplelinkconnect.mesh.PduReplayDriver;
+import com.ti.simplelinkconnect.mesh.PduReplaySandbox;
+import com.ti.simplelinkconnect.mesh.ProvisioningPhaseHistogram;
+import com.ti.simplelinkconnect.mesh.ProvisioningQueue;
+import com.ti.simplelinkconnect.mesh.SegmentationStatistics;
+import com.ti.simplelinkconnect.mesh.SimulatedMeshProxy;
+import com.ti.simplelinkconnect.mesh.VendorMessageStreamer;
+import com.ti.simplelinkconnect.util.HexUtils;
+
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -100,6 +121,7 @@ public class MeshModule extends ReactContextBaseJavaModule {
     private ApplicationKey newApplicationKey;
     public List<ExtendedBluetoothDevice> scanResults = new ArrayList<ExtendedBluetoothDevice>();
     ObservableVariable<List<ExtendedConnectedDevice>> connectedDevices = new ObservableVariable<>(new ArrayList<ExtendedConnectedDevice>());
+    private VendorMessageStreamer vendorMessageStreamer;
 
     public MeshModule(ReactApplicationContext context) {
         super(context);
@@ -148,11 +170,7 @@ public class MeshModule extends ReactContextBaseJavaModule {
     }
 
     private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
+        return HexUtils.toHexString(bytes, false);
     }
 
     @ReactMethod
@@ -871,6 +889,10 @@ public class MeshModule extends ReactContextBaseJavaModule {
     public void editUnprovisionedNodeAddr(int unicastAddr, Promise promise) {
         try {
             final UnprovisionedMeshNode node = meshRepository.getUnprovisionedMeshNode();
+            if (!meshRepository.getAddressAllocator().reassignUnicastAddress(node.getUnicastAddress(), unicastAddr, node.getNumberOfElements())) {
+                promise.reject("Address " + HexUtils.toHexString(unicastAddr, 4) + " is already in use");
+                return;
+            }
             meshRepository.getMeshNetworkLiveData().getMeshNetwork().assignUnicastAddress(unicastAddr);
             node.setUnicastAddress(unicastAddr);
 
@@ -897,6 +919,10 @@ public class MeshModule extends ReactContextBaseJavaModule {
             ProvisionedMeshNode nodeToRemove = meshRepository.getMeshNetworkLiveData().getMeshNetwork().getNode(unicastAddr);
 
             boolean removed = meshRepository.getMeshNetworkLiveData().getMeshNetwork().deleteNode(nodeToRemove);
+            if (removed) {
+                meshRepository.getAddressAllocator().onNodeRemoved(unicastAddr);
+                meshRepository.getGroupMembershipIndex().onNodeRemoved(unicastAddr);
+            }
             Log.i("mesh", "removeNodeFromNetwork: " + removed);
             promise.resolve(removed);
 
@@ -1281,6 +1307,7 @@ public class MeshModule extends ReactContextBaseJavaModule {
             WritableMap groupMap = new WritableNativeMap();
             groupMap.putString("name", g.getName());
             groupMap.putInt("address", g.getAddress());
+            groupMap.putInt("memberCount", meshRepository.getGroupMembershipIndex().getMemberCount(g.getAddress()));
 
             groupsList.pushMap(groupMap);
         }
@@ -1309,6 +1336,7 @@ public class MeshModule extends ReactContextBaseJavaModule {
         try {
             Group group = Objects.requireNonNull(meshManagerApi.getMeshNetwork()).createGroup(provisioner, groupAddress, groupName);
             meshRepository.getMeshNetworkLiveData().getMeshNetwork().addGroup(group);
+            meshRepository.getAddressAllocator().onGroupAdded(group.getAddress());
             subscribeToGroup(unicastAddress, group);
             promise.resolve("success");
         } catch (Exception exception) {
@@ -1323,6 +1351,7 @@ public class MeshModule extends ReactContextBaseJavaModule {
             Group group = network.getGroup(groupAddress);
             if(group != null){
                 meshRepository.getMeshNetworkLiveData().getMeshNetwork().removeGroup(group);
+                meshRepository.getAddressAllocator().onGroupRemoved(groupAddress);
                 promise.resolve("success");
             }
             else {
@@ -1333,12 +1362,33 @@ public class MeshModule extends ReactContextBaseJavaModule {
         }
     }
 
+    /**
+     * Resolves the models subscribed to the group, as read from the membership index.
+     */
+    @ReactMethod
+    public void getGroupMembers(int groupAddress, Promise promise) {
+        try {
+            WritableArray members = new WritableNativeArray();
+            for (GroupMembershipIndex.Membership membership : meshRepository.getGroupMembershipIndex().getMembers(groupAddress)) {
+                WritableMap member = new WritableNativeMap();
+                member.putInt("unicastAddress", membership.getNodeAddress());
+                member.putInt("elementAddress", membership.getElementAddress());
+                member.putInt("modelId", membership.getModelId());
+                members.pushMap(member);
+            }
+            promise.resolve(members);
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
     @ReactMethod
     public void createNewGroup(String groupName, int groupAddress, Promise promise) {
         Provisioner provisioner = meshRepository.getMeshNetworkLiveData().getProvisioner();
         try {
             Group group = Objects.requireNonNull(meshManagerApi.getMeshNetwork()).createGroup(provisioner, groupAddress, groupName);
             meshRepository.getMeshNetworkLiveData().getMeshNetwork().addGroup(group);
+            meshRepository.getAddressAllocator().onGroupAdded(group.getAddress());
             WritableMap map = new WritableNativeMap();
             map.putBoolean("success", true);
             map.putInt("address", group.getAddress());
@@ -1374,7 +1424,10 @@ public class MeshModule extends ReactContextBaseJavaModule {
     @ReactMethod
     public void generateGroupAddress(String groupName, Promise promise) {
         Provisioner provisioner = meshRepository.getMeshNetworkLiveData().getProvisioner();
-        Group group = Objects.requireNonNull(meshManagerApi.getMeshNetwork()).createGroup(provisioner, groupName);
+        MeshNetwork network = Objects.requireNonNull(meshManagerApi.getMeshNetwork());
+        // Only proposes the address, it is taken when the group is created by createNewGroup
+        int address = meshRepository.getAddressAllocator().peekGroupAddress(provisioner);
+        Group group = address < 0 ? network.createGroup(provisioner, groupName) : network.createGroup(provisioner, address, groupName);
         if (group != null) {
             promise.resolve(group.getAddress());
 
@@ -1414,18 +1467,99 @@ public class MeshModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void sendVendorModelMessage(int nodeUnicastAddress, int opcode, String parameters, Promise promise) {
-        byte[] parameterBytes = hexStringToByteArray(parameters);
-        final Element element = meshRepository.getSelectedElement().getValue();
-        if (element != null) {
-            final VendorModel model = (VendorModel) meshRepository.getSelectedModel().getValue();
-            if (model != null) {
-                final int appKeyIndex = model.getBoundAppKeyIndexes().get(0);
-                final ApplicationKey appKey = meshRepository.getMeshNetworkLiveData().getMeshNetwork().getAppKey(appKeyIndex);
-                MeshMessage meshMessage = new VendorModelMessageAcked(appKey, model.getModelId(), model.getCompanyIdentifier(), opcode, parameterBytes);
-                meshRepository.getMeshManagerApi().createMeshPdu(element.getElementAddress(), meshMessage);
+        try {
+            byte[] parameterBytes = hexStringToByteArray(parameters);
+            final Element element = meshRepository.getSelectedElement().getValue();
+            final VendorModel model = element == null ? null : (VendorModel) meshRepository.getSelectedModel().getValue();
+            if (model == null) {
+                promise.reject("No vendor model selected");
+                return;
             }
+            final int appKeyIndex = model.getBoundAppKeyIndexes().get(0);
+            final ApplicationKey appKey = meshRepository.getMeshNetworkLiveData().getMeshNetwork().getAppKey(appKeyIndex);
+            MeshMessage meshMessage = new VendorModelMessageAcked(appKey, model.getModelId(), model.getCompanyIdentifier(), opcode, parameterBytes);
+            meshRepository.getMeshManagerApi().createMeshPdu(element.getElementAddress(), meshMessage);
+            promise.resolve("success");
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
         }
-        promise.resolve("success");
+    }
+
+    /**
+     * Starts a vendor message stream to the selected vendor model. Messages are then queued with streamVendorMessage
+     * and sent at the rate the node can transmit them, or at maxRate messages per second if it is greater than 0.
+     */
+    @ReactMethod
+    public void startVendorStream(boolean acknowledged, int queueSize, double maxRate, Promise promise) {
+        try {
+            final Element element = meshRepository.getSelectedElement().getValue();
+            final VendorModel model = element == null ? null : (VendorModel) meshRepository.getSelectedModel().getValue();
+            if (model == null) {
+                promise.reject("No vendor model selected");
+                return;
+            }
+            if (vendorMessageStreamer != null) {
+                vendorMessageStreamer.stop();
+            }
+            final MeshNetwork network = meshRepository.getMeshNetworkLiveData().getMeshNetwork();
+            final ApplicationKey appKey = network.getAppKey(model.getBoundAppKeyIndexes().get(0));
+            final ProvisionedMeshNode node = network.getNode(element.getElementAddress());
+            vendorMessageStreamer = new VendorMessageStreamer(meshRepository.getMeshManagerApi(), meshRepository.getHandler(), node, element.getElementAddress(), appKey,
+                    model.getModelId(), model.getCompanyIdentifier(), acknowledged, queueSize, maxRate);
+            vendorMessageStreamer.start();
+
+            WritableMap map = new WritableNativeMap();
+            map.putDouble("rateLimit", vendorMessageStreamer.getRateLimit());
+            promise.resolve(map);
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    /**
+     * Queues a vendor message on the running stream, resolves false if the queue was full and the message was dropped.
+     */
+    @ReactMethod
+    public void streamVendorMessage(int opcode, String parameters, Promise promise) {
+        if (vendorMessageStreamer == null) {
+            promise.reject("Vendor stream is not running");
+            return;
+        }
+        promise.resolve(vendorMessageStreamer.offer(opcode, hexStringToByteArray(parameters)));
+    }
+
+    @ReactMethod
+    public void getVendorStreamStatistics(Promise promise) {
+        if (vendorMessageStreamer == null) {
+            promise.reject("Vendor stream is not running");
+            return;
+        }
+        promise.resolve(getVendorStreamStatisticsMap(vendorMessageStreamer));
+    }
+
+    @ReactMethod
+    public void stopVendorStream(Promise promise) {
+        if (vendorMessageStreamer == null) {
+            promise.reject("Vendor stream is not running");
+            return;
+        }
+        VendorMessageStreamer streamer = vendorMessageStreamer;
+        vendorMessageStreamer = null;
+        WritableMap map = getVendorStreamStatisticsMap(streamer);
+        streamer.stop();
+        promise.resolve(map);
+    }
+
+    private WritableMap getVendorStreamStatisticsMap(VendorMessageStreamer streamer) {
+        WritableMap map = new WritableNativeMap();
+        map.putInt("offered", streamer.getOffered());
+        map.putInt("sent", streamer.getSent());
+        map.putInt("dropped", streamer.getDropped());
+        map.putInt("failed", streamer.getFailed());
+        map.putInt("queued", streamer.getQueued());
+        map.putDouble("sendRate", streamer.getSendRate());
+        map.putDouble("rateLimit", streamer.getRateLimit());
+        return map;
     }
 
     /*  Proxy Filter */
@@ -1586,6 +1720,499 @@ public class MeshModule extends ReactContextBaseJavaModule {
         }
     }
 
-}
+    /* PDU capture */
+    @ReactMethod
+    public void startPduCapture(Promise promise) {
+        meshRepository.startPduCapture();
+        promise.resolve("success");
+    }
+
+    @ReactMethod
+    public void stopPduCapture(Promise promise) {
+        try {
+            File file = new File(new File(mContext.getFilesDir(), "pdu-captures"), "capture-" + System.currentTimeMillis() + ".txt");
+            int count = meshRepository.stopPduCapture(file);
+
+            WritableMap map = new WritableNativeMap();
+            map.putString("path", file.getAbsolutePath());
+            map.putInt("pduCount", count);
+            promise.resolve(map);
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void replayPduCapture(String path, double speed, Promise promise) {
+        String realPath = path.startsWith("file://") ? path.substring(7) : path;
+        CompletableFuture.runAsync(() -> {
+            try {
+                PduReplaySandbox.Report report = meshRepository.replayPduCapture(new File(realPath), speed);
+                PduReplayDriver.Result result = report.getResult();
+
+                WritableMap map = new WritableNativeMap();
+                map.putInt("messagesReceived", report.getMessagesReceived());
+                map.putInt("decryptionFailures", report.getDecryptionFailures());
+                map.putInt("pdusCreated", report.getPdusCreated());
+                map.putInt("notifications", result.getNotifications());
+                map.putInt("writeCallbacks", result.getWriteCallbacks());
+                map.putDouble("recordedMs", result.getRecordedMicros() / 1000.0);
+                map.putDouble("elapsedMs", result.getElapsedMicros() / 1000.0);
+                promise.resolve(map);
+            } catch (Exception e) {
+                promise.reject(e.getMessage());
+            }
+        });
+    }
+
+    /* Simulated proxy */
+    @ReactMethod
+    public void startMeshSimulation(int minLatencyMs, int maxLatencyMs, double lossRate, double seed, Promise promise) {
+        try {
+            meshRepository.startSimulation(minLatencyMs, maxLatencyMs, lossRate, (long) seed);
+            promise.resolve("success");
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void stopMeshSimulation(Promise promise) {
+        SimulatedMeshProxy simulatedProxy = meshRepository.getSimulatedProxy();
+        if (simulatedProxy == null) {
+            promise.reject("Simulation is not running");
+            return;
+        }
+        meshRepository.stopSimulation();
+
+        WritableMap map = new WritableNativeMap();
+        map.putInt("pdusSent", simulatedProxy.getPdusSent());
+        map.putInt("messagesAnswered", simulatedProxy.getMessagesAnswered());
+        map.putInt("messagesDropped", simulatedProxy.getMessagesDropped());
+        promise.resolve(map);
+    }
+
+    /* Segmentation statistics */
+    @ReactMethod
+    public void getSegmentationStatistics(Promise promise) {
+        WritableArray array = new WritableNativeArray();
+        for (SegmentationStatistics.DestinationStatistics stats : meshRepository.getSegmentationStatistics().getStatistics()) {
+            WritableMap map = new WritableNativeMap();
+            map.putString("address", HexUtils.toHexString(stats.getAddress(), 4));
+            map.putInt("messages", stats.getMessages());
+            map.putInt("segmentedMessages", stats.getSegmentedMessages());
+            map.putInt("segmentsSent", stats.getSegmentsSent());
+            map.putInt("retransmittedSegments", stats.getRetransmittedSegments());
+            map.putInt("blockAcksReceived", stats.getBlockAcksReceived());
+            map.putInt("blockAcksSent", stats.getBlockAcksSent());
+            map.putInt("completedMessages", stats.getCompletedMessages());
+            map.putDouble("avgRttMs", stats.getAverageRttMs());
+            map.putDouble("minRttMs", stats.getMinRttMs());
+            map.putDouble("maxRttMs", stats.getMaxRttMs());
+            map.putDouble("throughputBytesPerSecond", stats.getThroughputBytesPerSecond());
+            array.pushMap(map);
+        }
+        promise.resolve(array);
+    }
+
+    @ReactMethod
+    public void resetSegmentationStatistics(Promise promise) {
+        meshRepository.getSegmentationStatistics().reset();
+        promise.resolve("success");
+    }
+
+    @ReactMethod
+    public void getVendorMessageSegmentCount(String parameters, Promise promise) {
+        // Vendor opcodes are 3 octets long
+        int accessPayloadLength = 3 + parameters.length() / 2;
+        WritableMap map = new WritableNativeMap();
+        map.putInt("accessPayloadLength", accessPayloadLength);
+        map.putInt("segments", SegmentationStatistics.getSegmentCount(accessPayloadLength));
+        map.putInt("maxUnsegmentedParameters", SegmentationStatistics.MAX_UNSEGMENTED_ACCESS_PAYLOAD - 3);
+        promise.resolve(map);
+    }
+
+    /* Provisioning queue */
 
+    /**
+     * Provisions and configures every unprovisioned device found by the last scan, one after the other.
+     *
+     * @param minRssi     devices with a lower RSSI are skipped
+     * @param uuidPattern regular expression the device UUID has to match, empty to accept all devices
+     * @param maxRetries  number of times a device is retried if it fails before being provisioned
+     */
+    @ReactMethod
+    public void startProvisioningQueue(int minRssi, String uuidPattern, int maxRetries, Promise promise) {
+        try {
+            List<ExtendedBluetoothDevice> devices = ProvisioningQueue.filter(meshRepository.getMeshManagerApi(), new ArrayList<>(scanResults), minRssi, uuidPattern);
+            meshRepository.startProvisioningQueue(devices, maxRetries, new ProvisioningQueue.Listener() {
+                @Override
+                public void onItemFinished(@NonNull ProvisioningQueue.ItemResult result, int remaining) {
+                    WritableMap map = convertProvisioningItemToMap(result);
+                    map.putInt("remaining", remaining);
+                    sendEvent(PROVISIONING_QUEUE_PROGRESS, map);
+                }
 
+                @Override
+                public void onQueueFinished(@NonNull List<ProvisioningQueue.ItemResult> results, long elapsedMs) {
+                    sendEvent(PROVISIONING_QUEUE_FINISHED, createProvisioningQueueReport(results, elapsedMs));
+                }
+            });
+            promise.resolve(devices.size());
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void stopProvisioningQueue(Promise promise) {
+        meshRepository.stopProvisioningQueue();
+        promise.resolve("success");
+    }
+
+    /**
+     * Enables provisioning the next device of the queue while the previous one is being configured.
+     */
+    @ReactMethod
+    public void setProvisioningPipelineEnabled(boolean enabled, Promise promise) {
+        try {
+            meshRepository.setProvisioningPipelineEnabled(enabled);
+            promise.resolve("success");
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getProvisioningQueueReport(Promise promise) {
+        ProvisioningQueue queue = meshRepository.getProvisioningQueue();
+        if (queue == null) {
+            promise.reject("Provisioning queue was never started");
+            return;
+        }
+        WritableMap map = createProvisioningQueueReport(queue.getResults(), queue.getElapsedMs());
+        map.putBoolean("running", queue.isRunning());
+        map.putInt("remaining", queue.getRemaining());
+        promise.resolve(map);
+    }
+
+    private WritableMap convertProvisioningItemToMap(ProvisioningQueue.ItemResult result) {
+        WritableMap map = new WritableNativeMap();
+        map.putString("id", result.getAddress());
+        map.putString("name", result.getName());
+        map.putInt("unicastAddress", result.getUnicastAddress());
+        map.putBoolean("success", result.isSuccess());
+        map.putInt("attempts", result.getAttempts());
+        if (result.getFailedPhase() != null) {
+            map.putString("failedPhase", result.getFailedPhase().name());
+        }
+        if (result.getError() != null) {
+            map.putString("error", result.getError());
+        }
+        WritableMap phases = new WritableNativeMap();
+        for (Map.Entry<ProvisioningQueue.Phase, Long> entry : result.getPhaseDurations().entrySet()) {
+            phases.putDouble(entry.getKey().name(), entry.getValue());
+        }
+        map.putMap("phaseDurationsMs", phases);
+        return map;
+    }
+
+    private WritableMap createProvisioningQueueReport(List<ProvisioningQueue.ItemResult> results, long elapsedMs) {
+        int succeeded = 0;
+        Map<ProvisioningQueue.Phase, Long> phaseTotals = new EnumMap<>(ProvisioningQueue.Phase.class);
+        WritableArray items = new WritableNativeArray();
+        for (ProvisioningQueue.ItemResult result : results) {
+            items.pushMap(convertProvisioningItemToMap(result));
+            if (!result.isSuccess()) {
+                continue;
+            }
+            succeeded++;
+            for (Map.Entry<ProvisioningQueue.Phase, Long> entry : result.getPhaseDurations().entrySet()) {
+                Long total = phaseTotals.get(entry.getKey());
+                phaseTotals.put(entry.getKey(), (total == null ? 0 : total) + entry.getValue());
+            }
+        }
+
+        WritableMap averages = new WritableNativeMap();
+        for (Map.Entry<ProvisioningQueue.Phase, Long> entry : phaseTotals.entrySet()) {
+            averages.putDouble(entry.getKey().name(), entry.getValue() / (double) succeeded);
+        }
+
+        WritableMap map = new WritableNativeMap();
+        map.putInt("total", results.size());
+        map.putInt("succeeded", succeeded);
+        map.putInt("failed", results.size() - succeeded);
+        map.putDouble("elapsedMs", elapsedMs);
+        map.putDouble("nodesPerHour", elapsedMs == 0 ? 0 : succeeded * 3600000.0 / elapsedMs);
+        map.putMap("averagePhaseDurationsMs", averages);
+        map.putArray("items", items);
+        return map;
+    }
+
+    /* Provisioning phase histogram */
+
+    /**
+     * Resolves the distribution of the time spent in each provisioning phase over every provisioning session.
+     */
+    @ReactMethod
+    public void getProvisioningPhaseHistogram(Promise promise) {
+        WritableMap result = new WritableNativeMap();
+        WritableArray bounds = new WritableNativeArray();
+        for (long bound : ProvisioningPhaseHistogram.BUCKET_BOUNDS_MS) {
+            bounds.pushDouble(bound);
+        }
+        result.putArray("bucketBoundsMs", bounds);
+        WritableMap phases = new WritableNativeMap();
+        for (Map.Entry<ProvisioningPhaseHistogram.Phase, ProvisioningPhaseHistogram.PhaseStatistics> entry
+                : meshRepository.getProvisioningPhaseHistogram().getPhases().entrySet()) {
+            ProvisioningPhaseHistogram.PhaseStatistics stats = entry.getValue();
+            WritableMap map = new WritableNativeMap();
+            WritableArray buckets = new WritableNativeArray();
+            for (long bucket : stats.getBuckets()) {
+                buckets.pushDouble(bucket);
+            }
+            map.putArray("buckets", buckets);
+            map.putDouble("count", stats.getCount());
+            map.putDouble("avgMs", stats.getAverageMs());
+            map.putDouble("minMs", stats.getMinMs());
+            map.putDouble("maxMs", stats.getMaxMs());
+            map.putDouble("p50Ms", stats.getPercentileMs(50));
+            map.putDouble("p90Ms", stats.getPercentileMs(90));
+            phases.putMap(entry.getKey().name(), map);
+        }
+        result.putMap("phases", phases);
+        promise.resolve(result);
+    }
+
+    @ReactMethod
+    public void resetProvisioningPhaseHistogram(Promise promise) {
+        meshRepository.getProvisioningPhaseHistogram().reset();
+        promise.resolve("success");
+    }
+
+    /* Composition data cache */
+
+    @ReactMethod
+    public void getCompositionCacheStatistics(Promise promise) {
+        CompositionDataCache cache = meshRepository.getCompositionCache();
+        WritableMap map = new WritableNativeMap();
+        map.putInt("products", cache.size());
+        map.putInt("hits", cache.getHits());
+        map.putInt("misses", cache.getMisses());
+        map.putInt("mismatches", cache.getMismatches());
+        map.putInt("predictions", cache.getPredictions());
+        promise.resolve(map);
+    }
+
+    @ReactMethod
+    public void getCachedCompositionData(int companyId, int productId, int versionId, int crpl, int features, Promise promise) {
+        byte[] parameters = meshRepository.getCompositionCache().get(CompositionDataCache.getKey(companyId, productId, versionId, crpl, features));
+        promise.resolve(parameters == null ? null : HexUtils.toHexString(parameters, false));
+    }
+
+    @ReactMethod
+    public void clearCompositionCache(Promise promise) {
+        meshRepository.getCompositionCache().clear();
+        promise.resolve("success");
+    }
+
+    /* Key refresh */
+
+    /**
+     * Refreshes a network key and the application keys bound to it on every node of the network. A refresh that
+     * failed or was stopped is resumed from the phase it reached.
+     *
+     * @param hexKeyString    new network key, empty to generate one or to resume
+     * @param window          maximum number of outstanding requests, 0 for the default
+     * @param skipFailedNodes true to leave unreachable nodes behind, false to stop before switching keys
+     */
+    @ReactMethod
+    public void startKeyRefresh(int netKeyIndex, String hexKeyString, int window, boolean skipFailedNodes, Promise promise) {
+        try {
+            byte[] newKey = hexKeyString == null || hexKeyString.isEmpty() ? null : hexStringToByteArray(hexKeyString);
+            KeyRefreshEngine engine = meshRepository.startKeyRefresh(netKeyIndex, newKey, window > 0 ? window : KeyRefreshEngine.DEFAULT_WINDOW,
+                    skipFailedNodes, new KeyRefreshEngine.Listener() {
+                        @Override
+                        public void onNodeUpdated(@NonNull KeyRefreshEngine.NodeState node) {
+                            sendEvent(KEY_REFRESH_PROGRESS, convertKeyRefreshNodeToMap(node));
+                        }
+
+                        @Override
+                        public void onPhaseChanged(@NonNull KeyRefreshEngine.Phase phase, int nodes) {
+                            WritableMap map = new WritableNativeMap();
+                            map.putString("phase", phase.name());
+                            map.putInt("nodes", nodes);
+                            sendEvent(KEY_REFRESH_PHASE_CHANGED, map);
+                        }
+
+                        @Override
+                        public void onFinished(@NonNull KeyRefreshEngine.Phase phase, @NonNull List<KeyRefreshEngine.NodeState> nodes, long elapsedMs) {
+                            sendEvent(KEY_REFRESH_FINISHED, createKeyRefreshReport(meshRepository.getKeyRefreshEngine()));
+                        }
+                    });
+            promise.resolve(engine.getNodes().size());
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void stopKeyRefresh(Promise promise) {
+        meshRepository.stopKeyRefresh();
+        promise.resolve("success");
+    }
+
+    @ReactMethod
+    public void getKeyRefreshReport(Promise promise) {
+        KeyRefreshEngine engine = meshRepository.getKeyRefreshEngine();
+        if (engine == null) {
+            promise.reject("Key refresh was never started");
+            return;
+        }
+        promise.resolve(createKeyRefreshReport(engine));
+    }
+
+    private WritableMap convertKeyRefreshNodeToMap(KeyRefreshEngine.NodeState node) {
+        WritableMap map = new WritableNativeMap();
+        map.putInt("unicastAddress", node.getUnicastAddress());
+        map.putString("name", node.getName());
+        map.putBoolean("failed", node.isFailed());
+        map.putInt("retries", node.getRetries());
+        if (node.getCompletedPhase() != null) {
+            map.putString("completedPhase", node.getCompletedPhase().name());
+        }
+        if (node.getFailedPhase() != null) {
+            map.putString("failedPhase", node.getFailedPhase().name());
+            map.putString("error", node.getError());
+        }
+        WritableMap phases = new WritableNativeMap();
+        for (Map.Entry<KeyRefreshEngine.Phase, Long> entry : node.getPhaseDurations().entrySet()) {
+            phases.putDouble(entry.getKey().name(), entry.getValue());
+        }
+        map.putMap("phaseDurationsMs", phases);
+        return map;
+    }
+
+    private WritableMap createKeyRefreshReport(KeyRefreshEngine engine) {
+        WritableMap report = new WritableNativeMap();
+        WritableArray nodes = new WritableNativeArray();
+        int failed = 0;
+        for (KeyRefreshEngine.NodeState node : engine.getNodes()) {
+            nodes.pushMap(convertKeyRefreshNodeToMap(node));
+            if (node.isFailed()) {
+                failed++;
+            }
+        }
+        report.putString("phase", engine.getPhase() == null ? null : engine.getPhase().name());
+        report.putBoolean("running", engine.isRunning());
+        report.putInt("remainingInPhase", engine.getRemainingInPhase());
+        report.putInt("failed", failed);
+        report.putInt("requestsSent", engine.getSentCount());
+        report.putDouble("elapsedMs", engine.getElapsedMs());
+        report.putArray("nodes", nodes);
+        return report;
+    }
+
+    /* Bulk reset */
+
+    /**
+     * Resets the given nodes, a bounded number at a time.
+     *
+     * @param concurrency        maximum number of outstanding resets, 0 for the default
+     * @param removeUnresponsive true to remove the nodes that do not answer from the network anyway
+     */
+    @ReactMethod
+    public void resetNodes(ReadableArray unicastAddresses, int concurrency, boolean removeUnresponsive, Promise promise) {
+        try {
+            List<Integer> addresses = new ArrayList<>();
+            for (int i = 0; i < unicastAddresses.size(); i++) {
+                addresses.add(unicastAddresses.getInt(i));
+            }
+            BulkNodeReset reset = meshRepository.startBulkReset(addresses, concurrency > 0 ? concurrency : BulkNodeReset.DEFAULT_CONCURRENCY,
+                    removeUnresponsive, new BulkNodeReset.Listener() {
+                        @Override
+                        public void onNodeFinished(@NonNull BulkNodeReset.NodeResult result, int remaining) {
+                            WritableMap map = convertBulkResetResultToMap(result);
+                            map.putInt("remaining", remaining);
+                            sendEvent(BULK_RESET_PROGRESS, map);
+                        }
+
+                        @Override
+                        public void onFinished(@NonNull List<BulkNodeReset.NodeResult> results, @NonNull List<Integer> removed, long elapsedMs) {
+                            sendEvent(BULK_RESET_FINISHED, createBulkResetReport(results, removed.size(), elapsedMs));
+                        }
+                    });
+            promise.resolve(reset.getRemaining());
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void stopBulkReset(Promise promise) {
+        meshRepository.stopBulkReset();
+        promise.resolve("success");
+    }
+
+    @ReactMethod
+    public void getBulkResetReport(Promise promise) {
+        BulkNodeReset reset = meshRepository.getBulkNodeReset();
+        if (reset == null) {
+            promise.reject("Bulk reset was never started");
+            return;
+        }
+        int removed = 0;
+        for (BulkNodeReset.NodeResult result : reset.getResults()) {
+            if (result.getOutcome() == BulkNodeReset.Outcome.RESET || result.getOutcome() == BulkNodeReset.Outcome.REMOVED) {
+                removed++;
+            }
+        }
+        WritableMap map = createBulkResetReport(reset.getResults(), removed, reset.getElapsedMs());
+        map.putBoolean("running", reset.isRunning());
+        map.putInt("remaining", reset.getRemaining());
+        promise.resolve(map);
+    }
+
+    /**
+     * Removes the given nodes from the network without resetting them.
+     */
+    @ReactMethod
+    public void removeNodesFromNetwork(ReadableArray unicastAddresses, Promise promise) {
+        try {
+            List<Integer> addresses = new ArrayList<>();
+            for (int i = 0; i < unicastAddresses.size(); i++) {
+                addresses.add(unicastAddresses.getInt(i));
+            }
+            WritableArray removed = new WritableNativeArray();
+            for (Integer address : meshRepository.removeNodes(addresses)) {
+                removed.pushInt(address);
+            }
+            promise.resolve(removed);
+        } catch (Exception e) {
+            promise.reject(e.getMessage());
+        }
+    }
+
+    private WritableMap convertBulkResetResultToMap(BulkNodeReset.NodeResult result) {
+        WritableMap map = new WritableNativeMap();
+        map.putInt("unicastAddress", result.getUnicastAddress());
+        map.putString("name", result.getName());
+        map.putString("outcome", result.getOutcome() == null ? null : result.getOutcome().name());
+        map.putInt("attempts", result.getAttempts());
+        map.putDouble("durationMs", result.getDurationMs());
+        return map;
+    }
+
+    private WritableMap createBulkResetReport(List<BulkNodeReset.NodeResult> results, int removed, long elapsedMs) {
+        WritableMap report = new WritableNativeMap();
+        WritableArray items = new WritableNativeArray();
+        for (BulkNodeReset.NodeResult result : results) {
+            items.pushMap(convertBulkResetResultToMap(result));
+        }
+        report.putArray("items", items);
+        report.putInt("total", results.size());
+        report.putInt("removed", removed);
+        report.putDouble("elapsedMs", elapsedMs);
+        return report;
+    }
+}
@@ -0,0 +1,343 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.managers.DefaultManager;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.response.dflt.McuMgrAppInfoResponse;
+import io.runtime.mcumgr.response.dflt.McuMgrBootloaderInfoResponse;
+import io.runtime.mcumgr.response.dflt.McuMgrParamsResponse;
+
+/**
+ * Reads the SMP parameters, application info and bootloader info of a device, keyed by device address.
+ * <p>
+ * The queries do not depend on each other and are sent together, the transport matches the responses to them.
+ * Each query has its own timeout, after which it is reported as failed without holding back the others. The
+ * timeouts only start once the transport is connected, as a read right after the device was selected would
+ * otherwise spend them connecting. A complete record is kept for {@link #DEFAULT_TTL_MS} and reads of a device already being read share the result.
+ */
+public class DeviceInfoService {
+    private static final String TAG = DeviceInfoService.class.getSimpleName();
+
+    public static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+    static final long QUERY_TIMEOUT_MS = 3000;
+    // Time given to the transport to connect, after which the queries are sent anyway
+    static final long CONNECT_TIMEOUT_MS = 15000;
+    // Application info format returning the kernel name and version
+    private static final String APP_INFO_FORMAT = "sv";
+
+    public interface Callback {
+        void onDeviceInfo(@NonNull DeviceInfo info);
+    }
+
+    /**
+     * Information read from a device. Values the device did not report are null and the reason is in the errors.
+     */
+    public static class DeviceInfo {
+        private final String address;
+        private Integer bufCount;
+        private Integer bufSize;
+        private String appInfo;
+        private String bootloader;
+        private Integer bootloaderRc;
+        private Integer mcuBootMode;
+        private final Map<String, String> errors = new LinkedHashMap<>();
+        private final long startedMs = SystemClock.elapsedRealtime();
+        private long readMs;
+
+        DeviceInfo(@NonNull final String address) {
+            this.address = address;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        @Nullable
+        public Integer getBufCount() {
+            return bufCount;
+        }
+
+        @Nullable
+        public Integer getBufSize() {
+            return bufSize;
+        }
+
+        @Nullable
+        public String getAppInfo() {
+            return appInfo;
+        }
+
+        @Nullable
+        public String getBootloader() {
+            return bootloader;
+        }
+
+        @Nullable
+        public Integer getBootloaderRc() {
+            return bootloaderRc;
+        }
+
+        /**
+         * Returns the MCUboot mode, or null if the bootloader is not MCUboot or did not report it.
+         */
+        @Nullable
+        public Integer getMcuBootMode() {
+            return "MCUboot".equals(bootloader) ? mcuBootMode : null;
+        }
+
+        /**
+         * Returns the error of each failed query, by query name.
+         */
+        public Map<String, String> getErrors() {
+            return new LinkedHashMap<>(errors);
+        }
+
+        /**
+         * Returns the time the queries took, in milliseconds.
+         */
+        public long getDurationMs() {
+            return readMs - startedMs;
+        }
+
+        /**
+         * Returns the time since the information was read, in milliseconds.
+         */
+        public long getAgeMs() {
+            return SystemClock.elapsedRealtime() - readMs;
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, DeviceInfo> mCache = new HashMap<>();
+    private final Map<String, Read> mReads = new HashMap<>();
+    private long mTtlMs = DEFAULT_TTL_MS;
+
+    public synchronized void setTtl(final long ttlMs) {
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * Returns the information read from the device if not older than the TTL, or null.
+     */
+    @Nullable
+    public synchronized DeviceInfo getCached(@NonNull final String address) {
+        final DeviceInfo info = mCache.get(address);
+        if (info != null && info.getAgeMs() > mTtlMs) {
+            mCache.remove(address);
+            return null;
+        }
+        return info;
+    }
+
+    public synchronized void invalidate(@NonNull final String address) {
+        mCache.remove(address);
+    }
+
+    public synchronized void clear() {
+        mCache.clear();
+    }
+
+    /**
+     * Reads the information of the device, or reports the cached one right away.
+     *
+     * @param refresh true to read the device even if its information is cached
+     */
+    public void read(@NonNull final String address, @NonNull final DefaultManager manager, final boolean refresh,
+                     @NonNull final Callback callback) {
+        final Read read;
+        synchronized (this) {
+            final DeviceInfo cached = refresh ? null : getCached(address);
+            if (cached != null) {
+                callback.onDeviceInfo(cached);
+                return;
+            }
+            final Read pending = mReads.get(address);
+            if (pending != null) {
+                pending.callbacks.add(callback);
+                return;
+            }
+            read = new Read(new DeviceInfo(address));
+            read.callbacks.add(callback);
+            mReads.put(address, read);
+        }
+        read.start(manager);
+    }
+
+    private synchronized void onRead(final Read read) {
+        final DeviceInfo info = read.info;
+        info.readMs = SystemClock.elapsedRealtime();
+        mReads.remove(info.address);
+        if (!"MCUboot".equals(info.bootloader)) {
+            info.errors.remove("mode");
+        }
+        // A record with failed queries is not kept, the next read tries again
+        if (info.errors.isEmpty()) {
+            mCache.put(info.address, info);
+        }
+        Log.v(TAG, "Read " + info.address + " in " + info.getDurationMs() + " ms, " + info.errors.size() + " queries failed");
+        for (Callback callback : read.callbacks) {
+            callback.onDeviceInfo(info);
+        }
+    }
+
+    /**
+     * The queries of a device, completed when every query has answered, failed or timed out.
+     */
+    private class Read {
+        final DeviceInfo info;
+        final List<Callback> callbacks = new ArrayList<>();
+        int remaining;
+        private boolean mSent;
+
+        Read(final DeviceInfo info) {
+            this.info = info;
+        }
+
+        void start(final DefaultManager manager) {
+            final Runnable connectTimeout = () -> send(manager, QUERY_TIMEOUT_MS);
+            mHandler.postDelayed(connectTimeout, CONNECT_TIMEOUT_MS);
+            // Returns right away when the link is up, a lazy transport defers the connection to the first request
+            manager.getTransporter().connect(new McuMgrTransport.ConnectionCallback() {
+                @Override
+                public void onConnected() {
+                    mHandler.removeCallbacks(connectTimeout);
+                    send(manager, QUERY_TIMEOUT_MS);
+                }
+
+                @Override
+                public void onDeferred() {
+                    mHandler.removeCallbacks(connectTimeout);
+                    send(manager, CONNECT_TIMEOUT_MS + QUERY_TIMEOUT_MS);
+                }
+
+                @Override
+                public void onError(@NotNull final Throwable t) {
+                    Log.w(TAG, "Unable to connect to " + info.address + ": " + t.getMessage());
+                    mHandler.removeCallbacks(connectTimeout);
+                    send(manager, QUERY_TIMEOUT_MS);
+                }
+            });
+        }
+
+        /**
+         * Sends the queries, once.
+         *
+         * @param timeoutMs time each query is given to answer
+         */
+        private void send(final DefaultManager manager, final long timeoutMs) {
+            synchronized (this) {
+                if (mSent) {
+                    return;
+                }
+                mSent = true;
+                remaining = 4;
+            }
+            manager.params(new Query<McuMgrParamsResponse>(this, "params", timeoutMs) {
+                @Override
+                void apply(final McuMgrParamsResponse response) {
+                    info.bufCount = response.bufCount;
+                    info.bufSize = response.bufSize;
+                }
+            });
+            manager.appInfo(APP_INFO_FORMAT, new Query<McuMgrAppInfoResponse>(this, "appInfo", timeoutMs) {
+                @Override
+                void apply(final McuMgrAppInfoResponse response) {
+                    info.appInfo = response.output;
+                }
+            });
+            manager.bootloaderInfo(DefaultManager.BOOTLOADER_INFO_QUERY_BOOTLOADER, new Query<McuMgrBootloaderInfoResponse>(this, "bootloader", timeoutMs) {
+                @Override
+                void apply(final McuMgrBootloaderInfoResponse response) {
+                    info.bootloader = response.bootloader;
+                    info.bootloaderRc = response.rc;
+                }
+            });
+            // Only MCUboot answers this one, its result is dropped for other bootloaders
+            manager.bootloaderInfo(DefaultManager.BOOTLOADER_INFO_MCUBOOT_QUERY_MODE, new Query<McuMgrBootloaderInfoResponse>(this, "mode", timeoutMs) {
+                @Override
+                void apply(final McuMgrBootloaderInfoResponse response) {
+                    info.mcuBootMode = response.mode;
+                }
+            });
+        }
+
+        synchronized void onQueryDone() {
+            if (--remaining == 0) {
+                onRead(this);
+            }
+        }
+    }
+
+    private abstract class Query<T extends McuMgrResponse> implements McuMgrCallback<T> {
+        private final Read mRead;
+        private final String mName;
+        private final Runnable mTimeout;
+        private boolean mDone;
+
+        Query(final Read read, final String name, final long timeoutMs) {
+            mRead = read;
+            mName = name;
+            mTimeout = () -> {
+                if (finish()) {
+                    synchronized (mRead) {
+                        mRead.info.errors.put(mName, "Timed out");
+                    }
+                    mRead.onQueryDone();
+                }
+            };
+            mHandler.postDelayed(mTimeout, timeoutMs);
+        }
+
+        abstract void apply(T response);
+
+        @Override
+        public void onResponse(@NotNull final T response) {
+            if (finish()) {
+                synchronized (mRead) {
+                    apply(response);
+                }
+                mRead.onQueryDone();
+            }
+        }
+
+        @Override
+        public void onError(@NotNull final McuMgrException error) {
+            if (finish()) {
+                synchronized (mRead) {
+                    mRead.info.errors.put(mName, error.getMessage() == null ? error.toString() : error.getMessage());
+                }
+                mRead.onQueryDone();
+            }
+        }
+
+        /**
+         * Returns true the first time it is called, the query then ignores whatever comes next.
+         */
+        private synchronized boolean finish() {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mHandler.removeCallbacks(mTimeout);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.ti.simplelinkconnect.dfu;
+
+import androidx.annotation.NonNull;
+
+import io.runtime.mcumgr.dfu.FirmwareUpgradeManager;
+
+/**
+ * Derives the upload window and memory alignment from the SMP parameters reported by the device, instead of
+ * taking them from the user.
+ * <p>
+ * The device can hold {@code bufCount} SMP packets of {@code bufSize} bytes. One buffer is kept free for the
+ * responses and for other requests, the others are used to pipeline upload chunks. Pipelined chunks are
+ * aligned so that the device can write each one to flash as it arrives without buffering a partial word.
+ */
+public final class DfuParameterTuner {
+    // Window used when the device did not report its parameters, the mcumgr default
+    public static final int DEFAULT_WINDOW = 3;
+    public static final int MAX_WINDOW = 16;
+    // Flash write alignment of the targets supported by the app
+    static final int PIPELINED_ALIGNMENT = 4;
+    // SMP header and CBOR encoding of an upload request, besides the data
+    static final int UPLOAD_OVERHEAD = 24;
+
+    private DfuParameterTuner() {
+    }
+
+    /**
+     * Returns the number of upload chunks that can be outstanding.
+     *
+     * @param bufCount number of SMP buffers of the device, 0 if unknown
+     */
+    public static int getWindow(final int bufCount) {
+        if (bufCount <= 0) {
+            return DEFAULT_WINDOW;
+        }
+        return Math.max(1, Math.min(MAX_WINDOW, bufCount - 1));
+    }
+
+    public static int getMemoryAlignment(final int window) {
+        return window > 1 ? PIPELINED_ALIGNMENT : 1;
+    }
+
+    /**
+     * Returns the largest amount of image data an upload chunk can carry.
+     *
+     * @param bufSize size of the SMP buffers of the device, 0 if unknown
+     * @param mtu     maximum SMP packet size of the transport
+     */
+    public static int getChunkSize(final int bufSize, final int mtu) {
+        final int packet = bufSize > 0 ? Math.min(bufSize, mtu) : mtu;
+        return Math.max(PIPELINED_ALIGNMENT, packet - UPLOAD_OVERHEAD);
+    }
+
+    /**
+     * Returns the settings with the window and alignment derived from the device parameters. The window then
+     * adapts to the response times of a streamed upload, the derived one being its capacity.
+     */
+    public static DfuSettings derive(final int bufCount, final boolean eraseStorage, final int swapTimeSeconds,
+                                     @NonNull final FirmwareUpgradeManager.Mode mode) {
+        final int window = getWindow(bufCount);
+        return new DfuSettings(eraseStorage, swapTimeSeconds, getMemoryAlignment(window), window, mode, true);
+    }
+}
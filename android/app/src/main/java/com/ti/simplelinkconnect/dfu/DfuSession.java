@@ -0,0 +1,169 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.dfu.FirmwareUpgradeManager;
+import io.runtime.mcumgr.managers.DefaultManager;
+import io.runtime.mcumgr.managers.ImageManager;
+
+/**
+ * Firmware upgrade of a single device, with the transport and managers it owns.
+ */
+public class DfuSession {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED,
+        // The device already runs the image
+        SKIPPED
+    }
+
+    private final String address;
+    private McuMgrTransport transport;
+    private DefaultManager defaultManager;
+    private ImageManager imageManager;
+    private FirmwareUpgradeManager firmwareUpgradeManager;
+    // Upgrade of a single image streamed from its mapping, null when the firmware upgrade manager runs it
+    private StreamingFirmwareUpgrade streamingUpgrade;
+
+    private volatile Status status = Status.QUEUED;
+    private volatile FirmwareUpgradeManager.State state = FirmwareUpgradeManager.State.NONE;
+    private volatile int bytesSent;
+    private volatile int imageSize;
+    private volatile String error;
+    private final long queuedMs = SystemClock.elapsedRealtime();
+    private long startMs;
+    private long finishedMs;
+    private long lastProgressEmitMs;
+
+    DfuSession(@NonNull final String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public McuMgrTransport getTransport() {
+        return transport;
+    }
+
+    public DefaultManager getDefaultManager() {
+        return defaultManager;
+    }
+
+    public ImageManager getImageManager() {
+        return imageManager;
+    }
+
+    public FirmwareUpgradeManager getFirmwareUpgradeManager() {
+        return firmwareUpgradeManager;
+    }
+
+    public StreamingFirmwareUpgrade getStreamingUpgrade() {
+        return streamingUpgrade;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public FirmwareUpgradeManager.State getState() {
+        return state;
+    }
+
+    public int getBytesSent() {
+        return bytesSent;
+    }
+
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns true when a progress event of the session should be sent now, at most once per
+     * {@link DfuTelemetry#PROGRESS_INTERVAL_MS} except for the last one of the upload.
+     */
+    public synchronized boolean shouldEmitProgress() {
+        final long now = SystemClock.elapsedRealtime();
+        if (imageSize > 0 && bytesSent >= imageSize || now - lastProgressEmitMs >= DfuTelemetry.PROGRESS_INTERVAL_MS) {
+            lastProgressEmitMs = now;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isActive() {
+        return status == Status.QUEUED || status == Status.RUNNING;
+    }
+
+    /**
+     * Returns the time spent waiting for a free slot, in milliseconds.
+     */
+    public long getQueuedMs() {
+        return (startMs == 0 ? SystemClock.elapsedRealtime() : startMs) - queuedMs;
+    }
+
+    /**
+     * Returns the time from the start of the upgrade until it finished, in milliseconds.
+     */
+    public long getDurationMs() {
+        if (startMs == 0) {
+            return 0;
+        }
+        return (finishedMs == 0 ? SystemClock.elapsedRealtime() : finishedMs) - startMs;
+    }
+
+    void attach(@NonNull final McuMgrTransport transport) {
+        this.transport = transport;
+        this.defaultManager = new DefaultManager(transport);
+        this.imageManager = new ImageManager(transport);
+        this.firmwareUpgradeManager = new FirmwareUpgradeManager(transport);
+    }
+
+    void setStreamingUpgrade(final StreamingFirmwareUpgrade streamingUpgrade) {
+        this.streamingUpgrade = streamingUpgrade;
+    }
+
+    /**
+     * Cancels the upgrade, whichever runs it.
+     */
+    void cancel() {
+        if (streamingUpgrade != null) {
+            streamingUpgrade.cancel();
+        }
+        else if (firmwareUpgradeManager != null) {
+            firmwareUpgradeManager.cancel();
+        }
+    }
+
+    void onStarted() {
+        status = Status.RUNNING;
+        startMs = SystemClock.elapsedRealtime();
+    }
+
+    void onStateChanged(final FirmwareUpgradeManager.State state) {
+        this.state = state;
+    }
+
+    void onProgress(final int bytesSent, final int imageSize) {
+        this.bytesSent = bytesSent;
+        this.imageSize = imageSize;
+    }
+
+    void finish(@NonNull final Status status, final String error) {
+        this.status = status;
+        this.error = error;
+        finishedMs = SystemClock.elapsedRealtime();
+    }
+}
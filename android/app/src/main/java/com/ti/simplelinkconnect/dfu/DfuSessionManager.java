@@ -0,0 +1,340 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.dfu.FirmwareUpgradeCallback;
+import io.runtime.mcumgr.dfu.FirmwareUpgradeController;
+import io.runtime.mcumgr.dfu.FirmwareUpgradeManager;
+import io.runtime.mcumgr.dfu.model.McuMgrImageSet;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
+
+/**
+ * Upgrades the firmware of a fleet of devices, keyed by device address, with at most a given number of
+ * upgrades running at the same time.
+ * <p>
+ * Every device gets its own transport and managers. A single image is streamed to every device from the same
+ * mapping of the file, the images of a multi-image package are read once and shared by every session.
+ * As soon as an upgrade finishes, whatever its outcome, the next queued device is started. When the hash of
+ * the image is known, a device already running and having confirmed the image is skipped.
+ */
+public class DfuSessionManager {
+    private static final String TAG = DfuSessionManager.class.getSimpleName();
+
+    public static final int DEFAULT_CONCURRENCY = 3;
+
+    /**
+     * Creates and releases the transport of a device.
+     */
+    public interface TransportFactory {
+        McuMgrTransport create(@NonNull String address) throws Exception;
+
+        void release(@NonNull String address, @NonNull McuMgrTransport transport);
+    }
+
+    public interface Listener {
+        void onSessionProgress(@NonNull DfuSession session);
+
+        void onSessionStateChanged(@NonNull DfuSession session);
+
+        void onSessionFinished(@NonNull DfuSession session, int remaining);
+
+        void onFleetFinished(@NonNull List<DfuSession> sessions, long elapsedMs);
+    }
+
+    private final TransportFactory mTransportFactory;
+    private final ImageOperationQueue mOperationQueue;
+    private final Listener mListener;
+
+    private final Map<String, DfuSession> mSessions = new LinkedHashMap<>();
+    private final Deque<DfuSession> mQueue = new ArrayDeque<>();
+    private int mConcurrency = DEFAULT_CONCURRENCY;
+    private int mRunning;
+    private FirmwareImageSource mImage;
+    // Images of a multi-image package with their image index, null for a single image
+    private List<Pair<Integer, byte[]>> mImages;
+    private byte[] mImageHash;
+    private boolean mCancelled;
+    private DfuSettings mSettings;
+    private long mStartMs;
+    private long mFinishedMs;
+
+    /**
+     * @param transportFactory creates the transports of the devices
+     * @param operationQueue   queue the test, confirm and reset of a single image are sent through
+     * @param listener         notified of the progress of every device
+     */
+    public DfuSessionManager(@NonNull final TransportFactory transportFactory, @NonNull final ImageOperationQueue operationQueue,
+                             @NonNull final Listener listener) {
+        mTransportFactory = transportFactory;
+        mOperationQueue = operationQueue;
+        mListener = listener;
+    }
+
+    /**
+     * Starts upgrading the given devices.
+     *
+     * @param addresses   addresses of the devices
+     * @param image       firmware image, shared by every session and closed once the fleet update finishes
+     * @param imageHash   hash of the image as reported by the devices, which it is tested and confirmed with; null to
+     *                    upgrade every device without checking what it runs, in the NONE mode only
+     * @param settings    upgrade settings, the same for every device
+     * @param concurrency maximum number of upgrades running at the same time
+     */
+    public synchronized void start(@NonNull final List<String> addresses, @NonNull final FirmwareImageSource image, final byte[] imageHash,
+                                   @NonNull final DfuSettings settings, final int concurrency) {
+        start(addresses, image, null, imageHash, settings, concurrency);
+    }
+
+    /**
+     * Starts upgrading the given devices with the images of a multi-image package, swapped together. Every
+     * device is upgraded, whatever it runs.
+     *
+     * @param addresses   addresses of the devices
+     * @param images      images with their image index, as returned by {@link FirmwarePackage#getBinaries()}
+     * @param settings    upgrade settings, the same for every device
+     * @param concurrency maximum number of upgrades running at the same time
+     */
+    public synchronized void start(@NonNull final List<String> addresses, @NonNull final List<Pair<Integer, byte[]>> images,
+                                   @NonNull final DfuSettings settings, final int concurrency) {
+        start(addresses, null, images, null, settings, concurrency);
+    }
+
+    private void start(final List<String> addresses, final FirmwareImageSource image, final List<Pair<Integer, byte[]>> images, final byte[] imageHash,
+                       final DfuSettings settings, final int concurrency) {
+        if (isRunning()) {
+            throw new IllegalStateException("Fleet update is already running");
+        }
+        mSessions.clear();
+        mQueue.clear();
+        mImage = image;
+        mImages = images;
+        mImageHash = imageHash;
+        mCancelled = false;
+        mSettings = settings;
+        mConcurrency = Math.max(1, concurrency);
+        mRunning = 0;
+        for (String address : addresses) {
+            if (address != null && !mSessions.containsKey(address)) {
+                final DfuSession session = new DfuSession(address);
+                mSessions.put(address, session);
+                mQueue.add(session);
+            }
+        }
+        mStartMs = SystemClock.elapsedRealtime();
+        mFinishedMs = 0;
+        Log.v(TAG, "Updating " + mSessions.size() + " devices, " + mConcurrency + " at a time");
+        startNext();
+        if (!isRunning()) {
+            finishFleet();
+        }
+    }
+
+    /**
+     * Cancels the running upgrades and drops the queued ones.
+     */
+    public synchronized void cancel() {
+        mCancelled = true;
+        for (DfuSession session : mQueue) {
+            session.finish(DfuSession.Status.CANCELLED, null);
+        }
+        mQueue.clear();
+        for (DfuSession session : mSessions.values()) {
+            if (session.getStatus() == DfuSession.Status.RUNNING) {
+                session.cancel();
+            }
+        }
+        if (mRunning == 0) {
+            finishFleet();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return !mQueue.isEmpty() || mRunning > 0;
+    }
+
+    public synchronized DfuSession getSession(final String address) {
+        return mSessions.get(address);
+    }
+
+    public synchronized List<DfuSession> getSessions() {
+        return new ArrayList<>(mSessions.values());
+    }
+
+    public synchronized int getConcurrency() {
+        return mConcurrency;
+    }
+
+    /**
+     * Returns the time since the fleet update started, or its total time once finished, in milliseconds.
+     */
+    public synchronized long getElapsedMs() {
+        if (mStartMs == 0) {
+            return 0;
+        }
+        return (mFinishedMs == 0 ? SystemClock.elapsedRealtime() : mFinishedMs) - mStartMs;
+    }
+
+    private void startNext() {
+        while (mRunning < mConcurrency && !mQueue.isEmpty()) {
+            final DfuSession session = mQueue.poll();
+            mRunning++;
+            try {
+                session.attach(mTransportFactory.create(session.getAddress()));
+                session.onStarted();
+                if (mImageHash == null) {
+                    startUpgrade(session);
+                }
+                else {
+                    checkImages(session);
+                }
+            } catch (Exception ex) {
+                Log.e(TAG, "Unable to start the upgrade of " + session.getAddress() + ": " + ex.getMessage());
+                onSessionFinished(session, DfuSession.Status.FAILED, ex.getMessage());
+            }
+        }
+    }
+
+    private void startUpgrade(final DfuSession session) throws McuMgrException {
+        if (mImages == null) {
+            final StreamingFirmwareUpgrade upgrade = new StreamingFirmwareUpgrade(session.getAddress(), session.getTransport(),
+                    session.getImageManager(), session.getDefaultManager(), mOperationQueue, mImage, mSettings, new SessionCallback(session));
+            upgrade.setImageHash(mImageHash);
+            session.setStreamingUpgrade(upgrade);
+            upgrade.start(false);
+            return;
+        }
+        final FirmwareUpgradeManager manager = session.getFirmwareUpgradeManager();
+        mSettings.applyTo(manager);
+        manager.setFirmwareUpgradeCallback(new SessionCallback(session));
+        final McuMgrImageSet set = new McuMgrImageSet();
+        set.add(mImages);
+        manager.start(set, mSettings.isEraseStorage());
+    }
+
+    /**
+     * Lists the images of the device and skips it if it already runs the image, or starts its upgrade.
+     */
+    private void checkImages(final DfuSession session) {
+        session.getImageManager().list(new McuMgrCallback<McuMgrImageStateResponse>() {
+            @Override
+            public void onResponse(@NotNull final McuMgrImageStateResponse response) {
+                onImagesListed(session, response.images);
+            }
+
+            @Override
+            public void onError(@NotNull final McuMgrException error) {
+                // The upgrade validates the images again and reports the error if it persists
+                Log.w(TAG, "Unable to list the images of " + session.getAddress() + ": " + error.getMessage());
+                onImagesListed(session, null);
+            }
+        });
+    }
+
+    private synchronized void onImagesListed(final DfuSession session, final McuMgrImageStateResponse.ImageSlot[] slots) {
+        if (mCancelled) {
+            onSessionFinished(session, DfuSession.Status.CANCELLED, null);
+            return;
+        }
+        if (slots != null) {
+            for (McuMgrImageStateResponse.ImageSlot slot : slots) {
+                if (slot.active && slot.confirmed && Arrays.equals(slot.hash, mImageHash)) {
+                    Log.v(TAG, session.getAddress() + " already runs the image");
+                    onSessionFinished(session, DfuSession.Status.SKIPPED, null);
+                    return;
+                }
+            }
+        }
+        try {
+            startUpgrade(session);
+        } catch (Exception ex) {
+            Log.e(TAG, "Unable to start the upgrade of " + session.getAddress() + ": " + ex.getMessage());
+            onSessionFinished(session, DfuSession.Status.FAILED, ex.getMessage());
+        }
+    }
+
+    private synchronized void onSessionFinished(final DfuSession session, final DfuSession.Status status, final String error) {
+        if (!session.isActive()) {
+            return;
+        }
+        session.finish(status, error);
+        mRunning--;
+        if (session.getTransport() != null) {
+            mTransportFactory.release(session.getAddress(), session.getTransport());
+        }
+        mListener.onSessionFinished(session, mQueue.size() + mRunning);
+        startNext();
+        if (!isRunning()) {
+            finishFleet();
+        }
+    }
+
+    private void finishFleet() {
+        if (mFinishedMs != 0) {
+            return;
+        }
+        mFinishedMs = SystemClock.elapsedRealtime();
+        if (mImage != null) {
+            mImage.close();
+        }
+        mImage = null;
+        mImages = null;
+        Log.v(TAG, "Fleet update finished after " + getElapsedMs() + " ms");
+        mListener.onFleetFinished(getSessions(), getElapsedMs());
+    }
+
+    private class SessionCallback implements FirmwareUpgradeCallback {
+        private final DfuSession mSession;
+
+        SessionCallback(final DfuSession session) {
+            mSession = session;
+        }
+
+        @Override
+        public void onUpgradeStarted(final FirmwareUpgradeController controller) {
+        }
+
+        @Override
+        public void onStateChanged(final FirmwareUpgradeManager.State prevState, final FirmwareUpgradeManager.State newState) {
+            mSession.onStateChanged(newState);
+            mListener.onSessionStateChanged(mSession);
+        }
+
+        @Override
+        public void onUpgradeCompleted() {
+            onSessionFinished(mSession, DfuSession.Status.COMPLETED, null);
+        }
+
+        @Override
+        public void onUpgradeFailed(final FirmwareUpgradeManager.State state, final McuMgrException error) {
+            onSessionFinished(mSession, DfuSession.Status.FAILED, state.name() + ": " + error.getMessage());
+        }
+
+        @Override
+        public void onUpgradeCanceled(final FirmwareUpgradeManager.State state) {
+            onSessionFinished(mSession, DfuSession.Status.CANCELLED, null);
+        }
+
+        @Override
+        public void onUploadProgressChanged(final int bytesSent, final int imageSize, final long timestamp) {
+            mSession.onProgress(bytesSent, imageSize);
+            mListener.onSessionProgress(mSession);
+        }
+    }
+}
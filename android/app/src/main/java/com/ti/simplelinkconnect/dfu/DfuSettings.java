@@ -0,0 +1,87 @@
+package com.ti.simplelinkconnect.dfu;
+
+import androidx.annotation.NonNull;
+
+import io.runtime.mcumgr.dfu.FirmwareUpgradeManager;
+
+/**
+ * Settings of a firmware upgrade, as chosen in the DFU screen.
+ */
+public class DfuSettings {
+    private final boolean eraseStorage;
+    private final int swapTimeSeconds;
+    private final int memoryAlignment;
+    private final int windowCapacity;
+    private final FirmwareUpgradeManager.Mode mode;
+    // The window adapts to the response times during a streamed upload, up to the window capacity
+    private final boolean adaptive;
+
+    public DfuSettings(final boolean eraseStorage, final int swapTimeSeconds, final int memoryAlignment, final int windowCapacity,
+                       @NonNull final FirmwareUpgradeManager.Mode mode) {
+        this(eraseStorage, swapTimeSeconds, memoryAlignment, windowCapacity, mode, false);
+    }
+
+    public DfuSettings(final boolean eraseStorage, final int swapTimeSeconds, final int memoryAlignment, final int windowCapacity,
+                       @NonNull final FirmwareUpgradeManager.Mode mode, final boolean adaptive) {
+        this.eraseStorage = eraseStorage;
+        this.swapTimeSeconds = swapTimeSeconds;
+        this.memoryAlignment = memoryAlignment;
+        this.windowCapacity = windowCapacity;
+        this.mode = mode;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Returns the mode matching the upgrade mode names shown in the DFU screen.
+     */
+    public static FirmwareUpgradeManager.Mode parseMode(final String upgradeMode) {
+        if (upgradeMode == null) {
+            return FirmwareUpgradeManager.Mode.NONE;
+        }
+        switch (upgradeMode) {
+            case "Test and Confirm":
+                return FirmwareUpgradeManager.Mode.TEST_AND_CONFIRM;
+            case "Test Only":
+                return FirmwareUpgradeManager.Mode.TEST_ONLY;
+            case "Confirm Only":
+                return FirmwareUpgradeManager.Mode.CONFIRM_ONLY;
+            default:
+                return FirmwareUpgradeManager.Mode.NONE;
+        }
+    }
+
+    public boolean isEraseStorage() {
+        return eraseStorage;
+    }
+
+    public int getSwapTimeSeconds() {
+        return swapTimeSeconds;
+    }
+
+    public int getMemoryAlignment() {
+        return memoryAlignment;
+    }
+
+    public int getWindowCapacity() {
+        return windowCapacity;
+    }
+
+    public FirmwareUpgradeManager.Mode getMode() {
+        return mode;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Applies the settings to the manager, except for erasing the storage which is given when starting.
+     * The manager keeps the window at its capacity, it does not adapt it.
+     */
+    public void applyTo(@NonNull final FirmwareUpgradeManager manager) {
+        manager.setMemoryAlignment(memoryAlignment);
+        manager.setEstimatedSwapTime(swapTimeSeconds * 1000);
+        manager.setWindowUploadCapacity(windowCapacity);
+        manager.setMode(mode);
+    }
+}
@@ -0,0 +1,267 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Throughput and latency figures of a single upgrade: instantaneous and average upload rate, a histogram of
+ * the chunk response times, retransmissions and the time spent in each upgrade state.
+ * <p>
+ * The figures are kept after the upgrade finishes, until the next one is started.
+ */
+public class DfuTelemetry {
+    // Minimum interval between two progress events sent to JS
+    public static final long PROGRESS_INTERVAL_MS = 250;
+    // Period over which the instantaneous rate is measured
+    static final long INSTANT_PERIOD_MS = 1000;
+    // Upper bounds of the response time buckets, in milliseconds, the last bucket takes everything above
+    private static final int[] RTT_BUCKET_BOUNDS_MS = {20, 50, 100, 200, 500, 1000, 2000};
+
+    // Progress samples of the last period, as {time, bytes}
+    private final Deque<long[]> mSamples = new ArrayDeque<>();
+    private final Map<String, Long> mStateDurations = new LinkedHashMap<>();
+    private final int[] mRttHistogram = new int[RTT_BUCKET_BOUNDS_MS.length + 1];
+
+    private long mStartMs;
+    private long mFinishedMs;
+    private String mOutcome;
+    private String mState;
+    private long mStateSinceMs;
+    private int mBytesSent;
+    private int mImageSize;
+    private long mFirstProgressMs;
+    private int mFirstProgressBytes;
+    private long mLastProgressMs;
+    private long mLastEmitMs;
+    // Time of the last acknowledgement reported by FirmwareUpgradeManager, 0 until the first one
+    private long mLastAckMs;
+    private int mRttCount;
+    private long mRttTotalNanos;
+    private long mRttMinNanos;
+    private long mRttMaxNanos;
+    private int mRetransmits;
+    private long mRetransmittedBytes;
+
+    public synchronized void start() {
+        mSamples.clear();
+        mStateDurations.clear();
+        Arrays.fill(mRttHistogram, 0);
+        mStartMs = SystemClock.elapsedRealtime();
+        mFinishedMs = 0;
+        mOutcome = null;
+        mState = null;
+        mStateSinceMs = mStartMs;
+        mBytesSent = 0;
+        mImageSize = 0;
+        mFirstProgressMs = 0;
+        mFirstProgressBytes = 0;
+        mLastProgressMs = 0;
+        mLastEmitMs = 0;
+        mLastAckMs = 0;
+        mRttCount = 0;
+        mRttTotalNanos = 0;
+        mRttMinNanos = 0;
+        mRttMaxNanos = 0;
+        mRetransmits = 0;
+        mRetransmittedBytes = 0;
+    }
+
+    /**
+     * Closes the time of the current state and starts timing the given one.
+     */
+    public synchronized void onStateChanged(@NonNull final String state) {
+        closeState(SystemClock.elapsedRealtime());
+        mState = state;
+    }
+
+    public synchronized void onProgress(final int bytesSent, final int imageSize) {
+        final long now = SystemClock.elapsedRealtime();
+        if (bytesSent < mBytesSent) {
+            // The upload went back, the bytes in between are sent again
+            onRetransmit(mBytesSent - bytesSent);
+            mSamples.clear();
+            mLastAckMs = 0;
+        }
+        if (mFirstProgressMs == 0) {
+            mFirstProgressMs = now;
+            mFirstProgressBytes = bytesSent;
+        }
+        mBytesSent = bytesSent;
+        mImageSize = imageSize;
+        mLastProgressMs = now;
+        mSamples.add(new long[]{now, bytesSent});
+        while (mSamples.size() > 2 && now - mSamples.peekFirst()[0] > INSTANT_PERIOD_MS) {
+            mSamples.pollFirst();
+        }
+    }
+
+    /**
+     * Records the time between sending a chunk and receiving its response.
+     */
+    public synchronized void onChunk(final long rttNanos) {
+        if (mRttCount == 0 || rttNanos < mRttMinNanos) {
+            mRttMinNanos = rttNanos;
+        }
+        mRttMaxNanos = Math.max(mRttMaxNanos, rttNanos);
+        mRttTotalNanos += rttNanos;
+        mRttCount++;
+        final long rttMs = rttNanos / 1000000;
+        int bucket = 0;
+        while (bucket < RTT_BUCKET_BOUNDS_MS.length && rttMs >= RTT_BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        mRttHistogram[bucket]++;
+    }
+
+    /**
+     * Records the response time of an upload chunk from the progress reports of FirmwareUpgradeManager, which
+     * gives no access to its requests. With {@code window} chunks outstanding, a chunk sent as a response frees
+     * a slot is answered {@code window} responses later, so the response time is estimated as the time between
+     * two reports times the window.
+     *
+     * @param timestampMs time of the progress report, as given to the upgrade callback
+     * @param window      window capacity of the upload
+     */
+    public synchronized void onAcknowledged(final long timestampMs, final int window) {
+        if (mLastAckMs != 0 && timestampMs > mLastAckMs) {
+            onChunk((timestampMs - mLastAckMs) * Math.max(1, window) * 1000000L);
+        }
+        mLastAckMs = timestampMs;
+    }
+
+    public synchronized void onRetransmit(final long bytes) {
+        mRetransmits++;
+        mRetransmittedBytes += bytes;
+    }
+
+    /**
+     * Returns true when a progress event should be sent now, at most once per {@link #PROGRESS_INTERVAL_MS}
+     * except for the last one of the upload.
+     */
+    public synchronized boolean shouldEmitProgress() {
+        final long now = SystemClock.elapsedRealtime();
+        if (mImageSize > 0 && mBytesSent >= mImageSize || now - mLastEmitMs >= PROGRESS_INTERVAL_MS) {
+            mLastEmitMs = now;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void finish(@NonNull final String outcome) {
+        if (mFinishedMs != 0) {
+            return;
+        }
+        mFinishedMs = SystemClock.elapsedRealtime();
+        closeState(mFinishedMs);
+        mState = null;
+        mOutcome = outcome;
+    }
+
+    public synchronized boolean isFinished() {
+        return mFinishedMs != 0;
+    }
+
+    public synchronized String getOutcome() {
+        return mOutcome;
+    }
+
+    public synchronized long getElapsedMs() {
+        if (mStartMs == 0) {
+            return 0;
+        }
+        return (mFinishedMs == 0 ? SystemClock.elapsedRealtime() : mFinishedMs) - mStartMs;
+    }
+
+    public synchronized int getBytesSent() {
+        return mBytesSent;
+    }
+
+    public synchronized int getImageSize() {
+        return mImageSize;
+    }
+
+    /**
+     * Returns the upload rate over the last second of progress, in bytes per second.
+     */
+    public synchronized double getInstantThroughput() {
+        if (mSamples.size() < 2) {
+            return 0;
+        }
+        final long[] first = mSamples.peekFirst();
+        final long[] last = mSamples.peekLast();
+        return last[0] == first[0] ? 0 : (last[1] - first[1]) * 1000.0 / (last[0] - first[0]);
+    }
+
+    /**
+     * Returns the upload rate from the first to the last progress report, in bytes per second.
+     */
+    public synchronized double getAverageThroughput() {
+        if (mLastProgressMs <= mFirstProgressMs) {
+            return 0;
+        }
+        return (mBytesSent - mFirstProgressBytes) * 1000.0 / (mLastProgressMs - mFirstProgressMs);
+    }
+
+    /**
+     * Returns the time spent in each state, in the order they were entered, including the current one.
+     */
+    public synchronized Map<String, Long> getStateDurations() {
+        final Map<String, Long> durations = new LinkedHashMap<>(mStateDurations);
+        if (mState != null) {
+            final Long previous = durations.get(mState);
+            durations.put(mState, (previous == null ? 0 : previous) + SystemClock.elapsedRealtime() - mStateSinceMs);
+        }
+        return durations;
+    }
+
+    public static int[] getRttBucketBoundsMs() {
+        return RTT_BUCKET_BOUNDS_MS.clone();
+    }
+
+    /**
+     * Returns the number of responses per bucket, the bucket {@code i} counting the response times below
+     * {@code getRttBucketBoundsMs()[i]} and the last one those above every bound.
+     */
+    public synchronized int[] getRttHistogram() {
+        return mRttHistogram.clone();
+    }
+
+    public synchronized int getRttCount() {
+        return mRttCount;
+    }
+
+    public synchronized double getMinRttMs() {
+        return mRttMinNanos / 1000000.0;
+    }
+
+    public synchronized double getMaxRttMs() {
+        return mRttMaxNanos / 1000000.0;
+    }
+
+    public synchronized double getAverageRttMs() {
+        return mRttCount == 0 ? 0 : mRttTotalNanos / 1000000.0 / mRttCount;
+    }
+
+    public synchronized int getRetransmits() {
+        return mRetransmits;
+    }
+
+    public synchronized long getRetransmittedBytes() {
+        return mRetransmittedBytes;
+    }
+
+    private void closeState(final long now) {
+        if (mState != null) {
+            final Long previous = mStateDurations.get(mState);
+            mStateDurations.put(mState, (previous == null ? 0 : previous) + now - mStateSinceMs);
+        }
+        mStateSinceMs = now;
+    }
+}
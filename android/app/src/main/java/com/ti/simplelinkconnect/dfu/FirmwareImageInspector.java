@@ -0,0 +1,193 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Parses firmware files and hashes them on a background thread, keeping the result per file until the file
+ * changes, so that the hashes are ready when the upgrade starts. Multi-image packages are read on the same
+ * thread.
+ */
+public class FirmwareImageInspector {
+    private static final String TAG = FirmwareImageInspector.class.getSimpleName();
+
+    public interface Callback {
+        void onInspected(@NonNull Inspection inspection);
+
+        void onError(@NonNull Exception error);
+    }
+
+    public interface PackageCallback {
+        void onPackageLoaded(@NonNull FirmwarePackage firmwarePackage);
+
+        void onError(@NonNull Exception error);
+    }
+
+    /**
+     * Outcome of the inspection of a firmware file.
+     */
+    public static class Inspection {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final byte[] sha256;
+        private final McuBootImageInfo imageInfo;
+        private final boolean hashValid;
+
+        Inspection(@NonNull final File file, @NonNull final byte[] sha256, @Nullable final McuBootImageInfo imageInfo, final boolean hashValid) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.sha256 = sha256;
+            this.imageInfo = imageInfo;
+            this.hashValid = hashValid;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the SHA-256 of the whole file.
+         */
+        public byte[] getSha256() {
+            return sha256.clone();
+        }
+
+        /**
+         * Returns the MCUboot header and TLVs, or null if the file is not an MCUboot image.
+         */
+        @Nullable
+        public McuBootImageInfo getImageInfo() {
+            return imageInfo;
+        }
+
+        /**
+         * Returns the hash the device reports for a slot holding this image, or null if unknown.
+         */
+        @Nullable
+        public byte[] getImageHash() {
+            return imageInfo == null ? null : imageInfo.getHash();
+        }
+
+        /**
+         * Returns true if the hash TLV matches the hash computed over the image.
+         */
+        public boolean isHashValid() {
+            return hashValid;
+        }
+
+        boolean isCurrent() {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, Inspection> mInspections = new HashMap<>();
+    // Last package loaded, packages are large and only one is needed at a time
+    private FirmwarePackage mPackage;
+    private long mPackageLength;
+    private long mPackageLastModified;
+
+    /**
+     * Returns the inspection of the file if it was done and the file did not change since, or null.
+     */
+    @Nullable
+    public synchronized Inspection getCached(@NonNull final File file) {
+        final Inspection inspection = mInspections.get(file.getAbsolutePath());
+        return inspection != null && inspection.isCurrent() ? inspection : null;
+    }
+
+    /**
+     * Inspects the file on the background thread, or reports the cached inspection right away.
+     */
+    public void inspect(@NonNull final File file, @NonNull final Callback callback) {
+        final Inspection cached = getCached(file);
+        if (cached != null) {
+            callback.onInspected(cached);
+            return;
+        }
+        mExecutor.execute(() -> {
+            try {
+                callback.onInspected(inspectNow(file));
+            } catch (Exception ex) {
+                callback.onError(ex);
+            }
+        });
+    }
+
+    /**
+     * Inspects the file on the calling thread, unless it was already.
+     */
+    @NonNull
+    public Inspection inspectNow(@NonNull final File file) throws IOException, NoSuchAlgorithmException {
+        final Inspection cached = getCached(file);
+        if (cached != null) {
+            return cached;
+        }
+        McuBootImageInfo info = null;
+        boolean valid = false;
+        final byte[] sha256;
+        try (FirmwareImageSource source = FirmwareImageSource.open(file)) {
+            try {
+                info = McuBootImageInfo.parse(source);
+                valid = info.verify(source);
+                if (!valid) {
+                    Log.w(TAG, "Hash of " + file.getName() + " does not match its hash TLV");
+                }
+            } catch (IOException ex) {
+                Log.w(TAG, file.getName() + " is not an MCUboot image: " + ex.getMessage());
+            }
+            sha256 = source.getSha256();
+        }
+        final Inspection inspection = new Inspection(file, sha256, info, valid);
+        synchronized (this) {
+            mInspections.put(file.getAbsolutePath(), inspection);
+        }
+        return inspection;
+    }
+
+    /**
+     * Loads the multi-image package on the background thread, or reports it right away if already loaded.
+     */
+    public void loadPackage(@NonNull final File file, @NonNull final PackageCallback callback) {
+        final FirmwarePackage loaded;
+        synchronized (this) {
+            loaded = mPackage != null && mPackage.getFile().equals(file) && file.length() == mPackageLength
+                    && file.lastModified() == mPackageLastModified ? mPackage : null;
+        }
+        if (loaded != null) {
+            callback.onPackageLoaded(loaded);
+            return;
+        }
+        mExecutor.execute(() -> {
+            try {
+                final long length = file.length();
+                final long lastModified = file.lastModified();
+                final FirmwarePackage firmwarePackage = FirmwarePackage.load(file);
+                synchronized (this) {
+                    mPackage = firmwarePackage;
+                    mPackageLength = length;
+                    mPackageLastModified = lastModified;
+                }
+                callback.onPackageLoaded(firmwarePackage);
+            } catch (Exception ex) {
+                callback.onError(ex);
+            }
+        });
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,191 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Firmware image backed by a read-only memory mapping of the file.
+ * <p>
+ * The content stays in the page cache rather than on the Java heap, chunks are copied out only when they are
+ * sent. A heap copy of the whole image is made only on request, for the APIs that need a byte array.
+ * Images extracted from a package are wrapped as they are, already on the heap.
+ * <p>
+ * The mapping is released when the source is closed, reading it afterwards throws an IllegalStateException.
+ */
+public class FirmwareImageSource implements Closeable {
+    private static final String TAG = FirmwareImageSource.class.getSimpleName();
+    // Size of the blocks the image is hashed in
+    private static final int DIGEST_BLOCK_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private final ByteBuffer mBuffer;
+    private final int mSize;
+    private byte[] mSha256;
+    private boolean mClosed;
+
+    private FirmwareImageSource(final File file, @NonNull final ByteBuffer buffer) {
+        mFile = file;
+        mBuffer = buffer;
+        mSize = buffer.capacity();
+    }
+
+    /**
+     * Maps the file in memory. The file can be closed once mapped, the mapping stays valid until the source is
+     * closed.
+     */
+    public static FirmwareImageSource open(@NonNull final File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException("Firmware image too large: " + file.length() + " bytes");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return new FirmwareImageSource(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Wraps an image already in memory, without copying it.
+     */
+    public static FirmwareImageSource wrap(@NonNull final byte[] data) {
+        return new FirmwareImageSource(null, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Returns the mapped file, or null for a wrapped image.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Copies {@code length} bytes of the image starting at {@code offset} into {@code destination}.
+     * Safe to call from several threads, each read works on its own view of the mapping.
+     */
+    public synchronized void read(final int offset, @NonNull final byte[] destination, final int destinationOffset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > mSize) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " outside of image of " + mSize + " bytes");
+        }
+        checkOpen();
+        final ByteBuffer view = mBuffer.duplicate();
+        view.position(offset);
+        view.get(destination, destinationOffset, length);
+    }
+
+    /**
+     * Returns a copy of at most {@code length} bytes of the image starting at {@code offset}.
+     */
+    public byte[] readChunk(final int offset, final int length) {
+        final byte[] chunk = new byte[Math.max(0, Math.min(length, mSize - offset))];
+        read(offset, chunk, 0, chunk.length);
+        return chunk;
+    }
+
+    /**
+     * Returns a heap copy of the whole image, for the APIs that only accept byte arrays.
+     */
+    public byte[] toByteArray() {
+        final byte[] data = new byte[mSize];
+        read(0, data, 0, mSize);
+        return data;
+    }
+
+    /**
+     * Returns the SHA-256 of the whole image, computed block by block from the mapping on first use.
+     */
+    public synchronized byte[] getSha256() throws NoSuchAlgorithmException {
+        if (mSha256 == null) {
+            mSha256 = digest("SHA-256", 0, mSize);
+        }
+        return mSha256.clone();
+    }
+
+    /**
+     * Returns the digest of {@code length} bytes of the image starting at {@code offset}, computed block by block.
+     */
+    public synchronized byte[] digest(@NonNull final String algorithm, final int offset, final int length) throws NoSuchAlgorithmException {
+        if (offset < 0 || length < 0 || offset + length > mSize) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " outside of image of " + mSize + " bytes");
+        }
+        checkOpen();
+        final MessageDigest digest = MessageDigest.getInstance(algorithm);
+        final ByteBuffer view = mBuffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        while (view.hasRemaining()) {
+            final ByteBuffer block = view.slice();
+            block.limit(Math.min(DIGEST_BLOCK_SIZE, view.remaining()));
+            digest.update(block);
+            view.position(view.position() + block.limit());
+        }
+        return digest.digest();
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    private void checkOpen() {
+        if (mClosed) {
+            throw new IllegalStateException("Firmware image source is closed");
+        }
+    }
+
+    /**
+     * Unmaps the file right away rather than when the mapping is garbage collected, so that the address space
+     * and the pages of a large image are given back as soon as the upload is over. Reads are synchronized with
+     * this, a read never touches the released mapping.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mBuffer instanceof MappedByteBuffer) {
+            unmap((MappedByteBuffer) mBuffer);
+        }
+    }
+
+    /**
+     * Runs the cleaner of the mapping, through Unsafe on the JVM and through the buffer itself on Android. When
+     * neither is reachable, the mapping is left to the garbage collector.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (Exception ex) {
+            // Not a JVM with Unsafe.invokeCleaner, Android's buffers have a cleaner of their own
+        }
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception ex) {
+            Log.w(TAG, "Unable to unmap the firmware image, it is released when garbage collected: " + ex);
+        }
+    }
+}
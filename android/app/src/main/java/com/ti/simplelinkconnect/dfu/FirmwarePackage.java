@@ -0,0 +1,197 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Multi-image firmware package: a zip file with the images and a manifest.json telling which image index each
+ * one goes to, as built for the targets with several cores.
+ * <p>
+ * The manifest lists the images under "files", each with its "file" name in the zip and its "image_index",
+ * the application core being image 0.
+ */
+public class FirmwarePackage {
+    private static final String TAG = FirmwarePackage.class.getSimpleName();
+    private static final String MANIFEST = "manifest.json";
+    private static final int ZIP_MAGIC = 0x04034b50;
+
+    /**
+     * An image of the package.
+     */
+    public static class Image {
+        private final int imageIndex;
+        private final String fileName;
+        private final String type;
+        private final byte[] data;
+        private final McuBootImageInfo info;
+
+        Image(final int imageIndex, @NonNull final String fileName, final String type, @NonNull final byte[] data,
+              @Nullable final McuBootImageInfo info) {
+            this.imageIndex = imageIndex;
+            this.fileName = fileName;
+            this.type = type;
+            this.data = data;
+            this.info = info;
+        }
+
+        public int getImageIndex() {
+            return imageIndex;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Returns the type given in the manifest, such as "application", or null.
+         */
+        public String getType() {
+            return type;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Returns the MCUboot header and TLVs of the image, or null if it could not be parsed.
+         */
+        @Nullable
+        public McuBootImageInfo getInfo() {
+            return info;
+        }
+    }
+
+    private final File mFile;
+    private final List<Image> mImages;
+
+    private FirmwarePackage(@NonNull final File file, @NonNull final List<Image> images) {
+        mFile = file;
+        mImages = Collections.unmodifiableList(images);
+    }
+
+    /**
+     * Returns true if the file is a zip file, which is how packages are told from single images.
+     */
+    public static boolean isPackage(@NonNull final File file) {
+        try (InputStream input = new FileInputStream(file)) {
+            final byte[] magic = new byte[4];
+            if (input.read(magic) != magic.length) {
+                return false;
+            }
+            return ((magic[0] & 0xFF) | (magic[1] & 0xFF) << 8 | (magic[2] & 0xFF) << 16 | (magic[3] & 0xFF) << 24) == ZIP_MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the manifest and every image it lists. This reads the whole package, it should not be called on the
+     * main thread.
+     *
+     * @throws IOException if the manifest is missing or invalid, or lists an image that is not in the package
+     */
+    public static FirmwarePackage load(@NonNull final File file) throws IOException {
+        try (ZipFile zip = new ZipFile(file)) {
+            final ZipEntry manifestEntry = zip.getEntry(MANIFEST);
+            if (manifestEntry == null) {
+                throw new IOException("No " + MANIFEST + " in " + file.getName());
+            }
+            final List<Image> images = new ArrayList<>();
+            final Set<Integer> indexes = new HashSet<>();
+            try {
+                final JSONArray files = new JSONObject(new String(readEntry(zip, manifestEntry), StandardCharsets.UTF_8)).getJSONArray("files");
+                for (int i = 0; i < files.length(); i++) {
+                    final JSONObject entry = files.getJSONObject(i);
+                    final String name = entry.getString("file");
+                    // Written as a string by the build system
+                    final int imageIndex = Integer.parseInt(entry.optString("image_index", "0"));
+                    if (!indexes.add(imageIndex)) {
+                        throw new IOException("Image " + imageIndex + " given twice in " + MANIFEST);
+                    }
+                    final ZipEntry imageEntry = zip.getEntry(name);
+                    if (imageEntry == null) {
+                        throw new IOException(name + " listed in " + MANIFEST + " but not in the package");
+                    }
+                    final byte[] data = readEntry(zip, imageEntry);
+                    McuBootImageInfo info = null;
+                    try {
+                        info = McuBootImageInfo.parse(FirmwareImageSource.wrap(data));
+                    } catch (IOException ex) {
+                        Log.w(TAG, name + " is not an MCUboot image: " + ex.getMessage());
+                    }
+                    images.add(new Image(imageIndex, name, entry.optString("type", null), data, info));
+                }
+            } catch (JSONException | NumberFormatException ex) {
+                throw new IOException("Invalid " + MANIFEST + ": " + ex.getMessage(), ex);
+            }
+            if (images.isEmpty()) {
+                throw new IOException("No image listed in " + MANIFEST);
+            }
+            return new FirmwarePackage(file, images);
+        }
+    }
+
+    private static byte[] readEntry(final ZipFile zip, final ZipEntry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE) {
+            throw new IOException(entry.getName() + " too large: " + entry.getSize() + " bytes");
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+        try (InputStream input = zip.getInputStream(entry)) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public List<Image> getImages() {
+        return mImages;
+    }
+
+    /**
+     * Returns the images with their image index, as taken by the image set of an upgrade.
+     */
+    public List<Pair<Integer, byte[]>> getBinaries() {
+        final List<Pair<Integer, byte[]>> binaries = new ArrayList<>();
+        for (Image image : mImages) {
+            binaries.add(new Pair<>(image.getImageIndex(), image.getData()));
+        }
+        return binaries;
+    }
+
+    public int getTotalSize() {
+        int size = 0;
+        for (Image image : mImages) {
+            size += image.getData().length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,83 @@
+package com.ti.simplelinkconnect.dfu;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the Java heap in use while an upload runs and keeps the peak.
+ */
+public class HeapUsageMonitor {
+    private static final long SAMPLE_INTERVAL_MS = 100;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> mSampler;
+    private long mBaselineBytes;
+    private long mPeakBytes;
+    private long mSamples;
+
+    public synchronized void start() {
+        if (mSampler != null) {
+            return;
+        }
+        mBaselineBytes = getUsedHeap();
+        mPeakBytes = mBaselineBytes;
+        mSamples = 0;
+        mSampler = mExecutor.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling, the statistics remain available.
+     */
+    public synchronized void stop() {
+        if (mSampler != null) {
+            mSampler.cancel(false);
+            mSampler = null;
+            sample();
+        }
+    }
+
+    /**
+     * Stops sampling and releases the sampling thread.
+     */
+    public void shutdown() {
+        stop();
+        mExecutor.shutdown();
+    }
+
+    public synchronized void sample() {
+        mPeakBytes = Math.max(mPeakBytes, getUsedHeap());
+        mSamples++;
+    }
+
+    /**
+     * Returns the heap in use when the monitor was started, in bytes.
+     */
+    public synchronized long getBaselineBytes() {
+        return mBaselineBytes;
+    }
+
+    /**
+     * Returns the highest heap in use seen since the monitor was started, in bytes.
+     */
+    public synchronized long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    /**
+     * Returns how much the heap in use grew above the baseline at its peak, in bytes.
+     */
+    public synchronized long getPeakDeltaBytes() {
+        return Math.max(0, mPeakBytes - mBaselineBytes);
+    }
+
+    public synchronized long getSampleCount() {
+        return mSamples;
+    }
+
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
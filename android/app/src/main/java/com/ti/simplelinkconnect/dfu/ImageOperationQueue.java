@@ -0,0 +1,341 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.managers.DefaultManager;
+import io.runtime.mcumgr.managers.ImageManager;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
+
+/**
+ * Queue of image management operations, one per device address, completing each operation with the response the
+ * device actually sent to it.
+ * <p>
+ * Operations of a device run in the order they were queued. Consecutive reads are pipelined, up to
+ * {@link #MAX_IN_FLIGHT} at a time, while an operation changing the device state waits for everything queued
+ * before it and holds back everything queued after it. After a reset, the next operation waits for the device to
+ * restart. Each operation has its own timeout and a response arriving after it is ignored. Devices are
+ * independent of each other.
+ */
+public class ImageOperationQueue {
+    private static final String TAG = ImageOperationQueue.class.getSimpleName();
+
+    static final int MAX_IN_FLIGHT = 4;
+    // Time given to the device to restart after a reset, before sending to it again
+    static final long RESET_SETTLE_MS = 3000;
+    // Erasing a slot takes a few seconds on the larger parts
+    static final long OPERATION_TIMEOUT_MS = 10000;
+
+    public enum Type {
+        LIST(true),
+        TEST(false),
+        CONFIRM(false),
+        ERASE(false),
+        RESET(false);
+
+        private final boolean read;
+
+        Type(final boolean read) {
+            this.read = read;
+        }
+
+        public boolean isRead() {
+            return read;
+        }
+    }
+
+    public enum Status {
+        PENDING,
+        SENT,
+        SUCCEEDED,
+        FAILED,
+        SKIPPED
+    }
+
+    public interface Callback {
+        void onOperationDone(@NonNull Operation operation);
+    }
+
+    /**
+     * An operation on a device and its outcome.
+     */
+    public static class Operation {
+        private final int id;
+        private final String address;
+        private final Type type;
+        private final byte[] hash;
+        private final int image;
+        private final Object group;
+        private final Callback callback;
+        private volatile Status status = Status.PENDING;
+        private McuMgrResponse response;
+        private String error;
+        private long sentMs;
+        private long durationMs;
+
+        Operation(final int id, @NonNull final String address, @NonNull final Type type, @Nullable final byte[] hash, final int image,
+                  @Nullable final Object group, @Nullable final Callback callback) {
+            this.id = id;
+            this.address = address;
+            this.type = type;
+            this.hash = hash;
+            this.image = image;
+            this.group = group;
+            this.callback = callback;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the response of the device, or null if the operation did not succeed.
+         */
+        @Nullable
+        public McuMgrResponse getResponse() {
+            return response;
+        }
+
+        @Nullable
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Returns the time from sending the request to receiving its response, in milliseconds.
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+
+    /**
+     * Operations of a device.
+     */
+    private class DeviceQueue {
+        final String address;
+        final Deque<Operation> pending = new ArrayDeque<>();
+        ImageManager imageManager;
+        DefaultManager defaultManager;
+        int inFlight;
+        boolean writeInFlight;
+        long settleUntilMs;
+
+        DeviceQueue(final String address) {
+            this.address = address;
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, DeviceQueue> mQueues = new HashMap<>();
+    private int mNextId = 1;
+
+    /**
+     * Queues an operation on the device.
+     *
+     * @param hash     image hash, for test and confirm; confirming without a hash confirms the running image
+     * @param image    image slot, for erase
+     * @param group    operations that can be skipped together, or null
+     * @param callback notified when the device answers, or when the operation fails or is skipped
+     */
+    public synchronized Operation enqueue(@NonNull final String address, @NonNull final ImageManager imageManager,
+                                          @NonNull final DefaultManager defaultManager, @NonNull final Type type,
+                                          @Nullable final byte[] hash, final int image, @Nullable final Object group,
+                                          @Nullable final Callback callback) {
+        if (type == Type.TEST && hash == null) {
+            throw new IllegalArgumentException("Testing an image requires its hash");
+        }
+        DeviceQueue queue = mQueues.get(address);
+        if (queue == null) {
+            queue = new DeviceQueue(address);
+            mQueues.put(address, queue);
+        }
+        // The managers of the device may have been replaced since the last operation
+        queue.imageManager = imageManager;
+        queue.defaultManager = defaultManager;
+        final Operation operation = new Operation(mNextId++, address, type, hash, image, group, callback);
+        queue.pending.add(operation);
+        pump(queue);
+        return operation;
+    }
+
+    /**
+     * Skips the operations of the group queued on the device and not sent yet, the other operations are kept.
+     */
+    public void skipPending(@NonNull final String address, @NonNull final Object group) {
+        final List<Operation> skipped = new ArrayList<>();
+        synchronized (this) {
+            final DeviceQueue queue = mQueues.get(address);
+            if (queue == null) {
+                return;
+            }
+            final Iterator<Operation> iterator = queue.pending.iterator();
+            while (iterator.hasNext()) {
+                final Operation operation = iterator.next();
+                if (operation.group == group) {
+                    operation.status = Status.SKIPPED;
+                    skipped.add(operation);
+                    iterator.remove();
+                }
+            }
+        }
+        for (Operation operation : skipped) {
+            if (operation.callback != null) {
+                operation.callback.onOperationDone(operation);
+            }
+        }
+    }
+
+    public synchronized int getPendingCount(@NonNull final String address) {
+        final DeviceQueue queue = mQueues.get(address);
+        return queue == null ? 0 : queue.pending.size() + queue.inFlight;
+    }
+
+    private void pump(final DeviceQueue queue) {
+        final long now = SystemClock.elapsedRealtime();
+        if (queue.settleUntilMs > now) {
+            if (queue.inFlight == 0) {
+                mHandler.postDelayed(() -> {
+                    synchronized (ImageOperationQueue.this) {
+                        pump(queue);
+                    }
+                }, queue.settleUntilMs - now);
+            }
+            return;
+        }
+        while (!queue.pending.isEmpty() && queue.inFlight < MAX_IN_FLIGHT && !queue.writeInFlight) {
+            final Operation operation = queue.pending.peekFirst();
+            if (!operation.type.isRead() && queue.inFlight > 0) {
+                // Waits for the reads sent before it
+                return;
+            }
+            queue.pending.pollFirst();
+            queue.inFlight++;
+            queue.writeInFlight = !operation.type.isRead();
+            send(queue, operation);
+        }
+    }
+
+    private void send(final DeviceQueue queue, final Operation operation) {
+        operation.status = Status.SENT;
+        operation.sentMs = SystemClock.elapsedRealtime();
+        Log.v(TAG, "Sending " + operation.type + " #" + operation.id + " to " + queue.address);
+        switch (operation.type) {
+            case LIST:
+                queue.imageManager.list(new OperationCallback<McuMgrImageStateResponse>(queue, operation));
+                break;
+            case TEST:
+                queue.imageManager.test(operation.hash, new OperationCallback<McuMgrImageStateResponse>(queue, operation));
+                break;
+            case CONFIRM:
+                queue.imageManager.confirm(operation.hash, new OperationCallback<McuMgrImageStateResponse>(queue, operation));
+                break;
+            case ERASE:
+                queue.imageManager.erase(operation.image, new OperationCallback<McuMgrImageResponse>(queue, operation));
+                break;
+            case RESET:
+                queue.defaultManager.reset(new OperationCallback<McuMgrResponse>(queue, operation));
+                break;
+        }
+    }
+
+    private void onDone(final DeviceQueue queue, final Operation operation, final McuMgrResponse response, final String error) {
+        synchronized (this) {
+            operation.durationMs = SystemClock.elapsedRealtime() - operation.sentMs;
+            operation.response = response;
+            operation.error = error;
+            operation.status = error == null ? Status.SUCCEEDED : Status.FAILED;
+            queue.inFlight--;
+            if (!operation.type.isRead()) {
+                queue.writeInFlight = false;
+            }
+            if (operation.type == Type.RESET && error == null) {
+                queue.settleUntilMs = SystemClock.elapsedRealtime() + RESET_SETTLE_MS;
+            }
+        }
+        if (operation.callback != null) {
+            operation.callback.onOperationDone(operation);
+        }
+        synchronized (this) {
+            pump(queue);
+        }
+    }
+
+    /**
+     * Completes the operation it was sent with, the transport matching each response to its request.
+     */
+    private class OperationCallback<T extends McuMgrResponse> implements McuMgrCallback<T> {
+        private final DeviceQueue mQueue;
+        private final Operation mOperation;
+        private final Runnable mTimeout;
+        private boolean mDone;
+
+        OperationCallback(final DeviceQueue queue, final Operation operation) {
+            mQueue = queue;
+            mOperation = operation;
+            mTimeout = () -> {
+                if (finish()) {
+                    onDone(mQueue, mOperation, null, "Timed out");
+                }
+            };
+            mHandler.postDelayed(mTimeout, OPERATION_TIMEOUT_MS);
+        }
+
+        @Override
+        public void onResponse(@NotNull final T response) {
+            if (finish()) {
+                onDone(mQueue, mOperation, response, null);
+            }
+        }
+
+        @Override
+        public void onError(@NotNull final McuMgrException error) {
+            if (finish()) {
+                onDone(mQueue, mOperation, null, error.getMessage() == null ? error.toString() : error.getMessage());
+            }
+        }
+
+        /**
+         * Returns true the first time it is called, the operation then ignores whatever comes next.
+         */
+        private synchronized boolean finish() {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mHandler.removeCallbacks(mTimeout);
+            return true;
+        }
+    }
+}
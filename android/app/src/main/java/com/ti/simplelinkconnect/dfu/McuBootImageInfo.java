@@ -0,0 +1,200 @@
+package com.ti.simplelinkconnect.dfu;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Header and TLVs of an MCUboot image.
+ * <p>
+ * The image starts with a header giving its version and the size of the header and of the code that follows.
+ * The TLV area comes after the code: first the protected TLVs, covered by the image hash, then the unprotected
+ * ones, among which the hash itself. That hash is the one the device reports for each slot.
+ */
+public class McuBootImageInfo {
+    static final int IMAGE_MAGIC = 0x96f3b83d;
+    static final int TLV_INFO_MAGIC = 0x6907;
+    static final int TLV_PROT_INFO_MAGIC = 0x6908;
+    static final int HEADER_LENGTH = 32;
+    static final int TLV_INFO_LENGTH = 4;
+    static final int TLV_ENTRY_HEADER_LENGTH = 4;
+
+    static final int TLV_KEYHASH = 0x01;
+    static final int TLV_SHA256 = 0x10;
+    static final int TLV_SHA384 = 0x11;
+    static final int TLV_SHA512 = 0x12;
+
+    private final int loadAddress;
+    private final int headerSize;
+    private final int protectedTlvSize;
+    private final int imageSize;
+    private final int flags;
+    private final String version;
+    private final String hashAlgorithm;
+    private final byte[] hash;
+    private final byte[] keyHash;
+    private final int totalSize;
+
+    private McuBootImageInfo(final int loadAddress, final int headerSize, final int protectedTlvSize, final int imageSize, final int flags,
+                             @NonNull final String version, @NonNull final String hashAlgorithm, @NonNull final byte[] hash,
+                             final byte[] keyHash, final int totalSize) {
+        this.loadAddress = loadAddress;
+        this.headerSize = headerSize;
+        this.protectedTlvSize = protectedTlvSize;
+        this.imageSize = imageSize;
+        this.flags = flags;
+        this.version = version;
+        this.hashAlgorithm = hashAlgorithm;
+        this.hash = hash;
+        this.keyHash = keyHash;
+        this.totalSize = totalSize;
+    }
+
+    /**
+     * Parses the header and TLVs of the image.
+     *
+     * @throws IOException if the image is not a valid MCUboot image or carries no hash
+     */
+    public static McuBootImageInfo parse(@NonNull final FirmwareImageSource source) throws IOException {
+        if (source.getSize() < HEADER_LENGTH) {
+            throw new IOException("Image too short for an MCUboot header: " + source.getSize() + " bytes");
+        }
+        final ByteBuffer header = ByteBuffer.wrap(source.readChunk(0, HEADER_LENGTH)).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != IMAGE_MAGIC) {
+            throw new IOException("Not an MCUboot image, magic " + Integer.toHexString(header.getInt(0)));
+        }
+        final int loadAddress = header.getInt(4);
+        final int headerSize = header.getShort(8) & 0xFFFF;
+        final int protectedTlvSize = header.getShort(10) & 0xFFFF;
+        final int imageSize = header.getInt(12);
+        final int flags = header.getInt(16);
+        final long buildNumber = header.getInt(24) & 0xFFFFFFFFL;
+        final String version = (header.get(20) & 0xFF) + "." + (header.get(21) & 0xFF) + "." + (header.getShort(22) & 0xFFFF)
+                + (buildNumber != 0 ? "." + buildNumber : "");
+
+        int offset = headerSize + imageSize;
+        if (headerSize < HEADER_LENGTH || imageSize < 0 || offset < 0 || offset > source.getSize()) {
+            throw new IOException("Invalid MCUboot header, header size " + headerSize + ", image size " + imageSize);
+        }
+        if (protectedTlvSize > 0) {
+            if (readTlvInfo(source, offset, TLV_PROT_INFO_MAGIC) != protectedTlvSize) {
+                throw new IOException("Protected TLV size does not match the header");
+            }
+            offset += protectedTlvSize;
+        }
+        final int tlvEnd = offset + readTlvInfo(source, offset, TLV_INFO_MAGIC);
+        if (tlvEnd > source.getSize()) {
+            throw new IOException("TLV area beyond the end of the image");
+        }
+
+        String hashAlgorithm = null;
+        byte[] hash = null;
+        byte[] keyHash = null;
+        offset += TLV_INFO_LENGTH;
+        while (offset + TLV_ENTRY_HEADER_LENGTH <= tlvEnd) {
+            final ByteBuffer entry = ByteBuffer.wrap(source.readChunk(offset, TLV_ENTRY_HEADER_LENGTH)).order(ByteOrder.LITTLE_ENDIAN);
+            final int type = entry.get(0) & 0xFF;
+            final int length = entry.getShort(2) & 0xFFFF;
+            offset += TLV_ENTRY_HEADER_LENGTH;
+            if (offset + length > tlvEnd) {
+                throw new IOException("TLV " + type + " beyond the end of the TLV area");
+            }
+            switch (type) {
+                case TLV_SHA256:
+                    hashAlgorithm = "SHA-256";
+                    hash = source.readChunk(offset, length);
+                    break;
+                case TLV_SHA384:
+                    hashAlgorithm = "SHA-384";
+                    hash = source.readChunk(offset, length);
+                    break;
+                case TLV_SHA512:
+                    hashAlgorithm = "SHA-512";
+                    hash = source.readChunk(offset, length);
+                    break;
+                case TLV_KEYHASH:
+                    keyHash = source.readChunk(offset, length);
+                    break;
+                default:
+                    break;
+            }
+            offset += length;
+        }
+        if (hash == null) {
+            throw new IOException("MCUboot image without a hash TLV");
+        }
+        return new McuBootImageInfo(loadAddress, headerSize, protectedTlvSize, imageSize, flags, version, hashAlgorithm, hash,
+                keyHash, tlvEnd);
+    }
+
+    /**
+     * Returns the total size of the TLV area starting at {@code offset}, including its info header.
+     */
+    private static int readTlvInfo(final FirmwareImageSource source, final int offset, final int magic) throws IOException {
+        if (offset + TLV_INFO_LENGTH > source.getSize()) {
+            throw new IOException("Missing TLV area at " + offset);
+        }
+        final ByteBuffer info = ByteBuffer.wrap(source.readChunk(offset, TLV_INFO_LENGTH)).order(ByteOrder.LITTLE_ENDIAN);
+        final int actual = info.getShort(0) & 0xFFFF;
+        if (actual != magic) {
+            throw new IOException("Invalid TLV info magic " + Integer.toHexString(actual) + " at " + offset);
+        }
+        return info.getShort(2) & 0xFFFF;
+    }
+
+    /**
+     * Computes the hash of the header, code and protected TLVs and compares it with the hash TLV.
+     */
+    public boolean verify(@NonNull final FirmwareImageSource source) throws NoSuchAlgorithmException {
+        return MessageDigest.isEqual(hash, source.digest(hashAlgorithm, 0, headerSize + imageSize + protectedTlvSize));
+    }
+
+    public int getLoadAddress() {
+        return loadAddress;
+    }
+
+    public int getHeaderSize() {
+        return headerSize;
+    }
+
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Returns the version as major.minor.revision, followed by the build number if not 0, as the device reports it.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /**
+     * Returns the hash of the public key the image is signed with, or null if the image is not signed.
+     */
+    public byte[] getKeyHash() {
+        return keyHash == null ? null : keyHash.clone();
+    }
+
+    /**
+     * Returns the size of the image up to the end of its TLVs, any padding after them excluded.
+     */
+    public int getTotalSize() {
+        return totalSize;
+    }
+}
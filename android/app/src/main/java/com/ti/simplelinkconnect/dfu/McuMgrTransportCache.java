@@ -0,0 +1,274 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.dfu.FirmwareUpgradeManager;
+import io.runtime.mcumgr.managers.DefaultManager;
+import io.runtime.mcumgr.managers.ImageManager;
+
+/**
+ * Transports and managers of the devices, keyed by device address, kept connected while in use.
+ * <p>
+ * A transport is created once per device along with its managers. Every use of a device marks it as used; the
+ * link is released once the device was not used for the idle timeout, unless an operation is still running on it.
+ * The transport and managers are kept and the next use connects again, timing how long the connection took.
+ */
+public class McuMgrTransportCache {
+    private static final String TAG = McuMgrTransportCache.class.getSimpleName();
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    /**
+     * Transport and managers of a device, with its connection figures.
+     */
+    public class Entry implements McuMgrTransport.ConnectionObserver {
+        private final String address;
+        private final McuMgrTransport transport;
+        private final DefaultManager defaultManager;
+        private final ImageManager imageManager;
+        private final FirmwareUpgradeManager firmwareUpgradeManager;
+        private final Runnable idleCheck = this::checkIdle;
+
+        private boolean connected;
+        private int busy;
+        private long lastUsedMs;
+        private long connectStartMs;
+        private int connections;
+        private long totalConnectMs;
+        private long lastConnectMs;
+        private int warmUses;
+        private int coldUses;
+
+        Entry(@NonNull final String address, @NonNull final McuMgrTransport transport) {
+            this.address = address;
+            this.transport = transport;
+            this.defaultManager = new DefaultManager(transport);
+            this.imageManager = new ImageManager(transport);
+            this.firmwareUpgradeManager = new FirmwareUpgradeManager(transport);
+            transport.addObserver(this);
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public McuMgrTransport getTransport() {
+            return transport;
+        }
+
+        public DefaultManager getDefaultManager() {
+            return defaultManager;
+        }
+
+        public ImageManager getImageManager() {
+            return imageManager;
+        }
+
+        public FirmwareUpgradeManager getFirmwareUpgradeManager() {
+            return firmwareUpgradeManager;
+        }
+
+        public boolean isConnected() {
+            synchronized (McuMgrTransportCache.this) {
+                return connected;
+            }
+        }
+
+        public int getConnections() {
+            synchronized (McuMgrTransportCache.this) {
+                return connections;
+            }
+        }
+
+        /**
+         * Returns the time the last connection took, in milliseconds.
+         */
+        public long getLastConnectMs() {
+            synchronized (McuMgrTransportCache.this) {
+                return lastConnectMs;
+            }
+        }
+
+        public long getAverageConnectMs() {
+            synchronized (McuMgrTransportCache.this) {
+                return connections == 0 ? 0 : totalConnectMs / connections;
+            }
+        }
+
+        /**
+         * Returns the number of uses that found the link connected, each sparing a connection.
+         */
+        public int getWarmUses() {
+            synchronized (McuMgrTransportCache.this) {
+                return warmUses;
+            }
+        }
+
+        public int getColdUses() {
+            synchronized (McuMgrTransportCache.this) {
+                return coldUses;
+            }
+        }
+
+        public long getIdleMs() {
+            synchronized (McuMgrTransportCache.this) {
+                return SystemClock.elapsedRealtime() - lastUsedMs;
+            }
+        }
+
+        @Override
+        public void onConnected() {
+            synchronized (McuMgrTransportCache.this) {
+                connected = true;
+                if (connectStartMs != 0) {
+                    lastConnectMs = SystemClock.elapsedRealtime() - connectStartMs;
+                    totalConnectMs += lastConnectMs;
+                    connections++;
+                    connectStartMs = 0;
+                    Log.v(TAG, address + " connected in " + lastConnectMs + " ms");
+                }
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            synchronized (McuMgrTransportCache.this) {
+                connected = false;
+                connectStartMs = 0;
+            }
+        }
+
+        /**
+         * Called with the cache locked.
+         */
+        private void use() {
+            lastUsedMs = SystemClock.elapsedRealtime();
+            if (connected) {
+                warmUses++;
+            }
+            else {
+                coldUses++;
+                if (connectStartMs == 0) {
+                    connectStartMs = lastUsedMs;
+                    // Connect now rather than on the first request, the requests wait for the connection
+                    transport.connect(new McuMgrTransport.ConnectionCallback() {
+                        @Override
+                        public void onConnected() {
+                            Entry.this.onConnected();
+                        }
+
+                        @Override
+                        public void onDeferred() {
+                        }
+
+                        @Override
+                        public void onError(@NotNull final Throwable t) {
+                            Log.w(TAG, "Unable to connect to " + address + ": " + t.getMessage());
+                            synchronized (McuMgrTransportCache.this) {
+                                connectStartMs = 0;
+                            }
+                        }
+                    });
+                }
+            }
+            mHandler.removeCallbacks(idleCheck);
+            mHandler.postDelayed(idleCheck, mIdleTimeoutMs);
+        }
+
+        private void checkIdle() {
+            synchronized (McuMgrTransportCache.this) {
+                final long idle = SystemClock.elapsedRealtime() - lastUsedMs;
+                if (busy > 0 || idle < mIdleTimeoutMs) {
+                    mHandler.postDelayed(idleCheck, busy > 0 ? mIdleTimeoutMs : mIdleTimeoutMs - idle);
+                    return;
+                }
+                if (connected || connectStartMs != 0) {
+                    Log.v(TAG, "Releasing " + address + " after " + idle + " ms idle");
+                    transport.release();
+                }
+            }
+        }
+    }
+
+    private final DfuSessionManager.TransportFactory mTransportFactory;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private long mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+    public McuMgrTransportCache(@NonNull final DfuSessionManager.TransportFactory transportFactory) {
+        mTransportFactory = transportFactory;
+    }
+
+    public synchronized void setIdleTimeout(final long idleTimeoutMs) {
+        mIdleTimeoutMs = Math.max(0, idleTimeoutMs);
+    }
+
+    public synchronized long getIdleTimeout() {
+        return mIdleTimeoutMs;
+    }
+
+    /**
+     * Returns the transport and managers of the device, created on first use, and marks the device as used.
+     */
+    public synchronized Entry get(@NonNull final String address) throws Exception {
+        Entry entry = mEntries.get(address);
+        if (entry == null) {
+            entry = new Entry(address, mTransportFactory.create(address));
+            mEntries.put(address, entry);
+        }
+        entry.use();
+        return entry;
+    }
+
+    /**
+     * Marks the device as used, which connects it again if the link was released.
+     */
+    public synchronized void touch(@NonNull final String address) {
+        final Entry entry = mEntries.get(address);
+        if (entry != null) {
+            entry.use();
+        }
+    }
+
+    /**
+     * Keeps the link of the device while an operation runs on it, whatever the idle time. Calls are counted, each
+     * {@code true} must be followed by a {@code false}. The device is not connected again, nor counted as used, the
+     * idle timeout starts over from the call.
+     */
+    public synchronized void setBusy(@NonNull final String address, final boolean busy) {
+        final Entry entry = mEntries.get(address);
+        if (entry != null) {
+            entry.busy = Math.max(0, entry.busy + (busy ? 1 : -1));
+            entry.lastUsedMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    /**
+     * Releases the transports of every device and forgets them.
+     */
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            mHandler.removeCallbacks(entry.idleCheck);
+            entry.transport.removeObserver(entry);
+            mTransportFactory.release(entry.address, entry.transport);
+        }
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,346 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.dfu.FirmwareUpgradeCallback;
+import io.runtime.mcumgr.dfu.FirmwareUpgradeManager;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.managers.BasicManager;
+import io.runtime.mcumgr.managers.DefaultManager;
+import io.runtime.mcumgr.managers.ImageManager;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
+
+/**
+ * Upgrades a single image read from a {@link FirmwareImageSource}, so that the image is never copied to the heap
+ * as a whole, where FirmwareUpgradeManager needs it as a byte array.
+ * <p>
+ * The image is sent by a {@link StreamingImageUploader}, then tested, confirmed and the device reset through the
+ * {@link ImageOperationQueue} of the device, following the same modes as FirmwareUpgradeManager:
+ * <ul>
+ * <li>TEST_AND_CONFIRM: test, reset, and once the device runs the image after the swap time, confirm it</li>
+ * <li>TEST_ONLY: test and reset</li>
+ * <li>CONFIRM_ONLY: confirm and reset</li>
+ * <li>NONE: upload only</li>
+ * </ul>
+ * Progress and states are reported to a {@link FirmwareUpgradeCallback}, as FirmwareUpgradeManager would. With
+ * adaptive settings, the window of the upload follows the response times of the device.
+ */
+public class StreamingFirmwareUpgrade {
+    private static final String TAG = StreamingFirmwareUpgrade.class.getSimpleName();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final String mAddress;
+    private final McuMgrTransport mTransport;
+    private final ImageManager mImageManager;
+    private final DefaultManager mDefaultManager;
+    private final ImageOperationQueue mOperationQueue;
+    private final FirmwareImageSource mSource;
+    private final DfuSettings mSettings;
+    private final FirmwareUpgradeCallback mCallback;
+    private final Runnable mConfirm = this::checkRunningImage;
+
+    private byte[] mImageHash;
+    private StreamingImageUploader mUploader;
+    private DfuTelemetry mTelemetry;
+    private int mChunkSize;
+    private FirmwareUpgradeManager.State mState = FirmwareUpgradeManager.State.NONE;
+    // The image in the slot is already marked as the mode would mark it, only the reset is left
+    private boolean mMarked;
+    private boolean mDone;
+
+    /**
+     * @param address        address of the device, identifying its operation queue
+     * @param transport      transport of the device
+     * @param imageManager   image manager of the device
+     * @param defaultManager default manager of the device
+     * @param operationQueue queue the test, confirm and reset are sent through
+     * @param source         image to upload
+     * @param settings       window, alignment, swap time and mode of the upgrade
+     * @param callback       notified of the progress and outcome
+     */
+    public StreamingFirmwareUpgrade(@NonNull final String address, @NonNull final McuMgrTransport transport,
+                                    @NonNull final ImageManager imageManager, @NonNull final DefaultManager defaultManager,
+                                    @NonNull final ImageOperationQueue operationQueue, @NonNull final FirmwareImageSource source,
+                                    @NonNull final DfuSettings settings, @NonNull final FirmwareUpgradeCallback callback) {
+        mAddress = address;
+        mTransport = transport;
+        mImageManager = imageManager;
+        mDefaultManager = defaultManager;
+        mOperationQueue = operationQueue;
+        mSource = source;
+        mSettings = settings;
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the MCUboot hash of the image, which the test and confirm commands identify it with.
+     */
+    public synchronized void setImageHash(@Nullable final byte[] imageHash) {
+        mImageHash = imageHash;
+    }
+
+    /**
+     * Sets the largest amount of image data per chunk, 0 to derive it from the transport MTU.
+     */
+    public synchronized void setChunkSize(final int chunkSize) {
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the telemetry to which the response times and retransmissions of the upload are reported.
+     */
+    public synchronized void setTelemetry(@Nullable final DfuTelemetry telemetry) {
+        mTelemetry = telemetry;
+    }
+
+    /**
+     * Returns the uploader of the image, or null before the upload started or when it was skipped.
+     */
+    @Nullable
+    public synchronized StreamingImageUploader getUploader() {
+        return mUploader;
+    }
+
+    /**
+     * Uploads the image and goes on with the upgrade.
+     *
+     * @param resume true to ask the device for the part of the image it already has, when an earlier upload of it
+     *               was interrupted
+     */
+    public synchronized void start(final boolean resume) throws McuMgrException {
+        checkImageHash();
+        setState(FirmwareUpgradeManager.State.UPLOAD);
+        mUploader = new StreamingImageUploader(mImageManager, mSource, 0, mSettings.getWindowCapacity(), mSettings.isAdaptive(),
+                mChunkSize, mSettings.getMemoryAlignment(), new StreamingImageUploader.Listener() {
+            @Override
+            public void onProgress(final int bytesSent, final int imageSize) {
+                mCallback.onUploadProgressChanged(bytesSent, imageSize, System.currentTimeMillis());
+            }
+
+            @Override
+            public void onCompleted(final int imageSize, final long elapsedMs) {
+                Log.i(TAG, "Image uploaded to " + mAddress + " in " + elapsedMs + " ms");
+                onUploaded();
+            }
+
+            @Override
+            public void onFailed(@NonNull final McuMgrException error, final int bytesSent) {
+                fail(error);
+            }
+        });
+        if (mImageHash != null) {
+            mUploader.setImageHash(mImageHash);
+        }
+        mUploader.setTelemetry(mTelemetry);
+        mUploader.start(resume);
+    }
+
+    /**
+     * Goes on with the upgrade of an image the device already holds, without uploading it. Only the steps the mode
+     * still requires are run: an image already marked for test, or for good with CONFIRM_ONLY, is only reset, and
+     * an image the device already runs is confirmed if the mode confirms and it is not yet.
+     *
+     * @param slot slot of the device holding the image
+     */
+    public synchronized void startFromSlot(@NonNull final McuMgrImageStateResponse.ImageSlot slot) throws McuMgrException {
+        checkImageHash();
+        final FirmwareUpgradeManager.Mode mode = mSettings.getMode();
+        if (slot.active) {
+            if ((mode == FirmwareUpgradeManager.Mode.TEST_AND_CONFIRM || mode == FirmwareUpgradeManager.Mode.CONFIRM_ONLY) && !slot.confirmed) {
+                setState(FirmwareUpgradeManager.State.CONFIRM);
+                enqueue(ImageOperationQueue.Type.CONFIRM, this::succeed);
+            }
+            else {
+                succeed();
+            }
+            return;
+        }
+        mMarked = slot.pending && (mode != FirmwareUpgradeManager.Mode.CONFIRM_ONLY || slot.permanent);
+        onUploaded();
+    }
+
+    /**
+     * Stops the upgrade, the callback is told right away. A command already sent is still answered by the device.
+     */
+    public void cancel() {
+        final FirmwareUpgradeManager.State state;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            state = mState;
+            if (mUploader != null) {
+                mUploader.cancel();
+            }
+            mHandler.removeCallbacks(mConfirm);
+        }
+        mCallback.onUpgradeCanceled(state);
+    }
+
+    public synchronized FirmwareUpgradeManager.State getState() {
+        return mState;
+    }
+
+    private void checkImageHash() throws McuMgrException {
+        if (mImageHash == null && mSettings.getMode() != FirmwareUpgradeManager.Mode.NONE) {
+            throw new McuMgrException("The image has no MCUboot hash to test or confirm it with");
+        }
+    }
+
+    private synchronized void onUploaded() {
+        if (mDone) {
+            return;
+        }
+        if (!mSettings.isEraseStorage()) {
+            onStorageErased();
+            return;
+        }
+        Log.i(TAG, "Erasing the application settings of " + mAddress);
+        new BasicManager(mTransport).eraseStorage(new McuMgrCallback<McuMgrResponse>() {
+            @Override
+            public void onResponse(@NotNull final McuMgrResponse response) {
+                onStorageErased();
+            }
+
+            @Override
+            public void onError(@NotNull final McuMgrException error) {
+                // The settings may not be supported by the application, the upgrade does not depend on them
+                Log.w(TAG, "Unable to erase the application settings: " + error.getMessage());
+                onStorageErased();
+            }
+        });
+    }
+
+    private synchronized void onStorageErased() {
+        if (mDone) {
+            return;
+        }
+        switch (mSettings.getMode()) {
+            case TEST_AND_CONFIRM:
+            case TEST_ONLY:
+                if (mMarked) {
+                    reset();
+                    break;
+                }
+                setState(FirmwareUpgradeManager.State.TEST);
+                enqueue(ImageOperationQueue.Type.TEST, this::reset);
+                break;
+            case CONFIRM_ONLY:
+                if (mMarked) {
+                    reset();
+                    break;
+                }
+                setState(FirmwareUpgradeManager.State.CONFIRM);
+                enqueue(ImageOperationQueue.Type.CONFIRM, this::reset);
+                break;
+            default:
+                // Upload only, the device is left as it is
+                succeed();
+                break;
+        }
+    }
+
+    private synchronized void reset() {
+        if (mDone) {
+            return;
+        }
+        setState(FirmwareUpgradeManager.State.RESET);
+        enqueue(ImageOperationQueue.Type.RESET, () -> {
+            if (mSettings.getMode() == FirmwareUpgradeManager.Mode.TEST_AND_CONFIRM) {
+                // The device swaps the images before running the new one
+                mHandler.postDelayed(mConfirm, mSettings.getSwapTimeSeconds() * 1000L);
+            }
+            else {
+                succeed();
+            }
+        });
+    }
+
+    /**
+     * Confirms the image once the device runs it, the confirmation would otherwise make a pending image permanent.
+     */
+    private synchronized void checkRunningImage() {
+        if (mDone) {
+            return;
+        }
+        setState(FirmwareUpgradeManager.State.CONFIRM);
+        enqueue(ImageOperationQueue.Type.LIST, operation -> {
+            final McuMgrImageStateResponse response = (McuMgrImageStateResponse) operation.getResponse();
+            if (response != null && response.images != null) {
+                for (McuMgrImageStateResponse.ImageSlot slot : response.images) {
+                    if (slot.active && Arrays.equals(slot.hash, mImageHash)) {
+                        if (slot.confirmed) {
+                            succeed();
+                        }
+                        else {
+                            enqueue(ImageOperationQueue.Type.CONFIRM, this::succeed);
+                        }
+                        return;
+                    }
+                }
+            }
+            fail(new McuMgrException("The device does not run the new image after the reset"));
+        });
+    }
+
+    private void enqueue(final ImageOperationQueue.Type type, final Runnable onSuccess) {
+        enqueue(type, operation -> onSuccess.run());
+    }
+
+    private void enqueue(final ImageOperationQueue.Type type, final ImageOperationQueue.Callback onSuccess) {
+        mOperationQueue.enqueue(mAddress, mImageManager, mDefaultManager, type, mImageHash, 0, this, operation -> {
+            synchronized (StreamingFirmwareUpgrade.this) {
+                if (mDone) {
+                    return;
+                }
+            }
+            if (operation.getStatus() == ImageOperationQueue.Status.SUCCEEDED) {
+                onSuccess.onOperationDone(operation);
+            }
+            else {
+                fail(new McuMgrException(type + " failed: " + operation.getError()));
+            }
+        });
+    }
+
+    private void setState(final FirmwareUpgradeManager.State state) {
+        final FirmwareUpgradeManager.State previous = mState;
+        mState = state;
+        mCallback.onStateChanged(previous, state);
+    }
+
+    private synchronized void succeed() {
+        if (mDone) {
+            return;
+        }
+        setState(FirmwareUpgradeManager.State.SUCCESS);
+        mDone = true;
+        mCallback.onUpgradeCompleted();
+    }
+
+    private void fail(final McuMgrException error) {
+        final FirmwareUpgradeManager.State state;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            state = mState;
+        }
+        Log.e(TAG, "Upgrade of " + mAddress + " failed in " + state + ": " + error.getMessage());
+        mCallback.onUpgradeFailed(state, error);
+    }
+}
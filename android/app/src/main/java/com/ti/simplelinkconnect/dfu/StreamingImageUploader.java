@@ -0,0 +1,382 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.exception.McuMgrTimeoutException;
+import io.runtime.mcumgr.managers.ImageManager;
+import io.runtime.mcumgr.response.img.McuMgrImageUploadResponse;
+
+/**
+ * Uploads an image to a slot with the SMP image upload command, reading each chunk from a
+ * {@link FirmwareImageSource} as it is sent so that the image is never held on the heap as a whole.
+ * <p>
+ * Up to {@code window} chunks are outstanding. The first chunk is sent alone, as the device prepares the slot
+ * before answering it. The device acknowledges the offset it expects next; when it reports an offset behind
+ * the chunks sent, or a chunk times out, the upload goes back to the acknowledged offset. When adaptive, the
+ * window grows by one chunk every window of acknowledgements and shrinks by one when the response time rises
+ * above twice the shortest one seen, a sign that requests are queueing in the device.
+ * <p>
+ * The first chunk carries the image size and a hash prefix. A device that already holds part of an image with the
+ * same hash answers with the offset it has, and the upload continues from there. When resuming, the first request
+ * is sent without data, so that only the missing part of the image is sent.
+ */
+public class StreamingImageUploader {
+    private static final String TAG = StreamingImageUploader.class.getSimpleName();
+
+    // SMP image group, upload command
+    private static final int OP_WRITE = 2;
+    private static final int ID_UPLOAD = 1;
+    // Length of the image hash prefix sent with the first chunk, as mcumgr does
+    private static final int TRUNCATED_HASH_LENGTH = 3;
+    // Extra CBOR encoding of the length, hash and image fields of the first chunk
+    private static final int FIRST_CHUNK_EXTRA_OVERHEAD = 24;
+
+    static final long CHUNK_TIMEOUT_MS = 5000;
+    static final int CHUNK_RETRIES = 3;
+
+    public interface Listener {
+        void onProgress(int bytesSent, int imageSize);
+
+        void onCompleted(int imageSize, long elapsedMs);
+
+        void onFailed(@NonNull McuMgrException error, int bytesSent);
+    }
+
+    private final ImageManager mImageManager;
+    private final FirmwareImageSource mSource;
+    private final int mImage;
+    private final Listener mListener;
+    private final int mMaxWindow;
+    private final boolean mAdaptive;
+    private final int mChunkSize;
+    private final int mAlignment;
+
+    private byte[] mImageHash;
+    private byte[] mTruncatedHash;
+    // Sending the request that asks the device for the offset it has
+    private boolean mProbing;
+    private int mResumedOffset;
+    // Offset acknowledged by the device and offset of the next chunk to send
+    private int mAckedOffset;
+    private int mNextOffset;
+    // Incremented when going back to the acknowledged offset, responses to older chunks are then ignored
+    private int mGeneration;
+    private int mInFlight;
+    private int mWindow;
+    private int mAcksInWindow;
+    private int mAttempt;
+    private int mRetransmittedBytes;
+    private long mMinRttNanos = Long.MAX_VALUE;
+    private double mSmoothedRttNanos;
+    private long mStartMs;
+    private boolean mDone;
+    private volatile boolean mCancelled;
+    private DfuTelemetry mTelemetry;
+
+    /**
+     * @param imageManager image manager of the device
+     * @param source       image to upload
+     * @param image        index of the image, 0 for the application core
+     * @param window       maximum number of outstanding chunks
+     * @param adaptive     true to adapt the window to the response times, up to {@code window}
+     * @param chunkSize    largest amount of image data per chunk, 0 to derive it from the transport MTU
+     * @param alignment    chunks but the last are a multiple of this size
+     * @param listener     listener notified of the progress
+     */
+    public StreamingImageUploader(@NonNull final ImageManager imageManager, @NonNull final FirmwareImageSource source,
+                                  final int image, final int window, final boolean adaptive, final int chunkSize, final int alignment,
+                                  @NonNull final Listener listener) {
+        mImageManager = imageManager;
+        mSource = source;
+        mImage = image;
+        mMaxWindow = Math.max(1, window);
+        mAdaptive = adaptive;
+        mChunkSize = chunkSize > 0 ? chunkSize : DfuParameterTuner.getChunkSize(0, imageManager.getMtu());
+        mAlignment = Math.max(1, alignment);
+        mListener = listener;
+    }
+
+    /**
+     * Sets the hash identifying the image to the device, by default the SHA-256 of the file. An upload started by
+     * FirmwareUpgradeManager can only be resumed with the hash it used, the hash of the image.
+     */
+    public synchronized void setImageHash(final byte[] hash) {
+        mImageHash = hash;
+    }
+
+    public void start() throws McuMgrException {
+        start(false);
+    }
+
+    /**
+     * Starts the upload.
+     *
+     * @param resume true to ask the device for the offset it has before sending any data, when an earlier upload
+     *               of the image is known to have been interrupted
+     */
+    public synchronized void start(final boolean resume) throws McuMgrException {
+        try {
+            mTruncatedHash = Arrays.copyOf(mImageHash != null ? mImageHash : mSource.getSha256(), TRUNCATED_HASH_LENGTH);
+        } catch (Exception ex) {
+            throw new McuMgrException(ex);
+        }
+        mProbing = resume;
+        mResumedOffset = 0;
+        mAckedOffset = 0;
+        mNextOffset = 0;
+        mInFlight = 0;
+        mAttempt = 0;
+        mDone = false;
+        mCancelled = false;
+        // Ramped up once the first chunk is acknowledged
+        mWindow = 1;
+        mStartMs = System.currentTimeMillis();
+        sendChunks();
+    }
+
+    /**
+     * Sets the telemetry to which the response times and retransmissions are reported.
+     */
+    public synchronized void setTelemetry(final DfuTelemetry telemetry) {
+        mTelemetry = telemetry;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public synchronized int getOffset() {
+        return mAckedOffset;
+    }
+
+    /**
+     * Returns the offset the device already had when the upload started, that is the number of bytes not sent again.
+     */
+    public synchronized int getResumedOffset() {
+        return mResumedOffset;
+    }
+
+    public synchronized int getWindow() {
+        return mWindow;
+    }
+
+    public int getMaxWindow() {
+        return mMaxWindow;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * Returns the number of bytes sent again after a chunk was lost or timed out.
+     */
+    public synchronized int getRetransmittedBytes() {
+        return mRetransmittedBytes;
+    }
+
+    public synchronized double getSmoothedRttMs() {
+        return mSmoothedRttNanos / 1000000.0;
+    }
+
+    public synchronized double getMinRttMs() {
+        return mMinRttNanos == Long.MAX_VALUE ? 0 : mMinRttNanos / 1000000.0;
+    }
+
+    /**
+     * Returns the average number of bytes acknowledged per second since the upload started.
+     */
+    public synchronized double getThroughput() {
+        final long elapsed = System.currentTimeMillis() - mStartMs;
+        return mStartMs == 0 || elapsed <= 0 ? 0 : (mAckedOffset - mResumedOffset) * 1000.0 / elapsed;
+    }
+
+    private void sendChunks() {
+        if (mProbing) {
+            if (mInFlight == 0 && !mCancelled) {
+                final Map<String, Object> payload = new HashMap<>();
+                payload.put("data", new byte[0]);
+                payload.put("off", 0);
+                payload.put("len", mSource.getSize());
+                payload.put("sha", mTruncatedHash);
+                if (mImage > 0) {
+                    payload.put("image", mImage);
+                }
+                mInFlight++;
+                mImageManager.send(OP_WRITE, ID_UPLOAD, payload, CHUNK_TIMEOUT_MS, McuMgrImageUploadResponse.class,
+                        new ChunkCallback(mGeneration, 0, 0, System.nanoTime()));
+            }
+            return;
+        }
+        while (!mCancelled && !mDone && mInFlight < mWindow && mNextOffset < mSource.getSize()) {
+            final int offset = mNextOffset;
+            int length = Math.min(mSource.getSize() - offset, mChunkSize - (offset == 0 ? FIRST_CHUNK_EXTRA_OVERHEAD : 0));
+            if (offset + length < mSource.getSize() && length > mAlignment) {
+                length -= length % mAlignment;
+            }
+            final Map<String, Object> payload = new HashMap<>();
+            payload.put("data", mSource.readChunk(offset, length));
+            payload.put("off", offset);
+            if (offset == 0) {
+                payload.put("len", mSource.getSize());
+                payload.put("sha", mTruncatedHash);
+                if (mImage > 0) {
+                    payload.put("image", mImage);
+                }
+            }
+            mNextOffset = offset + length;
+            mInFlight++;
+            mImageManager.send(OP_WRITE, ID_UPLOAD, payload, CHUNK_TIMEOUT_MS, McuMgrImageUploadResponse.class,
+                    new ChunkCallback(mGeneration, offset, offset + length, System.nanoTime()));
+            if (offset == 0) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void onChunkAcknowledged(final ChunkCallback chunk, final McuMgrImageUploadResponse response) {
+        mInFlight--;
+        if (mCancelled || mDone) {
+            return;
+        }
+        if (mTelemetry != null) {
+            mTelemetry.onChunk(System.nanoTime() - chunk.sentNanos);
+        }
+        if (mProbing) {
+            mProbing = false;
+            // A device that does not accept a request without data is sent the image from the start
+            mResumedOffset = response.rc == 0 ? Math.max(0, Math.min(response.off, mSource.getSize())) : 0;
+            mAckedOffset = mResumedOffset;
+            mNextOffset = mResumedOffset;
+            Log.i(TAG, "Device has " + mResumedOffset + " of " + mSource.getSize() + " bytes");
+            if (mResumedOffset > 0) {
+                mListener.onProgress(mAckedOffset, mSource.getSize());
+            }
+            if (mAckedOffset >= mSource.getSize()) {
+                mDone = true;
+                mListener.onCompleted(mSource.getSize(), System.currentTimeMillis() - mStartMs);
+                return;
+            }
+            sendChunks();
+            return;
+        }
+        if (chunk.startOffset == 0 && response.rc == 0 && response.off > chunk.endOffset) {
+            // The device recognised the image and skipped what it already had
+            mResumedOffset = response.off;
+        }
+        if (response.rc != 0) {
+            mDone = true;
+            mListener.onFailed(new McuMgrException("Upload rejected with rc " + response.rc), mAckedOffset);
+            return;
+        }
+        if (response.off > mAckedOffset) {
+            mAckedOffset = response.off;
+            mAttempt = 0;
+            mListener.onProgress(mAckedOffset, mSource.getSize());
+        }
+        if (mAckedOffset >= mSource.getSize()) {
+            mDone = true;
+            mListener.onCompleted(mSource.getSize(), System.currentTimeMillis() - mStartMs);
+            return;
+        }
+        if (chunk.generation != mGeneration) {
+            sendChunks();
+            return;
+        }
+        onRttSample(System.nanoTime() - chunk.sentNanos);
+        if (response.off < chunk.endOffset) {
+            // The device missed an earlier chunk
+            goBack();
+        }
+        sendChunks();
+    }
+
+    private synchronized void onChunkFailed(final ChunkCallback chunk, final McuMgrException error) {
+        mInFlight--;
+        if (mCancelled || mDone) {
+            return;
+        }
+        if (chunk.generation != mGeneration) {
+            sendChunks();
+            return;
+        }
+        if (mProbing && !(error instanceof McuMgrTimeoutException)) {
+            mProbing = false;
+            sendChunks();
+            return;
+        }
+        if (error instanceof McuMgrTimeoutException && mAttempt < CHUNK_RETRIES) {
+            mAttempt++;
+            Log.w(TAG, "No response at offset " + mAckedOffset + ", retry " + mAttempt);
+            mWindow = Math.max(1, mWindow / 2);
+            goBack();
+            sendChunks();
+        }
+        else {
+            mDone = true;
+            mListener.onFailed(error, mAckedOffset);
+        }
+    }
+
+    private void goBack() {
+        final int bytes = Math.max(0, mNextOffset - mAckedOffset);
+        mRetransmittedBytes += bytes;
+        if (mTelemetry != null && bytes > 0) {
+            mTelemetry.onRetransmit(bytes);
+        }
+        mNextOffset = mAckedOffset;
+        mGeneration++;
+        mAcksInWindow = 0;
+    }
+
+    private void onRttSample(final long rttNanos) {
+        mMinRttNanos = Math.min(mMinRttNanos, rttNanos);
+        mSmoothedRttNanos = mSmoothedRttNanos == 0 ? rttNanos : 0.875 * mSmoothedRttNanos + 0.125 * rttNanos;
+        if (!mAdaptive) {
+            mWindow = mMaxWindow;
+            return;
+        }
+        if (rttNanos > 2 * mMinRttNanos && mWindow > 1) {
+            mWindow--;
+            mAcksInWindow = 0;
+        }
+        else if (++mAcksInWindow >= mWindow) {
+            mWindow = Math.min(mMaxWindow, mWindow + 1);
+            mAcksInWindow = 0;
+        }
+    }
+
+    private class ChunkCallback implements McuMgrCallback<McuMgrImageUploadResponse> {
+        final int generation;
+        final int startOffset;
+        final int endOffset;
+        final long sentNanos;
+
+        ChunkCallback(final int generation, final int startOffset, final int endOffset, final long sentNanos) {
+            this.generation = generation;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.sentNanos = sentNanos;
+        }
+
+        @Override
+        public void onResponse(@NotNull final McuMgrImageUploadResponse response) {
+            onChunkAcknowledged(this, response);
+        }
+
+        @Override
+        public void onError(@NotNull final McuMgrException error) {
+            onChunkFailed(this, error);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent record of the image uploads that did not complete, keyed by device address and image hash, so that
+ * an upload interrupted by a link loss can be continued instead of starting over.
+ * <p>
+ * The offset kept here is only a hint that the device may hold part of the image: the device reports the offset
+ * it actually has when the upload is resumed.
+ */
+public class UploadProgressStore {
+    private static final String TAG = UploadProgressStore.class.getSimpleName();
+    private static final String PREFS_NAME = "dfu_upload_progress";
+    private static final String KEY_OFFSET = "offset";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_UPDATED = "updated";
+
+    // Records older than this are dropped, the device has most likely been updated otherwise since
+    static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    private final SharedPreferences mPreferences;
+    private final Map<String, int[]> mProgress = new HashMap<>();
+
+    public UploadProgressStore(@NonNull final Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    public static String getKey(@NonNull final String address, @NonNull final String imageHash) {
+        return address + "/" + imageHash;
+    }
+
+    /**
+     * Returns the offset reached by the last upload of the image to the device, or 0 if there is none.
+     *
+     * @param imageSize size of the image, a record for an image of another size is ignored
+     */
+    public synchronized int getOffset(final String address, final String imageHash, final int imageSize) {
+        if (address == null || imageHash == null) {
+            return 0;
+        }
+        final int[] progress = mProgress.get(getKey(address, imageHash));
+        return progress == null || progress[1] != imageSize ? 0 : progress[0];
+    }
+
+    /**
+     * Records the offset reached by an upload, or removes the record when the offset is 0 or the image is complete.
+     */
+    public synchronized void save(final String address, final String imageHash, final int imageSize, final int offset) {
+        if (address == null || imageHash == null) {
+            return;
+        }
+        if (offset <= 0 || offset >= imageSize) {
+            clear(address, imageHash);
+            return;
+        }
+        final String key = getKey(address, imageHash);
+        final int[] progress = mProgress.get(key);
+        if (progress != null && progress[0] == offset && progress[1] == imageSize) {
+            return;
+        }
+        mProgress.put(key, new int[]{offset, imageSize});
+        try {
+            final JSONObject json = new JSONObject();
+            json.put(KEY_OFFSET, offset);
+            json.put(KEY_SIZE, imageSize);
+            json.put(KEY_UPDATED, System.currentTimeMillis());
+            mPreferences.edit().putString(key, json.toString()).apply();
+        } catch (JSONException ex) {
+            Log.e(TAG, "Unable to save the progress of " + key + ": " + ex.getMessage());
+        }
+    }
+
+    public synchronized void clear(final String address, final String imageHash) {
+        if (address == null || imageHash == null) {
+            return;
+        }
+        final String key = getKey(address, imageHash);
+        if (mProgress.remove(key) != null) {
+            mPreferences.edit().remove(key).apply();
+        }
+    }
+
+    public synchronized int size() {
+        return mProgress.size();
+    }
+
+    private void load() {
+        final long now = System.currentTimeMillis();
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            try {
+                final JSONObject json = new JSONObject(String.valueOf(entry.getValue()));
+                if (now - json.getLong(KEY_UPDATED) > MAX_AGE_MS) {
+                    editor.remove(entry.getKey());
+                    continue;
+                }
+                mProgress.put(entry.getKey(), new int[]{json.getInt(KEY_OFFSET), json.getInt(KEY_SIZE)});
+            } catch (JSONException ex) {
+                editor.remove(entry.getKey());
+            }
+        }
+        editor.apply();
+    }
+}
@@ -0,0 +1,224 @@
+package com.ti.simplelinkconnect.mesh;
+
+import androidx.annotation.NonNull;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import no.nordicsemi.android.mesh.AllocatedGroupRange;
+import no.nordicsemi.android.mesh.AllocatedUnicastRange;
+import no.nordicsemi.android.mesh.Group;
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.Provisioner;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+
+/**
+ * Keeps track of the unicast and group addresses in use in a bitmap, so that free addresses are found without
+ * going through every node and group of the network.
+ * <p>
+ * The bitmaps are built once from the network and then kept in sync as nodes and groups are added and removed.
+ * Every address below the search hints is in use, so searches start from the hints and sequential allocation
+ * is O(1) amortized. Allocations stay within the ranges allocated to the provisioner.
+ */
+public class AddressAllocator {
+    private static final int UNICAST_MIN = 0x0001;
+    private static final int UNICAST_MAX = 0x7FFF;
+    private static final int GROUP_MIN = 0xC000;
+    // 0xFF00 - 0xFFFF are fixed and reserved group addresses
+    private static final int GROUP_MAX = 0xFEFF;
+
+    private final BitSet mUnicastAddresses = new BitSet(UNICAST_MAX + 1);
+    private final BitSet mGroupAddresses = new BitSet(GROUP_MAX - GROUP_MIN + 1);
+    // Number of elements of each node, by unicast address
+    private final Map<Integer, Integer> mNodes = new HashMap<>();
+    // Number of elements of each device being provisioned, by the unicast address allocated to it
+    private final Map<Integer, Integer> mReservations = new HashMap<>();
+    private int mUnicastHint = UNICAST_MIN;
+    private int mGroupHint = GROUP_MIN;
+    private MeshNetwork mNetwork;
+
+    /**
+     * Rebuilds the bitmaps from the network, if it is a different network or if nodes were added or removed
+     * without the allocator being notified.
+     */
+    public synchronized void sync(final MeshNetwork network) {
+        if (network == null) {
+            return;
+        }
+        if (network == mNetwork && network.getNodes().size() == mNodes.size()) {
+            return;
+        }
+        mNetwork = network;
+        mUnicastAddresses.clear();
+        mGroupAddresses.clear();
+        mNodes.clear();
+        mReservations.clear();
+        for (ProvisionedMeshNode node : network.getNodes()) {
+            onNodeAdded(node);
+        }
+        for (Provisioner provisioner : network.getProvisioners()) {
+            final Integer address = provisioner.getProvisionerAddress();
+            if (address != null && isUnicast(address)) {
+                mUnicastAddresses.set(address);
+            }
+        }
+        for (Group group : network.getGroups()) {
+            onGroupAdded(group.getAddress());
+        }
+        mUnicastHint = UNICAST_MIN;
+        mGroupHint = GROUP_MIN;
+    }
+
+    public synchronized void onNodeAdded(@NonNull final ProvisionedMeshNode node) {
+        final Integer reserved = mReservations.remove(node.getUnicastAddress());
+        // Elements are only known once the composition data is received
+        final int count = Math.max(reserved == null ? 1 : reserved, node.getElements().size());
+        mNodes.put(node.getUnicastAddress(), count);
+        reserveUnicastAddresses(node.getUnicastAddress(), count);
+    }
+
+    /**
+     * Frees the addresses of the node with the given unicast address.
+     */
+    public synchronized void onNodeRemoved(final int unicastAddress) {
+        final Integer count = mNodes.remove(unicastAddress);
+        releaseUnicastAddresses(unicastAddress, count == null ? 1 : count);
+    }
+
+    public synchronized void onGroupAdded(final int address) {
+        if (isGroup(address)) {
+            mGroupAddresses.set(address - GROUP_MIN);
+            if (address == mGroupHint) {
+                mGroupHint = mGroupAddresses.nextClearBit(mGroupHint - GROUP_MIN) + GROUP_MIN;
+            }
+        }
+    }
+
+    public synchronized void onGroupRemoved(final int address) {
+        if (isGroup(address)) {
+            mGroupAddresses.clear(address - GROUP_MIN);
+            mGroupHint = Math.min(mGroupHint, address);
+        }
+    }
+
+    /**
+     * Marks a range of unicast addresses as used, for a device being provisioned.
+     */
+    public synchronized void reserveUnicastAddresses(final int address, final int count) {
+        if (isUnicast(address)) {
+            mUnicastAddresses.set(address, Math.min(address + count, UNICAST_MAX + 1));
+        }
+    }
+
+    /**
+     * Frees a range of unicast addresses, for instance after provisioning failed.
+     */
+    public synchronized void releaseUnicastAddresses(final int address, final int count) {
+        if (isUnicast(address)) {
+            mReservations.remove(address);
+            mUnicastAddresses.clear(address, Math.min(address + count, UNICAST_MAX + 1));
+            mUnicastHint = Math.min(mUnicastHint, address);
+        }
+    }
+
+    /**
+     * Moves the addresses of a device being provisioned to a range chosen by the user.
+     *
+     * @return false if the new range is not free, the previous range is then kept
+     */
+    public synchronized boolean reassignUnicastAddress(final int previousAddress, final int address, final int elementCount) {
+        final int count = Math.max(1, elementCount);
+        releaseUnicastAddresses(previousAddress, count);
+        if (!isUnicastRangeFree(address, count)) {
+            reserveUnicastAddresses(previousAddress, count);
+            if (isUnicast(previousAddress)) {
+                mReservations.put(previousAddress, count);
+            }
+            return false;
+        }
+        reserveUnicastAddresses(address, count);
+        mReservations.put(address, count);
+        return true;
+    }
+
+    /**
+     * Returns true if none of the addresses of the range is in use.
+     */
+    public synchronized boolean isUnicastRangeFree(final int address, final int count) {
+        if (!isUnicast(address) || address + count - 1 > UNICAST_MAX) {
+            return false;
+        }
+        final int used = mUnicastAddresses.nextSetBit(address);
+        return used < 0 || used >= address + count;
+    }
+
+    /**
+     * Returns the first address of a free range of consecutive unicast addresses in the provisioner's ranges,
+     * and reserves it.
+     *
+     * @return the address, or -1 if the provisioner's ranges are full
+     */
+    public synchronized int allocateUnicastAddress(final int elementCount, @NonNull final Provisioner provisioner) {
+        final int count = Math.max(1, elementCount);
+        for (AllocatedUnicastRange range : provisioner.getAllocatedUnicastRanges()) {
+            final int address = findClearRange(mUnicastAddresses, Math.max(range.getLowAddress(), mUnicastHint),
+                    Math.min(range.getHighAddress(), UNICAST_MAX), count);
+            if (address >= 0) {
+                reserveUnicastAddresses(address, count);
+                mReservations.put(address, count);
+                mUnicastHint = mUnicastAddresses.nextClearBit(mUnicastHint);
+                return address;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first free group address in the provisioner's ranges, without reserving it. The address is
+     * only taken by {@link #onGroupAdded(int)} once the group is created, proposing it again until then.
+     *
+     * @return the address, or -1 if the provisioner's ranges are full
+     */
+    public synchronized int peekGroupAddress(@NonNull final Provisioner provisioner) {
+        for (AllocatedGroupRange range : provisioner.getAllocatedGroupRanges()) {
+            final int low = Math.max(range.getLowAddress(), mGroupHint);
+            final int high = Math.min(range.getHighAddress(), GROUP_MAX);
+            if (low > high) {
+                continue;
+            }
+            final int address = mGroupAddresses.nextClearBit(low - GROUP_MIN) + GROUP_MIN;
+            if (address <= high) {
+                return address;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first address of {@code count} clear bits between low and high inclusive, or -1.
+     */
+    private static int findClearRange(final BitSet bits, final int low, final int high, final int count) {
+        int start = low;
+        while (start >= 0 && start + count - 1 <= high) {
+            start = bits.nextClearBit(start);
+            if (start + count - 1 > high) {
+                return -1;
+            }
+            final int used = bits.nextSetBit(start);
+            if (used < 0 || used >= start + count) {
+                return start;
+            }
+            start = used + 1;
+        }
+        return -1;
+    }
+
+    private static boolean isUnicast(final int address) {
+        return address >= UNICAST_MIN && address <= UNICAST_MAX;
+    }
+
+    private static boolean isGroup(final int address) {
+        return address >= GROUP_MIN && address <= GROUP_MAX;
+    }
+}
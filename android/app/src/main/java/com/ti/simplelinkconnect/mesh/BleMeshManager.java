@@ -39,7 +39,7 @@ import no.nordicsemi.android.ble.callback.DataReceivedCallback;
 import no.nordicsemi.android.ble.callback.DataSentCallback;
 
 @Singleton
-public class BleMeshManager extends LoggableBleManager<BleMeshManagerCallbacks> {
+public class BleMeshManager extends LoggableBleManager<BleMeshManagerCallbacks> implements MeshTransport {
     private static final int MTU_SIZE_DEFAULT = 23;
     private static final int MTU_SIZE_MAX = 517;
 
@@ -196,7 +196,8 @@ public class BleMeshManager extends LoggableBleManager<BleMeshManagerCallbacks>
      *
      * @param pdu mesh pdu.
      */
-    public void sendPdu(final byte[] pdu) {
+    @Override
+    public void sendPdu(@NonNull final byte[] pdu) {
         Log.i("mesh", "sendPdu " + "pdu: " + pdu.toString() + "mIsDeviceReady: "+ mIsDeviceReady);
 //        if (!mIsDeviceReady)
 //            return;
@@ -214,6 +215,7 @@ public class BleMeshManager extends LoggableBleManager<BleMeshManagerCallbacks>
                 .enqueue();
     }
 
+    @Override
     public int getMaximumPacketSize() {
         return super.getMtu() - 3;
     }
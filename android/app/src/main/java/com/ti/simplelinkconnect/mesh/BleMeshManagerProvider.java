@@ -18,6 +18,13 @@ public class BleMeshManagerProvider {
         return manager;
     }
 
+    /**
+     * Returns the manager of the device, or null if none was created.
+     */
+    public BleMeshManager getManager(BluetoothDevice device) {
+        return bleMeshManagers.get(device);
+    }
+
     public void disconnectDevice(BluetoothDevice device) {
         BleMeshManager manager = bleMeshManagers.get(device);
         if (manager != null) {
@@ -0,0 +1,279 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.transport.ConfigNodeReset;
+import no.nordicsemi.android.mesh.transport.ConfigNodeResetStatus;
+import no.nordicsemi.android.mesh.transport.MeshMessage;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+
+/**
+ * Resets a list of nodes with a bounded number of Config Node Reset requests outstanding.
+ * <p>
+ * A request that is not answered within the timeout is sent again, up to the configured number of retries.
+ * The node the proxy connection goes through is reset last, once every other node has answered, as the
+ * connection is lost as soon as it resets. Nodes that never answer can be removed from the network anyway,
+ * all at once when the last node is done.
+ */
+public class BulkNodeReset {
+    private static final String TAG = BulkNodeReset.class.getSimpleName();
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    public enum Outcome {
+        // Answered the reset and was removed from the network
+        RESET,
+        // Did not answer and was removed from the network anyway
+        REMOVED,
+        // Did not answer and is still part of the network
+        UNRESPONSIVE,
+        NOT_FOUND,
+        CANCELLED
+    }
+
+    /**
+     * Outcome of a single node.
+     */
+    public static class NodeResult {
+        private final int unicastAddress;
+        private final String name;
+        private Outcome outcome;
+        private int attempts;
+        private long startMs;
+        private long durationMs;
+
+        NodeResult(final int unicastAddress, final String name) {
+            this.unicastAddress = unicastAddress;
+            this.name = name;
+        }
+
+        public int getUnicastAddress() {
+            return unicastAddress;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the outcome, or null while the node is not done.
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Returns the time from the first request until the node was done, in milliseconds.
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+
+    public interface Listener {
+        void onNodeFinished(@NonNull NodeResult result, int remaining);
+
+        /**
+         * Called once every node is done, after the unresponsive nodes were removed if requested.
+         *
+         * @param removed unicast addresses of the nodes that are no longer part of the network
+         */
+        void onFinished(@NonNull List<NodeResult> results, @NonNull List<Integer> removed, long elapsedMs);
+    }
+
+    private final MeshNetwork mNetwork;
+    private final Listener mListener;
+    private final WindowedRequestScheduler<NodeResult> mScheduler;
+    private final boolean mRemoveUnresponsive;
+
+    private final Map<Integer, NodeResult> mResults = new LinkedHashMap<>();
+    // Reset once everything else is done
+    private NodeResult mProxy;
+    private int mRemaining;
+    private long mStartMs;
+    private long mFinishedMs;
+    private boolean mRunning;
+
+    /**
+     * @param meshManagerApi     mesh manager api used to send the requests
+     * @param network            network the nodes belong to
+     * @param handler            handler the requests are sent and the timeouts are run on
+     * @param concurrency        maximum number of outstanding requests
+     * @param removeUnresponsive true to remove the nodes that do not answer from the network anyway
+     * @param listener           listener notified of the progress
+     */
+    public BulkNodeReset(@NonNull final MeshManagerApi meshManagerApi, @NonNull final MeshNetwork network,
+                         @NonNull final Handler handler, final int concurrency, final boolean removeUnresponsive,
+                         @NonNull final Listener listener) {
+        mNetwork = network;
+        mScheduler = new WindowedRequestScheduler<>(meshManagerApi, handler, this, concurrency, new WindowedRequestScheduler.Client<NodeResult>() {
+            @Override
+            public int getAddress(@NonNull final NodeResult result) {
+                return result.unicastAddress;
+            }
+
+            @Override
+            public MeshMessage createRequest(@NonNull final NodeResult result, final int attempt) {
+                if (attempt == 0) {
+                    result.startMs = SystemClock.elapsedRealtime();
+                }
+                result.attempts++;
+                return new ConfigNodeReset();
+            }
+
+            @Override
+            public void onTimeout(@NonNull final NodeResult result) {
+                complete(result, Outcome.UNRESPONSIVE);
+            }
+
+            @Override
+            public void onIdle() {
+                if (mProxy != null) {
+                    mScheduler.add(mProxy);
+                    mProxy = null;
+                    mScheduler.schedule();
+                }
+                else {
+                    finish();
+                }
+            }
+        });
+        mRemoveUnresponsive = removeUnresponsive;
+        mListener = listener;
+    }
+
+    /**
+     * @param unicastAddresses unicast addresses of the nodes to reset
+     * @param proxyAddress     unicast address of the node the proxy connection goes through, or -1
+     */
+    public synchronized void start(@NonNull final List<Integer> unicastAddresses, final int proxyAddress) {
+        if (mRunning) {
+            throw new IllegalStateException("Bulk reset is already running");
+        }
+        mResults.clear();
+        mScheduler.cancel();
+        mProxy = null;
+        for (Integer address : unicastAddresses) {
+            if (address == null || mResults.containsKey(address)) {
+                continue;
+            }
+            final ProvisionedMeshNode node = mNetwork.getNode(address);
+            final NodeResult result = new NodeResult(address, node == null ? null : node.getNodeName());
+            mResults.put(address, result);
+            if (node == null) {
+                result.outcome = Outcome.NOT_FOUND;
+            }
+            else if (address == proxyAddress) {
+                mProxy = result;
+            }
+            else {
+                mScheduler.add(result);
+            }
+        }
+        mRemaining = mScheduler.getWaitingCount() + (mProxy == null ? 0 : 1);
+        mStartMs = SystemClock.elapsedRealtime();
+        mFinishedMs = 0;
+        mRunning = true;
+        Log.v(TAG, "Resetting " + mRemaining + " nodes, " + mScheduler.getWindow() + " at a time");
+        mScheduler.start();
+        mScheduler.schedule();
+    }
+
+    /**
+     * Stops sending requests, nodes not done yet are reported as cancelled.
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        for (NodeResult result : mResults.values()) {
+            if (result.outcome == null) {
+                result.outcome = Outcome.CANCELLED;
+            }
+        }
+        mProxy = null;
+        finish();
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    public synchronized int getRemaining() {
+        return mRemaining;
+    }
+
+    public synchronized List<NodeResult> getResults() {
+        return new ArrayList<>(mResults.values());
+    }
+
+    public synchronized long getElapsedMs() {
+        if (mStartMs == 0) {
+            return 0;
+        }
+        return (mFinishedMs == 0 ? SystemClock.elapsedRealtime() : mFinishedMs) - mStartMs;
+    }
+
+    /**
+     * Notifies that a status message was received.
+     *
+     * @return true if the message answered an outstanding reset
+     */
+    public synchronized boolean onStatusReceived(final int src, @NonNull final MeshMessage message) {
+        if (!(message instanceof ConfigNodeResetStatus)) {
+            return false;
+        }
+        final NodeResult result = mScheduler.onAnswered(src);
+        if (result == null) {
+            return false;
+        }
+        complete(result, Outcome.RESET);
+        mScheduler.schedule();
+        return true;
+    }
+
+    private void complete(final NodeResult result, final Outcome outcome) {
+        result.outcome = outcome;
+        result.durationMs = SystemClock.elapsedRealtime() - result.startMs;
+        mRemaining--;
+        mListener.onNodeFinished(result, mRemaining);
+    }
+
+    private void finish() {
+        mScheduler.cancel();
+        mRunning = false;
+        final List<Integer> removed = new ArrayList<>();
+        for (NodeResult result : mResults.values()) {
+            final boolean remove = result.outcome == Outcome.RESET || result.outcome == Outcome.UNRESPONSIVE && mRemoveUnresponsive;
+            if (!remove) {
+                continue;
+            }
+            // The mesh library normally deletes a node as soon as it confirms the reset
+            final ProvisionedMeshNode node = mNetwork.getNode(result.unicastAddress);
+            if (node == null || mNetwork.deleteNode(node)) {
+                if (result.outcome == Outcome.UNRESPONSIVE) {
+                    result.outcome = Outcome.REMOVED;
+                }
+                removed.add(result.unicastAddress);
+            }
+        }
+        mFinishedMs = SystemClock.elapsedRealtime();
+        Log.v(TAG, "Bulk reset done after " + getElapsedMs() + " ms, " + removed.size() + " nodes removed");
+        mListener.onFinished(getResults(), removed, getElapsedMs());
+    }
+}
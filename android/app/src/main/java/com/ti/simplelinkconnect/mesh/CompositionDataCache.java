@@ -0,0 +1,185 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.ti.simplelinkconnect.util.HexUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent cache of Composition Data page 0, keyed by the company, product and version identifiers, the replay
+ * protection list size and the features it carries.
+ * <p>
+ * Installations are made of many nodes of the same product, so the composition fetched from one node is reported
+ * to the app for the next node of the same product, looked up by the name it advertised while unprovisioned, ahead
+ * of its own composition. The composition of every node is still fetched: the mesh library only takes it from a
+ * status it parsed itself, and no cheaper message tells which product a node is. Compositions fetched from nodes
+ * are compared against the cached ones and the outcome is counted: a hit when they are identical, a mismatch when
+ * a product reports a different composition under the same key and a miss when the product was not known.
+ */
+public class CompositionDataCache {
+    private static final String TAG = CompositionDataCache.class.getSimpleName();
+    private static final String PREFS_NAME = "composition_data_cache";
+    private static final String KEY_HINTS = "hints";
+    private static final String PREFIX_COMPOSITION = "composition:";
+
+    // Page number, CID, PID, VID, CRPL, Features
+    private static final int HEADER_LENGTH = 11;
+
+    private final SharedPreferences mPreferences;
+    private final Map<String, byte[]> mCompositions = new HashMap<>();
+    private final Map<String, String> mHints = new HashMap<>();
+
+    private int mHits;
+    private int mMisses;
+    private int mMismatches;
+    private int mPredictions;
+
+    public CompositionDataCache(@NonNull final Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    /**
+     * Returns the cache key of the composition data parameters, or null if they are too short.
+     */
+    public static String getKey(final byte[] parameters) {
+        if (parameters == null || parameters.length < HEADER_LENGTH) {
+            return null;
+        }
+        return getKey(readUint16(parameters, 1), readUint16(parameters, 3), readUint16(parameters, 5),
+                readUint16(parameters, 7), readUint16(parameters, 9));
+    }
+
+    public static String getKey(final int companyId, final int productId, final int versionId, final int crpl, final int features) {
+        return HexUtils.toHexString(companyId, 4) + ":" + HexUtils.toHexString(productId, 4) + ":" + HexUtils.toHexString(versionId, 4)
+                + ":" + HexUtils.toHexString(crpl, 4) + ":" + HexUtils.toHexString(features, 4);
+    }
+
+    private static int readUint16(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    public synchronized byte[] get(final String key) {
+        final byte[] parameters = mCompositions.get(key);
+        return parameters == null ? null : parameters.clone();
+    }
+
+    /**
+     * Returns the composition last fetched from a node advertising under the given name, or null.
+     */
+    public synchronized byte[] predict(final String hint) {
+        if (hint == null) {
+            return null;
+        }
+        final String key = mHints.get(hint);
+        final byte[] parameters = key == null ? null : mCompositions.get(key);
+        if (parameters != null) {
+            mPredictions++;
+        }
+        return parameters == null ? null : parameters.clone();
+    }
+
+    /**
+     * Records a composition fetched from a node and verifies it against the cache.
+     *
+     * @param parameters composition data status parameters
+     * @param hint       name the node advertised while unprovisioned, or null
+     * @return true if the composition was already cached unchanged
+     */
+    public synchronized boolean onCompositionReceived(final byte[] parameters, final String hint) {
+        final String key = getKey(parameters);
+        if (key == null) {
+            return false;
+        }
+        final byte[] cached = mCompositions.get(key);
+        final boolean hit = cached != null && Arrays.equals(cached, parameters);
+        if (hit) {
+            mHits++;
+        }
+        else {
+            if (cached == null) {
+                mMisses++;
+            }
+            else {
+                mMismatches++;
+                Log.w(TAG, "Composition of " + key + " changed, replacing the cached one");
+            }
+            mCompositions.put(key, parameters.clone());
+        }
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        if (!hit) {
+            editor.putString(PREFIX_COMPOSITION + key, HexUtils.toHexString(parameters, false));
+        }
+        if (hint != null && !key.equals(mHints.get(hint))) {
+            mHints.put(hint, key);
+            editor.putString(KEY_HINTS, new JSONObject(mHints).toString());
+        }
+        editor.apply();
+        return hit;
+    }
+
+    public synchronized int size() {
+        return mCompositions.size();
+    }
+
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    public synchronized int getMisses() {
+        return mMisses;
+    }
+
+    public synchronized int getMismatches() {
+        return mMismatches;
+    }
+
+    public synchronized int getPredictions() {
+        return mPredictions;
+    }
+
+    public synchronized void clear() {
+        mCompositions.clear();
+        mHints.clear();
+        mHits = mMisses = mMismatches = mPredictions = 0;
+        mPreferences.edit().clear().apply();
+    }
+
+    private void load() {
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            if (entry.getKey().startsWith(PREFIX_COMPOSITION) && entry.getValue() instanceof String) {
+                final byte[] parameters = HexUtils.toByteArray((String) entry.getValue());
+                final String key = entry.getKey().substring(PREFIX_COMPOSITION.length());
+                // Entries stored under an older key format are dropped, they are fetched again
+                if (key.equals(getKey(parameters))) {
+                    mCompositions.put(key, parameters);
+                }
+            }
+        }
+        final String hints = mPreferences.getString(KEY_HINTS, null);
+        if (hints == null) {
+            return;
+        }
+        try {
+            final JSONObject json = new JSONObject(hints);
+            final Iterator<String> names = json.keys();
+            while (names.hasNext()) {
+                final String name = names.next();
+                mHints.put(name, json.getString(name));
+            }
+        } catch (JSONException ex) {
+            Log.e(TAG, "Unable to load the product hints: " + ex.getMessage());
+        }
+    }
+}
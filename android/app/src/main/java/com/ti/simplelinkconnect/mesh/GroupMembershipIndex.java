@@ -0,0 +1,244 @@
+package com.ti.simplelinkconnect.mesh;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.transport.Element;
+import no.nordicsemi.android.mesh.transport.MeshModel;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+
+/**
+ * Index from a subscription address to the models subscribed to it, so that the members of a group are found
+ * without going through every node, element and model of the network.
+ * <p>
+ * The index is built once from the network and then updated from the subscription status and subscription
+ * list messages. A reverse index from each model to its subscriptions lets a whole subscription list be
+ * replaced in O(subscriptions of the model).
+ */
+public class GroupMembershipIndex {
+
+    /**
+     * A model of an element of a node.
+     */
+    public static final class Membership {
+        private final int nodeAddress;
+        private final int elementAddress;
+        private final int modelId;
+
+        Membership(final int nodeAddress, final int elementAddress, final int modelId) {
+            this.nodeAddress = nodeAddress;
+            this.elementAddress = elementAddress;
+            this.modelId = modelId;
+        }
+
+        public int getNodeAddress() {
+            return nodeAddress;
+        }
+
+        public int getElementAddress() {
+            return elementAddress;
+        }
+
+        public int getModelId() {
+            return modelId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Membership)) {
+                return false;
+            }
+            final Membership other = (Membership) o;
+            // The element address identifies the node, the node address is carried along for the callers
+            return elementAddress == other.elementAddress && modelId == other.modelId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * elementAddress + modelId;
+        }
+    }
+
+    // Models subscribed to each address
+    private final Map<Integer, Set<Membership>> mMembers = new HashMap<>();
+    // Subscription addresses of each model
+    private final Map<Membership, Set<Integer>> mSubscriptions = new HashMap<>();
+    // Models of each node, by unicast address
+    private final Map<Integer, Set<Membership>> mNodes = new HashMap<>();
+    private MeshNetwork mNetwork;
+
+    /**
+     * Rebuilds the index from the network if it is a different network than the one indexed.
+     */
+    public synchronized void sync(final MeshNetwork network) {
+        if (network == null || network == mNetwork) {
+            return;
+        }
+        rebuild(network);
+    }
+
+    /**
+     * Rebuilds the index by going through every model of the network once.
+     */
+    public synchronized void rebuild(@NonNull final MeshNetwork network) {
+        mNetwork = network;
+        mMembers.clear();
+        mSubscriptions.clear();
+        mNodes.clear();
+        for (ProvisionedMeshNode node : network.getNodes()) {
+            onNodeUpdated(node);
+        }
+    }
+
+    /**
+     * Re-indexes every model of a node, for instance once its composition data is known.
+     */
+    public synchronized void onNodeUpdated(@NonNull final ProvisionedMeshNode node) {
+        onNodeRemoved(node.getUnicastAddress());
+        for (Element element : node.getElements().values()) {
+            for (MeshModel model : element.getMeshModels().values()) {
+                setSubscriptions(node.getUnicastAddress(), element.getElementAddress(), model.getModelId(), model.getSubscribedAddresses());
+            }
+        }
+    }
+
+    /**
+     * Removes every model of the node with the given unicast address from the index.
+     */
+    public synchronized void onNodeRemoved(final int unicastAddress) {
+        final Set<Membership> models = mNodes.remove(unicastAddress);
+        if (models == null) {
+            return;
+        }
+        for (Membership membership : models) {
+            final Set<Integer> addresses = mSubscriptions.remove(membership);
+            if (addresses != null) {
+                for (Integer address : addresses) {
+                    removeMember(address, membership);
+                }
+            }
+        }
+    }
+
+    public synchronized void onSubscriptionAdded(final int nodeAddress, final int elementAddress, final int modelId, final int address) {
+        final Membership membership = new Membership(nodeAddress, elementAddress, modelId);
+        getOrCreate(mSubscriptions, membership).add(address);
+        getOrCreate(mMembers, address).add(membership);
+        getOrCreate(mNodes, nodeAddress).add(membership);
+    }
+
+    public synchronized void onSubscriptionRemoved(final int nodeAddress, final int elementAddress, final int modelId, final int address) {
+        final Membership membership = new Membership(nodeAddress, elementAddress, modelId);
+        final Set<Integer> addresses = mSubscriptions.get(membership);
+        if (addresses != null && addresses.remove(address)) {
+            removeMember(address, membership);
+        }
+    }
+
+    /**
+     * Replaces the subscription list of a model, as reported by a subscription list or after a subscription
+     * overwrite or delete all.
+     */
+    public synchronized void setSubscriptions(final int nodeAddress, final int elementAddress, final int modelId,
+                                              final Collection<Integer> addresses) {
+        final Membership membership = new Membership(nodeAddress, elementAddress, modelId);
+        final Set<Integer> previous = mSubscriptions.remove(membership);
+        if (previous != null) {
+            for (Integer address : previous) {
+                removeMember(address, membership);
+            }
+        }
+        if (addresses == null || addresses.isEmpty()) {
+            return;
+        }
+        final Set<Integer> current = new LinkedHashSet<>(addresses);
+        mSubscriptions.put(membership, current);
+        for (Integer address : current) {
+            getOrCreate(mMembers, address).add(membership);
+        }
+        getOrCreate(mNodes, nodeAddress).add(membership);
+    }
+
+    /**
+     * Returns the models subscribed to the given address.
+     */
+    public synchronized List<Membership> getMembers(final int address) {
+        final Set<Membership> members = mMembers.get(address);
+        return members == null ? new ArrayList<>() : new ArrayList<>(members);
+    }
+
+    public synchronized int getMemberCount(final int address) {
+        final Set<Membership> members = mMembers.get(address);
+        return members == null ? 0 : members.size();
+    }
+
+    /**
+     * Returns the unicast addresses of the nodes having at least one model subscribed to the given address.
+     */
+    public synchronized Set<Integer> getNodes(final int address) {
+        final Set<Integer> nodes = new LinkedHashSet<>();
+        final Set<Membership> members = mMembers.get(address);
+        if (members != null) {
+            for (Membership membership : members) {
+                nodes.add(membership.nodeAddress);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the addresses the given model is subscribed to.
+     */
+    public synchronized List<Integer> getSubscriptions(final int nodeAddress, final int elementAddress, final int modelId) {
+        final Set<Integer> addresses = mSubscriptions.get(new Membership(nodeAddress, elementAddress, modelId));
+        return addresses == null ? new ArrayList<>() : new ArrayList<>(addresses);
+    }
+
+    /**
+     * Returns every address with at least one subscribed model.
+     */
+    public synchronized Set<Integer> getAddresses() {
+        return new HashSet<>(mMembers.keySet());
+    }
+
+    private void removeMember(final int address, final Membership membership) {
+        final Set<Membership> members = mMembers.get(address);
+        if (members != null) {
+            members.remove(membership);
+            if (members.isEmpty()) {
+                mMembers.remove(address);
+            }
+        }
+        if (!mSubscriptions.containsKey(membership) || mSubscriptions.get(membership).isEmpty()) {
+            mSubscriptions.remove(membership);
+            final Set<Membership> models = mNodes.get(membership.nodeAddress);
+            if (models != null) {
+                models.remove(membership);
+                if (models.isEmpty()) {
+                    mNodes.remove(membership.nodeAddress);
+                }
+            }
+        }
+    }
+
+    private static <K, V> Set<V> getOrCreate(final Map<K, Set<V>> map, final K key) {
+        Set<V> set = map.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<>();
+            map.put(key, set);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,489 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.mesh.ApplicationKey;
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.NetworkKey;
+import no.nordicsemi.android.mesh.Provisioner;
+import no.nordicsemi.android.mesh.transport.ConfigAppKeyStatus;
+import no.nordicsemi.android.mesh.transport.ConfigAppKeyUpdate;
+import no.nordicsemi.android.mesh.transport.ConfigKeyRefreshPhaseSet;
+import no.nordicsemi.android.mesh.transport.ConfigKeyRefreshPhaseStatus;
+import no.nordicsemi.android.mesh.transport.ConfigNetKeyStatus;
+import no.nordicsemi.android.mesh.transport.ConfigNetKeyUpdate;
+import no.nordicsemi.android.mesh.transport.MeshMessage;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.mesh.utils.MeshParserUtils;
+
+/**
+ * Runs the Key Refresh procedure of a network key, and of the application keys bound to it, on every node of
+ * the network that knows the key.
+ * <p>
+ * The procedure goes through three network-wide phases: the new keys are distributed to every node, then
+ * every node is told to transmit with the new keys and finally to revoke the old ones. The next phase only
+ * starts once every node has completed the current one. Within a phase the nodes are worked on in parallel:
+ * up to {@code window} requests are outstanding at any time, each node getting its next request as soon as
+ * the status of the previous one is received. A request that is not answered within the timeout is sent
+ * again, up to the configured number of retries. The node the proxy connection goes through is served last
+ * in each phase, so that the other nodes are reached before the proxy itself changes keys.
+ * <p>
+ * A node that fails is either left behind, in which case it no longer belongs to the network once the old
+ * keys are revoked, or stops the procedure before the next phase, in which case the old keys remain valid.
+ * The local keys stay in the phase the procedure stopped in, whether it failed or was stopped, and starting it
+ * again resumes from that phase with the keys already distributed.
+ */
+public class KeyRefreshEngine {
+    private static final String TAG = KeyRefreshEngine.class.getSimpleName();
+
+    public static final int DEFAULT_WINDOW = 4;
+
+    // Key Refresh Phase Set transitions
+    private static final int TRANSITION_USE_NEW_KEYS = 0x02;
+    private static final int TRANSITION_REVOKE_OLD_KEYS = 0x03;
+
+    public enum Phase {
+        KEY_DISTRIBUTION,
+        USING_NEW_KEYS,
+        REVOKING_OLD_KEYS,
+        COMPLETED,
+        FAILED
+    }
+
+    private static class Request {
+        final MeshMessage message;
+        // Index of the application key being updated, or -1
+        final int appKeyIndex;
+
+        Request(final MeshMessage message, final int appKeyIndex) {
+            this.message = message;
+            this.appKeyIndex = appKeyIndex;
+        }
+    }
+
+    /**
+     * Progress of a single node.
+     */
+    public static class NodeState {
+        private final int unicastAddress;
+        private final String name;
+        private final Map<Phase, Long> phaseDurations = new EnumMap<>(Phase.class);
+        private final Deque<Request> requests = new ArrayDeque<>();
+        private Phase phase;
+        private Phase completedPhase;
+        private boolean failed;
+        private String error;
+        private int retries;
+        private long phaseStartMs;
+
+        NodeState(final int unicastAddress, final String name) {
+            this.unicastAddress = unicastAddress;
+            this.name = name;
+        }
+
+        public int getUnicastAddress() {
+            return unicastAddress;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the last phase the node completed, or null.
+         */
+        public Phase getCompletedPhase() {
+            return completedPhase;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the phase the node failed in, or null.
+         */
+        public Phase getFailedPhase() {
+            return failed ? phase : null;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Returns the number of requests sent again after a timeout.
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * Returns the time the node took to complete each phase, in milliseconds.
+         */
+        public Map<Phase, Long> getPhaseDurations() {
+            return phaseDurations;
+        }
+    }
+
+    public interface Listener {
+        void onNodeUpdated(@NonNull NodeState node);
+
+        void onPhaseChanged(@NonNull Phase phase, int nodes);
+
+        void onFinished(@NonNull Phase phase, @NonNull List<NodeState> nodes, long elapsedMs);
+    }
+
+    private final MeshNetwork mNetwork;
+    private final Listener mListener;
+    private final WindowedRequestScheduler<NodeState> mScheduler;
+    private final boolean mSkipFailedNodes;
+    private final int mProxyAddress;
+
+    private final Map<Integer, NodeState> mNodes = new LinkedHashMap<>();
+    private NetworkKey mNetKey;
+    private final List<ApplicationKey> mAppKeys = new ArrayList<>();
+    private Phase mPhase;
+    private long mStartMs;
+    private long mFinishedMs;
+    private int mRemainingInPhase;
+
+    /**
+     * @param meshManagerApi  mesh manager api used to send the requests
+     * @param network         network the keys belong to
+     * @param handler         handler the requests are sent and the timeouts are run on
+     * @param window          maximum number of outstanding requests
+     * @param skipFailedNodes true to leave failed nodes behind, false to stop the procedure before the next phase
+     * @param proxyAddress    unicast address of the node the proxy connection goes through, or -1
+     * @param listener        listener notified of the progress
+     */
+    public KeyRefreshEngine(@NonNull final MeshManagerApi meshManagerApi, @NonNull final MeshNetwork network,
+                            @NonNull final Handler handler, final int window, final boolean skipFailedNodes,
+                            final int proxyAddress, @NonNull final Listener listener) {
+        mNetwork = network;
+        mScheduler = new WindowedRequestScheduler<>(meshManagerApi, handler, this, window, new WindowedRequestScheduler.Client<NodeState>() {
+            @Override
+            public int getAddress(@NonNull final NodeState node) {
+                return node.unicastAddress;
+            }
+
+            @Override
+            public MeshMessage createRequest(@NonNull final NodeState node, final int attempt) {
+                final Request request = node.requests.peek();
+                if (request == null) {
+                    return null;
+                }
+                if (attempt > 0) {
+                    node.retries++;
+                }
+                return request.message;
+            }
+
+            @Override
+            public void onTimeout(@NonNull final NodeState node) {
+                failNode(node, "Timeout");
+            }
+
+            @Override
+            public void onIdle() {
+                onPhaseCompleted();
+            }
+        });
+        mSkipFailedNodes = skipFailedNodes;
+        mProxyAddress = proxyAddress;
+        mListener = listener;
+    }
+
+    /**
+     * Generates new keys for the network key and the application keys bound to it and starts distributing them.
+     * If an earlier procedure left the network key in Key Distribution or Using New Keys, the procedure resumes
+     * from that phase with the keys it distributed.
+     *
+     * @param netKeyIndex index of the network key to refresh
+     * @param newNetKey   new network key, or null to generate one. When resuming, null or the key being distributed
+     */
+    public synchronized void start(final int netKeyIndex, final byte[] newNetKey) {
+        if (isRunning()) {
+            throw new IllegalStateException("Key refresh is already running");
+        }
+        final NetworkKey netKey = mNetwork.getNetKey(netKeyIndex);
+        if (netKey == null) {
+            throw new IllegalArgumentException("Network key " + netKeyIndex + " not found");
+        }
+        final Phase firstPhase;
+        mAppKeys.clear();
+        switch (netKey.getPhase()) {
+            case NetworkKey.NORMAL_OPERATION:
+                firstPhase = Phase.KEY_DISTRIBUTION;
+                mNetKey = mNetwork.distributeNetKey(netKey, newNetKey != null ? newNetKey : generateKey());
+                for (ApplicationKey appKey : new ArrayList<>(mNetwork.getAppKeys())) {
+                    if (appKey.getBoundNetKeyIndex() == netKeyIndex) {
+                        mAppKeys.add(mNetwork.distributeAppKey(appKey, generateKey()));
+                    }
+                }
+                break;
+            case NetworkKey.KEY_DISTRIBUTION:
+            case NetworkKey.USING_NEW_KEYS:
+                // Some nodes may already hold the new keys, resume with them rather than distributing others
+                if (newNetKey != null && !Arrays.equals(newNetKey, netKey.getKey())) {
+                    throw new IllegalStateException("Network key " + netKeyIndex + " is being refreshed to another key");
+                }
+                firstPhase = netKey.getPhase() == NetworkKey.KEY_DISTRIBUTION ? Phase.KEY_DISTRIBUTION : Phase.USING_NEW_KEYS;
+                mNetKey = netKey;
+                for (ApplicationKey appKey : mNetwork.getAppKeys()) {
+                    if (appKey.getBoundNetKeyIndex() == netKeyIndex && appKey.getOldKey() != null) {
+                        mAppKeys.add(appKey);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("Network key " + netKeyIndex + " is in key refresh phase " + netKey.getPhase());
+        }
+
+        mNodes.clear();
+        final Provisioner provisioner = mNetwork.getSelectedProvisioner();
+        final Integer provisionerAddress = provisioner == null ? null : provisioner.getProvisionerAddress();
+        for (ProvisionedMeshNode node : mNetwork.getNodes()) {
+            if (provisionerAddress != null && node.getUnicastAddress() == provisionerAddress) {
+                continue;
+            }
+            if (MeshParserUtils.isNodeKeyExists(node.getAddedNetKeys(), netKeyIndex)) {
+                mNodes.put(node.getUnicastAddress(), new NodeState(node.getUnicastAddress(), node.getNodeName()));
+            }
+        }
+        mStartMs = SystemClock.elapsedRealtime();
+        mFinishedMs = 0;
+        mScheduler.start();
+        Log.v(TAG, "Refreshing network key " + netKeyIndex + " and " + mAppKeys.size() + " application keys on " + mNodes.size()
+                + " nodes, starting with " + firstPhase);
+        startPhase(firstPhase);
+    }
+
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        finish(Phase.FAILED);
+    }
+
+    public synchronized boolean isRunning() {
+        return mPhase != null && mPhase != Phase.COMPLETED && mPhase != Phase.FAILED;
+    }
+
+    public synchronized Phase getPhase() {
+        return mPhase;
+    }
+
+    public synchronized List<NodeState> getNodes() {
+        return new ArrayList<>(mNodes.values());
+    }
+
+    public synchronized long getElapsedMs() {
+        if (mStartMs == 0) {
+            return 0;
+        }
+        return (mFinishedMs == 0 ? SystemClock.elapsedRealtime() : mFinishedMs) - mStartMs;
+    }
+
+    /**
+     * Returns the number of requests sent so far, retries included.
+     */
+    public synchronized int getSentCount() {
+        return mScheduler.getSentCount();
+    }
+
+    /**
+     * Returns the number of nodes that have not completed the current phase yet.
+     */
+    public synchronized int getRemainingInPhase() {
+        return mRemainingInPhase;
+    }
+
+    /**
+     * Notifies that a status message was received.
+     *
+     * @return true if the message answered an outstanding request of the engine
+     */
+    public synchronized boolean onStatusReceived(final int src, @NonNull final MeshMessage message) {
+        final NodeState node = mScheduler.getOutstanding(src);
+        if (node == null || node.requests.isEmpty() || !isExpectedStatus(node.requests.peek(), message)) {
+            return false;
+        }
+        mScheduler.onAnswered(src);
+        final String error = getError(message);
+        if (error != null) {
+            failNode(node, error);
+        }
+        else {
+            node.requests.poll();
+            if (node.requests.isEmpty()) {
+                completeNode(node);
+            }
+            else {
+                // Keep serving the node, its next request does not take a new slot
+                mScheduler.addFirst(node);
+            }
+        }
+        mScheduler.schedule();
+        return true;
+    }
+
+    private void startPhase(final Phase phase) {
+        mPhase = phase;
+        mScheduler.clearWaiting();
+        NodeState proxy = null;
+        for (NodeState node : mNodes.values()) {
+            if (node.failed) {
+                continue;
+            }
+            node.phase = phase;
+            node.phaseStartMs = SystemClock.elapsedRealtime();
+            node.requests.clear();
+            addRequests(node, phase);
+            if (node.unicastAddress == mProxyAddress) {
+                proxy = node;
+            }
+            else {
+                mScheduler.add(node);
+            }
+        }
+        if (proxy != null) {
+            mScheduler.add(proxy);
+        }
+        mRemainingInPhase = mScheduler.getWaitingCount();
+        Log.v(TAG, "Starting " + phase + " on " + mRemainingInPhase + " nodes");
+        mListener.onPhaseChanged(phase, mRemainingInPhase);
+        mScheduler.schedule();
+    }
+
+    private void addRequests(final NodeState node, final Phase phase) {
+        switch (phase) {
+            case KEY_DISTRIBUTION:
+                node.requests.add(new Request(new ConfigNetKeyUpdate(mNetKey), -1));
+                final ProvisionedMeshNode meshNode = mNetwork.getNode(node.unicastAddress);
+                for (ApplicationKey appKey : mAppKeys) {
+                    if (meshNode != null && MeshParserUtils.isNodeKeyExists(meshNode.getAddedAppKeys(), appKey.getKeyIndex())) {
+                        node.requests.add(new Request(new ConfigAppKeyUpdate(mNetKey, appKey), appKey.getKeyIndex()));
+                    }
+                }
+                break;
+            case USING_NEW_KEYS:
+                node.requests.add(new Request(new ConfigKeyRefreshPhaseSet(mNetKey, TRANSITION_USE_NEW_KEYS), -1));
+                break;
+            case REVOKING_OLD_KEYS:
+                node.requests.add(new Request(new ConfigKeyRefreshPhaseSet(mNetKey, TRANSITION_REVOKE_OLD_KEYS), -1));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void completeNode(final NodeState node) {
+        node.completedPhase = node.phase;
+        node.phaseDurations.put(node.phase, SystemClock.elapsedRealtime() - node.phaseStartMs);
+        mRemainingInPhase--;
+        mListener.onNodeUpdated(node);
+    }
+
+    private void failNode(final NodeState node, final String error) {
+        node.failed = true;
+        node.error = error;
+        node.requests.clear();
+        mRemainingInPhase--;
+        Log.w(TAG, "Node " + node.unicastAddress + " failed in " + node.phase + ": " + error);
+        mListener.onNodeUpdated(node);
+    }
+
+    private void onPhaseCompleted() {
+        if (!mSkipFailedNodes && hasFailedNodes()) {
+            // The old keys are still valid, the procedure can be run again once the nodes are reachable
+            finish(Phase.FAILED);
+            return;
+        }
+        switch (mPhase) {
+            case KEY_DISTRIBUTION:
+                mNetwork.switchToNewKey(mNetKey);
+                startPhase(Phase.USING_NEW_KEYS);
+                break;
+            case USING_NEW_KEYS:
+                startPhase(Phase.REVOKING_OLD_KEYS);
+                break;
+            case REVOKING_OLD_KEYS:
+                mNetwork.revokeOldKey(mNetKey);
+                finish(Phase.COMPLETED);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private boolean hasFailedNodes() {
+        for (NodeState node : mNodes.values()) {
+            if (node.failed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void finish(final Phase phase) {
+        mScheduler.cancel();
+        mPhase = phase;
+        mFinishedMs = SystemClock.elapsedRealtime();
+        Log.v(TAG, "Key refresh " + phase + " after " + getElapsedMs() + " ms, " + mScheduler.getSentCount() + " requests sent");
+        mListener.onFinished(phase, new ArrayList<>(mNodes.values()), getElapsedMs());
+    }
+
+    private boolean isExpectedStatus(final Request request, final MeshMessage message) {
+        if (request.message instanceof ConfigNetKeyUpdate) {
+            return message instanceof ConfigNetKeyStatus && ((ConfigNetKeyStatus) message).getNetKeyIndex() == mNetKey.getKeyIndex();
+        }
+        if (request.message instanceof ConfigAppKeyUpdate) {
+            return message instanceof ConfigAppKeyStatus && ((ConfigAppKeyStatus) message).getAppKeyIndex() == request.appKeyIndex;
+        }
+        if (request.message instanceof ConfigKeyRefreshPhaseSet) {
+            return message instanceof ConfigKeyRefreshPhaseStatus && ((ConfigKeyRefreshPhaseStatus) message).getNetKeyIndex() == mNetKey.getKeyIndex();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the status code name of an unsuccessful status, or null.
+     */
+    private static String getError(final MeshMessage message) {
+        if (message instanceof ConfigNetKeyStatus) {
+            final ConfigNetKeyStatus status = (ConfigNetKeyStatus) message;
+            return status.isSuccessful() ? null : status.getStatusCodeName();
+        }
+        if (message instanceof ConfigAppKeyStatus) {
+            final ConfigAppKeyStatus status = (ConfigAppKeyStatus) message;
+            return status.isSuccessful() ? null : status.getStatusCodeName();
+        }
+        if (message instanceof ConfigKeyRefreshPhaseStatus) {
+            final ConfigKeyRefreshPhaseStatus status = (ConfigKeyRefreshPhaseStatus) message;
+            return status.isSuccessful() ? null : status.getStatusCodeName();
+        }
+        return null;
+    }
+
+    private static byte[] generateKey() {
+        final byte[] key = new byte[16];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
@@ -26,7 +26,16 @@ public enum MeshModuleEvents {
     MODELS_SUBSCRIBE_DONE("onSubscriptionDone"),
     MODELS_SET_PUBLICATION_DONE("onPublicationDone"),
     MODEL_BIND_DONE("onBindAppKeysDone"),
-    PROXY_STATE_STATUS("onReadProxyStatus");
+    PROXY_STATE_STATUS("onReadProxyStatus"),
+    CONFIGURATION_FINISHED("onConfigurationFinished"),
+    PROVISIONING_QUEUE_PROGRESS("onProvisioningQueueProgress"),
+    PROVISIONING_QUEUE_FINISHED("onProvisioningQueueFinished"),
+    NODE_RECONNECTED("onNodeReconnected"),
+    KEY_REFRESH_PROGRESS("onKeyRefreshProgress"),
+    KEY_REFRESH_PHASE_CHANGED("onKeyRefreshPhaseChanged"),
+    KEY_REFRESH_FINISHED("onKeyRefreshFinished"),
+    BULK_RESET_PROGRESS("onBulkResetProgress"),
+    BULK_RESET_FINISHED("onBulkResetFinished");
 
     private final String event;
 
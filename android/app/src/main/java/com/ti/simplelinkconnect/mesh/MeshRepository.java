@@ -7,9 +7,13 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.ti.simplelinkconnect.util.HexUtils;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -111,6 +115,7 @@ import static com.ti.simplelinkconnect.mesh.BleMeshManager.MESH_PROVISIONING_UUI
 import static com.ti.simplelinkconnect.mesh.BleMeshManager.MESH_PROXY_UUID;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.APP_KEYS_UPDATED;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.COMPOSITION_DATA_STATUS_GET;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.CONFIGURATION_FINISHED;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.MODELS_SET_PUBLICATION_DONE;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.MODELS_SUBSCRIBE_DONE;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.MODEL_APP_KEY_UPDATED;
@@ -125,6 +130,7 @@ import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.STATE_CHANGES;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.NETWORK_LOADED;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.NODE_CONNECTED;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.NODE_IDENTIFIED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.NODE_RECONNECTED;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.PROVISION_COMPLETED;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.SCAN_FAILED;
 import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.SCAN_RESULT;
@@ -138,8 +144,6 @@ import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.bridge.WritableNativeArray;
-import com.facebook.react.bridge.WritableNativeMap;
 import com.ti.connectivity.simplelinkconnect.MeshModule;
 
 
@@ -234,15 +238,73 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     private MeshModule meshModule;
 
-    private final Runnable mReconnectRunnable = this::startScanForProxyNodeToProvision;
+    private final Runnable mReconnectRunnable = this::startReconnectScan;
+
+    // Upper bound on the wait for the disconnect callback before scanning for the provisioned node
+    private static final long RECONNECT_FALLBACK_MS = 3000;
+    private boolean mReconnectOnDisconnect;
+    // Provisioned node found while the previous bearer was still up, connected to once it is released
+    private ProvisionedMeshNode mPendingProxyNode;
+    private ExtendedBluetoothDevice mPendingProxyDevice;
+
+    // Looks for the provisioned node by its node identity, the broad proxy scan is the fallback
+    private final NodeIdentityReconnector mReconnector;
+    private long mReconnectStartMs;
+    private long mReconnectScanMs = -1;
+
+    private ProvisioningConfigurator mConfigurator;
+
+    // Unattended provisioning of a list of devices, kept after it finishes for its report
+    private ProvisioningQueue mProvisioningQueue;
+
+    // Network-wide Key Refresh procedure, while running or until the next one is started
+    private KeyRefreshEngine mKeyRefreshEngine;
+
+    // Bulk reset, network updates are applied once when it finishes instead of once per node
+    private BulkNodeReset mBulkNodeReset;
+    private boolean mDeferNetworkUpdates;
+    private boolean mNetworkUpdatePending;
+
+    // When enabled, a device is provisioned over its own PB-GATT bearer while the previous one is configured through the proxy
+    private boolean mPipelineEnabled;
+    private BleMeshManager mProvisioningBleManager;
+    private final ProvisioningSessionTracker mSessions = new ProvisioningSessionTracker();
 
     private final Runnable mScannerTimeout = () -> {
 //        stopScan();
         mIsReconnecting.postValue(false);
+        final ProvisioningSession session = mSessions.getConfigurationSession();
+        if (session != null && session.getStage() == ProvisioningSession.Stage.RECONNECTING) {
+            finishConfigurationSession(false);
+        }
     };
 
     private PublicationSettingsHelper currentPublicationSettings;
 
+    // Holds the PDU capture while a capture session is running
+    private volatile PduCapture mPduCapture;
+
+    // Segmented message and block acknowledgement accounting
+    private final SegmentationStatistics mSegmentationStatistics = new SegmentationStatistics();
+
+    // Provisioning phase durations accumulated over every session
+    private final ProvisioningPhaseHistogram mPhaseHistogram;
+
+    // Unicast and group addresses in use, kept in sync with the network
+    private final AddressAllocator mAddressAllocator = new AddressAllocator();
+
+    // Models subscribed to each group, kept in sync with the subscription messages
+    private final GroupMembershipIndex mGroupMembershipIndex = new GroupMembershipIndex();
+
+    // Composition data of the products seen so far, and the name the node being set up advertised
+    private final CompositionDataCache mCompositionCache;
+    private String mProvisioningHint;
+
+    // Replaces the GATT bearer while a simulation is running
+    private SimulatedMeshProxy mSimulatedProxy;
+    // Device the simulated one stands in for, reported in the ble callbacks
+    private ExtendedBluetoothDevice mSimulatedDevice;
+
     @Inject
     public MeshRepository(final MeshManagerApi meshManagerApi,
                           final BleMeshManagerProvider bleMeshManagerProvider,
@@ -259,7 +321,96 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         mBleMeshManagerProvider = bleMeshManagerProvider;
         mHandler = new Handler(Looper.getMainLooper());
         mContext = context;
+        mPhaseHistogram = new ProvisioningPhaseHistogram(context);
+        mCompositionCache = new CompositionDataCache(context);
+        mReconnector = new NodeIdentityReconnector(mHandler, mReconnectorListener);
         this.meshModule = meshModule;
+        mConfigurator = new ProvisioningConfigurator(mMeshManagerApi, mHandler, mConfiguratorListener);
+    }
+
+    private final ProvisioningConfigurator.Listener mConfiguratorListener = new ProvisioningConfigurator.Listener() {
+        @Override
+        public void onConfigurationCompleted(final int unicastAddress, @NonNull final Map<ProvisioningConfigurator.Step, Long> durations) {
+            meshModule.sendEvent(CONFIGURATION_FINISHED, createConfigurationResult(unicastAddress, null, durations));
+            finishConfigurationSession(true);
+            if (mProvisioningQueue != null) {
+                mProvisioningQueue.onConfigurationFinished(true);
+            }
+        }
+
+        @Override
+        public void onConfigurationFailed(final int unicastAddress, @NonNull final ProvisioningConfigurator.Step step, @NonNull final Map<ProvisioningConfigurator.Step, Long> durations) {
+            Log.e(TAG, "Configuration of node " + unicastAddress + " failed at " + step);
+            mSetupProvisionedNode = false;
+            meshModule.sendEvent(CONFIGURATION_FINISHED, createConfigurationResult(unicastAddress, step, durations));
+            finishConfigurationSession(false);
+            if (mProvisioningQueue != null) {
+                mProvisioningQueue.onConfigurationFinished(false);
+            }
+        }
+    };
+
+    private final NodeIdentityReconnector.Listener mReconnectorListener = new NodeIdentityReconnector.Listener() {
+        @Override
+        public void onNodeFound(@NonNull final ScanResult result, final long elapsedMs) {
+            mReconnectScanMs = elapsedMs;
+            mConnectionState.postValue("Provisioned node found");
+            onProvisionedDeviceFound(mProvisionedMeshNode, new ExtendedBluetoothDevice(result));
+        }
+
+        @Override
+        public void onTimeout(final long timeoutMs) {
+            Log.w(TAG, "Node identity not found within " + timeoutMs + " ms, scanning for any proxy");
+            startScanForProxyNodeToProvision();
+        }
+    };
+
+    /**
+     * Starts looking for the node that was just provisioned.
+     */
+    private void startReconnectScan() {
+        final ProvisionedMeshNode node = mProvisionedMeshNode;
+        if (mIsScanning || mReconnector.isScanning()) {
+            return;
+        }
+        final ExtendedBluetoothDevice simulatedDevice = mSimulatedDevice;
+        if (mSimulatedProxy != null && node != null && simulatedDevice != null) {
+            // The simulated node is a proxy as soon as it is provisioned, there is nothing to scan for
+            onProvisionedDeviceFound(node, simulatedDevice);
+            return;
+        }
+        if (node == null || mMeshNetwork == null || !mReconnector.start(mMeshNetwork, node)) {
+            startScanForProxyNodeToProvision();
+        }
+    }
+
+    private WritableMap createReconnectReport() {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("scanMs", mReconnectScanMs);
+        map.putDouble("totalMs", SystemClock.elapsedRealtime() - mReconnectStartMs);
+        map.putDouble("nextTimeoutMs", mReconnector.getTimeoutMs());
+        map.putDouble("smoothedScanMs", mReconnector.getSmoothedReconnectMs());
+        map.putInt("found", mReconnector.getFoundCount());
+        map.putInt("timeouts", mReconnector.getTimeoutCount());
+        return map;
+    }
+
+    private WritableMap createConfigurationResult(final int unicastAddress, final ProvisioningConfigurator.Step failedStep, final Map<ProvisioningConfigurator.Step, Long> durations) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("unicastAddress", unicastAddress);
+        map.putBoolean("success", failedStep == null);
+        if (failedStep != null) {
+            map.putString("failedStep", failedStep.name());
+        }
+        long total = 0;
+        WritableMap steps = Arguments.createMap();
+        for (Map.Entry<ProvisioningConfigurator.Step, Long> entry : durations.entrySet()) {
+            steps.putDouble(entry.getKey().name(), entry.getValue());
+            total += entry.getValue();
+        }
+        map.putMap("stepDurationsMs", steps);
+        map.putDouble("totalMs", total);
+        return map;
     }
 
     public void loadMeshNetwork() {
@@ -373,6 +524,13 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         return mMeshManagerApi;
     }
 
+    /**
+     * Returns the handler of the thread the mesh manager api is used on
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
 
     /**
      * Returns the {@link} live data object containing the mesh message
@@ -408,10 +566,26 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         mIsAppKeyAddCompleted = false;
         mIsNetworkRetransmitSetCompleted = false;
         //clearExtendedMeshNode();
+        final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+        if (simulatedProxy != null) {
+            // The simulated device stands in for the selected one
+            mSimulatedDevice = device;
+            initIsConnectedLiveData(connectToNetwork);
+            mConnectionState.postValue("Connecting....");
+            meshModule.sendEvent(STATE_CHANGES, "Connecting....");
+            simulatedProxy.connect();
+            return;
+        }
         final LogSession logSession = Logger.newSession(context, null, device.getAddress(), device.getName());
         BleMeshManager bleMeshManager = mBleMeshManagerProvider.getOrCreateManager(device.getDevice(), mContext);
         bleMeshManager.setGattCallbacks(this);
-        currentBleManager = bleMeshManager;
+        if (mPipelineEnabled && Utils.getServiceData(device.getScanResult(), MESH_PROVISIONING_UUID) != null) {
+            // Keep the proxy bearer of the node being configured
+            mProvisioningBleManager = bleMeshManager;
+        }
+        else {
+            currentBleManager = bleMeshManager;
+        }
         bleMeshManager.setLogger(logSession);
         initIsConnectedLiveData(connectToNetwork);
         mConnectionState.postValue("Connecting....");
@@ -434,8 +608,18 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     private void connectToProxy(final ExtendedBluetoothDevice device) {
         initIsConnectedLiveData(true);
         mConnectionState.postValue("Connecting....");
+        final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+        if (simulatedProxy != null) {
+            mSimulatedDevice = device;
+            simulatedProxy.connect();
+            return;
+        }
         BleMeshManager bleMeshManager = mBleMeshManagerProvider.getOrCreateManager(device.getDevice(), mContext);
         bleMeshManager.setGattCallbacks(this);
+        if (mPipelineEnabled && currentBleManager != null && currentBleManager != bleMeshManager && currentBleManager.isConnected()) {
+            // Release the proxy of the previous node, its disconnection is ignored once the bearer is replaced
+            currentBleManager.disconnect().enqueue();
+        }
         currentBleManager = bleMeshManager;
         bleMeshManager.connect(device.getDevice()).retry(3, 200).enqueue();
     }
@@ -455,15 +639,50 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     public void disconnect() {
         clearProvisioningLiveData();
         mIsProvisioningComplete = false;
-        currentBleManager.disconnect().enqueue();
+        disconnectBearer();
+    }
+
+    /**
+     * Disconnects the proxy bearer, the simulated one if a simulation is running.
+     */
+    private void disconnectBearer() {
+        final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+        if (simulatedProxy != null) {
+            simulatedProxy.disconnect();
+        }
+        else {
+            currentBleManager.disconnect().enqueue();
+        }
+    }
+
+    /**
+     * Disconnects the bearer used to provision devices, which is the only bearer unless the pipeline is enabled.
+     */
+    void disconnectProvisioningBearer() {
+        if (mPipelineEnabled) {
+            if (mProvisioningBleManager != null) {
+                mUnprovisionedMeshNode = null;
+                mProvisioningBleManager.disconnect().enqueue();
+            }
+        }
+        else {
+            disconnect();
+        }
     }
 
     void clearProvisioningLiveData() {
 //        stopScan();
         mHandler.removeCallbacks(mReconnectRunnable);
+        mReconnectOnDisconnect = false;
+        mPendingProxyDevice = null;
+        mConfigurator.cancel();
         mSetupProvisionedNode = false;
         mIsReconnectingFlag = false;
         mUnprovisionedMeshNode = null;
+        // A retry must neither wait behind the sessions of this attempt nor reuse their cached composition
+        mSessions.reset();
+        mReconnectStartMs = 0;
+        mProvisioningHint = null;
     }
 
     private void removeCallbacks() {
@@ -474,7 +693,11 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         final UnprovisionedBeacon beacon = (UnprovisionedBeacon) device.getBeacon();
         final UnprovisionedMeshNode node = getUnprovisionedMeshNode();
         if (node == null) {
-            if (beacon != null) {
+            final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+            if (simulatedProxy != null) {
+                mMeshManagerApi.identifyNode(simulatedProxy.getDeviceUuid(), ATTENTION_TIMER);
+            }
+            else if (beacon != null) {
                 mMeshManagerApi.identifyNode(beacon.getUuid(), ATTENTION_TIMER);
             }
             else {
@@ -607,15 +830,69 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     @Override
     public void onDataReceived(final BluetoothDevice bluetoothDevice, final int mtu, final byte[] pdu) {
         Log.i("mesh", "onDataReceived");
+        final PduCapture capture = mPduCapture;
+        if (capture != null) {
+            capture.recordNotification(mtu, pdu);
+        }
+        if (!isProvisioningBearer(bluetoothDevice)) {
+            mConfigurator.onProxyPduReceived();
+        }
         mMeshManagerApi.handleNotifications(mtu, pdu);
     }
 
     @Override
     public void onDataSent(final BluetoothDevice device, final int mtu, final byte[] pdu) {
         Log.i("mesh", "onDataSent");
+        final PduCapture capture = mPduCapture;
+        if (capture != null) {
+            capture.recordWriteCallback(mtu, pdu);
+        }
         mMeshManagerApi.handleWriteCallbacks(mtu, pdu);
     }
 
+    /**
+     * Starts recording every PDU exchanged with the connected node, along with the network as it is now.
+     */
+    public void startPduCapture() {
+        final PduCapture capture = new PduCapture();
+        capture.setNetworkSnapshot(mMeshManagerApi.exportMeshNetwork());
+        mPduCapture = capture;
+    }
+
+    /**
+     * Stops the running capture and writes it to the given file.
+     *
+     * @return number of PDUs captured
+     */
+    public int stopPduCapture(@NonNull final File file) throws IOException {
+        final PduCapture capture = mPduCapture;
+        mPduCapture = null;
+        if (capture == null) {
+            throw new IllegalStateException("PDU capture is not running");
+        }
+        capture.writeTo(file);
+        return capture.size();
+    }
+
+    /**
+     * Replays a capture on the calling thread, into a repository holding a copy of the network taken when the
+     * capture started. The live network would drop the replayed PDUs, its sequence numbers having moved on since.
+     * The app receives the events of the replayed session as it received them when the capture was taken.
+     *
+     * @param file  capture file
+     * @param speed timing multiplier, 0 replays without waiting
+     */
+    public PduReplaySandbox.Report replayPduCapture(@NonNull final File file, final double speed) throws IOException, InterruptedException {
+        final PduCapture capture = PduCapture.readFrom(file);
+        final PduReplaySandbox sandbox = new PduReplaySandbox(mContext, meshModule);
+        try {
+            sandbox.open(capture);
+            return sandbox.replay(capture, speed);
+        } finally {
+            sandbox.close();
+        }
+    }
+
     @Override
     public void onDeviceConnecting(@NonNull final BluetoothDevice device) {
         meshModule.sendEvent(STATE_CHANGES, "Connecting...");
@@ -628,9 +905,12 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         meshModule.sendEvent(STATE_CHANGES, "Discovering services...");
         BleMeshManager bleMeshManager = mBleMeshManagerProvider.getOrCreateManager(device, mContext);
         bleMeshManager.setGattCallbacks(this);
-        currentBleManager = bleMeshManager;
+        final boolean provisioningBearer = isProvisioningBearer(device);
+        if (!provisioningBearer) {
+            currentBleManager = bleMeshManager;
+        }
         Log.i("isConnected()!!", String.valueOf(bleMeshManager.isConnected()));
-        if (mProvisionedMeshNode != null) {
+        if (mProvisionedMeshNode != null && !provisioningBearer) {
             meshModule.addConnectedDevice(new ExtendedConnectedDevice(device, mProvisionedMeshNode.getUnicastAddress()));
         }
 
@@ -655,6 +935,19 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     @Override
     public void onDeviceDisconnected(@NonNull final BluetoothDevice device) {
+        if (mPipelineEnabled) {
+            final BleMeshManager bleMeshManager = mBleMeshManagerProvider.getManager(device);
+            if (bleMeshManager != null && bleMeshManager == mProvisioningBleManager) {
+                onProvisioningBearerDisconnected(device);
+                return;
+            }
+            if (bleMeshManager != null && bleMeshManager != currentBleManager) {
+                // Proxy of a node that was replaced by the proxy of the next node
+                Log.v(TAG, "Previous proxy disconnected");
+                meshModule.removeConnectedDevice(device.getAddress());
+                return;
+            }
+        }
         Log.v(TAG, "Disconnected");
         mConnectionState.postValue("");
         meshModule.sendEvent(STATE_CHANGES, "Disconnected");
@@ -680,7 +973,30 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
             //clearExtendedMeshNode();
         }
         mSetupProvisionedNode = false;
+        mConfigurator.cancel();
         mConnectedProxyAddress.postValue(null);
+        final ProvisioningSession session = mSessions.getConfigurationSession();
+        if (session != null && session.getStage() == ProvisioningSession.Stage.CONFIGURING) {
+            finishConfigurationSession(false);
+            if (mPipelineEnabled && mProvisioningQueue != null) {
+                mProvisioningQueue.onProxyDisconnected();
+            }
+        }
+
+        if (mReconnectOnDisconnect) {
+            // The link is down and the gatt cache is refreshed, look for the provisioned node right away
+            mReconnectOnDisconnect = false;
+            mHandler.removeCallbacks(mReconnectRunnable);
+            mHandler.post(mReconnectRunnable);
+        }
+        final ExtendedBluetoothDevice pendingProxyDevice = mPendingProxyDevice;
+        if (pendingProxyDevice != null) {
+            mPendingProxyDevice = null;
+            onProvisionedDeviceFound(mPendingProxyNode, pendingProxyDevice);
+        }
+        if (mProvisioningQueue != null && !mPipelineEnabled) {
+            mProvisioningQueue.onDisconnected();
+        }
 
         // Complete the future when the device is disconnected
         if (disconnectFuture != null) {
@@ -690,6 +1006,39 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     }
 
+    /**
+     * Called when the PB-GATT bearer of the pipeline is disconnected, the proxy bearer is not affected.
+     */
+    private void onProvisioningBearerDisconnected(@NonNull final BluetoothDevice device) {
+        Log.v(TAG, "Provisioning bearer disconnected");
+        mProvisioningBleManager = null;
+        meshModule.removeConnectedDevice(device.getAddress());
+        final ProvisioningSession session = mSessions.getProvisioningSession();
+        if (session != null && session.getStage() == ProvisioningSession.Stage.PROVISIONING) {
+            mSessions.failProvisioning();
+        }
+        if (mReconnectOnDisconnect) {
+            mReconnectOnDisconnect = false;
+            mHandler.removeCallbacks(mReconnectRunnable);
+            mHandler.post(mReconnectRunnable);
+        }
+        if (mProvisioningQueue != null) {
+            mProvisioningQueue.onDisconnected();
+        }
+        if (disconnectFuture != null) {
+            disconnectFuture.complete(null);
+            disconnectFuture = null;
+        }
+    }
+
+    /**
+     * Returns true if the device is connected over the PB-GATT bearer of the pipeline.
+     */
+    private boolean isProvisioningBearer(final BluetoothDevice device) {
+        return mPipelineEnabled && device != null && mProvisioningBleManager != null
+                && mBleMeshManagerProvider.getManager(device) == mProvisioningBleManager;
+    }
+
     @Override
     public void onLinkLossOccurred(@NonNull final BluetoothDevice device) {
         Log.v(TAG, "Link loss occurred");
@@ -737,6 +1086,12 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     @Override
     public void onDeviceReady(@NonNull final BluetoothDevice device) {
         mOnDeviceReady.postValue(null);
+        if (isProvisioningBearer(device)) {
+            if (mProvisioningQueue != null) {
+                mProvisioningQueue.onDeviceReady(false);
+            }
+            return;
+        }
         final ProvisionedMeshNode node = mProvisionedMeshNodeLiveData.getValue();
         if (node != null) {
             ExtendedConnectedDevice d = new ExtendedConnectedDevice(device, node.getUnicastAddress());
@@ -750,26 +1105,38 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         BleMeshManager bleMeshManager = mBleMeshManagerProvider.getOrCreateManager(device, mContext);
         bleMeshManager.setGattCallbacks(this);
         currentBleManager = bleMeshManager;
-        if (bleMeshManager.isProvisioningComplete()) {
+        final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+        final boolean provisioningComplete = simulatedProxy != null ? simulatedProxy.isProvisioningComplete() : bleMeshManager.isProvisioningComplete();
+        if (provisioningComplete) {
 
             if (mSetupProvisionedNode) {
+                if (mReconnectStartMs != 0) {
+                    meshModule.sendEvent(NODE_RECONNECTED, createReconnectReport());
+                    mReconnectStartMs = 0;
+                }
                 if (mMeshNetwork.getSelectedProvisioner().getProvisionerAddress() != null) {
-                    mHandler.postDelayed(() -> {
-                        //Adding a slight delay here so we don't send anything before we receive the mesh beacon message
-                        if (node != null) {
-                            final ConfigCompositionDataGet compositionDataGet = new ConfigCompositionDataGet();
-                            mMeshManagerApi.createMeshPdu(node.getUnicastAddress(), compositionDataGet);
+                    if (node != null) {
+                        // The configurator waits for the mesh beacon before sending anything
+                        final ApplicationKey appKey = mMeshNetworkLiveData.getSelectedAppKey();
+                        // We should use the app key's boundNetKeyIndex as the network key index when adding the default app key
+                        final NetworkKey networkKey = appKey == null ? null : mMeshNetwork.getNetKeys().get(appKey.getBoundNetKeyIndex());
+                        mConfigurator.start(node.getUnicastAddress(), appKey, networkKey);
+                        if (mSessions.getConfigurationSession() != null) {
+                            mSessions.getConfigurationSession().setStage(ProvisioningSession.Stage.CONFIGURING);
                         }
-                    }, 2000);
+                    }
                 }
                 else {
                     mSetupProvisionedNode = false;
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.PROVISIONER_UNASSIGNED);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.PROVISIONER_UNASSIGNED);
                     clearExtendedMeshNode();
                 }
             }
             mConnectedProxy.postValue(device.getName());
         }
+        if (mProvisioningQueue != null) {
+            mProvisioningQueue.onDeviceReady(provisioningComplete);
+        }
     }
 
     @Override
@@ -809,6 +1176,10 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     @Override
     public void onNetworkUpdated(final MeshNetwork meshNetwork) {
         Log.i("mesh", "onNetworkUpdated");
+        if (mDeferNetworkUpdates) {
+            mNetworkUpdatePending = true;
+            return;
+        }
         loadNetwork(meshNetwork);
         updateSelectedGroup();
     }
@@ -834,30 +1205,334 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     @Override
     public void sendProvisioningPdu(final UnprovisionedMeshNode meshNode, final byte[] pdu) {
-        currentBleManager.sendPdu(pdu);
+        getProvisioningTransport().sendPdu(pdu);
     }
 
     @Override
     public void onMeshPduCreated(final byte[] pdu) {
-        currentBleManager.sendPdu(pdu);
+        getTransport().sendPdu(pdu);
     }
 
     @Override
     public int getMtu() {
-        return currentBleManager.getMaximumPacketSize();
+        final MeshTransport provisioningTransport = getProvisioningTransport();
+        final MeshTransport transport = getTransport();
+        if (provisioningTransport != transport && transport != null && currentBleManager.isConnected()) {
+            // Both bearers are in use, segment for the smaller one
+            return Math.min(provisioningTransport.getMaximumPacketSize(), transport.getMaximumPacketSize());
+        }
+        return provisioningTransport.getMaximumPacketSize();
     }
 
+    /**
+     * Returns the bearer PDUs are currently sent over, the simulated proxy if one is running
+     * or the ble manager of the connected node.
+     */
+    private MeshTransport getTransport() {
+        final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+        return simulatedProxy != null ? simulatedProxy : currentBleManager;
+    }
 
-    public static String bytesToHexString(byte[] bytes) {
-        StringBuilder hexString = new StringBuilder();
+    /**
+     * Returns the bearer provisioning PDUs are sent over, which differs from the proxy bearer only while
+     * the pipeline is enabled and a device is being provisioned.
+     */
+    private MeshTransport getProvisioningTransport() {
+        final BleMeshManager provisioningBleManager = mProvisioningBleManager;
+        if (mSimulatedProxy == null && mPipelineEnabled && provisioningBleManager != null) {
+            return provisioningBleManager;
+        }
+        return getTransport();
+    }
+
+    /**
+     * Routes all mesh traffic to an in-process simulated device instead of the ble bearer. The device starts
+     * unprovisioned and is connected, provisioned and configured as the selected device would be.
+     *
+     * @param minLatencyMs minimum latency applied to writes and responses
+     * @param maxLatencyMs maximum latency applied to writes and responses
+     * @param lossRate     probability that a response is lost
+     * @param seed         random seed, so that runs are repeatable
+     */
+    public SimulatedMeshProxy startSimulation(final int minLatencyMs, final int maxLatencyMs, final double lossRate, final long seed) {
+        if (mMeshNetwork == null) {
+            throw new IllegalStateException("Mesh network is not loaded");
+        }
+        stopSimulation();
+        final SimulatedMeshProxy simulatedProxy = new SimulatedMeshProxy(new SimulatedMeshProxy.Callbacks() {
+            @Override
+            public void onConnected() {
+                mHandler.post(MeshRepository.this::onSimulatedDeviceConnected);
+            }
+
+            @Override
+            public void onDataSent(final int mtu, @NonNull final byte[] pdu) {
+                mHandler.post(() -> MeshRepository.this.onDataSent(getSimulatedBluetoothDevice(), mtu, pdu));
+            }
+
+            @Override
+            public void onDataReceived(final int mtu, @NonNull final byte[] pdu) {
+                mHandler.post(() -> MeshRepository.this.onDataReceived(getSimulatedBluetoothDevice(), mtu, pdu));
+            }
+
+            @Override
+            public void onDisconnected() {
+                mHandler.post(() -> {
+                    final BluetoothDevice device = getSimulatedBluetoothDevice();
+                    if (device != null) {
+                        onDeviceDisconnected(device);
+                    }
+                });
+            }
+        }, mMeshManagerApi::getMeshNetwork);
+        simulatedProxy.setLatency(minLatencyMs, maxLatencyMs);
+        simulatedProxy.setLossRate(lossRate);
+        simulatedProxy.setSeed(seed);
+        mSimulatedProxy = simulatedProxy;
+        return simulatedProxy;
+    }
+
+    private BluetoothDevice getSimulatedBluetoothDevice() {
+        final ExtendedBluetoothDevice device = mSimulatedDevice;
+        return device == null ? null : device.getDevice();
+    }
+
+    /**
+     * Reports the connection of the simulated device through the ble callbacks, in the order the ble manager
+     * reports a GATT connection.
+     */
+    private void onSimulatedDeviceConnected() {
+        final BluetoothDevice device = getSimulatedBluetoothDevice();
+        if (mSimulatedProxy == null || device == null) {
+            return;
+        }
+        onDeviceConnecting(device);
+        onDeviceConnected(device);
+        onServicesDiscovered(device, false);
+        onDeviceReady(device);
+    }
+
+    /**
+     * Returns true if a bearer is currently connected, to an unprovisioned device or to a proxy.
+     */
+    boolean isBearerConnected() {
+        final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+        if (simulatedProxy != null) {
+            return simulatedProxy.isConnected();
+        }
+        if (mPipelineEnabled) {
+            return mProvisioningBleManager != null && mProvisioningBleManager.isConnected();
+        }
+        return currentBleManager != null && currentBleManager.isConnected();
+    }
 
-        for (byte b : bytes) {
-            // Convert each byte to hex format (two characters)
-            String hex = String.format("%02x", b);
-            hexString.append(hex);
+    /**
+     * Enables provisioning a device over its own PB-GATT bearer while the previously provisioned node is
+     * configured through the proxy bearer, instead of waiting for its configuration to finish.
+     */
+    public void setProvisioningPipelineEnabled(final boolean enabled) {
+        if (mProvisioningQueue != null && mProvisioningQueue.isRunning()) {
+            throw new IllegalStateException("Provisioning queue is running");
+        }
+        mPipelineEnabled = enabled;
+        if (!enabled) {
+            mSessions.clearPending();
+        }
+    }
+
+    public boolean isProvisioningPipelineEnabled() {
+        return mPipelineEnabled;
+    }
+
+    /**
+     * Returns the session of the device being provisioned, or null.
+     */
+    public ProvisioningSession getProvisioningSession() {
+        return mSessions.getProvisioningSession();
+    }
+
+    /**
+     * Returns the session of the node being configured, or last configured, or null.
+     */
+    public ProvisioningSession getConfigurationSession() {
+        return mSessions.getConfigurationSession();
+    }
+
+    /**
+     * Returns the number of provisioned nodes waiting for the proxy bearer to be configured.
+     */
+    public int getPendingSessionCount() {
+        return mSessions.getPendingSessionCount();
+    }
+
+    /**
+     * Starts provisioning and configuring the given devices one after the other.
+     *
+     * @param devices    devices to provision, in order
+     * @param maxRetries number of times a device is retried if it fails before being provisioned
+     * @param listener   listener notified as devices are done
+     */
+    public ProvisioningQueue startProvisioningQueue(@NonNull final List<ExtendedBluetoothDevice> devices, final int maxRetries,
+                                                    @NonNull final ProvisioningQueue.Listener listener) {
+        if (mProvisioningQueue != null && mProvisioningQueue.isRunning()) {
+            throw new IllegalStateException("Provisioning queue is already running");
+        }
+        stopScan();
+        mProvisioningQueue = new ProvisioningQueue(this, mContext, mHandler, devices, maxRetries, mPipelineEnabled, listener);
+        mProvisioningQueue.start();
+        return mProvisioningQueue;
+    }
+
+    public ProvisioningQueue getProvisioningQueue() {
+        return mProvisioningQueue;
+    }
+
+    public void stopProvisioningQueue() {
+        if (mProvisioningQueue != null) {
+            mProvisioningQueue.stop();
+        }
+    }
+
+    /**
+     * Starts refreshing a network key and the application keys bound to it on every node of the network.
+     *
+     * @param netKeyIndex     index of the network key to refresh
+     * @param newNetKey       new network key, or null to generate one
+     * @param window          maximum number of outstanding requests
+     * @param skipFailedNodes true to leave unreachable nodes behind, false to stop before switching keys
+     * @param listener        listener notified of the progress
+     */
+    public KeyRefreshEngine startKeyRefresh(final int netKeyIndex, final byte[] newNetKey, final int window, final boolean skipFailedNodes,
+                                            @NonNull final KeyRefreshEngine.Listener listener) {
+        if (mKeyRefreshEngine != null && mKeyRefreshEngine.isRunning()) {
+            throw new IllegalStateException("Key refresh is already running");
+        }
+        final Integer proxyAddress = mConnectedProxyAddress.getValue();
+        mKeyRefreshEngine = new KeyRefreshEngine(mMeshManagerApi, mMeshNetwork, mHandler, window, skipFailedNodes,
+                proxyAddress == null ? -1 : proxyAddress, listener);
+        mKeyRefreshEngine.start(netKeyIndex, newNetKey);
+        return mKeyRefreshEngine;
+    }
+
+    public KeyRefreshEngine getKeyRefreshEngine() {
+        return mKeyRefreshEngine;
+    }
+
+    public void stopKeyRefresh() {
+        if (mKeyRefreshEngine != null) {
+            mKeyRefreshEngine.stop();
+        }
+    }
+
+    /**
+     * Resets the given nodes with a bounded number of requests outstanding. The node list, address allocator
+     * and group index are updated once, when every node is done.
+     *
+     * @param unicastAddresses   unicast addresses of the nodes to reset
+     * @param concurrency        maximum number of outstanding requests
+     * @param removeUnresponsive true to remove the nodes that do not answer from the network anyway
+     * @param listener           listener notified of the progress
+     */
+    public BulkNodeReset startBulkReset(@NonNull final List<Integer> unicastAddresses, final int concurrency, final boolean removeUnresponsive,
+                                        @NonNull final BulkNodeReset.Listener listener) {
+        if (mBulkNodeReset != null && mBulkNodeReset.isRunning()) {
+            throw new IllegalStateException("Bulk reset is already running");
+        }
+        mDeferNetworkUpdates = true;
+        mBulkNodeReset = new BulkNodeReset(mMeshManagerApi, mMeshNetwork, mHandler, concurrency, removeUnresponsive, new BulkNodeReset.Listener() {
+            @Override
+            public void onNodeFinished(@NonNull final BulkNodeReset.NodeResult result, final int remaining) {
+                listener.onNodeFinished(result, remaining);
+            }
+
+            @Override
+            public void onFinished(@NonNull final List<BulkNodeReset.NodeResult> results, @NonNull final List<Integer> removed, final long elapsedMs) {
+                onNodesRemoved(removed);
+                listener.onFinished(results, removed, elapsedMs);
+            }
+        });
+        final Integer proxyAddress = mConnectedProxyAddress.getValue();
+        mBulkNodeReset.start(unicastAddresses, proxyAddress == null ? -1 : proxyAddress);
+        return mBulkNodeReset;
+    }
+
+    public BulkNodeReset getBulkNodeReset() {
+        return mBulkNodeReset;
+    }
+
+    public void stopBulkReset() {
+        if (mBulkNodeReset != null) {
+            mBulkNodeReset.stop();
+        }
+    }
+
+    /**
+     * Removes the given nodes from the network without resetting them, applying the network update once.
+     *
+     * @return unicast addresses of the nodes removed
+     */
+    public List<Integer> removeNodes(@NonNull final List<Integer> unicastAddresses) {
+        final List<Integer> removed = new ArrayList<>();
+        mDeferNetworkUpdates = true;
+        try {
+            for (Integer address : unicastAddresses) {
+                final ProvisionedMeshNode node = address == null ? null : mMeshNetwork.getNode(address);
+                if (node != null && mMeshNetwork.deleteNode(node)) {
+                    removed.add(address);
+                }
+            }
+        } finally {
+            onNodesRemoved(removed);
+        }
+        return removed;
+    }
+
+    private void onNodesRemoved(final List<Integer> removed) {
+        for (Integer address : removed) {
+            mAddressAllocator.onNodeRemoved(address);
+            mGroupMembershipIndex.onNodeRemoved(address);
+        }
+        mDeferNetworkUpdates = false;
+        if (mNetworkUpdatePending) {
+            mNetworkUpdatePending = false;
+            onNetworkUpdated(mMeshNetwork);
         }
+        if (!removed.isEmpty()) {
+            if (currentBleManager != null) {
+                currentBleManager.setClearCacheRequired();
+            }
+            mExtendedMeshNode.postValue(null);
+            loadNodes();
+        }
+    }
 
-        return hexString.toString();
+    public SegmentationStatistics getSegmentationStatistics() {
+        return mSegmentationStatistics;
+    }
+
+    public ProvisioningPhaseHistogram getProvisioningPhaseHistogram() {
+        return mPhaseHistogram;
+    }
+
+    public SimulatedMeshProxy getSimulatedProxy() {
+        return mSimulatedProxy;
+    }
+
+    /**
+     * Stops the simulation and restores the ble bearer.
+     */
+    public void stopSimulation() {
+        final SimulatedMeshProxy simulatedProxy = mSimulatedProxy;
+        if (simulatedProxy != null) {
+            mSimulatedProxy = null;
+            mSimulatedDevice = null;
+            simulatedProxy.shutdown();
+        }
+    }
+
+
+    public static String bytesToHexString(byte[] bytes) {
+        return HexUtils.toHexString(bytes, false);
     }
 
     @Override
@@ -865,22 +1540,33 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         mUnprovisionedMeshNode = meshNode;
         switch (state) {
             case PROVISIONING_INVITE:
-                mProvisioningStateLiveData = new ProvisioningStatusLiveData(meshModule);
+                mProvisioningStateLiveData = new ProvisioningStatusLiveData(meshModule, mPhaseHistogram);
+                mSessions.startProvisioning(getSelectedBluetoothDevice().getValue(), mProvisioningStateLiveData);
                 break;
             case PROVISIONING_FAILED:
                 mIsProvisioningComplete = false;
+                mSessions.failProvisioning();
+                releaseUnicastAddresses(meshNode);
+                if (mProvisioningQueue != null) {
+                    mProvisioningQueue.onProvisioningFailed();
+                }
                 break;
             case PROVISIONING_CAPABILITIES:
                 meshNode.setNodeName(Objects.requireNonNull(getSelectedBluetoothDevice().getValue()).getName());
                 final Provisioner provisioner = mMeshNetwork.getSelectedProvisioner();
-                final int unicast = mMeshNetwork.nextAvailableUnicastAddress(meshNode.getNumberOfElements(), provisioner);
+                int unicast = mAddressAllocator.allocateUnicastAddress(meshNode.getNumberOfElements(), provisioner);
+                if (unicast < 0) {
+                    unicast = mMeshNetwork.nextAvailableUnicastAddress(meshNode.getNumberOfElements(), provisioner);
+                }
                 mMeshNetwork.assignUnicastAddress(unicast);
                 meshNode.setUnicastAddress(unicast);
 
                 WritableMap map = meshModule.getUnprovisionedNodeData(meshNode);
                 meshModule.sendEvent(NODE_IDENTIFIED, map);
                 meshModule.sendEvent(STATE_CHANGES, "Connected (unprovisioned)");
-
+                if (mProvisioningQueue != null) {
+                    mProvisioningQueue.onCapabilitiesReceived();
+                }
                 break;
             case PROVISIONING_START:
                 meshModule.sendEvent(STATE_CHANGES, "Provisioning started ...");
@@ -926,6 +1612,8 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
         if (state == ProvisioningState.States.PROVISIONING_FAILED) {
             mIsProvisioningComplete = false;
+            mSessions.failProvisioning();
+            releaseUnicastAddresses(meshNode);
         }
         Log.i("mesh", "************* onProvisioningFailed");
         mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.fromStatusCode(state.getState()));
@@ -933,10 +1621,11 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     @Override
     public void onProvisioningCompleted(final ProvisionedMeshNode meshNode, final ProvisioningState.States state, final byte[] data) {
-        mProvisionedMeshNode = meshNode;
         mUnprovisionedMeshNode = null;
-
-        mProvisionedMeshNodeLiveData.postValue(meshNode);
+        if (!mPipelineEnabled) {
+            mProvisionedMeshNode = meshNode;
+            mProvisionedMeshNodeLiveData.postValue(meshNode);
+        }
         if (state == ProvisioningState.States.PROVISIONING_COMPLETE) {
             onProvisioningCompleted(meshNode);
         }
@@ -946,16 +1635,99 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     private void onProvisioningCompleted(final ProvisionedMeshNode node) {
         mIsProvisioningComplete = true;
-        mProvisionedMeshNode = node;
-        mIsReconnecting.postValue(true);
+        final ProvisioningSession session = mSessions.onProvisioned(node, getSelectedBluetoothDevice().getValue(), mProvisioningStateLiveData);
+        mAddressAllocator.onNodeAdded(node);
 
-        currentBleManager.disconnect().enqueue();
         loadNodes();
+        meshModule.sendEvent(STATE_CHANGES, "Provisioned");
+
+        if (mPipelineEnabled) {
+            // Release the PB-GATT bearer right away so that the next device can be provisioned
+            if (mProvisioningBleManager != null) {
+                mProvisioningBleManager.disconnect().enqueue();
+            }
+            if (mSessions.isConfiguring()) {
+                mSessions.addPending(session);
+            }
+            else {
+                startConfigurationSession(session, mProvisioningBleManager != null);
+            }
+        }
+        else {
+            disconnectBearer();
+            startConfigurationSession(session, true);
+        }
+        if (mProvisioningQueue != null) {
+            mProvisioningQueue.onProvisioningCompleted(node.getUnicastAddress());
+        }
+    }
+
+    /**
+     * Looks for the provisioned node of the session and configures it once connected to it.
+     *
+     * @param waitForDisconnect true if the bearer the node was provisioned over is still being disconnected
+     */
+    private void startConfigurationSession(@NonNull final ProvisioningSession session, final boolean waitForDisconnect) {
+        final ProvisionedMeshNode node = session.getNode();
+        mSessions.startConfiguration(session);
+        mProvisionedMeshNode = node;
+        mProvisionedMeshNodeLiveData.postValue(node);
+        mIsReconnecting.postValue(true);
+        mReconnectStartMs = SystemClock.elapsedRealtime();
+        mReconnectScanMs = -1;
+        mProvisioningHint = node.getNodeName();
+        // The app gets the composition of the product right away, the one of the node follows once fetched
+        sendCachedComposition(mCompositionCache.predict(mProvisioningHint));
         mHandler.post(() -> mConnectionState.postValue("Scanning for provisioned node"));
 
-        meshModule.sendEvent(STATE_CHANGES, "Provisioned");
+        if (waitForDisconnect) {
+            // Scan as soon as the disconnection is reported, the fallback covers a missing callback
+            mReconnectOnDisconnect = true;
+            mHandler.postDelayed(mReconnectRunnable, RECONNECT_FALLBACK_MS);
+        }
+        else {
+            mHandler.post(mReconnectRunnable);
+        }
+    }
+
+    private void finishConfigurationSession(final boolean success) {
+        if (!mSessions.finishConfiguration(success)) {
+            return;
+        }
+        // Statuses are still being processed when the configurator reports, start the next session outside of them
+        mHandler.post(this::startPendingSession);
+    }
+
+    private void startPendingSession() {
+        final ProvisioningSession session = mSessions.pollPending();
+        if (session != null) {
+            startConfigurationSession(session, false);
+        }
+    }
+
+    /**
+     * Frees the addresses assigned to a device that could not be provisioned.
+     */
+    private void releaseUnicastAddresses(final UnprovisionedMeshNode meshNode) {
+        if (meshNode != null && mMeshNetwork != null && mMeshNetwork.getNode(meshNode.getUnicastAddress()) == null) {
+            mAddressAllocator.releaseUnicastAddresses(meshNode.getUnicastAddress(), meshNode.getNumberOfElements());
+        }
+    }
 
-        mHandler.postDelayed(mReconnectRunnable, 1000); //Added a slight delay to disconnect and refresh the cache
+    public AddressAllocator getAddressAllocator() {
+        return mAddressAllocator;
+    }
+
+    public GroupMembershipIndex getGroupMembershipIndex() {
+        return mGroupMembershipIndex;
+    }
+
+    /**
+     * Returns the progress of the node being configured, which is not the device being provisioned while the pipeline is enabled.
+     */
+    private ProvisioningStatusLiveData getConfigurationProgress() {
+        final ProvisioningSession session = mSessions.getConfigurationSession();
+        return session != null ? session.getProgress() : mProvisioningStateLiveData;
     }
 
     /**
@@ -977,6 +1749,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     @Override
     public void onTransactionFailed(final int dst, final boolean hasIncompleteTimerExpired) {
+        mSegmentationStatistics.onTransactionFailed(dst);
         mProvisionedMeshNode = mMeshNetwork.getNode(dst);
         mTransactionStatus.postValue(new TransactionStatus(dst, hasIncompleteTimerExpired));
     }
@@ -991,24 +1764,26 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
     @Override
     public void onBlockAcknowledgementProcessed(final int dst, @NonNull final ControlMessage message) {
+        mSegmentationStatistics.onBlockAcknowledgementProcessed(dst, message);
         final ProvisionedMeshNode node = mMeshNetwork.getNode(dst);
         if (node != null) {
             mProvisionedMeshNode = node;
             if (mSetupProvisionedNode) {
                 mProvisionedMeshNodeLiveData.postValue(mProvisionedMeshNode);
-                mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.SENDING_BLOCK_ACKNOWLEDGEMENT);
+                getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.SENDING_BLOCK_ACKNOWLEDGEMENT);
             }
         }
     }
 
     @Override
     public void onBlockAcknowledgementReceived(final int src, @NonNull final ControlMessage message) {
+        mSegmentationStatistics.onBlockAcknowledgementReceived(src, message);
         final ProvisionedMeshNode node = mMeshNetwork.getNode(src);
         if (node != null) {
             mProvisionedMeshNode = node;
             if (mSetupProvisionedNode) {
                 mProvisionedMeshNodeLiveData.postValue(node);
-                mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.BLOCK_ACKNOWLEDGEMENT_RECEIVED);
+                getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.BLOCK_ACKNOWLEDGEMENT_RECEIVED);
             }
         }
     }
@@ -1016,6 +1791,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     @Override
     public void onMeshMessageProcessed(final int dst, @NonNull final MeshMessage meshMessage) {
         Log.d("mesh", "onMeshMessageProcessed");
+        mSegmentationStatistics.onMessageSent(dst, meshMessage);
 
         final ProvisionedMeshNode node = mMeshNetwork.getNode(dst);
         if (node != null) {
@@ -1024,28 +1800,28 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                 if (mSetupProvisionedNode) {
                     mProvisionedMeshNode = node;
                     mProvisionedMeshNodeLiveData.postValue(node);
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.COMPOSITION_DATA_GET_SENT);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.COMPOSITION_DATA_GET_SENT);
                 }
             }
             else if (meshMessage instanceof ConfigDefaultTtlGet) {
                 if (mSetupProvisionedNode) {
                     mProvisionedMeshNodeLiveData.postValue(node);
                     mProvisionedMeshNode = node;
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.SENDING_DEFAULT_TTL_GET);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.SENDING_DEFAULT_TTL_GET);
                 }
             }
             else if (meshMessage instanceof ConfigAppKeyAdd) {
                 if (mSetupProvisionedNode) {
                     mProvisionedMeshNodeLiveData.postValue(node);
                     mProvisionedMeshNode = node;
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.SENDING_APP_KEY_ADD);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.SENDING_APP_KEY_ADD);
                 }
             }
             else if (meshMessage instanceof ConfigNetworkTransmitSet) {
                 if (mSetupProvisionedNode) {
                     mProvisionedMeshNodeLiveData.postValue(node);
                     mProvisionedMeshNode = node;
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.SENDING_NETWORK_TRANSMIT_SET);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.SENDING_NETWORK_TRANSMIT_SET);
                 }
             }
         }
@@ -1054,7 +1830,14 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     @Override
     public void onMeshMessageReceived(final int src, @NonNull final MeshMessage meshMessage) {
         Log.d("mesh", "onMeshMessageReceived: " + Integer.toHexString(meshMessage.getOpCode()));
+        if (mBulkNodeReset != null && mBulkNodeReset.onStatusReceived(src, meshMessage)) {
+            return;
+        }
         final ProvisionedMeshNode node = mMeshNetwork.getNode(src);
+        if (node != null && mKeyRefreshEngine != null && mKeyRefreshEngine.onStatusReceived(src, meshMessage)) {
+            updateNode(node);
+            return;
+        }
         if (node != null)
             if (meshMessage.getOpCode() == ProxyConfigMessageOpCodes.FILTER_STATUS) {
                 mProvisionedMeshNode = node;
@@ -1062,7 +1845,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                 final ProxyConfigFilterStatus status = (ProxyConfigFilterStatus) meshMessage;
                 final int unicastAddress = status.getSrc();
 
-                WritableMap map = new WritableNativeMap();
+                WritableMap map = Arguments.createMap();
 
                 map.putInt("type", status.getFilterType().getType());
                 map.putInt("listSize", status.getListSize());
@@ -1074,26 +1857,20 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
             }
             else if (meshMessage.getOpCode() == CONFIG_COMPOSITION_DATA_STATUS) {
                 Log.i("mSetupProvisionedNode", String.valueOf(mSetupProvisionedNode));
+                mCompositionCache.onCompositionReceived(meshMessage.getParameters(), mSetupProvisionedNode ? mProvisioningHint : null);
                 if (mSetupProvisionedNode) {
                     mIsCompositionDataReceived = true;
                     mProvisionedMeshNodeLiveData.postValue(node);
                     mProvisionedMeshNode = node;
                     mConnectedProxyAddress.postValue(node.getUnicastAddress());
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.COMPOSITION_DATA_STATUS_RECEIVED);
-                    mHandler.postDelayed(() -> {
-                        final ConfigDefaultTtlGet configDefaultTtlGet = new ConfigDefaultTtlGet();
-                        mMeshManagerApi.createMeshPdu(node.getUnicastAddress(), configDefaultTtlGet);
-                    }, 500);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.COMPOSITION_DATA_STATUS_RECEIVED);
+                    mConfigurator.onStatusReceived(node.getUnicastAddress(), meshMessage);
                 }
                 else {
                     updateNode(node);
                 }
-                final VendorModelMessageStatus status = (VendorModelMessageStatus) meshMessage;
-
-                WritableMap map = new WritableNativeMap();
-                map.putString("parameters", bytesToHexString(status.getParameters()));
-                map.putString("response", MeshParserUtils.bytesToHex(status.getAccessPayload(), false));
-                meshModule.sendEvent(COMPOSITION_DATA_STATUS_GET, map);
+                // The status is a ConfigCompositionDataStatus, the payload is rebuilt from its parameters
+                sendComposition(meshMessage.getParameters(), false);
             }
             else if (meshMessage.getOpCode() == CONFIG_DEFAULT_TTL_STATUS) {
                 final ConfigDefaultTtlStatus status = (ConfigDefaultTtlStatus) meshMessage;
@@ -1101,11 +1878,8 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                     mIsDefaultTtlReceived = true;
                     mProvisionedMeshNodeLiveData.postValue(node);
                     mProvisionedMeshNode = node;
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.DEFAULT_TTL_STATUS_RECEIVED);
-                    mHandler.postDelayed(() -> {
-                        final ConfigNetworkTransmitSet networkTransmitSet = new ConfigNetworkTransmitSet(2, 1);
-                        mMeshManagerApi.createMeshPdu(node.getUnicastAddress(), networkTransmitSet);
-                    }, 1500);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.DEFAULT_TTL_STATUS_RECEIVED);
+                    mConfigurator.onStatusReceived(node.getUnicastAddress(), meshMessage);
                 }
                 else {
                     updateNode(node);
@@ -1115,22 +1889,15 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
             else if (meshMessage.getOpCode() == CONFIG_NETWORK_TRANSMIT_STATUS) {
                 if (mSetupProvisionedNode) {
                     mIsNetworkRetransmitSetCompleted = true;
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.NETWORK_TRANSMIT_STATUS_RECEIVED);
-                    final ApplicationKey appKey = mMeshNetworkLiveData.getSelectedAppKey();
-                    if (appKey != null) {
-                        mHandler.postDelayed(() -> {
-                            // We should use the app key's boundNetKeyIndex as the network key index when adding the default app key
-                            final NetworkKey networkKey = mMeshNetwork.getNetKeys().get(appKey.getBoundNetKeyIndex());
-                            final ConfigAppKeyAdd configAppKeyAdd = new ConfigAppKeyAdd(networkKey, appKey);
-                            mMeshManagerApi.createMeshPdu(node.getUnicastAddress(), configAppKeyAdd);
-                        }, 1500);
-                    }
-                    else {
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.NETWORK_TRANSMIT_STATUS_RECEIVED);
+                    mConfigurator.onStatusReceived(node.getUnicastAddress(), meshMessage);
+                    if (!mConfigurator.isRunning()) {
+                        // There is no app key to add, the configuration is complete
                         mSetupProvisionedNode = false;
                         meshModule.sendEvent(PROVISION_COMPLETED, "success");
                         meshModule.sendEvent(UPDATE_PROVISIONING_PROGRESS, "1");
 
-                        mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.APP_KEY_STATUS_RECEIVED);
+                        getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.APP_KEY_STATUS_RECEIVED);
 
                     }
                 }
@@ -1143,16 +1910,18 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
             else if (meshMessage.getOpCode() == CONFIG_APPKEY_STATUS) {
                 final ConfigAppKeyStatus status = (ConfigAppKeyStatus) meshMessage;
                 if (mSetupProvisionedNode) {
+                    // The configurator reports the configuration as failed if the node rejected the key
+                    mConfigurator.onStatusReceived(node.getUnicastAddress(), meshMessage);
                     mSetupProvisionedNode = false;
                     if (status.isSuccessful()) {
                         mIsAppKeyAddCompleted = true;
                         mProvisionedMeshNodeLiveData.postValue(node);
                         mProvisionedMeshNode = node;
+                        meshModule.sendEvent(PROVISION_COMPLETED, "success");
+                        meshModule.sendEvent(UPDATE_PROVISIONING_PROGRESS, "1");
                     }
-                    meshModule.sendEvent(PROVISION_COMPLETED, "success");
-                    meshModule.sendEvent(UPDATE_PROVISIONING_PROGRESS, "1");
 
-                    mProvisioningStateLiveData.onMeshNodeStateUpdated(ProvisionerStates.APP_KEY_STATUS_RECEIVED);
+                    getConfigurationProgress().onMeshNodeStateUpdated(ProvisionerStates.APP_KEY_STATUS_RECEIVED);
                 }
                 else {
                     updateNode(node);
@@ -1193,7 +1962,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                             mSelectedElement.postValue(element);
                             final MeshModel model = element.getMeshModels().get(status.getModelIdentifier());
                             mSelectedModel.postValue(model);
-                            WritableMap map = new WritableNativeMap();
+                            WritableMap map = Arguments.createMap();
                             map.putBoolean("initial", false);
                             map.putInt("publicationSteps", status.getPublicationSteps());
                             map.putInt("appKeyIndex", status.getAppKeyIndex());
@@ -1220,6 +1989,11 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                         final MeshModel model = element.getMeshModels().get(status.getModelIdentifier());
                         mSelectedModel.postValue(model);
                         if (status.isSuccessful()) {
+                            // The model already reflects the add, delete, overwrite or delete all
+                            if (model != null) {
+                                mGroupMembershipIndex.setSubscriptions(node.getUnicastAddress(), status.getElementAddress(),
+                                        status.getModelIdentifier(), model.getSubscribedAddresses());
+                            }
                             meshModule.sendEvent(SUBSCRIPTION_ADDED, status.getSubscriptionAddress());
                         }
                         else {
@@ -1230,6 +2004,8 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
 
             }
             else if (meshMessage.getOpCode() == CONFIG_NODE_RESET_STATUS) {
+                mAddressAllocator.onNodeRemoved(meshMessage.getSrc());
+                mGroupMembershipIndex.onNodeRemoved(meshMessage.getSrc());
                 currentBleManager.setClearCacheRequired();
                 final ConfigNodeResetStatus status = (ConfigNodeResetStatus) meshMessage;
                 mExtendedMeshNode.postValue(null);
@@ -1321,7 +2097,8 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                 final ConfigSigModelSubscriptionList status = (ConfigSigModelSubscriptionList) meshMessage;
                 if (status.isSuccessful()) {
                     List<Integer> addresses = status.getSubscriptionAddresses();
-                    WritableArray list = new WritableNativeArray();
+                    mGroupMembershipIndex.setSubscriptions(meshMessage.getSrc(), status.getElementAddress(), status.getModelIdentifier(), addresses);
+                    WritableArray list = Arguments.createArray();
                     for (Integer address : addresses) {
                         list.pushInt(address);
                     }
@@ -1333,7 +2110,8 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                 final ConfigVendorModelSubscriptionList status = (ConfigVendorModelSubscriptionList) meshMessage;
                 if (status.isSuccessful()) {
                     List<Integer> addresses = status.getSubscriptionAddresses();
-                    WritableArray list = new WritableNativeArray();
+                    mGroupMembershipIndex.setSubscriptions(meshMessage.getSrc(), status.getElementAddress(), status.getModelIdentifier(), addresses);
+                    WritableArray list = Arguments.createArray();
                     for (Integer address : addresses) {
                         list.pushInt(address);
                     }
@@ -1349,7 +2127,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
                         DevicePropertyCharacteristic<?> characteristic = DeviceProperty.
                                 getCharacteristic(deviceProperty, sensorData.getRawValues(), 0, sensorData.getRawValues().length);
 
-                        WritableMap map = new WritableNativeMap();
+                        WritableMap map = Arguments.createMap();
                         map.putString("propertyName", DeviceProperty.getPropertyName(deviceProperty));
                         map.putString("propertyValue", characteristic.toString());
                         meshModule.sendEvent(SENSOR_GET, map);
@@ -1395,6 +2173,8 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     private void loadNetwork(final MeshNetwork meshNetwork) {
         mMeshNetwork = meshNetwork;
         if (mMeshNetwork != null) {
+            mAddressAllocator.sync(meshNetwork);
+            mGroupMembershipIndex.sync(meshNetwork);
 
             if (!mMeshNetwork.isProvisionerSelected()) {
                 final Provisioner provisioner = meshNetwork.getProvisioners().get(0);
@@ -1539,16 +2319,58 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
         final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
         scanner.stopScan(scanCallback);
         scanner.stopScan(scanProxyCallbacks);
+        mReconnector.stop();
         mIsScanning = false;
     }
 
+    /**
+     * Connects to the provisioned node found by the reconnect scan, or once the bearer the node was provisioned
+     * over is released if it is still connected.
+     */
     private void onProvisionedDeviceFound(final ProvisionedMeshNode node, final ExtendedBluetoothDevice device) {
-
+        if (!mPipelineEnabled && isBearerConnected()) {
+            Log.v(TAG, "Provisioned node found, waiting for the bearer to be released");
+            mPendingProxyNode = node;
+            mPendingProxyDevice = device;
+            return;
+        }
+        if (mReconnectScanMs < 0 && mReconnectStartMs != 0) {
+            mReconnectScanMs = SystemClock.elapsedRealtime() - mReconnectStartMs;
+        }
         mSetupProvisionedNode = true;
         mProvisionedMeshNode = node;
         mIsReconnectingFlag = true;
-        //Added an extra delay to ensure reconnection
-        mHandler.postDelayed(() -> connectToProxy(device), 2000);
+        // Connect once the scan callback has returned
+        mHandler.post(() -> connectToProxy(device));
+    }
+
+    /**
+     * Reports the composition cached for the product of the node being set up, ahead of the one fetched from the node.
+     */
+    private void sendCachedComposition(final byte[] parameters) {
+        sendComposition(parameters, true);
+    }
+
+    private void sendComposition(final byte[] parameters, final boolean cached) {
+        if (parameters == null) {
+            return;
+        }
+        final byte[] accessPayload = new byte[parameters.length + 1];
+        accessPayload[0] = (byte) CONFIG_COMPOSITION_DATA_STATUS;
+        System.arraycopy(parameters, 0, accessPayload, 1, parameters.length);
+        WritableMap map = Arguments.createMap();
+        map.putString("parameters", bytesToHexString(parameters));
+        map.putString("response", MeshParserUtils.bytesToHex(accessPayload, false));
+        map.putBoolean("cached", cached);
+        meshModule.sendEvent(COMPOSITION_DATA_STATUS_GET, map);
+    }
+
+    public CompositionDataCache getCompositionCache() {
+        return mCompositionCache;
+    }
+
+    public NodeIdentityReconnector getReconnector() {
+        return mReconnector;
     }
 
     /**
@@ -1703,7 +2525,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     }
 
     public void bindAppKeyToModels(int unicastAddress, int appKeyIndex, ReadableArray models) {
-        QuickSetupNode quickSetupNode = new QuickSetupNode(mMeshManagerApi);
+        QuickSetupNode quickSetupNode = new QuickSetupNode(mMeshManagerApi, mSegmentationStatistics);
 
         mMeshManagerApi.setMeshStatusCallbacks(quickSetupNode);
         // Convert ReadableArray to Map<Integer, MeshModel>
@@ -1716,7 +2538,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     }
 
     public void subscribeToModels(int unicastAddress, String groupAddress, ReadableArray models) {
-        QuickSetupNode quickSetupNode = new QuickSetupNode(mMeshManagerApi);
+        QuickSetupNode quickSetupNode = new QuickSetupNode(mMeshManagerApi, mSegmentationStatistics);
 
         mMeshManagerApi.setMeshStatusCallbacks(quickSetupNode);
         // Convert ReadableArray to Map<Integer, MeshModel>
@@ -1731,7 +2553,7 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     public void setPublicationSettingsToModelList(int unicastAddress, String groupAddress, ReadableArray models,
                                                   int appKeyIndex, int publishTtl, int publishPeriodInterval, String publishPeriodResolution,
                                                   int retransmitCount, int retransmitInterval) {
-        QuickSetupNode quickSetupNode = new QuickSetupNode(mMeshManagerApi);
+        QuickSetupNode quickSetupNode = new QuickSetupNode(mMeshManagerApi, mSegmentationStatistics);
 
         mMeshManagerApi.setMeshStatusCallbacks(quickSetupNode);
         // Convert ReadableArray to Map<Integer, MeshModel>
@@ -1743,6 +2565,19 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     }
 
     public Map<Integer, List<MeshModel>> convertArrayToModelsMap(ReadableArray models, int nodeUnicastAddress) {
+        // Resolve the node once rather than for every model in the list
+        ProvisionedMeshNode node = this.getMeshNetworkLiveData().getMeshNetwork().getNode(nodeUnicastAddress);
+        if (node == null) {
+            return new HashMap<>();
+        }
+        return convertArrayToModelsMap(models, node.getElements());
+    }
+
+    /**
+     * Groups the models selected in the app, given as {elementId, modelId, modelType} maps, by the address of
+     * the element of the node they belong to.
+     */
+    public static Map<Integer, List<MeshModel>> convertArrayToModelsMap(ReadableArray models, Map<Integer, Element> elements) {
         Map<Integer, List<MeshModel>> modelMap = new HashMap<>();
 
         for (int i = 0; i < models.size(); i++) {
@@ -1753,7 +2588,12 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
             int modelId = modelData.getInt("modelId");
             String modelType = modelData.getString("modelType");
 
-            Element e = this.getMeshNetworkLiveData().getMeshNetwork().getNode(nodeUnicastAddress).getElements().get(elementId);
+            Element e = elements.get(elementId);
+            if (e == null) {
+                // The node may have been reset or reconfigured since the app listed its models
+                Log.w(TAG, "No element " + MeshAddress.formatAddress(elementId, true) + ", skipping model " + Integer.toHexString(modelId));
+                continue;
+            }
             MeshModel model = e.getMeshModels().get(modelId);
 
             // Add model to list under its element address
@@ -1814,8 +2654,8 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
     public WritableArray getProvisioners() {
         List<Provisioner> provisioners = this.mMeshManagerApi.getMeshNetwork().getProvisioners();
         Provisioner selectedProvisioner = this.getMeshNetworkLiveData().getMeshNetwork().getSelectedProvisioner();
-        WritableArray provisionersArray = new WritableNativeArray();
-        WritableMap provisionersMap = new WritableNativeMap();
+        WritableArray provisionersArray = Arguments.createArray();
+        WritableMap provisionersMap = Arguments.createMap();
 
         for (Provisioner provisioner : provisioners) {
             provisionersMap.putString("name", provisioner.getProvisionerName());
@@ -1829,24 +2669,24 @@ public class MeshRepository implements MeshProvisioningStatusCallbacks, MeshStat
             List<AllocatedUnicastRange> allocatedUnicastRanges = provisioner.getAllocatedUnicastRanges();
             List<AllocatedGroupRange> allocatedGroupRanges = provisioner.getAllocatedGroupRanges();
             List<AllocatedSceneRange> allocatedSceneRanges = provisioner.getAllocatedSceneRanges();
-            WritableArray allocatedUnicastRangesArray = new WritableNativeArray();
-            WritableArray allocatedGroupRangesArray = new WritableNativeArray();
-            WritableArray allocatedSceneRangesArray = new WritableNativeArray();
+            WritableArray allocatedUnicastRangesArray = Arguments.createArray();
+            WritableArray allocatedGroupRangesArray = Arguments.createArray();
+            WritableArray allocatedSceneRangesArray = Arguments.createArray();
 
             for (AllocatedUnicastRange allocatedUnicastRange : allocatedUnicastRanges) {
-                WritableMap allocatedUnicastRangeDict = new WritableNativeMap();
+                WritableMap allocatedUnicastRangeDict = Arguments.createMap();
                 allocatedUnicastRangeDict.putInt("lowAddress", allocatedUnicastRange.getLowAddress());
                 allocatedUnicastRangeDict.putInt("highAddress", allocatedUnicastRange.getHighAddress());
                 allocatedUnicastRangesArray.pushMap(allocatedUnicastRangeDict);
             }
             for (AllocatedGroupRange allocatedGroupRange : allocatedGroupRanges) {
-                WritableMap allocatedGroupRangeDict = new WritableNativeMap();
+                WritableMap allocatedGroupRangeDict = Arguments.createMap();
                 allocatedGroupRangeDict.putInt("lowAddress", allocatedGroupRange.getLowAddress());
                 allocatedGroupRangeDict.putInt("highAddress", allocatedGroupRange.getHighAddress());
                 allocatedGroupRangesArray.pushMap(allocatedGroupRangeDict);
             }
             for (AllocatedSceneRange allocatedScenesRange : allocatedSceneRanges) {
-                WritableMap allocatedSceneRangeDict = new WritableNativeMap();
+                WritableMap allocatedSceneRangeDict = Arguments.createMap();
                 allocatedSceneRangeDict.putInt("firstScene", allocatedScenesRange.getFirstScene());
                 allocatedSceneRangeDict.putInt("lastScene", allocatedScenesRange.getLastScene());
                 allocatedSceneRangesArray.pushMap(allocatedSceneRangeDict);
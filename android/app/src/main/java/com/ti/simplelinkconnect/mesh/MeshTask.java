@@ -1,5 +1,7 @@
 package com.ti.simplelinkconnect.mesh;
 
+import com.ti.simplelinkconnect.util.HexUtils;
+
 import no.nordicsemi.android.mesh.ApplicationKey;
 import no.nordicsemi.android.mesh.NetworkKey;
 import no.nordicsemi.android.mesh.transport.ConfigAppKeyAdd;
@@ -95,9 +97,9 @@ public class MeshTask {
             case SEND_APPLICATION_KEY:
                 return "Add Application Key (" + ((ApplicationKey) params[1]).getName() + ")";
             case BIND:
-                return "Bind AppKey Index " + params[2] + " to Model 0x" + String.format("%04X", (int) params[1]) + " (" + params[3] + ")";
+                return "Bind AppKey Index " + params[2] + " to Model 0x" + HexUtils.toHexString((int) params[1], 4) + " (" + params[3] + ")";
             case SUBSCRIBE:
-                return "Subscribe Model ID 0x" + String.format("%04X", (int) params[2]) + " (" + params[3] + ")" + " to Group Address 0x" + String.format("%04X", (int) params[1]);
+                return "Subscribe Model ID 0x" + HexUtils.toHexString((int) params[2], 4) + " (" + params[3] + ")" + " to Group Address 0x" + HexUtils.toHexString((int) params[1], 4);
             case SET_PUBLICATION:
                 return "Set Publication for Model " + params[1];
             default:
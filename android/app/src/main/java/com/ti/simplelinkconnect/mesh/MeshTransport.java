@@ -0,0 +1,25 @@
+package com.ti.simplelinkconnect.mesh;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Bearer used by {@link MeshRepository} to push PDUs created by the mesh stack towards a node.
+ * <p>
+ * {@link BleMeshManager} is the GATT implementation used in production, {@link SimulatedMeshProxy}
+ * is an in-process device used to run the provisioning and configuration flows without a radio. Data coming
+ * back from the bearer is reported through {@link BleMeshManagerCallbacks}.
+ */
+public interface MeshTransport {
+
+    /**
+     * Sends the mesh pdu, splitting it to the maximum packet size if required.
+     *
+     * @param pdu mesh pdu.
+     */
+    void sendPdu(@NonNull final byte[] pdu);
+
+    /**
+     * Returns the maximum packet size that can be sent in a single write.
+     */
+    int getMaximumPacketSize();
+}
@@ -0,0 +1,235 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.NetworkKey;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.mesh.utils.SecureUtils;
+import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
+import no.nordicsemi.android.support.v18.scanner.ScanCallback;
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * Finds a freshly provisioned node advertising with its Node Identity.
+ * <p>
+ * The identity keys the mesh library derived for the network keys are collected when the scan starts, so each
+ * advertisement is matched with a single AES operation per key. The scan filter only lets through Mesh Proxy
+ * service data starting with the Node Identity type, which allows the controller to do the filtering where
+ * hardware filtering is supported.
+ * The scan timeout adapts to the reconnect times observed so far, the same way a retransmission timeout follows
+ * the round trip time.
+ */
+public class NodeIdentityReconnector {
+    private static final String TAG = NodeIdentityReconnector.class.getSimpleName();
+
+    private static final byte NODE_IDENTITY_TYPE = 0x01;
+    private static final int NODE_IDENTITY_LENGTH = 17;
+    private static final long INITIAL_TIMEOUT_MS = 20000;
+    private static final long MIN_TIMEOUT_MS = 4000;
+    private static final long MAX_TIMEOUT_MS = 20000;
+
+    public interface Listener {
+        void onNodeFound(@NonNull ScanResult result, long elapsedMs);
+
+        void onTimeout(long timeoutMs);
+    }
+
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final Runnable mTimeout = this::onScanTimeout;
+
+    private final List<byte[]> mIdentityKeys = new ArrayList<>();
+    private int mUnicastAddress;
+    private long mStartMs;
+    private long mTimeoutMs;
+    private boolean mScanning;
+
+    // Smoothed reconnect time and its mean deviation, in milliseconds
+    private double mSmoothedMs = -1;
+    private double mDeviationMs;
+    private long mLastReconnectMs = -1;
+    private int mFound;
+    private int mTimeouts;
+
+    public NodeIdentityReconnector(@NonNull final Handler handler, @NonNull final Listener listener) {
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * Starts scanning for the node.
+     *
+     * @return false if the network has no identity key, the caller should then fall back to a regular scan
+     */
+    public synchronized boolean start(@NonNull final MeshNetwork network, @NonNull final ProvisionedMeshNode node) {
+        stop();
+        if (!setTarget(network.getNetKeys(), node.getUnicastAddress())) {
+            return false;
+        }
+        mTimeoutMs = getTimeoutMs();
+        mStartMs = SystemClock.elapsedRealtime();
+        mScanning = true;
+
+        final ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setReportDelay(0)
+                .setUseHardwareFilteringIfSupported(true)
+                .build();
+        final List<ScanFilter> filters = Collections.singletonList(new ScanFilter.Builder()
+                .setServiceData(new ParcelUuid(BleMeshManager.MESH_PROXY_UUID), new byte[]{NODE_IDENTITY_TYPE}, new byte[]{(byte) 0xFF})
+                .build());
+        BluetoothLeScannerCompat.getScanner().startScan(filters, settings, mScanCallback);
+        mHandler.postDelayed(mTimeout, mTimeoutMs);
+        Log.v(TAG, "Scanning for node " + mUnicastAddress + ", timeout " + mTimeoutMs + " ms");
+        return true;
+    }
+
+    public synchronized void stop() {
+        mHandler.removeCallbacks(mTimeout);
+        if (mScanning) {
+            mScanning = false;
+            BluetoothLeScannerCompat.getScanner().stopScan(mScanCallback);
+        }
+    }
+
+    public synchronized boolean isScanning() {
+        return mScanning;
+    }
+
+    /**
+     * Returns the timeout of the next scan: the smoothed reconnect time plus four times its deviation.
+     */
+    public synchronized long getTimeoutMs() {
+        if (mSmoothedMs < 0) {
+            return INITIAL_TIMEOUT_MS;
+        }
+        final long timeout = (long) (mSmoothedMs + 4 * mDeviationMs);
+        return Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, timeout));
+    }
+
+    /**
+     * Returns the time taken by the last successful scan, or -1.
+     */
+    public synchronized long getLastReconnectMs() {
+        return mLastReconnectMs;
+    }
+
+    public synchronized double getSmoothedReconnectMs() {
+        return Math.max(0, mSmoothedMs);
+    }
+
+    public synchronized int getFoundCount() {
+        return mFound;
+    }
+
+    public synchronized int getTimeoutCount() {
+        return mTimeouts;
+    }
+
+    /**
+     * Sets the node to match advertisements against.
+     *
+     * @return false if none of the network keys has an identity key
+     */
+    synchronized boolean setTarget(@NonNull final Collection<NetworkKey> networkKeys, final int unicastAddress) {
+        mIdentityKeys.clear();
+        for (NetworkKey networkKey : networkKeys) {
+            // The old key is still in use during a key refresh
+            addIdentityKey(networkKey.getIdentityKey());
+            addIdentityKey(networkKey.getOldIdentityKey());
+        }
+        mUnicastAddress = unicastAddress;
+        return !mIdentityKeys.isEmpty();
+    }
+
+    private void addIdentityKey(final byte[] identityKey) {
+        if (identityKey != null) {
+            mIdentityKeys.add(identityKey);
+        }
+    }
+
+    /**
+     * Returns true if the service data is a Node Identity advertisement of the node being looked for.
+     */
+    synchronized boolean matches(final byte[] serviceData) {
+        if (serviceData == null || serviceData.length != NODE_IDENTITY_LENGTH || serviceData[0] != NODE_IDENTITY_TYPE) {
+            return false;
+        }
+        final byte[] random = Arrays.copyOfRange(serviceData, 9, 17);
+        final byte[] address = {(byte) (mUnicastAddress >> 8), (byte) mUnicastAddress};
+        for (byte[] identityKey : mIdentityKeys) {
+            if (equals(SecureUtils.calculateHash(identityKey, random, address), 0, serviceData, 1, 8)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void onMatch(final ScanResult result) {
+        if (!mScanning) {
+            return;
+        }
+        stop();
+        final long elapsed = SystemClock.elapsedRealtime() - mStartMs;
+        mLastReconnectMs = elapsed;
+        mFound++;
+        if (mSmoothedMs < 0) {
+            mSmoothedMs = elapsed;
+            mDeviationMs = elapsed / 2.0;
+        }
+        else {
+            mDeviationMs = 0.75 * mDeviationMs + 0.25 * Math.abs(mSmoothedMs - elapsed);
+            mSmoothedMs = 0.875 * mSmoothedMs + 0.125 * elapsed;
+        }
+        mListener.onNodeFound(result, elapsed);
+    }
+
+    private synchronized void onScanTimeout() {
+        if (!mScanning) {
+            return;
+        }
+        stop();
+        mTimeouts++;
+        // Back off so that a slow node does not keep timing out
+        mSmoothedMs = mSmoothedMs < 0 ? -1 : Math.min(MAX_TIMEOUT_MS, mSmoothedMs * 2);
+        mListener.onTimeout(mTimeoutMs);
+    }
+
+    private final ScanCallback mScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(final int callbackType, @NonNull final ScanResult result) {
+            final byte[] serviceData = Utils.getServiceData(result, BleMeshManager.MESH_PROXY_UUID);
+            if (matches(serviceData)) {
+                mHandler.post(() -> onMatch(result));
+            }
+        }
+
+        @Override
+        public void onScanFailed(final int errorCode) {
+            Log.e(TAG, "Scan failed with error: " + errorCode);
+        }
+    };
+
+    private static boolean equals(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+package com.ti.simplelinkconnect.mesh;
+
+import com.ti.simplelinkconnect.util.HexUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records the raw proxy/provisioning PDUs exchanged with a node together with their timing, so that a
+ * session can be replayed later through {@link PduReplayDriver} without the original hardware.
+ * <p>
+ * The capture is stored as plain text, one PDU per line: {@code <offsetMicros> <RX|TX> <mtu> <hex>}.
+ * RX lines are notifications received from the node, TX lines are write callbacks for data we sent.
+ * The network exported when the capture started is stored on a single {@code @network <json>} line, as
+ * the PDUs can only be decrypted and pass replay protection against the network in that state.
+ */
+public class PduCapture {
+
+    private static final String HEADER = "# pdu-capture v1";
+    private static final String NETWORK_PREFIX = "@network ";
+
+    public enum Direction {
+        RX,
+        TX
+    }
+
+    public static class Entry {
+        private final long offsetMicros;
+        private final Direction direction;
+        private final int mtu;
+        private final byte[] pdu;
+
+        Entry(final long offsetMicros, final Direction direction, final int mtu, final byte[] pdu) {
+            this.offsetMicros = offsetMicros;
+            this.direction = direction;
+            this.mtu = mtu;
+            this.pdu = pdu;
+        }
+
+        public long getOffsetMicros() {
+            return offsetMicros;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        public int getMtu() {
+            return mtu;
+        }
+
+        public byte[] getPdu() {
+            return pdu;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long startNanos = -1;
+    private String networkSnapshot;
+
+    /**
+     * Records a notification received from the node.
+     */
+    public void recordNotification(final int mtu, final byte[] pdu) {
+        record(Direction.RX, mtu, pdu);
+    }
+
+    /**
+     * Records a write callback for a PDU sent to the node.
+     */
+    public void recordWriteCallback(final int mtu, final byte[] pdu) {
+        record(Direction.TX, mtu, pdu);
+    }
+
+    private synchronized void record(final Direction direction, final int mtu, final byte[] pdu) {
+        final long now = System.nanoTime();
+        if (startNanos < 0) {
+            startNanos = now;
+        }
+        entries.add(new Entry((now - startNanos) / 1000, direction, mtu, pdu.clone()));
+    }
+
+    /**
+     * Sets the network, as exported by the mesh manager api, the capture is taken against.
+     */
+    public synchronized void setNetworkSnapshot(final String networkJson) {
+        networkSnapshot = networkJson;
+    }
+
+    /**
+     * Returns the network the capture was taken against, or null if it was not recorded.
+     */
+    public synchronized String getNetworkSnapshot() {
+        return networkSnapshot;
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the capture to the given file, replacing any existing content.
+     */
+    public synchronized void writeTo(final File file) throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(HEADER);
+            writer.newLine();
+            if (networkSnapshot != null) {
+                // Line breaks can only appear between JSON tokens, where they are not significant
+                writer.write(NETWORK_PREFIX + networkSnapshot.replace('\r', ' ').replace('\n', ' '));
+                writer.newLine();
+            }
+            for (Entry entry : entries) {
+                writer.write(String.format(Locale.US, "%d %s %d %s", entry.offsetMicros, entry.direction.name(), entry.mtu, HexUtils.toHexString(entry.pdu, false)));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads a capture previously written with {@link #writeTo(File)}.
+     */
+    public static PduCapture readFrom(final File file) throws IOException {
+        final PduCapture capture = new PduCapture();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.startsWith(NETWORK_PREFIX)) {
+                    capture.networkSnapshot = line.substring(NETWORK_PREFIX.length());
+                    continue;
+                }
+                final String[] parts = line.split("\\s+");
+                if (parts.length != 4) {
+                    throw new IOException("Malformed capture line " + lineNumber + ": " + line);
+                }
+                try {
+                    capture.entries.add(new Entry(Long.parseLong(parts[0]),
+                            Direction.valueOf(parts[1]),
+                            Integer.parseInt(parts[2]),
+                            HexUtils.toByteArray(parts[3])));
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("Malformed capture line " + lineNumber + ": " + ex.getMessage());
+                }
+            }
+        }
+        return capture;
+    }
+}
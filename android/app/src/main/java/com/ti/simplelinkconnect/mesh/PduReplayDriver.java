@@ -0,0 +1,116 @@
+package com.ti.simplelinkconnect.mesh;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Replays a {@link PduCapture} into a {@link PduSink}, RX entries as notifications received from the node and
+ * TX entries as write callbacks for data sent to it, at the recorded timing or faster.
+ * <p>
+ * The driver does not depend on a Looper or a Bluetooth stack, the sink decides where the PDUs go. See
+ * {@link PduReplaySandbox} for replaying a capture into a repository.
+ */
+public class PduReplayDriver {
+
+    /**
+     * Receiver of replayed PDUs.
+     */
+    public interface PduSink {
+        void onNotification(int mtu, @NonNull byte[] pdu);
+
+        void onWriteCallback(int mtu, @NonNull byte[] pdu);
+    }
+
+    /**
+     * Summary of a completed replay.
+     */
+    public static class Result {
+        private final int notifications;
+        private final int writeCallbacks;
+        private final long recordedMicros;
+        private final long elapsedMicros;
+
+        Result(final int notifications, final int writeCallbacks, final long recordedMicros, final long elapsedMicros) {
+            this.notifications = notifications;
+            this.writeCallbacks = writeCallbacks;
+            this.recordedMicros = recordedMicros;
+            this.elapsedMicros = elapsedMicros;
+        }
+
+        public int getNotifications() {
+            return notifications;
+        }
+
+        public int getWriteCallbacks() {
+            return writeCallbacks;
+        }
+
+        /**
+         * Returns the duration of the original session.
+         */
+        public long getRecordedMicros() {
+            return recordedMicros;
+        }
+
+        /**
+         * Returns the wall-clock time the replay took.
+         */
+        public long getElapsedMicros() {
+            return elapsedMicros;
+        }
+    }
+
+    private final PduSink sink;
+    private volatile boolean cancelled;
+
+    public PduReplayDriver(@NonNull final PduSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Replays the capture on the calling thread.
+     *
+     * @param capture capture to replay
+     * @param speed   timing multiplier, 1.0 replays at recorded timing, 2.0 twice as fast and so on.
+     *                A value of 0 or less replays back to back without any waiting.
+     */
+    public Result replay(@NonNull final PduCapture capture, final double speed) throws InterruptedException {
+        cancelled = false;
+        final List<PduCapture.Entry> entries = capture.getEntries();
+        final long start = System.nanoTime();
+        int notifications = 0;
+        int writeCallbacks = 0;
+
+        for (PduCapture.Entry entry : entries) {
+            if (cancelled) {
+                break;
+            }
+            if (speed > 0) {
+                final long dueNanos = start + (long) (entry.getOffsetMicros() * 1000 / speed);
+                final long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                }
+            }
+            if (entry.getDirection() == PduCapture.Direction.RX) {
+                sink.onNotification(entry.getMtu(), entry.getPdu());
+                notifications++;
+            }
+            else {
+                sink.onWriteCallback(entry.getMtu(), entry.getPdu());
+                writeCallbacks++;
+            }
+        }
+
+        final long recorded = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getOffsetMicros();
+        return new Result(notifications, writeCallbacks, recorded, (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Stops an ongoing replay after the PDU currently being delivered.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+}
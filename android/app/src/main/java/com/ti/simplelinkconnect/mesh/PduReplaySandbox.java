@@ -0,0 +1,285 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.ti.connectivity.simplelinkconnect.MeshModule;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.MeshManagerCallbacks;
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.MeshStatusCallbacks;
+import no.nordicsemi.android.mesh.provisionerstates.UnprovisionedMeshNode;
+import no.nordicsemi.android.mesh.transport.ControlMessage;
+import no.nordicsemi.android.mesh.transport.MeshMessage;
+
+/**
+ * Mesh repository holding a copy of the network a {@link PduCapture} was taken against, to replay the capture
+ * without touching the live network.
+ * <p>
+ * The network snapshot of the capture is imported under a new mesh UUID into a mesh manager api of its own,
+ * so the replayed PDUs meet the sequence numbers and replay protection of the capture time, and the live
+ * network keeps its own. The PDUs are fed to the repository as the ble manager of the node would feed them, so
+ * the decoded messages go through the repository callbacks and the app receives the events of the session.
+ * The repository is given no bearer: PDUs the stack creates in answer are counted and dropped. The copy is
+ * deleted from the database on {@link #close()}.
+ */
+public class PduReplaySandbox implements MeshManagerCallbacks, MeshStatusCallbacks {
+    private static final String TAG = PduReplaySandbox.class.getSimpleName();
+
+    static final long IMPORT_TIMEOUT_MS = 10000;
+    private static final long DELIVERY_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_MTU = 20;
+
+    /**
+     * Outcome of a replay through the sandbox.
+     */
+    public static class Report {
+        private final PduReplayDriver.Result result;
+        private final int messagesReceived;
+        private final int decryptionFailures;
+        private final int pdusCreated;
+
+        Report(final PduReplayDriver.Result result, final int messagesReceived, final int decryptionFailures, final int pdusCreated) {
+            this.result = result;
+            this.messagesReceived = messagesReceived;
+            this.decryptionFailures = decryptionFailures;
+            this.pdusCreated = pdusCreated;
+        }
+
+        public PduReplayDriver.Result getResult() {
+            return result;
+        }
+
+        /**
+         * Returns the number of messages the stack decoded from the replayed PDUs.
+         */
+        public int getMessagesReceived() {
+            return messagesReceived;
+        }
+
+        public int getDecryptionFailures() {
+            return decryptionFailures;
+        }
+
+        /**
+         * Returns the number of PDUs the stack would have sent in answer, such as segment acknowledgements.
+         */
+        public int getPdusCreated() {
+            return pdusCreated;
+        }
+    }
+
+    private final MeshManagerApi mMeshManagerApi;
+    private final MeshRepository mRepository;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+    private final CountDownLatch mImported = new CountDownLatch(1);
+    private volatile String mImportError;
+    private volatile int mMtu = DEFAULT_MTU;
+    private final AtomicInteger mMessagesReceived = new AtomicInteger();
+    private final AtomicInteger mDecryptionFailures = new AtomicInteger();
+    private final AtomicInteger mPdusCreated = new AtomicInteger();
+
+    /**
+     * @param context    context of the app
+     * @param meshModule module the events of the replayed session are sent to
+     */
+    public PduReplaySandbox(@NonNull final Context context, @NonNull final MeshModule meshModule) {
+        mMeshManagerApi = new MeshManagerApi(context);
+        mRepository = new MeshRepository(mMeshManagerApi, new BleMeshManagerProvider(), context, meshModule);
+        // Sit between the stack and the repository, to count what is decoded and keep the bearer to ourselves
+        mMeshManagerApi.setMeshManagerCallbacks(this);
+        mMeshManagerApi.setMeshStatusCallbacks(this);
+    }
+
+    MeshRepository getRepository() {
+        return mRepository;
+    }
+
+    /**
+     * Imports the network snapshot of the capture. Blocks until the import completes, it must not be called on
+     * the main thread.
+     */
+    public void open(@NonNull final PduCapture capture) throws IOException, InterruptedException {
+        final String snapshot = capture.getNetworkSnapshot();
+        if (snapshot == null) {
+            throw new IOException("The capture has no network snapshot to replay against");
+        }
+        // The repository loads the last network on creation, it must not replace the copy once imported
+        if (!mLoaded.await(IMPORT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Timed out loading the mesh network");
+        }
+        mMeshManagerApi.importMeshNetworkJson(withNewMeshUuid(snapshot));
+        if (!mImported.await(IMPORT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Timed out importing the network snapshot");
+        }
+        if (mImportError != null) {
+            throw new IOException("Unable to import the network snapshot: " + mImportError);
+        }
+    }
+
+    /**
+     * Replays the capture into the repository, on the main thread as the ble manager delivers PDUs. Blocks until
+     * every PDU is delivered, it must not be called on the main thread.
+     *
+     * @param speed timing multiplier, 0 replays without waiting
+     */
+    public Report replay(@NonNull final PduCapture capture, final double speed) throws InterruptedException {
+        final PduReplayDriver driver = new PduReplayDriver(new PduReplayDriver.PduSink() {
+            @Override
+            public void onNotification(final int mtu, @NonNull final byte[] pdu) {
+                deliver(mtu, () -> mRepository.onDataReceived(null, mtu, pdu));
+            }
+
+            @Override
+            public void onWriteCallback(final int mtu, @NonNull final byte[] pdu) {
+                deliver(mtu, () -> mRepository.onDataSent(null, mtu, pdu));
+            }
+        });
+        final PduReplayDriver.Result result = driver.replay(capture, speed);
+        return new Report(result, mMessagesReceived.get(), mDecryptionFailures.get(), mPdusCreated.get());
+    }
+
+    private void deliver(final int mtu, final Runnable delivery) {
+        mMtu = mtu;
+        final CountDownLatch delivered = new CountDownLatch(1);
+        mHandler.post(() -> {
+            try {
+                delivery.run();
+            } finally {
+                delivered.countDown();
+            }
+        });
+        try {
+            if (!delivered.await(DELIVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Replayed PDU not delivered within " + DELIVERY_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deletes the copy of the network.
+     */
+    public void close() {
+        final MeshNetwork network = mMeshManagerApi.getMeshNetwork();
+        if (network != null) {
+            mMeshManagerApi.deleteMeshNetworkFromDb(network);
+        }
+    }
+
+    /**
+     * Gives the exported network a new mesh UUID, in the format it was exported with, so that importing it adds
+     * a network rather than replacing the live one.
+     */
+    static String withNewMeshUuid(@NonNull final String networkJson) throws IOException {
+        try {
+            final JSONObject network = new JSONObject(networkJson);
+            final String uuid = UUID.randomUUID().toString().toUpperCase(Locale.US);
+            network.put("meshUUID", network.optString("meshUUID").contains("-") ? uuid : uuid.replace("-", ""));
+            network.put("meshName", network.optString("meshName") + " (replay)");
+            return network.toString();
+        } catch (JSONException ex) {
+            throw new IOException("Invalid network snapshot: " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void onNetworkLoaded(final MeshNetwork meshNetwork) {
+        mRepository.onNetworkLoaded(meshNetwork);
+        mLoaded.countDown();
+    }
+
+    @Override
+    public void onNetworkUpdated(final MeshNetwork meshNetwork) {
+        mRepository.onNetworkUpdated(meshNetwork);
+    }
+
+    @Override
+    public void onNetworkLoadFailed(final String error) {
+        mRepository.onNetworkLoadFailed(error);
+        mLoaded.countDown();
+    }
+
+    @Override
+    public void onNetworkImported(final MeshNetwork meshNetwork) {
+        mRepository.onNetworkImported(meshNetwork);
+        mImported.countDown();
+    }
+
+    @Override
+    public void onNetworkImportFailed(final String error) {
+        mRepository.onNetworkImportFailed(error);
+        mImportError = error;
+        mImported.countDown();
+    }
+
+    @Override
+    public void sendProvisioningPdu(final UnprovisionedMeshNode meshNode, final byte[] pdu) {
+        mPdusCreated.incrementAndGet();
+    }
+
+    @Override
+    public void onMeshPduCreated(final byte[] pdu) {
+        mPdusCreated.incrementAndGet();
+    }
+
+    @Override
+    public int getMtu() {
+        return mMtu;
+    }
+
+    @Override
+    public void onTransactionFailed(final int dst, final boolean hasIncompleteTimerExpired) {
+        mRepository.onTransactionFailed(dst, hasIncompleteTimerExpired);
+    }
+
+    @Override
+    public void onUnknownPduReceived(final int src, final byte[] accessPayload) {
+        mRepository.onUnknownPduReceived(src, accessPayload);
+    }
+
+    @Override
+    public void onBlockAcknowledgementProcessed(final int dst, @NonNull final ControlMessage message) {
+        mRepository.onBlockAcknowledgementProcessed(dst, message);
+    }
+
+    @Override
+    public void onBlockAcknowledgementReceived(final int src, @NonNull final ControlMessage message) {
+        mRepository.onBlockAcknowledgementReceived(src, message);
+    }
+
+    @Override
+    public void onMeshMessageProcessed(final int dst, @NonNull final MeshMessage meshMessage) {
+        mRepository.onMeshMessageProcessed(dst, meshMessage);
+    }
+
+    @Override
+    public void onMeshMessageReceived(final int src, @NonNull final MeshMessage meshMessage) {
+        mMessagesReceived.incrementAndGet();
+        mRepository.onMeshMessageReceived(src, meshMessage);
+    }
+
+    @Override
+    public void onMessageDecryptionFailed(final String meshLayer, final String errorMessage) {
+        Log.v(TAG, "Replayed PDU not decrypted in " + meshLayer + ": " + errorMessage);
+        mDecryptionFailures.incrementAndGet();
+        mRepository.onMessageDecryptionFailed(meshLayer, errorMessage);
+    }
+}
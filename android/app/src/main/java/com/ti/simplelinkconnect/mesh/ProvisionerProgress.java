@@ -22,11 +22,14 @@
 
 package com.ti.simplelinkconnect.mesh;
 
+import android.os.SystemClock;
+
 public class ProvisionerProgress {
 
     private final ProvisionerStates state;
     private int statusReceived;
     private final String message;
+    private final long timestampNanos = SystemClock.elapsedRealtimeNanos();
 
     ProvisionerProgress(final ProvisionerStates state, final String message) {
         this.state = state;
@@ -51,4 +54,11 @@ public class ProvisionerProgress {
         return message;
     }
 
+    /**
+     * Returns the time the state was entered, in nanoseconds of the monotonic clock.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
 }
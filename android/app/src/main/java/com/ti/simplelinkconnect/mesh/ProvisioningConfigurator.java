@@ -0,0 +1,258 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import no.nordicsemi.android.mesh.ApplicationKey;
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.NetworkKey;
+import no.nordicsemi.android.mesh.transport.ConfigAppKeyAdd;
+import no.nordicsemi.android.mesh.transport.ConfigAppKeyStatus;
+import no.nordicsemi.android.mesh.transport.ConfigCompositionDataGet;
+import no.nordicsemi.android.mesh.transport.ConfigCompositionDataStatus;
+import no.nordicsemi.android.mesh.transport.ConfigDefaultTtlGet;
+import no.nordicsemi.android.mesh.transport.ConfigDefaultTtlStatus;
+import no.nordicsemi.android.mesh.transport.ConfigNetworkTransmitSet;
+import no.nordicsemi.android.mesh.transport.ConfigNetworkTransmitStatus;
+import no.nordicsemi.android.mesh.transport.MeshMessage;
+
+/**
+ * Drives the configuration of a freshly provisioned node: Composition Data Get, Default TTL Get,
+ * Network Transmit Set and AppKey Add.
+ * <p>
+ * Each step is sent as soon as the status of the previous one is received. A step that is not answered
+ * within the step timeout is sent again, up to the configured number of retries. The first step is sent
+ * when the proxy delivers its first pdu after connecting, normally the secure network beacon, or after
+ * the beacon timeout if none arrives. The time taken by every step is recorded. A status reporting an error
+ * fails the step, it is not retried.
+ */
+public class ProvisioningConfigurator {
+    private static final String TAG = ProvisioningConfigurator.class.getSimpleName();
+
+    static final long BEACON_TIMEOUT_MS = 2000;
+    static final long STEP_TIMEOUT_MS = 5000;
+    static final int STEP_RETRIES = 2;
+
+    public enum Step {
+        BEACON,
+        COMPOSITION_DATA,
+        DEFAULT_TTL,
+        NETWORK_TRANSMIT,
+        APP_KEY_ADD
+    }
+
+    public interface Listener {
+        /**
+         * Called when the last step has completed.
+         *
+         * @param durations time taken by each step, in milliseconds
+         */
+        void onConfigurationCompleted(int unicastAddress, @NonNull Map<Step, Long> durations);
+
+        /**
+         * Called when a step was not answered after all retries, or was answered with an error status.
+         */
+        void onConfigurationFailed(int unicastAddress, @NonNull Step step, @NonNull Map<Step, Long> durations);
+    }
+
+    private final MeshManagerApi mMeshManagerApi;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final Runnable mBeaconTimeout = this::onBeaconTimeout;
+    private final Runnable mStepTimeout = this::onStepTimeout;
+
+    private int mUnicastAddress;
+    private ApplicationKey mAppKey;
+    private NetworkKey mNetworkKey;
+    private Step mStep;
+    private int mAttempt;
+    private long mStepStartNanos;
+    private Map<Step, Long> mDurations = new EnumMap<>(Step.class);
+
+    public ProvisioningConfigurator(@NonNull final MeshManagerApi meshManagerApi, @NonNull final Handler handler, @NonNull final Listener listener) {
+        mMeshManagerApi = meshManagerApi;
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * Starts configuring the node once the proxy connection is ready.
+     *
+     * @param unicastAddress unicast address of the node
+     * @param appKey         application key to add, or null to stop after Network Transmit Set
+     * @param networkKey     network key the application key is bound to
+     */
+    public synchronized void start(final int unicastAddress, final ApplicationKey appKey, final NetworkKey networkKey) {
+        cancel();
+        mUnicastAddress = unicastAddress;
+        mAppKey = appKey;
+        mNetworkKey = networkKey;
+        mDurations = new EnumMap<>(Step.class);
+        mStep = Step.BEACON;
+        mStepStartNanos = System.nanoTime();
+        mHandler.postDelayed(mBeaconTimeout, BEACON_TIMEOUT_MS);
+    }
+
+    public synchronized boolean isRunning() {
+        return mStep != null;
+    }
+
+    public synchronized void cancel() {
+        mHandler.removeCallbacks(mBeaconTimeout);
+        mHandler.removeCallbacks(mStepTimeout);
+        mStep = null;
+    }
+
+    /**
+     * Notifies that the proxy delivered a pdu. The first one after connecting releases the first step.
+     */
+    public synchronized void onProxyPduReceived() {
+        if (mStep == Step.BEACON) {
+            mHandler.removeCallbacks(mBeaconTimeout);
+            mHandler.post(this::onBeaconReceived);
+        }
+    }
+
+    /**
+     * Notifies that a status message was received.
+     *
+     * @return true if the message completed the current step
+     */
+    public synchronized boolean onStatusReceived(final int src, @NonNull final MeshMessage message) {
+        if (mStep == null || src != mUnicastAddress || !isExpectedStatus(mStep, message)) {
+            return false;
+        }
+        mHandler.removeCallbacks(mStepTimeout);
+        completeStep();
+        if (!isSuccessfulStatus(message)) {
+            Log.e(TAG, mStep + " rejected by " + mUnicastAddress + ": " + ((ConfigAppKeyStatus) message).getStatusCodeName());
+            fail();
+            return true;
+        }
+        final Step next = nextStep(mStep);
+        if (next == null) {
+            mStep = null;
+            mListener.onConfigurationCompleted(mUnicastAddress, mDurations);
+        }
+        else {
+            sendStep(next);
+        }
+        return true;
+    }
+
+    private synchronized void onBeaconReceived() {
+        if (mStep == Step.BEACON) {
+            completeStep();
+            sendStep(Step.COMPOSITION_DATA);
+        }
+    }
+
+    private synchronized void onBeaconTimeout() {
+        if (mStep == Step.BEACON) {
+            Log.w(TAG, "No pdu received from the proxy, sending " + Step.COMPOSITION_DATA + " anyway");
+            completeStep();
+            sendStep(Step.COMPOSITION_DATA);
+        }
+    }
+
+    private synchronized void onStepTimeout() {
+        if (mStep == null || mStep == Step.BEACON) {
+            return;
+        }
+        if (mAttempt < STEP_RETRIES) {
+            mAttempt++;
+            Log.w(TAG, "No response to " + mStep + ", retry " + mAttempt);
+            send(mStep);
+            mHandler.postDelayed(mStepTimeout, STEP_TIMEOUT_MS);
+        }
+        else {
+            completeStep();
+            fail();
+        }
+    }
+
+    private void fail() {
+        final Step failed = mStep;
+        mStep = null;
+        mListener.onConfigurationFailed(mUnicastAddress, failed, mDurations);
+    }
+
+    private void completeStep() {
+        mDurations.put(mStep, (System.nanoTime() - mStepStartNanos) / 1000000);
+    }
+
+    private void sendStep(final Step step) {
+        mStep = step;
+        mAttempt = 0;
+        mStepStartNanos = System.nanoTime();
+        // Statuses are delivered from within the mesh manager callbacks, send the next message outside of them
+        mHandler.post(() -> send(step));
+        mHandler.postDelayed(mStepTimeout, STEP_TIMEOUT_MS);
+    }
+
+    private void send(final Step step) {
+        final MeshMessage message;
+        switch (step) {
+            case COMPOSITION_DATA:
+                message = new ConfigCompositionDataGet();
+                break;
+            case DEFAULT_TTL:
+                message = new ConfigDefaultTtlGet();
+                break;
+            case NETWORK_TRANSMIT:
+                message = new ConfigNetworkTransmitSet(2, 1);
+                break;
+            case APP_KEY_ADD:
+                message = new ConfigAppKeyAdd(mNetworkKey, mAppKey);
+                break;
+            default:
+                return;
+        }
+        try {
+            mMeshManagerApi.createMeshPdu(mUnicastAddress, message);
+        } catch (Exception ex) {
+            Log.e(TAG, "Unable to send " + step + ": " + ex.getMessage());
+        }
+    }
+
+    private Step nextStep(final Step step) {
+        switch (step) {
+            case COMPOSITION_DATA:
+                return Step.DEFAULT_TTL;
+            case DEFAULT_TTL:
+                return Step.NETWORK_TRANSMIT;
+            case NETWORK_TRANSMIT:
+                return mAppKey != null && mNetworkKey != null ? Step.APP_KEY_ADD : null;
+            default:
+                return null;
+        }
+    }
+
+    private boolean isExpectedStatus(final Step step, final MeshMessage message) {
+        switch (step) {
+            case COMPOSITION_DATA:
+                return message instanceof ConfigCompositionDataStatus;
+            case DEFAULT_TTL:
+                return message instanceof ConfigDefaultTtlStatus;
+            case NETWORK_TRANSMIT:
+                return message instanceof ConfigNetworkTransmitStatus;
+            case APP_KEY_ADD:
+                return message instanceof ConfigAppKeyStatus && ((ConfigAppKeyStatus) message).getAppKeyIndex() == mAppKey.getKeyIndex();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns false if the status reports an error. Only the AppKey status carries a status code, the other
+     * statuses report the state of the node.
+     */
+    private static boolean isSuccessfulStatus(final MeshMessage message) {
+        return !(message instanceof ConfigAppKeyStatus) || ((ConfigAppKeyStatus) message).isSuccessful();
+    }
+}
@@ -0,0 +1,231 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Distribution of the time spent in each provisioning phase, accumulated over every provisioning session
+ * and persisted in the shared preferences so that it survives restarts of the app.
+ * <p>
+ * A phase is measured from the first occurrence of its start state to the first occurrence of its end state
+ * within a session, both timestamped with the monotonic clock.
+ */
+public class ProvisioningPhaseHistogram {
+    private static final String TAG = ProvisioningPhaseHistogram.class.getSimpleName();
+    private static final String PREFS_PHASE_HISTOGRAM = "PREFS_PROVISIONING_PHASE_HISTOGRAM";
+
+    /**
+     * Upper bounds of the buckets in milliseconds, the last bucket holds every longer sample.
+     */
+    public static final long[] BUCKET_BOUNDS_MS = {10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000};
+
+    public enum Phase {
+        INVITE_TO_CAPABILITIES(ProvisionerStates.PROVISIONING_INVITE, ProvisionerStates.PROVISIONING_CAPABILITIES),
+        PUBLIC_KEY_EXCHANGE(ProvisionerStates.PROVISIONING_PUBLIC_KEY_SENT, ProvisionerStates.PROVISIONING_PUBLIC_KEY_RECEIVED),
+        CONFIRMATION(ProvisionerStates.PROVISIONING_CONFIRMATION_SENT, ProvisionerStates.PROVISIONING_CONFIRMATION_RECEIVED),
+        RANDOM(ProvisionerStates.PROVISIONING_RANDOM_SENT, ProvisionerStates.PROVISIONING_RANDOM_RECEIVED),
+        DATA(ProvisionerStates.PROVISIONING_DATA_SENT, ProvisionerStates.PROVISIONING_COMPLETE),
+        RECONNECT(ProvisionerStates.PROVISIONING_COMPLETE, ProvisionerStates.COMPOSITION_DATA_GET_SENT),
+        COMPOSITION(ProvisionerStates.COMPOSITION_DATA_GET_SENT, ProvisionerStates.COMPOSITION_DATA_STATUS_RECEIVED),
+        DEFAULT_TTL(ProvisionerStates.COMPOSITION_DATA_STATUS_RECEIVED, ProvisionerStates.DEFAULT_TTL_STATUS_RECEIVED),
+        NETWORK_TRANSMIT(ProvisionerStates.DEFAULT_TTL_STATUS_RECEIVED, ProvisionerStates.NETWORK_TRANSMIT_STATUS_RECEIVED),
+        APP_KEY(ProvisionerStates.NETWORK_TRANSMIT_STATUS_RECEIVED, ProvisionerStates.APP_KEY_STATUS_RECEIVED),
+        TOTAL(ProvisionerStates.PROVISIONING_INVITE, ProvisionerStates.APP_KEY_STATUS_RECEIVED);
+
+        private final ProvisionerStates start;
+        private final ProvisionerStates end;
+
+        Phase(final ProvisionerStates start, final ProvisionerStates end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public ProvisionerStates getStart() {
+            return start;
+        }
+
+        public ProvisionerStates getEnd() {
+            return end;
+        }
+    }
+
+    public static class PhaseStatistics {
+        private final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        private long count;
+        private long totalMs;
+        private long minMs = Long.MAX_VALUE;
+        private long maxMs;
+
+        void add(final long durationMs) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && durationMs > BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalMs += durationMs;
+            minMs = Math.min(minMs, durationMs);
+            maxMs = Math.max(maxMs, durationMs);
+        }
+
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getAverageMs() {
+            return count == 0 ? 0 : totalMs / (double) count;
+        }
+
+        public long getMinMs() {
+            return count == 0 ? 0 : minMs;
+        }
+
+        public long getMaxMs() {
+            return maxMs;
+        }
+
+        /**
+         * Returns an estimate of the given percentile, the upper bound of the bucket it falls in.
+         */
+        public long getPercentileMs(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i < BUCKET_BOUNDS_MS.length ? Math.min(BUCKET_BOUNDS_MS[i], maxMs) : maxMs;
+                }
+            }
+            return maxMs;
+        }
+
+        JSONObject toJson() throws JSONException {
+            final JSONObject json = new JSONObject();
+            final JSONArray array = new JSONArray();
+            for (long bucket : buckets) {
+                array.put(bucket);
+            }
+            json.put("buckets", array);
+            json.put("count", count);
+            json.put("totalMs", totalMs);
+            json.put("minMs", minMs);
+            json.put("maxMs", maxMs);
+            return json;
+        }
+
+        void fromJson(final JSONObject json) throws JSONException {
+            final JSONArray array = json.getJSONArray("buckets");
+            for (int i = 0; i < Math.min(array.length(), buckets.length); i++) {
+                buckets[i] = array.getLong(i);
+            }
+            count = json.getLong("count");
+            totalMs = json.getLong("totalMs");
+            minMs = json.getLong("minMs");
+            maxMs = json.getLong("maxMs");
+        }
+    }
+
+    private final Context mContext;
+    private final Map<Phase, PhaseStatistics> mPhases = new EnumMap<>(Phase.class);
+
+    public ProvisioningPhaseHistogram(final Context context) {
+        mContext = context;
+        load();
+    }
+
+    /**
+     * Records the durations of the phases completed by a state transition.
+     *
+     * @param state      state just entered
+     * @param timestamps monotonic timestamp, in nanoseconds, of the first occurrence of each state in the session
+     */
+    synchronized void onStateEntered(final ProvisionerStates state, final Map<ProvisionerStates, Long> timestamps) {
+        boolean updated = false;
+        for (Phase phase : Phase.values()) {
+            if (phase.end != state) {
+                continue;
+            }
+            final Long start = timestamps.get(phase.start);
+            final Long end = timestamps.get(phase.end);
+            if (start == null || end == null || end < start) {
+                continue;
+            }
+            getOrCreate(phase).add((end - start) / 1000000);
+            updated = true;
+        }
+        if (updated) {
+            save();
+        }
+    }
+
+    private PhaseStatistics getOrCreate(final Phase phase) {
+        PhaseStatistics statistics = mPhases.get(phase);
+        if (statistics == null) {
+            statistics = new PhaseStatistics();
+            mPhases.put(phase, statistics);
+        }
+        return statistics;
+    }
+
+    public synchronized Map<Phase, PhaseStatistics> getPhases() {
+        return new EnumMap<>(mPhases);
+    }
+
+    public synchronized void reset() {
+        mPhases.clear();
+        save();
+    }
+
+    private void load() {
+        if (mContext == null) {
+            return;
+        }
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final String stored = preferences.getString(PREFS_PHASE_HISTOGRAM, null);
+        if (stored == null) {
+            return;
+        }
+        try {
+            final JSONObject json = new JSONObject(stored);
+            for (Phase phase : Phase.values()) {
+                final JSONObject phaseJson = json.optJSONObject(phase.name());
+                if (phaseJson != null) {
+                    getOrCreate(phase).fromJson(phaseJson);
+                }
+            }
+        } catch (JSONException ex) {
+            Log.e(TAG, "Unable to load the phase histogram: " + ex.getMessage());
+        }
+    }
+
+    private void save() {
+        if (mContext == null) {
+            return;
+        }
+        try {
+            final JSONObject json = new JSONObject();
+            for (Map.Entry<Phase, PhaseStatistics> entry : mPhases.entrySet()) {
+                json.put(entry.getKey().name(), entry.getValue().toJson());
+            }
+            PreferenceManager.getDefaultSharedPreferences(mContext).edit().putString(PREFS_PHASE_HISTOGRAM, json.toString()).apply();
+        } catch (JSONException ex) {
+            Log.e(TAG, "Unable to save the phase histogram: " + ex.getMessage());
+        }
+    }
+}
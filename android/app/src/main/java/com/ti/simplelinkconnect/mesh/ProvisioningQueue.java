@@ -0,0 +1,472 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.transport.UnprovisionedMeshNode;
+
+/**
+ * Provisions and configures a list of unprovisioned devices one after the other without user interaction.
+ * <p>
+ * Every device goes through the same phases as a manual provisioning: connect, identify, provision,
+ * reconnect to the node as a proxy and configure it. Each phase is guarded by a timeout. A device that fails
+ * before it has been provisioned is retried from the start, up to the configured number of retries. A device
+ * that fails afterwards is reported as failed, as it can no longer be provisioned again.
+ * <p>
+ * When pipelined, a provisioned device is handed over to the proxy bearer to be reconnected to and configured,
+ * and the next device is provisioned over the PB-GATT bearer in the meantime. Handed over devices are configured
+ * one at a time in the order they were provisioned.
+ */
+public class ProvisioningQueue {
+    private static final String TAG = ProvisioningQueue.class.getSimpleName();
+
+    private static final long DISCONNECT_TIMEOUT_MS = 3000;
+
+    public enum Phase {
+        CONNECT(20000),
+        IDENTIFY(15000),
+        PROVISION(60000),
+        RECONNECT(40000),
+        CONFIGURE(30000);
+
+        private final long timeoutMs;
+
+        Phase(final long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    /**
+     * Outcome of a single device.
+     */
+    public static class ItemResult {
+        private final String address;
+        private final String name;
+        private int unicastAddress = -1;
+        private int attempts;
+        private boolean success;
+        private Phase failedPhase;
+        private String error;
+        private final Map<Phase, Long> phaseDurations = new EnumMap<>(Phase.class);
+        private Phase phase;
+        private long phaseStartMs;
+
+        ItemResult(final String address, final String name) {
+            this.address = address;
+            this.name = name;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getUnicastAddress() {
+            return unicastAddress;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public Phase getFailedPhase() {
+            return failedPhase;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Returns the time spent in each phase of the last attempt, in milliseconds.
+         */
+        public Map<Phase, Long> getPhaseDurations() {
+            return phaseDurations;
+        }
+    }
+
+    public interface Listener {
+        void onItemFinished(@NonNull ItemResult result, int remaining);
+
+        void onQueueFinished(@NonNull List<ItemResult> results, long elapsedMs);
+    }
+
+    private final MeshRepository mRepository;
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final int mMaxRetries;
+    private final Runnable mPhaseTimeout = this::onPhaseTimeout;
+    private final Runnable mDisconnectTimeout = this::onDisconnectTimeout;
+    private final Runnable mConfigurationTimeout = this::onConfigurationTimeout;
+    private final boolean mPipelined;
+
+    private final Deque<ExtendedBluetoothDevice> mPending;
+    private final List<ItemResult> mResults = new ArrayList<>();
+    // Provisioned devices handed over to the proxy bearer, the first one is being reconnected to or configured
+    private final Deque<ItemResult> mConfiguring = new ArrayDeque<>();
+    private ExtendedBluetoothDevice mDevice;
+    private ItemResult mCurrent;
+    private Phase mPhase;
+    private long mPhaseStartMs;
+    private long mStartMs;
+    private boolean mWaitingForDisconnect;
+    private boolean mRunning;
+
+    ProvisioningQueue(@NonNull final MeshRepository repository, @NonNull final Context context, @NonNull final Handler handler,
+                      @NonNull final List<ExtendedBluetoothDevice> devices, final int maxRetries, final boolean pipelined,
+                      @NonNull final Listener listener) {
+        mRepository = repository;
+        mContext = context;
+        mHandler = handler;
+        mPending = new ArrayDeque<>(devices);
+        mMaxRetries = Math.max(0, maxRetries);
+        mPipelined = pipelined;
+        mListener = listener;
+    }
+
+    /**
+     * Returns the devices of the list that advertise the provisioning service with at least the given RSSI and,
+     * if a pattern is given, a device UUID matching it.
+     */
+    public static List<ExtendedBluetoothDevice> filter(@NonNull final MeshManagerApi meshManagerApi, @NonNull final List<ExtendedBluetoothDevice> devices,
+                                                       final int minRssi, final String uuidPattern) {
+        final Pattern pattern = uuidPattern == null || uuidPattern.isEmpty() ? null : Pattern.compile(uuidPattern, Pattern.CASE_INSENSITIVE);
+        final List<ExtendedBluetoothDevice> filtered = new ArrayList<>();
+        for (ExtendedBluetoothDevice device : devices) {
+            if (device.getRssi() < minRssi || filtered.contains(device)) {
+                continue;
+            }
+            if (pattern != null) {
+                final byte[] serviceData = Utils.getServiceData(device.getScanResult(), BleMeshManager.MESH_PROVISIONING_UUID);
+                if (serviceData == null) {
+                    continue;
+                }
+                final UUID uuid = meshManagerApi.getDeviceUuid(serviceData);
+                if (uuid == null || !pattern.matcher(uuid.toString()).find()) {
+                    continue;
+                }
+            }
+            filtered.add(device);
+        }
+        return filtered;
+    }
+
+    synchronized void start() {
+        mRunning = true;
+        mStartMs = System.currentTimeMillis();
+        next();
+    }
+
+    synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mHandler.removeCallbacks(mPhaseTimeout);
+        mHandler.removeCallbacks(mDisconnectTimeout);
+        mHandler.removeCallbacks(mConfigurationTimeout);
+        if (mCurrent != null) {
+            mCurrent.error = "Cancelled";
+            mCurrent.failedPhase = mPhase;
+            mResults.add(mCurrent);
+            mCurrent = null;
+        }
+        for (ItemResult item : mConfiguring) {
+            item.error = "Cancelled";
+            item.failedPhase = item.phase;
+            mResults.add(item);
+        }
+        mConfiguring.clear();
+        mPending.clear();
+        mListener.onQueueFinished(getResults(), System.currentTimeMillis() - mStartMs);
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    public synchronized List<ItemResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<>(mResults));
+    }
+
+    public synchronized int getRemaining() {
+        return mPending.size() + mConfiguring.size() + (mCurrent != null ? 1 : 0);
+    }
+
+    public boolean isPipelined() {
+        return mPipelined;
+    }
+
+    public synchronized long getElapsedMs() {
+        return mStartMs == 0 ? 0 : System.currentTimeMillis() - mStartMs;
+    }
+
+    private void next() {
+        mCurrent = null;
+        mPhase = null;
+        if (!mRunning) {
+            return;
+        }
+        mDevice = mPending.poll();
+        if (mDevice == null) {
+            finishIfDone();
+            return;
+        }
+        mCurrent = new ItemResult(mDevice.getAddress(), mDevice.getName());
+        beginAttempt();
+    }
+
+    private void beginAttempt() {
+        mCurrent.attempts++;
+        mCurrent.phaseDurations.clear();
+        mCurrent.failedPhase = null;
+        mCurrent.error = null;
+        mPhase = null;
+        if (mRepository.isBearerConnected()) {
+            mWaitingForDisconnect = true;
+            mRepository.disconnectProvisioningBearer();
+            mHandler.postDelayed(mDisconnectTimeout, DISCONNECT_TIMEOUT_MS);
+        }
+        else {
+            connect();
+        }
+    }
+
+    private void connect() {
+        mRepository.setSelectedBluetoothDevice(mDevice);
+        enterPhase(Phase.CONNECT);
+        mRepository.connect(mContext, mDevice, false);
+    }
+
+    private void enterPhase(final Phase phase) {
+        final long now = System.currentTimeMillis();
+        if (mPhase != null) {
+            mCurrent.phaseDurations.put(mPhase, now - mPhaseStartMs);
+        }
+        mPhase = phase;
+        mPhaseStartMs = now;
+        mHandler.removeCallbacks(mPhaseTimeout);
+        mHandler.postDelayed(mPhaseTimeout, phase.timeoutMs);
+    }
+
+    private void finishItem(final boolean success) {
+        mHandler.removeCallbacks(mPhaseTimeout);
+        mCurrent.phaseDurations.put(mPhase, System.currentTimeMillis() - mPhaseStartMs);
+        mCurrent.success = success;
+        mResults.add(mCurrent);
+        mListener.onItemFinished(mCurrent, mPending.size() + mConfiguring.size());
+        next();
+    }
+
+    private void finishIfDone() {
+        if (mRunning && mCurrent == null && mPending.isEmpty() && mConfiguring.isEmpty()) {
+            mRunning = false;
+            mListener.onQueueFinished(getResults(), System.currentTimeMillis() - mStartMs);
+        }
+    }
+
+    /**
+     * Hands the provisioned device over to the proxy bearer and moves on to the next device.
+     */
+    private void handOver() {
+        mHandler.removeCallbacks(mPhaseTimeout);
+        final long now = System.currentTimeMillis();
+        mCurrent.phaseDurations.put(mPhase, now - mPhaseStartMs);
+        mCurrent.phase = Phase.RECONNECT;
+        mCurrent.phaseStartMs = now;
+        mConfiguring.add(mCurrent);
+        if (mConfiguring.size() == 1) {
+            scheduleConfigurationTimeout();
+        }
+        next();
+    }
+
+    private void scheduleConfigurationTimeout() {
+        mHandler.removeCallbacks(mConfigurationTimeout);
+        final ItemResult head = mConfiguring.peek();
+        if (head != null) {
+            // Devices waiting behind the head have not started reconnecting, restart their clock
+            head.phaseStartMs = System.currentTimeMillis();
+            mHandler.postDelayed(mConfigurationTimeout, Phase.RECONNECT.timeoutMs + Phase.CONFIGURE.timeoutMs);
+        }
+    }
+
+    private void finishConfiguring(final boolean success, final String error) {
+        final ItemResult item = mConfiguring.poll();
+        if (item == null) {
+            return;
+        }
+        item.phaseDurations.put(item.phase, System.currentTimeMillis() - item.phaseStartMs);
+        item.success = success;
+        if (!success) {
+            Log.w(TAG, item.address + " failed in " + item.phase + ": " + error);
+            item.failedPhase = item.phase;
+            item.error = error;
+        }
+        mResults.add(item);
+        mListener.onItemFinished(item, mPending.size() + mConfiguring.size() + (mCurrent != null ? 1 : 0));
+        scheduleConfigurationTimeout();
+        finishIfDone();
+    }
+
+    private synchronized void onConfigurationTimeout() {
+        if (mRunning && !mConfiguring.isEmpty()) {
+            finishConfiguring(false, "Timed out");
+        }
+    }
+
+    private void fail(final String error) {
+        Log.w(TAG, mCurrent.address + " failed in " + mPhase + ": " + error);
+        mCurrent.failedPhase = mPhase;
+        mCurrent.error = error;
+        final boolean provisioned = mPhase == Phase.RECONNECT || mPhase == Phase.CONFIGURE;
+        if (!provisioned && mCurrent.attempts <= mMaxRetries) {
+            mHandler.removeCallbacks(mPhaseTimeout);
+            beginAttempt();
+        }
+        else {
+            finishItem(false);
+        }
+    }
+
+    private synchronized void onPhaseTimeout() {
+        if (mRunning && mPhase != null) {
+            fail("Timed out");
+        }
+    }
+
+    private synchronized void onDisconnectTimeout() {
+        if (mRunning && mWaitingForDisconnect) {
+            mWaitingForDisconnect = false;
+            connect();
+        }
+    }
+
+    /**
+     * Called when the bearer is ready.
+     *
+     * @param provisioningComplete true if connected to a proxy, false if connected to an unprovisioned device
+     */
+    synchronized void onDeviceReady(final boolean provisioningComplete) {
+        if (!mRunning) {
+            return;
+        }
+        if (mPipelined && provisioningComplete) {
+            final ItemResult head = mConfiguring.peek();
+            if (head != null && head.phase == Phase.RECONNECT) {
+                final long now = System.currentTimeMillis();
+                head.phaseDurations.put(Phase.RECONNECT, now - head.phaseStartMs);
+                head.phase = Phase.CONFIGURE;
+                head.phaseStartMs = now;
+            }
+            return;
+        }
+        if (mPhase == Phase.CONNECT && !provisioningComplete) {
+            enterPhase(Phase.IDENTIFY);
+            mHandler.post(() -> mRepository.identifyNode(mDevice));
+        }
+        else if (mPhase == Phase.RECONNECT && provisioningComplete) {
+            enterPhase(Phase.CONFIGURE);
+        }
+    }
+
+    synchronized void onCapabilitiesReceived() {
+        if (mRunning && mPhase == Phase.IDENTIFY) {
+            enterPhase(Phase.PROVISION);
+            mHandler.post(() -> {
+                final UnprovisionedMeshNode node = mRepository.getUnprovisionedMeshNode();
+                if (node != null) {
+                    mRepository.getMeshManagerApi().startProvisioning(node);
+                }
+            });
+        }
+    }
+
+    synchronized void onProvisioningFailed() {
+        if (mRunning && (mPhase == Phase.IDENTIFY || mPhase == Phase.PROVISION)) {
+            fail("Provisioning failed");
+        }
+    }
+
+    synchronized void onProvisioningCompleted(final int unicastAddress) {
+        if (mRunning && mPhase == Phase.PROVISION) {
+            mCurrent.unicastAddress = unicastAddress;
+            if (mPipelined) {
+                handOver();
+            }
+            else {
+                enterPhase(Phase.RECONNECT);
+            }
+        }
+    }
+
+    synchronized void onConfigurationFinished(final boolean success) {
+        if (mPipelined) {
+            if (mRunning) {
+                finishConfiguring(success, "Configuration failed");
+            }
+            return;
+        }
+        if (!mRunning || mPhase != Phase.CONFIGURE) {
+            return;
+        }
+        if (success) {
+            finishItem(true);
+        }
+        else {
+            fail("Configuration failed");
+        }
+    }
+
+    synchronized void onDisconnected() {
+        if (!mRunning) {
+            return;
+        }
+        if (mWaitingForDisconnect) {
+            mWaitingForDisconnect = false;
+            mHandler.removeCallbacks(mDisconnectTimeout);
+            mHandler.post(this::connectAfterDisconnect);
+        }
+        else if (mPhase != null && mPhase != Phase.RECONNECT) {
+            fail("Disconnected");
+        }
+    }
+
+    /**
+     * Called when the proxy bearer is lost while the pipeline configures a node.
+     */
+    synchronized void onProxyDisconnected() {
+        final ItemResult head = mConfiguring.peek();
+        if (mRunning && mPipelined && head != null && head.phase == Phase.CONFIGURE) {
+            finishConfiguring(false, "Disconnected");
+        }
+    }
+
+    private synchronized void connectAfterDisconnect() {
+        if (mRunning) {
+            connect();
+        }
+    }
+}
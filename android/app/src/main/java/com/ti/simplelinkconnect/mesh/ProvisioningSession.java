@@ -0,0 +1,86 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.SystemClock;
+
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+
+/**
+ * State of a single device from the provisioning invite until its configuration is finished.
+ * <p>
+ * A session starts on the PB-GATT bearer. Once the device is provisioned it moves to the proxy bearer to be
+ * configured, which frees the PB-GATT bearer for the next device.
+ */
+public class ProvisioningSession {
+
+    public enum Stage {
+        PROVISIONING,
+        // Provisioned, waiting for the proxy bearer to be free
+        WAITING_FOR_PROXY,
+        RECONNECTING,
+        CONFIGURING,
+        COMPLETED,
+        FAILED
+    }
+
+    private final ExtendedBluetoothDevice device;
+    private final ProvisioningStatusLiveData progress;
+    private final long startMs = SystemClock.elapsedRealtime();
+    private ProvisionedMeshNode node;
+    private Stage stage = Stage.PROVISIONING;
+    private long provisionedMs;
+    private long finishedMs;
+
+    ProvisioningSession(final ExtendedBluetoothDevice device, final ProvisioningStatusLiveData progress) {
+        this.device = device;
+        this.progress = progress;
+    }
+
+    public ExtendedBluetoothDevice getDevice() {
+        return device;
+    }
+
+    public ProvisioningStatusLiveData getProgress() {
+        return progress;
+    }
+
+    public ProvisionedMeshNode getNode() {
+        return node;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * Returns true while the session still holds one of the bearers or waits for one.
+     */
+    public boolean isActive() {
+        return stage != Stage.COMPLETED && stage != Stage.FAILED;
+    }
+
+    /**
+     * Returns the time spent provisioning, in milliseconds, or 0 if the device is not provisioned yet.
+     */
+    public long getProvisioningMs() {
+        return provisionedMs == 0 ? 0 : provisionedMs - startMs;
+    }
+
+    /**
+     * Returns the time from the provisioning invite until the session finished, in milliseconds.
+     */
+    public long getTotalMs() {
+        return (finishedMs == 0 ? SystemClock.elapsedRealtime() : finishedMs) - startMs;
+    }
+
+    void onProvisioned(final ProvisionedMeshNode node) {
+        this.node = node;
+        provisionedMs = SystemClock.elapsedRealtime();
+    }
+
+    void setStage(final Stage stage) {
+        this.stage = stage;
+        if (!isActive()) {
+            finishedMs = SystemClock.elapsedRealtime();
+        }
+    }
+}
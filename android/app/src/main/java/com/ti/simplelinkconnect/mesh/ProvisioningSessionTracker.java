@@ -0,0 +1,130 @@
+package com.ti.simplelinkconnect.mesh;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+
+/**
+ * Tracks the {@link ProvisioningSession}s of the repository: the device being provisioned, the node being
+ * configured through the proxy bearer and, while the pipeline is enabled, the provisioned nodes waiting for it.
+ */
+class ProvisioningSessionTracker {
+    private ProvisioningSession mProvisioningSession;
+    private ProvisioningSession mConfigurationSession;
+    private final Deque<ProvisioningSession> mPendingSessions = new ArrayDeque<>();
+
+    /**
+     * Starts the session of a device that received the provisioning invite.
+     */
+    ProvisioningSession startProvisioning(final ExtendedBluetoothDevice device, final ProvisioningStatusLiveData progress) {
+        mProvisioningSession = new ProvisioningSession(device, progress);
+        return mProvisioningSession;
+    }
+
+    /**
+     * Returns the session of the device being provisioned, or null.
+     */
+    ProvisioningSession getProvisioningSession() {
+        return mProvisioningSession;
+    }
+
+    /**
+     * Returns the session of the node being configured, or last configured, or null.
+     */
+    ProvisioningSession getConfigurationSession() {
+        return mConfigurationSession;
+    }
+
+    int getPendingSessionCount() {
+        return mPendingSessions.size();
+    }
+
+    /**
+     * Fails the session of the device being provisioned, if any.
+     */
+    void failProvisioning() {
+        if (mProvisioningSession != null) {
+            mProvisioningSession.setStage(ProvisioningSession.Stage.FAILED);
+            mProvisioningSession = null;
+        }
+    }
+
+    /**
+     * Ends the provisioning of the device, the session is returned to be configured.
+     *
+     * @param device   device the node was provisioned from, used if the invite was not seen
+     * @param progress progress of the provisioning, used if the invite was not seen
+     */
+    ProvisioningSession onProvisioned(@NonNull final ProvisionedMeshNode node, final ExtendedBluetoothDevice device,
+                                      final ProvisioningStatusLiveData progress) {
+        ProvisioningSession session = mProvisioningSession;
+        if (session == null) {
+            session = new ProvisioningSession(device, progress);
+        }
+        mProvisioningSession = null;
+        session.onProvisioned(node);
+        return session;
+    }
+
+    /**
+     * Returns true while a node is being configured through the proxy bearer.
+     */
+    boolean isConfiguring() {
+        return mConfigurationSession != null && mConfigurationSession.isActive();
+    }
+
+    /**
+     * Queues a provisioned node until the proxy bearer is free.
+     */
+    void addPending(@NonNull final ProvisioningSession session) {
+        session.setStage(ProvisioningSession.Stage.WAITING_FOR_PROXY);
+        mPendingSessions.add(session);
+    }
+
+    /**
+     * Returns the next queued node to configure, or null if there is none or the proxy bearer is busy.
+     */
+    @Nullable
+    ProvisioningSession pollPending() {
+        return isConfiguring() ? null : mPendingSessions.poll();
+    }
+
+    void clearPending() {
+        mPendingSessions.clear();
+    }
+
+    void startConfiguration(@NonNull final ProvisioningSession session) {
+        mConfigurationSession = session;
+        session.setStage(ProvisioningSession.Stage.RECONNECTING);
+    }
+
+    /**
+     * Ends the configuration of the node being configured.
+     *
+     * @return false if no configuration was in progress
+     */
+    boolean finishConfiguration(final boolean success) {
+        if (!isConfiguring()) {
+            return false;
+        }
+        mConfigurationSession.setStage(success ? ProvisioningSession.Stage.COMPLETED : ProvisioningSession.Stage.FAILED);
+        return true;
+    }
+
+    /**
+     * Fails every session still in progress and forgets the queued nodes, so that the next attempt starts from
+     * scratch rather than waiting behind a session that will never finish.
+     */
+    void reset() {
+        failProvisioning();
+        finishConfiguration(false);
+        for (ProvisioningSession session : mPendingSessions) {
+            session.setStage(ProvisioningSession.Stage.FAILED);
+        }
+        mPendingSessions.clear();
+    }
+}
@@ -32,18 +32,29 @@ import androidx.lifecycle.LiveData;
 import com.ti.connectivity.simplelinkconnect.MeshModule;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
 
 public class ProvisioningStatusLiveData extends LiveData<ProvisioningStatusLiveData> {
 
     private final ArrayList<ProvisionerProgress> mProvisioningProgress = new ArrayList<>();
     private MeshModule meshModule;
+    private final ProvisioningPhaseHistogram mPhaseHistogram;
+    // Time each state was first entered in this session
+    private final Map<ProvisionerStates, Long> mStateTimestamps = new EnumMap<>(ProvisionerStates.class);
 
     public ProvisioningStatusLiveData(MeshModule meshModule) {
+        this(meshModule, null);
+    }
+
+    public ProvisioningStatusLiveData(MeshModule meshModule, ProvisioningPhaseHistogram phaseHistogram) {
         this.meshModule = meshModule;
+        this.mPhaseHistogram = phaseHistogram;
     }
 
     public void clear() {
         mProvisioningProgress.clear();
+        mStateTimestamps.clear();
         postValue(this);
     }
 
@@ -51,6 +62,13 @@ public class ProvisioningStatusLiveData extends LiveData<ProvisioningStatusLiveD
         return mProvisioningProgress;
     }
 
+    /**
+     * Returns the time each state was first entered in this session, in nanoseconds of the monotonic clock.
+     */
+    public Map<ProvisionerStates, Long> getStateTimestamps() {
+        return new EnumMap<>(mStateTimestamps);
+    }
+
 
     public ProvisionerProgress getProvisionerProgress() {
         if (mProvisioningProgress.size() == 0)
@@ -219,6 +237,12 @@ public class ProvisioningStatusLiveData extends LiveData<ProvisioningStatusLiveD
                 break;
 
         }
+        if (provisioningProgress != null && !mStateTimestamps.containsKey(state)) {
+            mStateTimestamps.put(state, provisioningProgress.getTimestampNanos());
+            if (mPhaseHistogram != null) {
+                mPhaseHistogram.onStateEntered(state, mStateTimestamps);
+            }
+        }
         Log.i("mesh", "^^^^^^^^^^^^^^" + provisioningProgress.getMessage());
         postValue(this);
     }
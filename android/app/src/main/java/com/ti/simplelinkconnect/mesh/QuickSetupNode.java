@@ -14,10 +14,9 @@ import java.util.concurrent.CompletableFuture;
 
 import androidx.annotation.NonNull;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.bridge.WritableNativeArray;
-import com.facebook.react.bridge.WritableNativeMap;
 
 import no.nordicsemi.android.mesh.ApplicationKey;
 import no.nordicsemi.android.mesh.Group;
@@ -42,11 +41,17 @@ public class QuickSetupNode implements MeshStatusCallbacks {
     private final ArrayList<TaskResult> taskResults = new ArrayList<>();
 
     private final MeshManagerApi meshManagerApi;
+    private final SegmentationStatistics segmentationStatistics;
     private CompletionListener completionListener;
 
 
     public QuickSetupNode(MeshManagerApi meshManagerApi) {
+        this(meshManagerApi, null);
+    }
+
+    public QuickSetupNode(MeshManagerApi meshManagerApi, SegmentationStatistics segmentationStatistics) {
         this.meshManagerApi = meshManagerApi;
+        this.segmentationStatistics = segmentationStatistics;
     }
 
     public void setCompletionListener(CompletionListener listener) {
@@ -60,7 +65,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         this.node = meshManagerApi.getMeshNetwork().getNode(nodeUnicastAddress);
         if (node == null) {
             Log.e("QuickSetupNode", "Node not found in network.");
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
             resultArray.pushMap(createTaskResult("Node not found", false));
             return resultArray;
         }
@@ -87,7 +92,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         Log.i("QuickSetupNode", "Starting " + tasks.size() + " tasks");
         // Set up completion listener
         this.completionListener = results -> {
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
 
             for (TaskResult result : results) {
                 resultArray.pushMap(createTaskResult(result.getTaskTitle(), result.isSuccess()));
@@ -101,7 +106,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         try {
             return future.get();  // Block until completion
         } catch (Exception e) {
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
             resultArray.pushMap(createTaskResult("Execution error: " + e.getMessage(), false));
             return resultArray;
         }
@@ -115,7 +120,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         this.node = meshManagerApi.getMeshNetwork().getNode(nodeUnicastAddress);
         if (node == null) {
             Log.e("QuickSetupNode", "Node not found in network.");
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
             resultArray.pushMap(createTaskResult("Node not found", false));
             return resultArray;
         }
@@ -137,7 +142,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         Log.i("QuickSetupNode", "Starting " + tasks.size() + " tasks");
         // Set up completion listener
         this.completionListener = results -> {
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
 
             for (TaskResult result : results) {
                 resultArray.pushMap(createTaskResult(result.getTaskTitle(), result.isSuccess()));
@@ -151,7 +156,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         try {
             return future.get();  // Block until completion
         } catch (Exception e) {
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
             resultArray.pushMap(createTaskResult("Execution error: " + e.getMessage(), false));
             return resultArray;
         }
@@ -167,7 +172,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         this.node = meshManagerApi.getMeshNetwork().getNode(nodeUnicastAddress);
         if (node == null) {
             Log.e("QuickSetupNode", "Node not found in network.");
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
             resultArray.pushMap(createTaskResult("Node not found", false));
             return resultArray;
         }
@@ -211,7 +216,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         Log.i("QuickSetupNode", "Starting " + tasks.size() + " tasks");
         // Set up completion listener
         this.completionListener = results -> {
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
 
             for (TaskResult result : results) {
                 resultArray.pushMap(createTaskResult(result.getTaskTitle(), result.isSuccess()));
@@ -225,7 +230,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
         try {
             return future.get();  // Block until completion
         } catch (Exception e) {
-            WritableArray resultArray = new WritableNativeArray();
+            WritableArray resultArray = Arguments.createArray();
             resultArray.pushMap(createTaskResult("Execution error: " + e.getMessage(), false));
             return resultArray;
         }
@@ -244,7 +249,7 @@ public class QuickSetupNode implements MeshStatusCallbacks {
     }
 
     private WritableMap createTaskResult(String taskTitle, boolean success) {
-        WritableMap map = new WritableNativeMap();
+        WritableMap map = Arguments.createMap();
         map.putString("task", taskTitle);
         map.putBoolean("success", success);
         return map;
@@ -280,6 +285,9 @@ public class QuickSetupNode implements MeshStatusCallbacks {
     @Override
     public void onMeshMessageProcessed(int dst, @NonNull MeshMessage meshMessage) {
         Log.i("QuickSetupNode", "Message processed: " + meshMessage.getOpCode());
+        if (segmentationStatistics != null) {
+            segmentationStatistics.onMessageSent(dst, meshMessage);
+        }
     }
 
     @Override
@@ -317,6 +325,9 @@ public class QuickSetupNode implements MeshStatusCallbacks {
     public void onTransactionFailed(int dst, boolean hasIncompleteTimerExpired) {
         inProgress = false;
         Log.e("QuickSetupNode", "Transaction failed.");
+        if (segmentationStatistics != null) {
+            segmentationStatistics.onTransactionFailed(dst);
+        }
     }
 
     @Override
@@ -326,10 +337,16 @@ public class QuickSetupNode implements MeshStatusCallbacks {
 
     @Override
     public void onBlockAcknowledgementProcessed(int dst, @NonNull ControlMessage message) {
+        if (segmentationStatistics != null) {
+            segmentationStatistics.onBlockAcknowledgementProcessed(dst, message);
+        }
     }
 
     @Override
     public void onBlockAcknowledgementReceived(int src, @NonNull ControlMessage message) {
+        if (segmentationStatistics != null) {
+            segmentationStatistics.onBlockAcknowledgementReceived(src, message);
+        }
     }
 
     @Override
@@ -0,0 +1,272 @@
+package com.ti.simplelinkconnect.mesh;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.mesh.transport.ControlMessage;
+import no.nordicsemi.android.mesh.transport.MeshMessage;
+
+/**
+ * Keeps track of the segmented access messages sent to each destination, the block acknowledgements
+ * received for them and the resulting application throughput.
+ * <p>
+ * An access payload (opcode and parameters) longer than {@link #MAX_UNSEGMENTED_ACCESS_PAYLOAD} is sent as
+ * a segmented message. The upper transport pdu carries the payload followed by a 4 octet TransMIC and each
+ * segment carries up to {@link #SEGMENT_PAYLOAD_LENGTH} octets of it.
+ */
+public class SegmentationStatistics {
+
+    public static final int MAX_UNSEGMENTED_ACCESS_PAYLOAD = 11;
+    public static final int SEGMENT_PAYLOAD_LENGTH = 12;
+    public static final int TRANS_MIC_LENGTH = 4;
+    public static final int MAX_SEGMENTS = 32;
+
+    /**
+     * Statistics for one destination address.
+     */
+    public static class DestinationStatistics {
+        private final int address;
+        private int messages;
+        private int segmentedMessages;
+        private int segmentsSent;
+        private int retransmittedSegments;
+        private int blockAcksReceived;
+        private int blockAcksSent;
+        private int completedMessages;
+        private long deliveredBytes;
+        private long deliveryNanos;
+        private long rttTotalNanos;
+        private long rttMinNanos = Long.MAX_VALUE;
+        private long rttMaxNanos;
+
+        DestinationStatistics(final int address) {
+            this.address = address;
+        }
+
+        DestinationStatistics(final DestinationStatistics other) {
+            address = other.address;
+            messages = other.messages;
+            segmentedMessages = other.segmentedMessages;
+            segmentsSent = other.segmentsSent;
+            retransmittedSegments = other.retransmittedSegments;
+            blockAcksReceived = other.blockAcksReceived;
+            blockAcksSent = other.blockAcksSent;
+            completedMessages = other.completedMessages;
+            deliveredBytes = other.deliveredBytes;
+            deliveryNanos = other.deliveryNanos;
+            rttTotalNanos = other.rttTotalNanos;
+            rttMinNanos = other.rttMinNanos;
+            rttMaxNanos = other.rttMaxNanos;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public int getSegmentedMessages() {
+            return segmentedMessages;
+        }
+
+        public int getSegmentsSent() {
+            return segmentsSent;
+        }
+
+        public int getRetransmittedSegments() {
+            return retransmittedSegments;
+        }
+
+        public int getBlockAcksReceived() {
+            return blockAcksReceived;
+        }
+
+        /**
+         * Returns the number of block acknowledgements sent for segmented messages received from this address.
+         */
+        public int getBlockAcksSent() {
+            return blockAcksSent;
+        }
+
+        public int getCompletedMessages() {
+            return completedMessages;
+        }
+
+        public double getAverageRttMs() {
+            return blockAcksReceived == 0 ? 0 : rttTotalNanos / (double) blockAcksReceived / 1000000.0;
+        }
+
+        public double getMinRttMs() {
+            return blockAcksReceived == 0 ? 0 : rttMinNanos / 1000000.0;
+        }
+
+        public double getMaxRttMs() {
+            return rttMaxNanos / 1000000.0;
+        }
+
+        /**
+         * Returns the access payload throughput of fully acknowledged segmented messages, in bytes per second.
+         */
+        public double getThroughputBytesPerSecond() {
+            return deliveryNanos == 0 ? 0 : deliveredBytes * 1000000000.0 / deliveryNanos;
+        }
+    }
+
+    private static class PendingMessage {
+        final int payloadLength;
+        final int segmentCount;
+        final long firstSentNanos;
+        long lastSentNanos;
+        long ackedSegments;
+
+        PendingMessage(final int payloadLength, final int segmentCount, final long now) {
+            this.payloadLength = payloadLength;
+            this.segmentCount = segmentCount;
+            this.firstSentNanos = now;
+            this.lastSentNanos = now;
+        }
+    }
+
+    private final Map<Integer, DestinationStatistics> destinations = new HashMap<>();
+    // Only one segmented message can be in flight to a destination at a time
+    private final Map<Integer, PendingMessage> pending = new HashMap<>();
+
+    /**
+     * Returns the number of segments needed to send an access payload of the given length,
+     * or 1 if the payload fits in an unsegmented message.
+     *
+     * @param accessPayloadLength length of the opcode and parameters
+     */
+    public static int getSegmentCount(final int accessPayloadLength) {
+        if (accessPayloadLength <= MAX_UNSEGMENTED_ACCESS_PAYLOAD) {
+            return 1;
+        }
+        return (accessPayloadLength + TRANS_MIC_LENGTH + SEGMENT_PAYLOAD_LENGTH - 1) / SEGMENT_PAYLOAD_LENGTH;
+    }
+
+    /**
+     * Returns the length of the access payload of a message, opcode included.
+     */
+    static int getAccessPayloadLength(@NonNull final MeshMessage message) {
+        final byte[] accessPayload = message.getAccessPayload();
+        if (accessPayload != null) {
+            return accessPayload.length;
+        }
+        final int opCode = message.getOpCode();
+        final int opCodeLength = opCode > 0xFFFF ? 3 : opCode > 0xFF ? 2 : 1;
+        final byte[] parameters = message.getParameters();
+        return opCodeLength + (parameters == null ? 0 : parameters.length);
+    }
+
+    /**
+     * Records a message handed to the bearer for the given destination.
+     */
+    public synchronized void onMessageSent(final int dst, @NonNull final MeshMessage message) {
+        final DestinationStatistics stats = getOrCreate(dst);
+        stats.messages++;
+        final int length = getAccessPayloadLength(message);
+        if (length <= MAX_UNSEGMENTED_ACCESS_PAYLOAD) {
+            return;
+        }
+        final int segmentCount = Math.min(getSegmentCount(length), MAX_SEGMENTS);
+        stats.segmentedMessages++;
+        stats.segmentsSent += segmentCount;
+        pending.put(dst, new PendingMessage(length, segmentCount, System.nanoTime()));
+    }
+
+    /**
+     * Records a block acknowledgement received from a destination we sent a segmented message to.
+     * Segments that are not acknowledged will be retransmitted by the lower transport layer.
+     */
+    public synchronized void onBlockAcknowledgementReceived(final int src, @NonNull final ControlMessage message) {
+        final long now = System.nanoTime();
+        final DestinationStatistics stats = getOrCreate(src);
+        final PendingMessage pendingMessage = pending.get(src);
+        if (pendingMessage == null) {
+            return;
+        }
+        final long rtt = now - pendingMessage.lastSentNanos;
+        stats.blockAcksReceived++;
+        stats.rttTotalNanos += rtt;
+        stats.rttMinNanos = Math.min(stats.rttMinNanos, rtt);
+        stats.rttMaxNanos = Math.max(stats.rttMaxNanos, rtt);
+
+        final long allSegments = (1L << pendingMessage.segmentCount) - 1;
+        final long blockAck = parseBlockAck(message);
+        pendingMessage.ackedSegments |= blockAck < 0 ? allSegments : blockAck & allSegments;
+
+        final int missing = pendingMessage.segmentCount - Long.bitCount(pendingMessage.ackedSegments);
+        if (missing == 0) {
+            pending.remove(src);
+            stats.completedMessages++;
+            stats.deliveredBytes += pendingMessage.payloadLength;
+            stats.deliveryNanos += now - pendingMessage.firstSentNanos;
+        }
+        else {
+            stats.retransmittedSegments += missing;
+            stats.segmentsSent += missing;
+            pendingMessage.lastSentNanos = now;
+        }
+    }
+
+    /**
+     * Records a block acknowledgement sent by us for a segmented message received from the given address.
+     */
+    public synchronized void onBlockAcknowledgementProcessed(final int dst, @NonNull final ControlMessage message) {
+        getOrCreate(dst).blockAcksSent++;
+    }
+
+    /**
+     * Drops the message in flight to the destination, used when the transaction failed.
+     */
+    public synchronized void onTransactionFailed(final int dst) {
+        pending.remove(dst);
+    }
+
+    /**
+     * Returns the BlockAck field of a Segment Acknowledgement message, or -1 if it cannot be read.
+     * The parameters are OBO, SeqZero and RFU in 2 octets followed by the 4 octet BlockAck, big endian.
+     */
+    private static long parseBlockAck(final ControlMessage message) {
+        final byte[] parameters = message.getParameters();
+        if (parameters == null || parameters.length < 6) {
+            return -1;
+        }
+        final int offset = parameters.length - 4;
+        return ((parameters[offset] & 0xFFL) << 24)
+                | ((parameters[offset + 1] & 0xFFL) << 16)
+                | ((parameters[offset + 2] & 0xFFL) << 8)
+                | (parameters[offset + 3] & 0xFFL);
+    }
+
+    private DestinationStatistics getOrCreate(final int address) {
+        DestinationStatistics stats = destinations.get(address);
+        if (stats == null) {
+            stats = new DestinationStatistics(address);
+            destinations.put(address, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of every destination.
+     */
+    public synchronized List<DestinationStatistics> getStatistics() {
+        final List<DestinationStatistics> snapshot = new ArrayList<>();
+        for (DestinationStatistics stats : destinations.values()) {
+            snapshot.add(new DestinationStatistics(stats));
+        }
+        return snapshot;
+    }
+
+    public synchronized void reset() {
+        destinations.clear();
+        pending.clear();
+    }
+}
@@ -0,0 +1,788 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.NetworkKey;
+import no.nordicsemi.android.mesh.models.VendorModel;
+import no.nordicsemi.android.mesh.transport.Element;
+import no.nordicsemi.android.mesh.transport.MeshModel;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.mesh.utils.SecureUtils;
+
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_APPKEY_ADD;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_APPKEY_STATUS;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_GET;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_COMPOSITION_DATA_STATUS;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_DEFAULT_TTL_GET;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_DEFAULT_TTL_SET;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_DEFAULT_TTL_STATUS;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_MODEL_APP_BIND;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_MODEL_APP_STATUS;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_SET;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_MODEL_PUBLICATION_STATUS;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_ADD;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_MODEL_SUBSCRIPTION_STATUS;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_SET;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_NETWORK_TRANSMIT_STATUS;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_NODE_RESET;
+import static no.nordicsemi.android.mesh.opcodes.ConfigMessageOpCodes.CONFIG_NODE_RESET_STATUS;
+
+/**
+ * In-process stand-in for a mesh device reached over GATT, first as an unprovisioned device, then as a proxy.
+ * <p>
+ * PDUs written to the proxy are acknowledged through {@link Callbacks#onDataSent} after the configured
+ * latency, so the mesh stack runs its normal write path. While the device is unprovisioned, the provisioning
+ * PDUs are answered as a provisionee would, see {@link SimulatedProvisionee}. Network PDUs are decrypted with
+ * the network key and the device key of the node addressed, and the config messages are answered with the
+ * matching status message, encrypted the same way and delivered as proxy PDUs through
+ * {@link Callbacks#onDataReceived}, where the stack decodes them as notifications of a real proxy.
+ * Segmented requests are acknowledged with a Segment Acknowledgment and a secure network beacon is sent
+ * when the proxy connects.
+ * <p>
+ * Responses are delayed by the configured latency, or dropped according to the configured loss rate. The
+ * other nodes of the network are answered too, with the device key stored in the network, which is how
+ * the simulation stands in for a whole mesh.
+ */
+public class SimulatedMeshProxy implements MeshTransport {
+    private static final String TAG = SimulatedMeshProxy.class.getSimpleName();
+
+    private static final int DEFAULT_MTU = 69;
+    private static final int DEFAULT_TTL = 5;
+    private static final int STATUS_KEY_INDEX_ALREADY_STORED = 0x06;
+
+    private static final int PROXY_TYPE_NETWORK = 0x00;
+    private static final int PROXY_TYPE_BEACON = 0x01;
+    private static final int PROXY_TYPE_PROVISIONING = 0x03;
+    private static final int SAR_COMPLETE = 0x00;
+    private static final int SAR_FIRST = 0x01;
+    private static final int SAR_CONTINUATION = 0x02;
+    private static final int SAR_LAST = 0x03;
+
+    private static final int MAX_UNSEGMENTED_ACCESS_PDU = 11;
+    private static final int SEGMENT_SIZE = 12;
+
+    /**
+     * Receiver of the bearer events, the {@link BleMeshManagerCallbacks} of the repository in the app.
+     */
+    public interface Callbacks {
+        void onConnected();
+
+        void onDataSent(int mtu, @NonNull byte[] pdu);
+
+        void onDataReceived(int mtu, @NonNull byte[] pdu);
+
+        void onDisconnected();
+    }
+
+    /**
+     * Gives the network the keys and the nodes are taken from, {@link no.nordicsemi.android.mesh.MeshManagerApi#getMeshNetwork()} in the app.
+     */
+    public interface NetworkSource {
+        @Nullable
+        MeshNetwork getMeshNetwork();
+    }
+
+    /**
+     * Keys derived from a network key, computed once per key.
+     */
+    private static class NetworkCredentials {
+        final byte[] networkKey;
+        final int nid;
+        final byte[] encryptionKey;
+        final byte[] privacyKey;
+
+        NetworkCredentials(final byte[] networkKey) {
+            this.networkKey = networkKey;
+            final SecureUtils.K2Output output = SecureUtils.calculateK2(networkKey, new byte[]{0x00});
+            nid = output.getNid() & 0x7F;
+            encryptionKey = output.getEncryptionKey();
+            privacyKey = output.getPrivacyKey();
+        }
+    }
+
+    /**
+     * Segments of a segmented request received so far.
+     */
+    private static class SegmentedRequest {
+        final int seqZero;
+        final int seqAuth;
+        final boolean szmic;
+        final byte[][] segments;
+        int blockAck;
+        boolean delivered;
+
+        SegmentedRequest(final int seqZero, final int seqAuth, final boolean szmic, final int segN) {
+            this.seqZero = seqZero;
+            this.seqAuth = seqAuth;
+            this.szmic = szmic;
+            segments = new byte[segN + 1][];
+        }
+
+        boolean isComplete() {
+            return Integer.bitCount(blockAck) == segments.length;
+        }
+
+        byte[] reassemble() {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] segment : segments) {
+                out.write(segment, 0, segment.length);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private final Callbacks mCallbacks;
+    private final NetworkSource mNetworkSource;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final SimulatedProvisionee mProvisionee = new SimulatedProvisionee(1);
+    private final UUID mDeviceUuid = UUID.randomUUID();
+    private Random mRandom = new Random();
+
+    private int mMtu = DEFAULT_MTU;
+    private int mMinLatencyMs = 20;
+    private int mMaxLatencyMs = 60;
+    private double mLossRate = 0;
+
+    private volatile boolean mConnected;
+    private volatile boolean mProvisionedWhenConnected;
+    private final Map<Integer, byte[]> mAppKeys = new ConcurrentHashMap<>();
+
+    // Only used on the executor thread
+    private final ByteArrayOutputStream mProxyBuffer = new ByteArrayOutputStream();
+    private final Map<Integer, Integer> mSequenceNumbers = new HashMap<>();
+    private final Map<Integer, Integer> mDefaultTtls = new HashMap<>();
+    private final Map<Long, SegmentedRequest> mSegmentedRequests = new HashMap<>();
+    private NetworkCredentials mCredentials;
+
+    private final AtomicInteger mPdusSent = new AtomicInteger();
+    private final AtomicInteger mMessagesAnswered = new AtomicInteger();
+    private final AtomicInteger mMessagesDropped = new AtomicInteger();
+
+    public SimulatedMeshProxy(@NonNull final Callbacks callbacks, @NonNull final NetworkSource networkSource) {
+        mCallbacks = callbacks;
+        mNetworkSource = networkSource;
+    }
+
+    /**
+     * Sets the latency range applied to every write acknowledgement and status response.
+     */
+    public void setLatency(final int minLatencyMs, final int maxLatencyMs) {
+        mMinLatencyMs = Math.max(0, minLatencyMs);
+        mMaxLatencyMs = Math.max(mMinLatencyMs, maxLatencyMs);
+    }
+
+    /**
+     * Sets the probability, between 0 and 1, that a status response is lost.
+     */
+    public void setLossRate(final double lossRate) {
+        mLossRate = Math.min(1, Math.max(0, lossRate));
+    }
+
+    /**
+     * Seeds the random generator so that latency and loss are repeatable across runs.
+     */
+    public void setSeed(final long seed) {
+        mRandom = new Random(seed);
+    }
+
+    public void setMtu(final int mtu) {
+        mMtu = mtu;
+    }
+
+    /**
+     * Stores an app key on the simulated node as another provisioner would have, an AppKey Add of a different
+     * key at the same index is then rejected as a real node rejects it.
+     */
+    public void storeAppKey(final int appKeyIndex, @NonNull final byte[] key) {
+        mAppKeys.put(appKeyIndex, key.clone());
+    }
+
+    /**
+     * Returns the device UUID the simulated device advertises while unprovisioned.
+     */
+    public UUID getDeviceUuid() {
+        return mDeviceUuid;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * Returns true if the device was provisioned when the bearer connected, it is then connected as a proxy.
+     */
+    public boolean isProvisioningComplete() {
+        return mProvisionedWhenConnected;
+    }
+
+    public int getPdusSent() {
+        return mPdusSent.get();
+    }
+
+    public int getMessagesAnswered() {
+        return mMessagesAnswered.get();
+    }
+
+    public int getMessagesDropped() {
+        return mMessagesDropped.get();
+    }
+
+    /**
+     * Connects the bearer after the configured latency, as a proxy if the device is provisioned.
+     */
+    public void connect() {
+        schedule(() -> {
+            if (mConnected) {
+                return;
+            }
+            mProvisionedWhenConnected = mProvisionee.isProvisioned();
+            mProxyBuffer.reset();
+            mConnected = true;
+            mCallbacks.onConnected();
+            if (mProvisionedWhenConnected) {
+                sendSecureNetworkBeacon();
+            }
+        }, nextLatency());
+    }
+
+    /**
+     * Disconnects the bearer after the configured latency.
+     */
+    public void disconnect() {
+        schedule(() -> {
+            if (!mConnected) {
+                return;
+            }
+            mConnected = false;
+            mCallbacks.onDisconnected();
+        }, nextLatency());
+    }
+
+    /**
+     * Stops delivering simulated traffic.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Override
+    public void sendPdu(@NonNull final byte[] pdu) {
+        mPdusSent.incrementAndGet();
+        final int mtu = getMaximumPacketSize();
+        schedule(() -> {
+            mCallbacks.onDataSent(mtu, pdu);
+            // The ble manager splits long writes in packets of the maximum size, one proxy PDU segment each
+            for (int offset = 0; offset < pdu.length; offset += mtu) {
+                onProxyPduSegment(Arrays.copyOfRange(pdu, offset, Math.min(pdu.length, offset + mtu)));
+            }
+        }, nextLatency());
+    }
+
+    @Override
+    public int getMaximumPacketSize() {
+        return mMtu - 3;
+    }
+
+    private void schedule(final Runnable runnable, final long delayMs) {
+        if (!mExecutor.isShutdown()) {
+            mExecutor.schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized long nextLatency() {
+        return mMinLatencyMs + (mMaxLatencyMs > mMinLatencyMs ? mRandom.nextInt(mMaxLatencyMs - mMinLatencyMs + 1) : 0);
+    }
+
+    private synchronized boolean isLost() {
+        return mLossRate > 0 && mRandom.nextDouble() < mLossRate;
+    }
+
+    private void onProxyPduSegment(final byte[] segment) {
+        if (segment.length < 1) {
+            return;
+        }
+        final int sar = (segment[0] >> 6) & 0x03;
+        final int type = segment[0] & 0x3F;
+        if (sar == SAR_COMPLETE || sar == SAR_FIRST) {
+            mProxyBuffer.reset();
+        }
+        mProxyBuffer.write(segment, 1, segment.length - 1);
+        if (sar == SAR_COMPLETE || sar == SAR_LAST) {
+            onProxyPdu(type, mProxyBuffer.toByteArray());
+        }
+    }
+
+    private void onProxyPdu(final int type, final byte[] payload) {
+        if (type == PROXY_TYPE_PROVISIONING) {
+            if (mProvisionedWhenConnected) {
+                return;
+            }
+            final byte[] response = mProvisionee.onProvisioningPdu(payload);
+            if (response != null) {
+                schedule(() -> sendProxyPdu(PROXY_TYPE_PROVISIONING, response), nextLatency());
+            }
+        }
+        else if (type == PROXY_TYPE_NETWORK) {
+            onNetworkPdu(payload);
+        }
+    }
+
+    /**
+     * Sends a proxy PDU to the stack, in as many segments as the packet size requires.
+     */
+    private void sendProxyPdu(final int type, final byte[] payload) {
+        final int mtu = getMaximumPacketSize();
+        if (payload.length < mtu) {
+            mCallbacks.onDataReceived(mtu, SimulatedProvisionee.concat(new byte[]{(byte) type}, payload));
+            return;
+        }
+        for (int offset = 0; offset < payload.length; offset += mtu - 1) {
+            final int end = Math.min(payload.length, offset + mtu - 1);
+            final int sar = offset == 0 ? SAR_FIRST : end == payload.length ? SAR_LAST : SAR_CONTINUATION;
+            mCallbacks.onDataReceived(mtu, SimulatedProvisionee.concat(new byte[]{(byte) (sar << 6 | type)}, Arrays.copyOfRange(payload, offset, end)));
+        }
+    }
+
+    @Nullable
+    private NetworkCredentials getCredentials() {
+        final MeshNetwork network = mNetworkSource.getMeshNetwork();
+        final NetworkKey networkKey = network == null ? null : network.getPrimaryNetworkKey();
+        final byte[] key = networkKey != null ? networkKey.getKey() : mProvisionee.getNetworkKey();
+        if (key == null) {
+            return null;
+        }
+        if (mCredentials == null || !Arrays.equals(mCredentials.networkKey, key)) {
+            mCredentials = new NetworkCredentials(key);
+        }
+        return mCredentials;
+    }
+
+    private int getIvIndex() {
+        final MeshNetwork network = mNetworkSource.getMeshNetwork();
+        return network != null ? network.getIvIndex().getIvIndex() : mProvisionee.getIvIndex();
+    }
+
+    /**
+     * Returns the device key of the node owning the address, or null if the address is not a simulated node.
+     */
+    @Nullable
+    private byte[] getDeviceKey(final int address) {
+        if (mProvisionee.ownsAddress(address)) {
+            return mProvisionee.getDeviceKey();
+        }
+        final MeshNetwork network = mNetworkSource.getMeshNetwork();
+        final ProvisionedMeshNode node = network == null ? null : network.getNode(address);
+        return node == null ? null : node.getDeviceKey();
+    }
+
+    private void onNetworkPdu(final byte[] pdu) {
+        final NetworkCredentials credentials = getCredentials();
+        if (credentials == null || pdu.length < 14 || (pdu[0] & 0x7F) != credentials.nid) {
+            return;
+        }
+        final int ivIndex = getIvIndex();
+        final byte[] pecb = privacyBlock(credentials, ivIndex, Arrays.copyOfRange(pdu, 7, 14));
+        final byte[] header = new byte[6];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = (byte) (pdu[1 + i] ^ pecb[i]);
+        }
+        final boolean ctl = (header[0] & 0x80) != 0;
+        if (ctl) {
+            // Segment Acknowledgments sent by the stack to the simulated nodes need no answer
+            return;
+        }
+        final int seq = ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+        final int src = ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+        final byte[] decrypted;
+        try {
+            decrypted = SecureUtils.decryptCCM(Arrays.copyOfRange(pdu, 7, pdu.length), credentials.encryptionKey, networkNonce(header, ivIndex), 4);
+        } catch (Exception ex) {
+            Log.w(TAG, "Unable to decrypt network PDU: " + ex.getMessage());
+            return;
+        }
+        final int dst = ((decrypted[0] & 0xFF) << 8) | (decrypted[1] & 0xFF);
+        onLowerTransportPdu(src, dst, seq, Arrays.copyOfRange(decrypted, 2, decrypted.length));
+    }
+
+    private void onLowerTransportPdu(final int src, final int dst, final int seq, final byte[] transport) {
+        if (transport.length < 1 || getDeviceKey(dst) == null) {
+            return;
+        }
+        if ((transport[0] & 0x40) != 0) {
+            // Application key messages are not simulated
+            return;
+        }
+        if ((transport[0] & 0x80) == 0) {
+            onUpperTransportPdu(src, dst, seq, false, Arrays.copyOfRange(transport, 1, transport.length));
+            return;
+        }
+        if (transport.length < 5) {
+            return;
+        }
+        final boolean szmic = (transport[1] & 0x80) != 0;
+        final int seqZero = ((transport[1] & 0x7F) << 6) | ((transport[2] & 0xFC) >> 2);
+        final int segO = ((transport[2] & 0x03) << 3) | ((transport[3] & 0xE0) >> 5);
+        final int segN = transport[3] & 0x1F;
+        if (segO > segN) {
+            return;
+        }
+        final long key = ((long) src << 16) | dst;
+        SegmentedRequest request = mSegmentedRequests.get(key);
+        if (request == null || request.seqZero != seqZero || request.segments.length != segN + 1) {
+            request = new SegmentedRequest(seqZero, seq - ((seq - seqZero) & 0x1FFF), szmic, segN);
+            mSegmentedRequests.put(key, request);
+        }
+        request.segments[segO] = Arrays.copyOfRange(transport, 4, transport.length);
+        request.blockAck |= 1 << segO;
+        if (request.isComplete()) {
+            // Acknowledged again when a segment is retransmitted, in case the first acknowledgment was lost
+            sendSegmentAcknowledgment(dst, src, seqZero, request.blockAck);
+            if (!request.delivered) {
+                request.delivered = true;
+                onUpperTransportPdu(src, dst, request.seqAuth, request.szmic, request.reassemble());
+            }
+        }
+    }
+
+    private void onUpperTransportPdu(final int src, final int dst, final int seqAuth, final boolean szmic, final byte[] encrypted) {
+        final byte[] accessPayload;
+        try {
+            accessPayload = SecureUtils.decryptCCM(encrypted, getDeviceKey(dst), deviceNonce(szmic, seqAuth, src, dst, getIvIndex()), szmic ? 8 : 4);
+        } catch (Exception ex) {
+            Log.w(TAG, "Unable to decrypt access message to 0x" + Integer.toHexString(dst) + ": " + ex.getMessage());
+            return;
+        }
+        if (accessPayload.length == 0) {
+            return;
+        }
+        final int opCodeLength = (accessPayload[0] & 0x80) == 0 ? 1 : (accessPayload[0] & 0x40) == 0 ? 2 : 3;
+        if (accessPayload.length < opCodeLength) {
+            return;
+        }
+        int opCode = 0;
+        for (int i = 0; i < opCodeLength; i++) {
+            opCode = (opCode << 8) | (accessPayload[i] & 0xFF);
+        }
+        final byte[] parameters = Arrays.copyOfRange(accessPayload, opCodeLength, accessPayload.length);
+        final byte[] status = createStatus(dst, opCode, parameters);
+        if (status == null) {
+            Log.v(TAG, "Not simulating a response to opcode 0x" + Integer.toHexString(opCode));
+            return;
+        }
+        respond(dst, src, status);
+        if (opCode == CONFIG_NODE_RESET && mProvisionee.ownsAddress(dst)) {
+            mProvisionee.reset();
+            mAppKeys.clear();
+        }
+    }
+
+    /**
+     * Returns the access payload of the status answering a config message, or null if it is not simulated.
+     */
+    @Nullable
+    private byte[] createStatus(final int node, final int opCode, final byte[] params) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        switch (opCode) {
+            case CONFIG_COMPOSITION_DATA_GET:
+                writeOpCode(out, CONFIG_COMPOSITION_DATA_STATUS);
+                writeCompositionData(out, node);
+                break;
+            case CONFIG_DEFAULT_TTL_GET:
+                writeOpCode(out, CONFIG_DEFAULT_TTL_STATUS);
+                final Integer ttl = mDefaultTtls.get(node);
+                out.write(ttl == null ? DEFAULT_TTL : ttl);
+                break;
+            case CONFIG_DEFAULT_TTL_SET:
+                if (params.length != 1) {
+                    return null;
+                }
+                mDefaultTtls.put(node, params[0] & 0xFF);
+                writeOpCode(out, CONFIG_DEFAULT_TTL_STATUS);
+                out.write(params[0]);
+                break;
+            case CONFIG_NETWORK_TRANSMIT_SET:
+                writeOpCode(out, CONFIG_NETWORK_TRANSMIT_STATUS);
+                out.write(params, 0, params.length);
+                break;
+            case CONFIG_APPKEY_ADD:
+                if (params.length != 19) {
+                    return null;
+                }
+                // NetKeyIndex and AppKeyIndex are packed in the first 3 octets, followed by the key itself
+                final int appKeyIndex = ((params[2] & 0xFF) << 4) | ((params[1] & 0xFF) >> 4);
+                final byte[] key = Arrays.copyOfRange(params, 3, 19);
+                final byte[] stored = mAppKeys.putIfAbsent(appKeyIndex, key);
+                writeStatus(out, CONFIG_APPKEY_STATUS, stored == null || Arrays.equals(stored, key) ? 0x00 : STATUS_KEY_INDEX_ALREADY_STORED, params, 3);
+                break;
+            case CONFIG_MODEL_APP_BIND:
+                // The Config Model App, Subscription and Publication statuses echo the request fields
+                writeSuccess(out, CONFIG_MODEL_APP_STATUS, params, params.length);
+                break;
+            case CONFIG_MODEL_SUBSCRIPTION_ADD:
+                writeSuccess(out, CONFIG_MODEL_SUBSCRIPTION_STATUS, params, params.length);
+                break;
+            case CONFIG_MODEL_PUBLICATION_SET:
+                writeSuccess(out, CONFIG_MODEL_PUBLICATION_STATUS, params, params.length);
+                break;
+            case CONFIG_NODE_RESET:
+                writeOpCode(out, CONFIG_NODE_RESET_STATUS);
+                break;
+            default:
+                return null;
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeOpCode(final ByteArrayOutputStream out, final int opCode) {
+        if (opCode > 0xFF) {
+            out.write((opCode >> 8) & 0xFF);
+        }
+        out.write(opCode & 0xFF);
+    }
+
+    private static void writeSuccess(final ByteArrayOutputStream out, final int opCode, final byte[] params, final int length) {
+        writeStatus(out, opCode, 0x00, params, length);
+    }
+
+    private static void writeStatus(final ByteArrayOutputStream out, final int opCode, final int status, final byte[] params, final int length) {
+        writeOpCode(out, opCode);
+        out.write(status);
+        out.write(params, 0, length);
+    }
+
+    /**
+     * Writes composition data page 0 from the node stored in the network, or a single element exposing the
+     * Configuration, Health and Generic OnOff servers if the node has no composition yet.
+     */
+    private void writeCompositionData(final ByteArrayOutputStream out, final int unicastAddress) {
+        final MeshNetwork network = mNetworkSource.getMeshNetwork();
+        final ProvisionedMeshNode node = network == null ? null : network.getNode(unicastAddress);
+        final Map<Integer, Element> elements = node == null ? null : node.getElements();
+        out.write(0x00); // Page
+        writeUint16(out, 0x000D); // CID
+        writeUint16(out, 0x0001); // PID
+        writeUint16(out, 0x0001); // VID
+        writeUint16(out, 0x0020); // CRPL
+        writeUint16(out, 0x0002); // Features, proxy
+        if (elements == null || elements.isEmpty()) {
+            writeUint16(out, 0x0000); // Location
+            out.write(3);
+            out.write(0);
+            writeUint16(out, 0x0000);
+            writeUint16(out, 0x0002);
+            writeUint16(out, 0x1000);
+            return;
+        }
+        for (Element element : elements.values()) {
+            final List<MeshModel> sigModels = new ArrayList<>();
+            final List<MeshModel> vendorModels = new ArrayList<>();
+            for (MeshModel model : element.getMeshModels().values()) {
+                if (model instanceof VendorModel) {
+                    vendorModels.add(model);
+                }
+                else {
+                    sigModels.add(model);
+                }
+            }
+            writeUint16(out, element.getLocationDescriptor());
+            out.write(sigModels.size());
+            out.write(vendorModels.size());
+            for (MeshModel model : sigModels) {
+                writeUint16(out, model.getModelId());
+            }
+            for (MeshModel model : vendorModels) {
+                final int modelId = model.getModelId();
+                writeUint16(out, (modelId >> 16) & 0xFFFF);
+                writeUint16(out, modelId & 0xFFFF);
+            }
+        }
+    }
+
+    private static void writeUint16(final ByteArrayOutputStream out, final int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+
+    /**
+     * Returns the next sequence number of a node, starting above the last one the network knows of.
+     */
+    private int nextSequenceNumber(final int address) {
+        Integer sequenceNumber = mSequenceNumbers.get(address);
+        if (sequenceNumber == null) {
+            final MeshNetwork network = mNetworkSource.getMeshNetwork();
+            final ProvisionedMeshNode node = network == null ? null : network.getNode(address);
+            sequenceNumber = node == null ? 0 : node.getSequenceNumber();
+        }
+        sequenceNumber++;
+        mSequenceNumbers.put(address, sequenceNumber);
+        return sequenceNumber;
+    }
+
+    /**
+     * Encrypts a status with the device key of the node and delivers it after the configured latency,
+     * unless it is lost.
+     */
+    private void respond(final int node, final int dst, final byte[] accessPayload) {
+        if (isLost()) {
+            mMessagesDropped.incrementAndGet();
+            Log.v(TAG, "Dropping simulated response from 0x" + Integer.toHexString(node));
+            return;
+        }
+        final List<byte[]> networkPdus;
+        try {
+            networkPdus = createAccessPdus(node, dst, accessPayload);
+        } catch (Exception ex) {
+            Log.e(TAG, "Unable to simulate a response from 0x" + Integer.toHexString(node) + ": " + ex.getMessage());
+            return;
+        }
+        schedule(() -> {
+            mMessagesAnswered.incrementAndGet();
+            for (byte[] networkPdu : networkPdus) {
+                sendProxyPdu(PROXY_TYPE_NETWORK, networkPdu);
+            }
+        }, nextLatency());
+    }
+
+    /**
+     * Returns the network PDUs carrying an access payload encrypted with the device key, segmented if the
+     * payload does not fit in a single PDU.
+     */
+    private List<byte[]> createAccessPdus(final int src, final int dst, final byte[] accessPayload) {
+        final NetworkCredentials credentials = getCredentials();
+        final int ivIndex = getIvIndex();
+        final int seqAuth = nextSequenceNumber(src);
+        final byte[] upperTransportPdu = SecureUtils.encryptCCM(accessPayload, getDeviceKey(src), deviceNonce(false, seqAuth, src, dst, ivIndex), 4);
+        final List<byte[]> networkPdus = new ArrayList<>();
+        if (accessPayload.length <= MAX_UNSEGMENTED_ACCESS_PDU) {
+            final byte[] transport = SimulatedProvisionee.concat(new byte[]{0x00}, upperTransportPdu);
+            networkPdus.add(createNetworkPdu(credentials, ivIndex, false, seqAuth, src, dst, transport));
+            return networkPdus;
+        }
+        final int seqZero = seqAuth & 0x1FFF;
+        final int segN = (upperTransportPdu.length + SEGMENT_SIZE - 1) / SEGMENT_SIZE - 1;
+        for (int segO = 0; segO <= segN; segO++) {
+            final byte[] header = {
+                    (byte) 0x80,
+                    (byte) ((seqZero >> 6) & 0x7F),
+                    (byte) (((seqZero & 0x3F) << 2) | (segO >> 3)),
+                    (byte) (((segO & 0x07) << 5) | segN)
+            };
+            final byte[] segment = Arrays.copyOfRange(upperTransportPdu, segO * SEGMENT_SIZE, Math.min(upperTransportPdu.length, (segO + 1) * SEGMENT_SIZE));
+            final int seq = segO == 0 ? seqAuth : nextSequenceNumber(src);
+            networkPdus.add(createNetworkPdu(credentials, ivIndex, false, seq, src, dst, SimulatedProvisionee.concat(header, segment)));
+        }
+        return networkPdus;
+    }
+
+    private void sendSegmentAcknowledgment(final int src, final int dst, final int seqZero, final int blockAck) {
+        final NetworkCredentials credentials = getCredentials();
+        final int ivIndex = getIvIndex();
+        final byte[] transport = {
+                0x00, // Segment Acknowledgment opcode, OBO cleared
+                (byte) ((seqZero >> 6) & 0x7F),
+                (byte) ((seqZero & 0x3F) << 2),
+                (byte) (blockAck >> 24),
+                (byte) (blockAck >> 16),
+                (byte) (blockAck >> 8),
+                (byte) blockAck
+        };
+        final byte[] networkPdu = createNetworkPdu(credentials, ivIndex, true, nextSequenceNumber(src), src, dst, transport);
+        schedule(() -> sendProxyPdu(PROXY_TYPE_NETWORK, networkPdu), nextLatency());
+    }
+
+    private byte[] createNetworkPdu(final NetworkCredentials credentials, final int ivIndex, final boolean ctl,
+                                    final int seq, final int src, final int dst, final byte[] transport) {
+        final byte[] header = {
+                (byte) ((ctl ? 0x80 : 0x00) | DEFAULT_TTL),
+                (byte) (seq >> 16), (byte) (seq >> 8), (byte) seq,
+                (byte) (src >> 8), (byte) src
+        };
+        final byte[] encrypted = SecureUtils.encryptCCM(SimulatedProvisionee.concat(new byte[]{(byte) (dst >> 8), (byte) dst}, transport),
+                credentials.encryptionKey, networkNonce(header, ivIndex), ctl ? 8 : 4);
+        final byte[] pecb = privacyBlock(credentials, ivIndex, Arrays.copyOfRange(encrypted, 0, 7));
+        final byte[] pdu = new byte[1 + header.length + encrypted.length];
+        pdu[0] = (byte) (((ivIndex & 0x01) << 7) | credentials.nid);
+        for (int i = 0; i < header.length; i++) {
+            pdu[1 + i] = (byte) (header[i] ^ pecb[i]);
+        }
+        System.arraycopy(encrypted, 0, pdu, 1 + header.length, encrypted.length);
+        return pdu;
+    }
+
+    private void sendSecureNetworkBeacon() {
+        final NetworkCredentials credentials = getCredentials();
+        if (credentials == null) {
+            return;
+        }
+        final int ivIndex = getIvIndex();
+        final byte[] beaconKey = SecureUtils.calculateK1(credentials.networkKey, SecureUtils.calculateSalt("nkbk".getBytes(StandardCharsets.US_ASCII)),
+                "id128\u0001".getBytes(StandardCharsets.US_ASCII));
+        final ByteArrayOutputStream authenticated = new ByteArrayOutputStream();
+        authenticated.write(0x00); // Flags, no key refresh nor IV update
+        final byte[] networkId = SecureUtils.calculateK3(credentials.networkKey);
+        authenticated.write(networkId, 0, networkId.length);
+        authenticated.write(ivIndex >> 24);
+        authenticated.write(ivIndex >> 16);
+        authenticated.write(ivIndex >> 8);
+        authenticated.write(ivIndex);
+        final byte[] authenticationValue = SecureUtils.calculateCMAC(authenticated.toByteArray(), beaconKey);
+        final byte[] beacon = SimulatedProvisionee.concat(new byte[]{0x01}, SimulatedProvisionee.concat(authenticated.toByteArray(), Arrays.copyOf(authenticationValue, 8)));
+        schedule(() -> sendProxyPdu(PROXY_TYPE_BEACON, beacon), nextLatency());
+    }
+
+    private static byte[] networkNonce(final byte[] header, final int ivIndex) {
+        return new byte[]{
+                0x00, header[0], header[1], header[2], header[3], header[4], header[5], 0x00, 0x00,
+                (byte) (ivIndex >> 24), (byte) (ivIndex >> 16), (byte) (ivIndex >> 8), (byte) ivIndex
+        };
+    }
+
+    private static byte[] deviceNonce(final boolean szmic, final int seq, final int src, final int dst, final int ivIndex) {
+        return new byte[]{
+                0x02, (byte) (szmic ? 0x80 : 0x00), (byte) (seq >> 16), (byte) (seq >> 8), (byte) seq,
+                (byte) (src >> 8), (byte) src, (byte) (dst >> 8), (byte) dst,
+                (byte) (ivIndex >> 24), (byte) (ivIndex >> 16), (byte) (ivIndex >> 8), (byte) ivIndex
+        };
+    }
+
+    /**
+     * Returns the block the network header is obfuscated with, for the privacy random of a network PDU.
+     */
+    private static byte[] privacyBlock(final NetworkCredentials credentials, final int ivIndex, final byte[] privacyRandom) {
+        final byte[] block = new byte[16];
+        block[5] = (byte) (ivIndex >> 24);
+        block[6] = (byte) (ivIndex >> 16);
+        block[7] = (byte) (ivIndex >> 8);
+        block[8] = (byte) ivIndex;
+        System.arraycopy(privacyRandom, 0, block, 9, 7);
+        try {
+            final Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(credentials.privacyKey, "AES"));
+            return cipher.doFinal(block);
+        } catch (Exception ex) {
+            throw new IllegalStateException("AES is not available", ex);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.KeyAgreement;
+
+import no.nordicsemi.android.mesh.utils.SecureUtils;
+
+/**
+ * Provisioning server side of the PB-GATT bearer, for {@link SimulatedMeshProxy}.
+ * <p>
+ * Only the FIPS P-256 Elliptic Curve algorithm with no OOB public key and no OOB authentication is offered,
+ * which is what the app uses. The device key is derived the way the provisioner derives it, so the node can
+ * only be configured after the provisioner went through the protocol correctly.
+ */
+class SimulatedProvisionee {
+    private static final String TAG = SimulatedProvisionee.class.getSimpleName();
+
+    static final int TYPE_INVITE = 0x00;
+    static final int TYPE_CAPABILITIES = 0x01;
+    static final int TYPE_START = 0x02;
+    static final int TYPE_PUBLIC_KEY = 0x03;
+    static final int TYPE_CONFIRMATION = 0x05;
+    static final int TYPE_RANDOM = 0x06;
+    static final int TYPE_DATA = 0x07;
+    static final int TYPE_COMPLETE = 0x08;
+    static final int TYPE_FAILED = 0x09;
+
+    private static final int ERROR_INVALID_FORMAT = 0x02;
+    private static final int ERROR_UNEXPECTED_PDU = 0x03;
+    private static final int ERROR_CONFIRMATION_FAILED = 0x04;
+    private static final int ERROR_DECRYPTION_FAILED = 0x06;
+    private static final int ERROR_UNEXPECTED_ERROR = 0x07;
+
+    private final int mNumberOfElements;
+    private final SecureRandom mRandom = new SecureRandom();
+
+    private int mExpected = TYPE_INVITE;
+    private ByteArrayOutputStream mConfirmationInputs;
+    private KeyPair mKeyPair;
+    private byte[] mEcdhSecret;
+    private byte[] mConfirmationKey;
+    private byte[] mConfirmationSalt;
+    private byte[] mProvisionerConfirmation;
+    private byte[] mDeviceRandom;
+
+    private byte[] mDeviceKey;
+    private byte[] mNetworkKey;
+    private int mIvIndex;
+    private int mUnicastAddress;
+
+    SimulatedProvisionee(final int numberOfElements) {
+        mNumberOfElements = numberOfElements;
+    }
+
+    boolean isProvisioned() {
+        return mDeviceKey != null;
+    }
+
+    int getNumberOfElements() {
+        return mNumberOfElements;
+    }
+
+    /**
+     * Returns true if the address is one of the element addresses assigned during provisioning.
+     */
+    boolean ownsAddress(final int address) {
+        return isProvisioned() && address >= mUnicastAddress && address < mUnicastAddress + mNumberOfElements;
+    }
+
+    int getUnicastAddress() {
+        return mUnicastAddress;
+    }
+
+    byte[] getDeviceKey() {
+        return mDeviceKey;
+    }
+
+    byte[] getNetworkKey() {
+        return mNetworkKey;
+    }
+
+    int getIvIndex() {
+        return mIvIndex;
+    }
+
+    /**
+     * Forgets the provisioning data, as a Config Node Reset does.
+     */
+    void reset() {
+        mDeviceKey = null;
+        mNetworkKey = null;
+        mExpected = TYPE_INVITE;
+    }
+
+    /**
+     * Handles a provisioning PDU sent by the provisioner.
+     *
+     * @param pdu provisioning PDU, type octet first
+     * @return the provisioning PDU to answer with, or null if none is due
+     */
+    @Nullable
+    byte[] onProvisioningPdu(@NonNull final byte[] pdu) {
+        if (pdu.length == 0) {
+            return null;
+        }
+        final int type = pdu[0] & 0xFF;
+        final byte[] parameters = Arrays.copyOfRange(pdu, 1, pdu.length);
+        if (type == TYPE_INVITE) {
+            // The provisioner may start over at any time, e.g. after a failed attempt
+            mExpected = TYPE_INVITE;
+        }
+        if (type != mExpected) {
+            Log.w(TAG, "Unexpected provisioning PDU 0x" + Integer.toHexString(type));
+            return fail(ERROR_UNEXPECTED_PDU);
+        }
+        try {
+            switch (type) {
+                case TYPE_INVITE:
+                    return onInvite(parameters);
+                case TYPE_START:
+                    return onStart(parameters);
+                case TYPE_PUBLIC_KEY:
+                    return onPublicKey(parameters);
+                case TYPE_CONFIRMATION:
+                    return onConfirmation(parameters);
+                case TYPE_RANDOM:
+                    return onRandom(parameters);
+                case TYPE_DATA:
+                    return onData(parameters);
+                default:
+                    return fail(ERROR_UNEXPECTED_PDU);
+            }
+        } catch (Exception ex) {
+            Log.e(TAG, "Provisioning failed: " + ex.getMessage());
+            return fail(ERROR_UNEXPECTED_ERROR);
+        }
+    }
+
+    private byte[] onInvite(final byte[] parameters) {
+        if (parameters.length != 1) {
+            return fail(ERROR_INVALID_FORMAT);
+        }
+        final byte[] capabilities = new byte[11];
+        capabilities[0] = (byte) mNumberOfElements;
+        capabilities[2] = 0x01; // FIPS P-256 Elliptic Curve, the rest is 0 for no OOB at all
+        mConfirmationInputs = new ByteArrayOutputStream();
+        mConfirmationInputs.write(parameters, 0, parameters.length);
+        mConfirmationInputs.write(capabilities, 0, capabilities.length);
+        mExpected = TYPE_START;
+        return concat(new byte[]{TYPE_CAPABILITIES}, capabilities);
+    }
+
+    private byte[] onStart(final byte[] parameters) {
+        if (parameters.length != 5 || parameters[0] != 0x00 || parameters[1] != 0x00 || parameters[2] != 0x00) {
+            return fail(ERROR_INVALID_FORMAT);
+        }
+        mConfirmationInputs.write(parameters, 0, parameters.length);
+        mExpected = TYPE_PUBLIC_KEY;
+        return null;
+    }
+
+    private byte[] onPublicKey(final byte[] parameters) throws Exception {
+        if (parameters.length != 64) {
+            return fail(ERROR_INVALID_FORMAT);
+        }
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"), mRandom);
+        mKeyPair = generator.generateKeyPair();
+        final ECPublicKey devicePublicKey = (ECPublicKey) mKeyPair.getPublic();
+        final byte[] deviceKey = concat(toUnsigned32(devicePublicKey.getW().getAffineX()), toUnsigned32(devicePublicKey.getW().getAffineY()));
+
+        final ECPoint point = new ECPoint(new BigInteger(1, Arrays.copyOfRange(parameters, 0, 32)),
+                new BigInteger(1, Arrays.copyOfRange(parameters, 32, 64)));
+        final PublicKey provisionerPublicKey = KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point, devicePublicKey.getParams()));
+        final KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(mKeyPair.getPrivate());
+        agreement.doPhase(provisionerPublicKey, true);
+        mEcdhSecret = agreement.generateSecret();
+
+        mConfirmationInputs.write(parameters, 0, parameters.length);
+        mConfirmationInputs.write(deviceKey, 0, deviceKey.length);
+        mConfirmationSalt = SecureUtils.calculateSalt(mConfirmationInputs.toByteArray());
+        mConfirmationKey = SecureUtils.calculateK1(mEcdhSecret, mConfirmationSalt, "prck".getBytes(StandardCharsets.US_ASCII));
+        mExpected = TYPE_CONFIRMATION;
+        return concat(new byte[]{TYPE_PUBLIC_KEY}, deviceKey);
+    }
+
+    private byte[] onConfirmation(final byte[] parameters) {
+        if (parameters.length != 16) {
+            return fail(ERROR_INVALID_FORMAT);
+        }
+        mProvisionerConfirmation = parameters;
+        mDeviceRandom = new byte[16];
+        mRandom.nextBytes(mDeviceRandom);
+        mExpected = TYPE_RANDOM;
+        return concat(new byte[]{TYPE_CONFIRMATION}, confirmation(mDeviceRandom));
+    }
+
+    private byte[] onRandom(final byte[] parameters) {
+        if (parameters.length != 16) {
+            return fail(ERROR_INVALID_FORMAT);
+        }
+        if (!Arrays.equals(mProvisionerConfirmation, confirmation(parameters))) {
+            return fail(ERROR_CONFIRMATION_FAILED);
+        }
+        // The provisioning salt is kept in place of the confirmation salt, it is the only one needed from now on
+        mConfirmationSalt = SecureUtils.calculateSalt(concat(mConfirmationSalt, concat(parameters, mDeviceRandom)));
+        mExpected = TYPE_DATA;
+        return concat(new byte[]{TYPE_RANDOM}, mDeviceRandom);
+    }
+
+    private byte[] onData(final byte[] parameters) {
+        if (parameters.length != 33) {
+            return fail(ERROR_INVALID_FORMAT);
+        }
+        final byte[] sessionKey = SecureUtils.calculateK1(mEcdhSecret, mConfirmationSalt, "prsk".getBytes(StandardCharsets.US_ASCII));
+        final byte[] nonce = SecureUtils.calculateK1(mEcdhSecret, mConfirmationSalt, "prsn".getBytes(StandardCharsets.US_ASCII));
+        final byte[] data;
+        try {
+            data = SecureUtils.decryptCCM(parameters, sessionKey, Arrays.copyOfRange(nonce, 3, 16), 8);
+        } catch (Exception ex) {
+            return fail(ERROR_DECRYPTION_FAILED);
+        }
+        mNetworkKey = Arrays.copyOfRange(data, 0, 16);
+        mIvIndex = ((data[19] & 0xFF) << 24) | ((data[20] & 0xFF) << 16) | ((data[21] & 0xFF) << 8) | (data[22] & 0xFF);
+        mUnicastAddress = ((data[23] & 0xFF) << 8) | (data[24] & 0xFF);
+        mDeviceKey = SecureUtils.calculateK1(mEcdhSecret, mConfirmationSalt, "prdk".getBytes(StandardCharsets.US_ASCII));
+        mExpected = TYPE_INVITE;
+        Log.v(TAG, "Provisioned with unicast address 0x" + Integer.toHexString(mUnicastAddress));
+        return new byte[]{TYPE_COMPLETE};
+    }
+
+    /**
+     * Returns the confirmation value of a random, with the all zero AuthValue of the no OOB method.
+     */
+    private byte[] confirmation(final byte[] random) {
+        return SecureUtils.calculateCMAC(concat(random, new byte[16]), mConfirmationKey);
+    }
+
+    private byte[] fail(final int errorCode) {
+        mExpected = TYPE_INVITE;
+        return new byte[]{TYPE_FAILED, (byte) errorCode};
+    }
+
+    private static byte[] toUnsigned32(final BigInteger value) {
+        final byte[] bytes = value.toByteArray();
+        final byte[] result = new byte[32];
+        final int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, result, 32 - length, length);
+        return result;
+    }
+
+    static byte[] concat(final byte[] first, final byte[] second) {
+        final byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
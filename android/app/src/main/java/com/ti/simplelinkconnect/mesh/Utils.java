@@ -46,7 +46,9 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import java.util.Comparator;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import no.nordicsemi.android.mesh.ApplicationKey;
 import no.nordicsemi.android.mesh.NetworkKey;
@@ -101,6 +103,9 @@ public class Utils {
     // Heartbeat publication key
     public static final int HEARTBEAT_PUBLICATION_NET_KEY = 6;
 
+    // Called for every scan result, so reuse the ParcelUuid wrappers instead of allocating them each time
+    private static final Map<UUID, ParcelUuid> PARCEL_UUIDS = new ConcurrentHashMap<>();
+
     public static final Comparator<NetworkKey> netKeyComparator = (key1, key2) -> Integer.compare(key1.getKeyIndex(), key2.getKeyIndex());
 
     public static final Comparator<ApplicationKey> appKeyComparator = (key1, key2) -> Integer.compare(key1.getKeyIndex(), key2.getKeyIndex());
@@ -294,7 +299,12 @@ public class Utils {
     public static byte[] getServiceData(@NonNull final ScanResult result, @NonNull final UUID serviceUuid) {
         final ScanRecord scanRecord = result.getScanRecord();
         if (scanRecord != null) {
-            return scanRecord.getServiceData(new ParcelUuid((serviceUuid)));
+            ParcelUuid parcelUuid = PARCEL_UUIDS.get(serviceUuid);
+            if (parcelUuid == null) {
+                parcelUuid = new ParcelUuid(serviceUuid);
+                PARCEL_UUIDS.putIfAbsent(serviceUuid, parcelUuid);
+            }
+            return scanRecord.getServiceData(parcelUuid);
         }
         return null;
     }
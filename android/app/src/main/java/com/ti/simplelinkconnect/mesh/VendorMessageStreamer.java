@@ -0,0 +1,228 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import no.nordicsemi.android.mesh.ApplicationKey;
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.transport.MeshMessage;
+import no.nordicsemi.android.mesh.transport.NetworkTransmitSettings;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.mesh.transport.VendorModelMessageAcked;
+import no.nordicsemi.android.mesh.transport.VendorModelMessageUnacked;
+
+/**
+ * Streams vendor model messages to a single element at a bounded rate.
+ * <p>
+ * Messages are queued and drained by a token bucket. Every transmission of a message on the mesh is repeated
+ * by the node according to its Network Transmit state, so by default the bucket is refilled at the rate the
+ * node can put messages on air: one token per {@code (count + 1) * interval}. Segmented messages consume one
+ * token per segment. Messages offered while the queue is full are dropped and counted.
+ * <p>
+ * Only the token bucket runs on the streamer's own thread. The mesh manager api is not thread safe, messages
+ * taken from the queue are sent from the handler the rest of the app uses it on.
+ */
+public class VendorMessageStreamer {
+    private static final String TAG = VendorMessageStreamer.class.getSimpleName();
+
+    // Network Transmit state set on every node at the end of provisioning, 3 transmissions 20 ms apart
+    private static final int DEFAULT_TRANSMIT_COUNT = 2;
+    private static final int DEFAULT_INTERVAL_STEPS = 1;
+    private static final int MAX_BURST = 4;
+    private static final long TICK_MS = 5;
+
+    private static class PendingMessage {
+        final int opCode;
+        final byte[] parameters;
+
+        PendingMessage(final int opCode, final byte[] parameters) {
+            this.opCode = opCode;
+            this.parameters = parameters;
+        }
+    }
+
+    private final MeshManagerApi mMeshManagerApi;
+    private final Handler mHandler;
+    private final int mElementAddress;
+    private final ApplicationKey mAppKey;
+    private final int mModelId;
+    private final int mCompanyIdentifier;
+    private final boolean mAcknowledged;
+    private final BlockingQueue<PendingMessage> mQueue;
+    private final double mTokensPerMs;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> mDrainTask;
+    private volatile boolean mStopped;
+
+    private double mTokens = MAX_BURST;
+    private long mLastRefillNanos;
+    private long mStartNanos;
+
+    private final AtomicInteger mOffered = new AtomicInteger();
+    private final AtomicInteger mSent = new AtomicInteger();
+    private final AtomicInteger mDropped = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+
+    /**
+     * @param meshManagerApi    mesh manager api used to send the messages
+     * @param handler           handler of the thread the mesh manager api is used on
+     * @param node              node the element belongs to, used to derive the send rate
+     * @param elementAddress    destination element address
+     * @param appKey            application key bound to the vendor model
+     * @param modelId           vendor model identifier
+     * @param companyIdentifier company identifier of the vendor model
+     * @param acknowledged      true to send acknowledged messages
+     * @param queueSize         maximum number of messages waiting to be sent
+     * @param maxRate           maximum number of messages per second, or 0 to derive it from the node's Network Transmit state
+     */
+    public VendorMessageStreamer(@NonNull final MeshManagerApi meshManagerApi,
+                                 @NonNull final Handler handler,
+                                 final ProvisionedMeshNode node,
+                                 final int elementAddress,
+                                 @NonNull final ApplicationKey appKey,
+                                 final int modelId,
+                                 final int companyIdentifier,
+                                 final boolean acknowledged,
+                                 final int queueSize,
+                                 final double maxRate) {
+        mMeshManagerApi = meshManagerApi;
+        mHandler = handler;
+        mElementAddress = elementAddress;
+        mAppKey = appKey;
+        mModelId = modelId;
+        mCompanyIdentifier = companyIdentifier;
+        mAcknowledged = acknowledged;
+        mQueue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        mTokensPerMs = (maxRate > 0 ? maxRate : getNetworkTransmitRate(node)) / 1000.0;
+    }
+
+    /**
+     * Returns the number of messages per second the node can transmit with its Network Transmit state.
+     */
+    static double getNetworkTransmitRate(final ProvisionedMeshNode node) {
+        int count = DEFAULT_TRANSMIT_COUNT;
+        int steps = DEFAULT_INTERVAL_STEPS;
+        final NetworkTransmitSettings settings = node == null ? null : node.getNetworkTransmitSettings();
+        if (settings != null) {
+            count = settings.getNetworkTransmitCount();
+            steps = settings.getNetworkIntervalSteps();
+        }
+        final int intervalMs = (steps + 1) * 10;
+        return 1000.0 / ((count + 1) * intervalMs);
+    }
+
+    public synchronized void start() {
+        if (mDrainTask != null) {
+            return;
+        }
+        mStartNanos = mLastRefillNanos = System.nanoTime();
+        mDrainTask = mExecutor.scheduleAtFixedRate(this::drain, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the stream, messages still waiting in the queue are discarded.
+     */
+    public synchronized void stop() {
+        mStopped = true;
+        if (mDrainTask != null) {
+            mDrainTask.cancel(false);
+            mDrainTask = null;
+        }
+        mExecutor.shutdown();
+        mQueue.clear();
+    }
+
+    /**
+     * Queues a message to be sent.
+     *
+     * @return false if the queue was full and the message was dropped
+     */
+    public boolean offer(final int opCode, @NonNull final byte[] parameters) {
+        mOffered.incrementAndGet();
+        if (!mQueue.offer(new PendingMessage(opCode, parameters))) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        final long now = System.nanoTime();
+        mTokens = Math.min(MAX_BURST, mTokens + (now - mLastRefillNanos) / 1000000.0 * mTokensPerMs);
+        mLastRefillNanos = now;
+
+        PendingMessage pending;
+        while ((pending = mQueue.peek()) != null) {
+            // Vendor opcodes are 3 octets long
+            final int cost = SegmentationStatistics.getSegmentCount(3 + pending.parameters.length);
+            if (mTokens < cost && mTokens < MAX_BURST) {
+                return;
+            }
+            mQueue.poll();
+            mTokens -= cost;
+            final PendingMessage message = pending;
+            mHandler.post(() -> send(message));
+        }
+    }
+
+    private void send(final PendingMessage pending) {
+        if (mStopped) {
+            return;
+        }
+        try {
+            final MeshMessage message = mAcknowledged
+                    ? new VendorModelMessageAcked(mAppKey, mModelId, mCompanyIdentifier, pending.opCode, pending.parameters)
+                    : new VendorModelMessageUnacked(mAppKey, mModelId, mCompanyIdentifier, pending.opCode, pending.parameters);
+            mMeshManagerApi.createMeshPdu(mElementAddress, message);
+            mSent.incrementAndGet();
+        } catch (Exception ex) {
+            mFailed.incrementAndGet();
+            Log.e(TAG, "Unable to send vendor message: " + ex.getMessage());
+        }
+    }
+
+    public int getOffered() {
+        return mOffered.get();
+    }
+
+    public int getSent() {
+        return mSent.get();
+    }
+
+    public int getDropped() {
+        return mDropped.get();
+    }
+
+    public int getFailed() {
+        return mFailed.get();
+    }
+
+    public int getQueued() {
+        return mQueue.size();
+    }
+
+    /**
+     * Returns the configured rate limit in messages per second.
+     */
+    public double getRateLimit() {
+        return mTokensPerMs * 1000.0;
+    }
+
+    /**
+     * Returns the average number of messages sent per second since the stream was started.
+     */
+    public double getSendRate() {
+        final long elapsed = System.nanoTime() - mStartNanos;
+        return mStartNanos == 0 || elapsed <= 0 ? 0 : mSent.get() * 1000000000.0 / elapsed;
+    }
+}
@@ -0,0 +1,216 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.transport.MeshMessage;
+
+/**
+ * Sends requests to a set of nodes with a bounded number of requests outstanding, one per node at most.
+ * <p>
+ * Nodes wait in order until a slot is free. A request that is not answered within the timeout is sent again,
+ * up to {@link #REQUEST_RETRIES} times, after which the node is given up. The client is told when no node is
+ * waiting nor outstanding any more.
+ * <p>
+ * The scheduler is not thread safe on its own: the client calls it while holding the lock it is given, and the
+ * window and the timeouts are run on the handler while holding that same lock.
+ */
+class WindowedRequestScheduler<T> {
+    private static final String TAG = WindowedRequestScheduler.class.getSimpleName();
+
+    static final long REQUEST_TIMEOUT_MS = 5000;
+    static final int REQUEST_RETRIES = 2;
+
+    interface Client<T> {
+        int getAddress(@NonNull T node);
+
+        /**
+         * Returns the request to send to the node.
+         *
+         * @param attempt 0 for the first transmission, then the number of the retry
+         */
+        MeshMessage createRequest(@NonNull T node, int attempt);
+
+        /**
+         * Called when the node did not answer the last retry, its slot is free again.
+         */
+        void onTimeout(@NonNull T node);
+
+        /**
+         * Called when no node is waiting nor outstanding any more.
+         */
+        void onIdle();
+    }
+
+    private class Outstanding {
+        final T node;
+        final Runnable timeout = () -> onRequestTimeout(this);
+        int attempt;
+
+        Outstanding(final T node) {
+            this.node = node;
+        }
+    }
+
+    private final MeshManagerApi mMeshManagerApi;
+    private final Handler mHandler;
+    private final Object mLock;
+    private final int mWindow;
+    private final Client<T> mClient;
+    private final Deque<T> mWaiting = new ArrayDeque<>();
+    private final Map<Integer, Outstanding> mInFlight = new LinkedHashMap<>();
+    private boolean mActive;
+    private int mSent;
+
+    /**
+     * @param meshManagerApi mesh manager api used to send the requests
+     * @param handler        handler the requests are sent and the timeouts are run on
+     * @param lock           lock the client holds while calling the scheduler
+     * @param window         maximum number of outstanding requests
+     * @param client         client creating the requests and notified of the timeouts
+     */
+    WindowedRequestScheduler(@NonNull final MeshManagerApi meshManagerApi, @NonNull final Handler handler, @NonNull final Object lock,
+                             final int window, @NonNull final Client<T> client) {
+        mMeshManagerApi = meshManagerApi;
+        mHandler = handler;
+        mLock = lock;
+        mWindow = Math.max(1, window);
+        mClient = client;
+    }
+
+    int getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * Returns the number of requests sent so far, retries included.
+     */
+    int getSentCount() {
+        return mSent;
+    }
+
+    void add(@NonNull final T node) {
+        mWaiting.add(node);
+    }
+
+    /**
+     * Adds a node ahead of the waiting ones, to send it its next request as soon as a slot is free.
+     */
+    void addFirst(@NonNull final T node) {
+        mWaiting.addFirst(node);
+    }
+
+    void clearWaiting() {
+        mWaiting.clear();
+    }
+
+    int getWaitingCount() {
+        return mWaiting.size();
+    }
+
+    /**
+     * Returns the node with a request outstanding at the given address, or null.
+     */
+    T getOutstanding(final int address) {
+        final Outstanding outstanding = mInFlight.get(address);
+        return outstanding == null ? null : outstanding.node;
+    }
+
+    /**
+     * Notifies that the outstanding request of a node was answered, its slot is free again.
+     *
+     * @return the node, or null if no request was outstanding at the address
+     */
+    T onAnswered(final int address) {
+        final Outstanding outstanding = mInFlight.remove(address);
+        if (outstanding == null) {
+            return null;
+        }
+        mHandler.removeCallbacks(outstanding.timeout);
+        return outstanding.node;
+    }
+
+    /**
+     * Starts accepting requests, the counters are reset. Nothing is sent until {@link #schedule()} is called.
+     */
+    void start() {
+        mActive = true;
+        mSent = 0;
+    }
+
+    /**
+     * Fills the free slots once the current callbacks have returned.
+     */
+    void schedule() {
+        mHandler.post(this::fillWindow);
+    }
+
+    /**
+     * Stops sending requests, waiting and outstanding nodes are forgotten.
+     */
+    void cancel() {
+        mActive = false;
+        for (Outstanding outstanding : mInFlight.values()) {
+            mHandler.removeCallbacks(outstanding.timeout);
+        }
+        mInFlight.clear();
+        mWaiting.clear();
+    }
+
+    private void fillWindow() {
+        synchronized (mLock) {
+            if (!mActive) {
+                return;
+            }
+            while (mInFlight.size() < mWindow && !mWaiting.isEmpty()) {
+                send(new Outstanding(mWaiting.poll()));
+            }
+            if (mInFlight.isEmpty() && mWaiting.isEmpty()) {
+                mClient.onIdle();
+            }
+        }
+    }
+
+    private void send(final Outstanding outstanding) {
+        final int address = mClient.getAddress(outstanding.node);
+        final MeshMessage request = mClient.createRequest(outstanding.node, outstanding.attempt);
+        if (request == null) {
+            return;
+        }
+        mInFlight.put(address, outstanding);
+        mSent++;
+        try {
+            mMeshManagerApi.createMeshPdu(address, request);
+        } catch (Exception ex) {
+            Log.e(TAG, "Unable to send " + request.getClass().getSimpleName() + " to " + address + ": " + ex.getMessage());
+        }
+        mHandler.postDelayed(outstanding.timeout, REQUEST_TIMEOUT_MS);
+    }
+
+    private void onRequestTimeout(final Outstanding outstanding) {
+        synchronized (mLock) {
+            final int address = mClient.getAddress(outstanding.node);
+            if (!mActive || mInFlight.get(address) != outstanding) {
+                return;
+            }
+            if (outstanding.attempt < REQUEST_RETRIES) {
+                outstanding.attempt++;
+                Log.w(TAG, "No response from " + address + ", retry " + outstanding.attempt);
+                send(outstanding);
+            }
+            else {
+                mInFlight.remove(address);
+                mClient.onTimeout(outstanding.node);
+                fillWindow();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.ti.simplelinkconnect.util;
+
+/**
+ * Hex conversion helpers shared by the mesh and DFU modules.
+ * <p>
+ * This class only depends on the JDK, the benchmarks in src/benchmark measure it without the Android framework.
+ */
+public final class HexUtils {
+
+    private static final char[] HEX_LOWER = "0123456789abcdef".toCharArray();
+    private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+
+    private HexUtils() {
+    }
+
+    /**
+     * Converts a byte array to a hex string, two characters per byte.
+     *
+     * @param bytes     bytes to convert
+     * @param upperCase true to use upper case digits
+     */
+    public static String toHexString(final byte[] bytes, final boolean upperCase) {
+        final char[] digits = upperCase ? HEX_UPPER : HEX_LOWER;
+        final char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            final int value = bytes[i] & 0xFF;
+            out[j++] = digits[value >>> 4];
+            out[j++] = digits[value & 0x0F];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Formats an integer as upper case hex, left padded with zeros to the given number of digits.
+     * Produces the same output as {@code String.format("%0<minDigits>X", value)}.
+     */
+    public static String toHexString(final int value, final int minDigits) {
+        final char[] out = new char[8];
+        int pos = out.length;
+        int remaining = value;
+        do {
+            out[--pos] = HEX_UPPER[remaining & 0x0F];
+            remaining >>>= 4;
+        } while (remaining != 0);
+        while (out.length - pos < minDigits && pos > 0) {
+            out[--pos] = '0';
+        }
+        return new String(out, pos, out.length - pos);
+    }
+
+    /**
+     * Converts a hex string to a byte array.
+     *
+     * @throws IllegalArgumentException if the string is null, has an odd length or contains a non hex character
+     */
+    public static byte[] toByteArray(final String hex) {
+        if (hex == null) {
+            throw new IllegalArgumentException("Hex string cannot be null");
+        }
+        final int len = hex.length();
+        if (len % 2 != 0) {
+            throw new IllegalArgumentException("Hex string must have even length");
+        }
+
+        final byte[] data = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            final int hi = Character.digit(hex.charAt(i), 16);
+            final int lo = Character.digit(hex.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Invalid hex character in string");
+            }
+            data[i / 2] = (byte) ((hi << 4) + lo);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,402 @@
+package com.ti.simplelinkconnect.dfu;
+
+import android.os.Looper;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.managers.DefaultManager;
+import io.runtime.mcumgr.managers.ImageManager;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs the queue against fake managers recording each request, the test answering them in the order it chooses
+ * and advancing the main looper clock for the settle time and timeouts.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class ImageOperationQueueTest {
+    private static final String DEVICE = "00:11:22:33:44:55";
+    private static final String OTHER_DEVICE = "66:77:88:99:AA:BB";
+    private static final byte[] HASH = {0x01, 0x02, 0x03, 0x04};
+
+    // The fake managers answer nothing through the transport, reaching it is a test failure
+    private static final McuMgrTransport TRANSPORT = (McuMgrTransport) Proxy.newProxyInstance(
+            McuMgrTransport.class.getClassLoader(), new Class<?>[]{McuMgrTransport.class}, (proxy, method, args) -> {
+                if (method.getName().equals("send")) {
+                    throw new UnsupportedOperationException("Request sent through the transport");
+                }
+                return null;
+            });
+
+    /**
+     * A request received by a fake manager, waiting for the test to answer it.
+     */
+    private static class Request {
+        final String address;
+        final ImageOperationQueue.Type type;
+        final byte[] hash;
+        final int image;
+        final McuMgrCallback<?> callback;
+
+        Request(final String address, final ImageOperationQueue.Type type, final byte[] hash, final int image,
+                final McuMgrCallback<?> callback) {
+            this.address = address;
+            this.type = type;
+            this.hash = hash;
+            this.image = image;
+            this.callback = callback;
+        }
+
+        @SuppressWarnings("unchecked")
+        void respond(final McuMgrResponse response) {
+            ((McuMgrCallback<McuMgrResponse>) callback).onResponse(response);
+        }
+
+        void respond() {
+            respond(type == ImageOperationQueue.Type.RESET ? new McuMgrResponse()
+                    : type == ImageOperationQueue.Type.ERASE ? new McuMgrImageResponse() : new McuMgrImageStateResponse());
+        }
+
+        void fail(final String message) {
+            callback.onError(new McuMgrException(message));
+        }
+    }
+
+    private class FakeImageManager extends ImageManager {
+        private final String mAddress;
+
+        FakeImageManager(final String address) {
+            super(TRANSPORT);
+            mAddress = address;
+        }
+
+        @Override
+        public void list(@NotNull final McuMgrCallback<McuMgrImageStateResponse> callback) {
+            mRequests.add(new Request(mAddress, ImageOperationQueue.Type.LIST, null, 0, callback));
+        }
+
+        @Override
+        public void test(@NotNull final byte[] hash, @NotNull final McuMgrCallback<McuMgrImageStateResponse> callback) {
+            mRequests.add(new Request(mAddress, ImageOperationQueue.Type.TEST, hash, 0, callback));
+        }
+
+        @Override
+        public void confirm(final byte[] hash, @NotNull final McuMgrCallback<McuMgrImageStateResponse> callback) {
+            mRequests.add(new Request(mAddress, ImageOperationQueue.Type.CONFIRM, hash, 0, callback));
+        }
+
+        @Override
+        public void erase(final int image, @NotNull final McuMgrCallback<McuMgrImageResponse> callback) {
+            mRequests.add(new Request(mAddress, ImageOperationQueue.Type.ERASE, null, image, callback));
+        }
+    }
+
+    private class FakeDefaultManager extends DefaultManager {
+        private final String mAddress;
+
+        FakeDefaultManager(final String address) {
+            super(TRANSPORT);
+            mAddress = address;
+        }
+
+        @Override
+        public void reset(@NotNull final McuMgrCallback<McuMgrResponse> callback) {
+            mRequests.add(new Request(mAddress, ImageOperationQueue.Type.RESET, null, 0, callback));
+        }
+    }
+
+    private final List<Request> mRequests = new ArrayList<>();
+    private final List<ImageOperationQueue.Operation> mDone = new ArrayList<>();
+    private ImageOperationQueue mQueue;
+    private FakeImageManager mImageManager;
+    private FakeDefaultManager mDefaultManager;
+
+    @Before
+    public void setUp() {
+        mQueue = new ImageOperationQueue();
+        mImageManager = new FakeImageManager(DEVICE);
+        mDefaultManager = new FakeDefaultManager(DEVICE);
+    }
+
+    private ImageOperationQueue.Operation enqueue(final ImageOperationQueue.Type type) {
+        return enqueue(type, null);
+    }
+
+    private ImageOperationQueue.Operation enqueue(final ImageOperationQueue.Type type, final Object group) {
+        final byte[] hash = type == ImageOperationQueue.Type.TEST || type == ImageOperationQueue.Type.CONFIRM ? HASH : null;
+        return mQueue.enqueue(DEVICE, mImageManager, mDefaultManager, type, hash, 1, group, mDone::add);
+    }
+
+    private static void advance(final long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ms));
+    }
+
+    private void assertRequests(final ImageOperationQueue.Type... types) {
+        assertEquals(types.length, mRequests.size());
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(types[i], mRequests.get(i).type);
+        }
+    }
+
+    @Test
+    public void pipelinesReadsUpToTheLimit() {
+        final List<ImageOperationQueue.Operation> operations = new ArrayList<>();
+        for (int i = 0; i < ImageOperationQueue.MAX_IN_FLIGHT + 2; i++) {
+            operations.add(enqueue(ImageOperationQueue.Type.LIST));
+        }
+
+        assertEquals(ImageOperationQueue.MAX_IN_FLIGHT, mRequests.size());
+        assertEquals(ImageOperationQueue.Status.SENT, operations.get(ImageOperationQueue.MAX_IN_FLIGHT - 1).getStatus());
+        assertEquals(ImageOperationQueue.Status.PENDING, operations.get(ImageOperationQueue.MAX_IN_FLIGHT).getStatus());
+        assertEquals(ImageOperationQueue.MAX_IN_FLIGHT + 2, mQueue.getPendingCount(DEVICE));
+
+        mRequests.get(0).respond();
+
+        // The answered read makes room for the next one
+        assertEquals(ImageOperationQueue.MAX_IN_FLIGHT + 1, mRequests.size());
+        assertEquals(ImageOperationQueue.Status.SENT, operations.get(ImageOperationQueue.MAX_IN_FLIGHT).getStatus());
+        assertEquals(ImageOperationQueue.MAX_IN_FLIGHT + 1, mQueue.getPendingCount(DEVICE));
+    }
+
+    @Test
+    public void sendsWriteAloneAfterTheReadsBeforeIt() {
+        enqueue(ImageOperationQueue.Type.LIST);
+        enqueue(ImageOperationQueue.Type.LIST);
+        final ImageOperationQueue.Operation test = enqueue(ImageOperationQueue.Type.TEST);
+        enqueue(ImageOperationQueue.Type.LIST);
+
+        // The test waits for both reads and holds back the read queued after it
+        assertRequests(ImageOperationQueue.Type.LIST, ImageOperationQueue.Type.LIST);
+        mRequests.get(0).respond();
+        assertRequests(ImageOperationQueue.Type.LIST, ImageOperationQueue.Type.LIST);
+        assertEquals(ImageOperationQueue.Status.PENDING, test.getStatus());
+
+        mRequests.get(1).respond();
+        assertRequests(ImageOperationQueue.Type.LIST, ImageOperationQueue.Type.LIST, ImageOperationQueue.Type.TEST);
+        assertArrayEquals(HASH, mRequests.get(2).hash);
+
+        mRequests.get(2).respond();
+        assertRequests(ImageOperationQueue.Type.LIST, ImageOperationQueue.Type.LIST, ImageOperationQueue.Type.TEST,
+                ImageOperationQueue.Type.LIST);
+        assertEquals(ImageOperationQueue.Status.SUCCEEDED, test.getStatus());
+    }
+
+    @Test
+    public void sendsConsecutiveWritesOneAtATime() {
+        enqueue(ImageOperationQueue.Type.ERASE);
+        enqueue(ImageOperationQueue.Type.CONFIRM);
+
+        assertRequests(ImageOperationQueue.Type.ERASE);
+        assertEquals(1, mRequests.get(0).image);
+
+        mRequests.get(0).fail("Erase failed");
+
+        // A failed write still releases the queue
+        assertRequests(ImageOperationQueue.Type.ERASE, ImageOperationQueue.Type.CONFIRM);
+    }
+
+    @Test
+    public void waitsForTheDeviceToRestartAfterReset() {
+        final ImageOperationQueue.Operation reset = enqueue(ImageOperationQueue.Type.RESET);
+        final ImageOperationQueue.Operation list = enqueue(ImageOperationQueue.Type.LIST);
+        mRequests.get(0).respond();
+
+        assertEquals(ImageOperationQueue.Status.SUCCEEDED, reset.getStatus());
+        assertRequests(ImageOperationQueue.Type.RESET);
+
+        advance(ImageOperationQueue.RESET_SETTLE_MS - 1);
+        assertEquals(ImageOperationQueue.Status.PENDING, list.getStatus());
+
+        advance(1);
+        assertRequests(ImageOperationQueue.Type.RESET, ImageOperationQueue.Type.LIST);
+        assertEquals(ImageOperationQueue.Status.SENT, list.getStatus());
+    }
+
+    @Test
+    public void holdsOperationsQueuedDuringTheSettleTime() {
+        enqueue(ImageOperationQueue.Type.RESET);
+        mRequests.get(0).respond();
+        advance(ImageOperationQueue.RESET_SETTLE_MS / 2);
+
+        enqueue(ImageOperationQueue.Type.LIST);
+        assertRequests(ImageOperationQueue.Type.RESET);
+
+        advance(ImageOperationQueue.RESET_SETTLE_MS / 2);
+        assertRequests(ImageOperationQueue.Type.RESET, ImageOperationQueue.Type.LIST);
+    }
+
+    @Test
+    public void doesNotWaitAfterAFailedReset() {
+        enqueue(ImageOperationQueue.Type.RESET);
+        enqueue(ImageOperationQueue.Type.LIST);
+
+        mRequests.get(0).fail("Not supported");
+
+        assertRequests(ImageOperationQueue.Type.RESET, ImageOperationQueue.Type.LIST);
+    }
+
+    @Test
+    public void timesOutAndIgnoresTheLateResponse() {
+        final ImageOperationQueue.Operation test = enqueue(ImageOperationQueue.Type.TEST);
+        enqueue(ImageOperationQueue.Type.LIST);
+
+        advance(ImageOperationQueue.OPERATION_TIMEOUT_MS - 1);
+        assertEquals(ImageOperationQueue.Status.SENT, test.getStatus());
+
+        advance(1);
+        assertEquals(ImageOperationQueue.Status.FAILED, test.getStatus());
+        assertEquals("Timed out", test.getError());
+        assertEquals(ImageOperationQueue.OPERATION_TIMEOUT_MS, test.getDurationMs());
+        // The queue goes on with the next operation
+        assertRequests(ImageOperationQueue.Type.TEST, ImageOperationQueue.Type.LIST);
+
+        mRequests.get(0).respond();
+
+        assertEquals(1, mDone.size());
+        assertSame(test, mDone.get(0));
+        assertEquals(ImageOperationQueue.Status.FAILED, test.getStatus());
+        assertNull(test.getResponse());
+        // The late response does not release the read sent after the timeout
+        assertEquals(1, mQueue.getPendingCount(DEVICE));
+    }
+
+    @Test
+    public void responseCancelsTheTimeout() {
+        final ImageOperationQueue.Operation list = enqueue(ImageOperationQueue.Type.LIST);
+        mRequests.get(0).respond();
+
+        advance(ImageOperationQueue.OPERATION_TIMEOUT_MS);
+
+        assertEquals(ImageOperationQueue.Status.SUCCEEDED, list.getStatus());
+        assertEquals(1, mDone.size());
+    }
+
+    @Test
+    public void skipsOnlyTheUnsentOperationsOfTheGroup() {
+        final Object upgrade = new Object();
+        final ImageOperationQueue.Operation test = enqueue(ImageOperationQueue.Type.TEST, upgrade);
+        final ImageOperationQueue.Operation confirm = enqueue(ImageOperationQueue.Type.CONFIRM, upgrade);
+        final ImageOperationQueue.Operation list = enqueue(ImageOperationQueue.Type.LIST);
+        final ImageOperationQueue.Operation reset = enqueue(ImageOperationQueue.Type.RESET, upgrade);
+
+        mQueue.skipPending(DEVICE, upgrade);
+
+        assertEquals(ImageOperationQueue.Status.SENT, test.getStatus());
+        assertEquals(ImageOperationQueue.Status.SKIPPED, confirm.getStatus());
+        assertEquals(ImageOperationQueue.Status.PENDING, list.getStatus());
+        assertEquals(ImageOperationQueue.Status.SKIPPED, reset.getStatus());
+        assertEquals(2, mDone.size());
+        assertSame(confirm, mDone.get(0));
+        assertSame(reset, mDone.get(1));
+        assertEquals(2, mQueue.getPendingCount(DEVICE));
+
+        mRequests.get(0).respond();
+
+        assertRequests(ImageOperationQueue.Type.TEST, ImageOperationQueue.Type.LIST);
+        assertEquals(ImageOperationQueue.Status.SUCCEEDED, test.getStatus());
+    }
+
+    @Test
+    public void completesEachOperationWithItsOwnResponse() {
+        final List<ImageOperationQueue.Operation> operations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            operations.add(enqueue(ImageOperationQueue.Type.LIST));
+            advance(10);
+        }
+        final List<McuMgrResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(new McuMgrImageStateResponse());
+        }
+
+        // The device answers out of order
+        mRequests.get(2).respond(responses.get(2));
+        mRequests.get(0).respond(responses.get(0));
+        mRequests.get(1).respond(responses.get(1));
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(responses.get(i), operations.get(i).getResponse());
+            assertEquals(ImageOperationQueue.Status.SUCCEEDED, operations.get(i).getStatus());
+        }
+        assertSame(operations.get(2), mDone.get(0));
+        assertSame(operations.get(0), mDone.get(1));
+        assertSame(operations.get(1), mDone.get(2));
+        assertEquals(10, operations.get(2).getDurationMs());
+        assertEquals(30, operations.get(0).getDurationMs());
+        assertEquals(0, mQueue.getPendingCount(DEVICE));
+    }
+
+    @Test
+    public void sendsInTheOrderQueued() {
+        final ImageOperationQueue.Operation first = enqueue(ImageOperationQueue.Type.LIST);
+        final ImageOperationQueue.Operation second = enqueue(ImageOperationQueue.Type.CONFIRM);
+        final ImageOperationQueue.Operation third = enqueue(ImageOperationQueue.Type.RESET);
+
+        mRequests.get(0).respond();
+        mRequests.get(1).respond();
+
+        assertRequests(ImageOperationQueue.Type.LIST, ImageOperationQueue.Type.CONFIRM, ImageOperationQueue.Type.RESET);
+        assertEquals(first.getId() + 1, second.getId());
+        assertEquals(second.getId() + 1, third.getId());
+    }
+
+    @Test
+    public void reportsTheErrorOfTheDevice() {
+        final ImageOperationQueue.Operation confirm = enqueue(ImageOperationQueue.Type.CONFIRM);
+
+        mRequests.get(0).fail("Bad state");
+
+        assertEquals(ImageOperationQueue.Status.FAILED, confirm.getStatus());
+        assertEquals("Bad state", confirm.getError());
+        assertNull(confirm.getResponse());
+        assertSame(confirm, mDone.get(0));
+    }
+
+    @Test
+    public void keepsDevicesIndependent() {
+        enqueue(ImageOperationQueue.Type.TEST);
+        enqueue(ImageOperationQueue.Type.LIST);
+
+        // The write in flight on the first device does not hold back the other one
+        mQueue.enqueue(OTHER_DEVICE, new FakeImageManager(OTHER_DEVICE), new FakeDefaultManager(OTHER_DEVICE),
+                ImageOperationQueue.Type.LIST, null, 0, null, mDone::add);
+
+        assertEquals(2, mRequests.size());
+        assertEquals(DEVICE, mRequests.get(0).address);
+        assertEquals(OTHER_DEVICE, mRequests.get(1).address);
+        assertEquals(2, mQueue.getPendingCount(DEVICE));
+        assertEquals(1, mQueue.getPendingCount(OTHER_DEVICE));
+    }
+
+    @Test
+    public void rejectsTestWithoutHash() {
+        try {
+            mQueue.enqueue(DEVICE, mImageManager, mDefaultManager, ImageOperationQueue.Type.TEST, null, 0, null, null);
+            fail("Queued a test without a hash");
+        } catch (IllegalArgumentException expected) {
+            // The device could not tell which image to test
+        }
+        assertEquals(0, mRequests.size());
+    }
+}
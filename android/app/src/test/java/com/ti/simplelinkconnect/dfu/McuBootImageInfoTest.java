@@ -0,0 +1,287 @@
+package com.ti.simplelinkconnect.dfu;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class McuBootImageInfoTest {
+    private static final int HEADER_SIZE = 0x200;
+    private static final int LOAD_ADDRESS = 0x00010000;
+    private static final byte[] KEY_HASH = new byte[32];
+
+    static {
+        Arrays.fill(KEY_HASH, (byte) 0xA5);
+    }
+
+    /**
+     * Builds MCUboot images: header, code, protected TLVs and unprotected TLVs, with a hash TLV over the first three.
+     */
+    private static class ImageBuilder {
+        int headerSize = HEADER_SIZE;
+        int buildNumber = 42;
+        byte[] code = new byte[1000];
+        byte[] protectedTlvs;
+        boolean hashTlv = true;
+        boolean keyHashTlv;
+
+        ImageBuilder() {
+            for (int i = 0; i < code.length; i++) {
+                code[i] = (byte) i;
+            }
+        }
+
+        byte[] header() {
+            final ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(McuBootImageInfo.IMAGE_MAGIC);
+            header.putInt(LOAD_ADDRESS);
+            header.putShort((short) headerSize);
+            header.putShort((short) (protectedTlvs == null ? 0 : protectedTlvs.length));
+            header.putInt(code.length);
+            header.putInt(0);
+            header.put((byte) 1).put((byte) 2).putShort((short) 3);
+            header.putInt(buildNumber);
+            return header.array();
+        }
+
+        byte[] protectedPart() throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(header());
+            out.write(code);
+            if (protectedTlvs != null) {
+                out.write(protectedTlvs);
+            }
+            return out.toByteArray();
+        }
+
+        byte[] build() throws Exception {
+            final byte[] protectedPart = protectedPart();
+            final ByteArrayOutputStream tlvs = new ByteArrayOutputStream();
+            if (keyHashTlv) {
+                tlvs.write(tlv(McuBootImageInfo.TLV_KEYHASH, KEY_HASH));
+            }
+            if (hashTlv) {
+                tlvs.write(tlv(McuBootImageInfo.TLV_SHA256, sha256(protectedPart)));
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(protectedPart);
+            out.write(tlvInfo(McuBootImageInfo.TLV_INFO_MAGIC, McuBootImageInfo.TLV_INFO_LENGTH + tlvs.size()));
+            out.write(tlvs.toByteArray());
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] tlvInfo(final int magic, final int totalLength) {
+        return ByteBuffer.allocate(McuBootImageInfo.TLV_INFO_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+                .putShort((short) magic).putShort((short) totalLength).array();
+    }
+
+    private static byte[] tlv(final int type, final byte[] value) {
+        return ByteBuffer.allocate(McuBootImageInfo.TLV_ENTRY_HEADER_LENGTH + value.length).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) type).put((byte) 0).putShort((short) value.length).put(value).array();
+    }
+
+    /**
+     * Protected TLV area holding a single TLV of type 0x50 with four bytes of data.
+     */
+    private static byte[] protectedTlvArea() throws IOException {
+        final byte[] entry = tlv(0x50, new byte[]{1, 2, 3, 4});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tlvInfo(McuBootImageInfo.TLV_PROT_INFO_MAGIC, McuBootImageInfo.TLV_INFO_LENGTH + entry.length));
+        out.write(entry);
+        return out.toByteArray();
+    }
+
+    private static byte[] sha256(final byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static McuBootImageInfo parse(final byte[] image) throws IOException {
+        return McuBootImageInfo.parse(FirmwareImageSource.wrap(image));
+    }
+
+    private static void assertRejected(final byte[] image) {
+        try {
+            parse(image);
+            fail("Parsed a malformed image");
+        } catch (IOException expected) {
+            // Malformed images are reported as not being MCUboot images
+        }
+    }
+
+    @Test
+    public void parsesHeaderAndHash() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        final byte[] image = builder.build();
+
+        final McuBootImageInfo info = parse(image);
+
+        assertEquals("1.2.3.42", info.getVersion());
+        assertEquals(LOAD_ADDRESS, info.getLoadAddress());
+        assertEquals(HEADER_SIZE, info.getHeaderSize());
+        assertEquals(builder.code.length, info.getImageSize());
+        assertEquals("SHA-256", info.getHashAlgorithm());
+        assertArrayEquals(sha256(builder.protectedPart()), info.getHash());
+        assertNull(info.getKeyHash());
+        assertEquals(image.length, info.getTotalSize());
+        assertTrue(info.verify(FirmwareImageSource.wrap(image)));
+    }
+
+    @Test
+    public void omitsBuildNumberZeroFromVersion() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        builder.buildNumber = 0;
+
+        assertEquals("1.2.3", parse(builder.build()).getVersion());
+    }
+
+    @Test
+    public void readsKeyHashOfSignedImage() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        builder.keyHashTlv = true;
+
+        assertArrayEquals(KEY_HASH, parse(builder.build()).getKeyHash());
+    }
+
+    @Test
+    public void coversProtectedTlvsWithHash() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        builder.protectedTlvs = protectedTlvArea();
+        final byte[] image = builder.build();
+
+        final McuBootImageInfo info = parse(image);
+
+        assertArrayEquals(sha256(builder.protectedPart()), info.getHash());
+        assertTrue(info.verify(FirmwareImageSource.wrap(image)));
+        assertEquals(image.length, info.getTotalSize());
+    }
+
+    @Test
+    public void ignoresPaddingAfterTlvs() throws Exception {
+        final byte[] image = new ImageBuilder().build();
+        final byte[] padded = Arrays.copyOf(image, image.length + 64);
+
+        assertEquals(image.length, parse(padded).getTotalSize());
+    }
+
+    @Test
+    public void failsVerificationOfModifiedCode() throws Exception {
+        final byte[] image = new ImageBuilder().build();
+        image[HEADER_SIZE + 10] ^= 0x01;
+
+        assertFalse(parse(image).verify(FirmwareImageSource.wrap(image)));
+    }
+
+    @Test
+    public void rejectsImageShorterThanHeader() {
+        assertRejected(new byte[McuBootImageInfo.HEADER_LENGTH - 1]);
+    }
+
+    @Test
+    public void rejectsWrongMagic() throws Exception {
+        final byte[] image = new ImageBuilder().build();
+        image[0] = 0x00;
+
+        assertRejected(image);
+    }
+
+    @Test
+    public void rejectsHeaderSizeSmallerThanHeader() throws Exception {
+        final byte[] image = new ImageBuilder().build();
+        // Header size field
+        image[8] = 0x10;
+        image[9] = 0x00;
+
+        assertRejected(image);
+    }
+
+    @Test
+    public void rejectsCodeBeyondEndOfFile() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        final byte[] image = builder.build();
+
+        assertRejected(Arrays.copyOf(image, HEADER_SIZE + builder.code.length - 1));
+    }
+
+    @Test
+    public void rejectsMissingTlvInfo() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        final byte[] image = builder.build();
+
+        assertRejected(Arrays.copyOf(image, HEADER_SIZE + builder.code.length + 2));
+    }
+
+    @Test
+    public void rejectsWrongTlvInfoMagic() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        final byte[] image = builder.build();
+        image[HEADER_SIZE + builder.code.length] = 0x00;
+
+        assertRejected(image);
+    }
+
+    @Test
+    public void rejectsTruncatedTlvArea() throws Exception {
+        final byte[] image = new ImageBuilder().build();
+
+        // The TLV info announces more than the file holds
+        assertRejected(Arrays.copyOf(image, image.length - 1));
+    }
+
+    @Test
+    public void rejectsTlvBeyondEndOfTlvArea() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        final byte[] image = builder.build();
+        final int tlvOffset = HEADER_SIZE + builder.code.length + McuBootImageInfo.TLV_INFO_LENGTH;
+        // Length of the hash TLV, one byte more than the area holds
+        image[tlvOffset + 2] = 33;
+
+        assertRejected(image);
+    }
+
+    @Test
+    public void rejectsImageWithoutHash() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        builder.hashTlv = false;
+        builder.keyHashTlv = true;
+
+        assertRejected(builder.build());
+    }
+
+    @Test
+    public void rejectsProtectedTlvSizeNotMatchingHeader() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        builder.protectedTlvs = protectedTlvArea();
+        final byte[] image = builder.build();
+        // Protected TLV size in the header, one byte short of the area
+        image[10] = (byte) (builder.protectedTlvs.length - 1);
+
+        assertRejected(image);
+    }
+
+    @Test
+    public void rejectsMissingProtectedTlvs() throws Exception {
+        final ImageBuilder builder = new ImageBuilder();
+        builder.protectedTlvs = protectedTlvArea();
+        final byte[] image = builder.build();
+
+        // Cut before the protected TLV info is complete
+        assertRejected(Arrays.copyOf(image, HEADER_SIZE + builder.code.length + 2));
+    }
+}
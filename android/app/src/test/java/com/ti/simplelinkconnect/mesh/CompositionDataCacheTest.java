@@ -0,0 +1,95 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.ti.simplelinkconnect.util.HexUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class CompositionDataCacheTest {
+    // Page 0 of CID 0x000D, PID 0x0001, VID 0x0001, CRPL 0x0020, proxy feature, one element with three SIG models
+    private static final byte[] COMPOSITION = HexUtils.toByteArray("000D00010001002000020000000300000002000010");
+
+    private Context mContext;
+    private CompositionDataCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mCache = new CompositionDataCache(mContext);
+        mCache.clear();
+    }
+
+    private static byte[] withHeader(final int offset, final int value) {
+        final byte[] parameters = COMPOSITION.clone();
+        parameters[offset] = (byte) value;
+        return parameters;
+    }
+
+    @Test
+    public void keysOnIdentifiersReplayProtectionListAndFeatures() {
+        assertEquals("000D:0001:0001:0020:0002", CompositionDataCache.getKey(COMPOSITION));
+        assertEquals(CompositionDataCache.getKey(0x000D, 0x0001, 0x0001, 0x0020, 0x0002), CompositionDataCache.getKey(COMPOSITION));
+        assertNull(CompositionDataCache.getKey(new byte[7]));
+    }
+
+    @Test
+    public void countsHitsMissesAndMismatches() {
+        assertFalse(mCache.onCompositionReceived(COMPOSITION, "SimpleLink Mesh"));
+        assertTrue(mCache.onCompositionReceived(COMPOSITION, "SimpleLink Mesh"));
+        // Same key, another element layout
+        final byte[] changed = COMPOSITION.clone();
+        changed[changed.length - 1] = 0x11;
+        assertFalse(mCache.onCompositionReceived(changed, null));
+
+        assertEquals(1, mCache.getMisses());
+        assertEquals(1, mCache.getHits());
+        assertEquals(1, mCache.getMismatches());
+    }
+
+    @Test
+    public void keepsProductsApartByReplayProtectionListAndFeatures() {
+        mCache.onCompositionReceived(COMPOSITION, null);
+        // Same product with a smaller replay protection list, then with the relay feature
+        assertFalse(mCache.onCompositionReceived(withHeader(7, 0x10), null));
+        assertFalse(mCache.onCompositionReceived(withHeader(9, 0x03), null));
+
+        assertEquals(3, mCache.size());
+        assertEquals(3, mCache.getMisses());
+        assertEquals(0, mCache.getMismatches());
+    }
+
+    @Test
+    public void predictsFromTheAdvertisedNameAndPersists() {
+        mCache.onCompositionReceived(COMPOSITION, "SimpleLink Mesh");
+
+        final CompositionDataCache reloaded = new CompositionDataCache(mContext);
+        assertArrayEquals(COMPOSITION, reloaded.predict("SimpleLink Mesh"));
+        assertNull(reloaded.predict("Other product"));
+        assertEquals(1, reloaded.getPredictions());
+    }
+
+    @Test
+    public void dropsEntriesOfTheOlderKeyFormat() {
+        mContext.getSharedPreferences("composition_data_cache", Context.MODE_PRIVATE).edit()
+                .putString("composition:000D:0001:0001", HexUtils.toHexString(COMPOSITION, false))
+                .apply();
+
+        final CompositionDataCache reloaded = new CompositionDataCache(mContext);
+        assertEquals(0, reloaded.size());
+    }
+}
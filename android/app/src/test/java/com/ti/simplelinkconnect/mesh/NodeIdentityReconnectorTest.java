@@ -0,0 +1,81 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.ti.simplelinkconnect.util.HexUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+
+import no.nordicsemi.android.mesh.NetworkKey;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Matches Node Identity advertisements against the Mesh Profile sample data for the service data using Node
+ * Identity: NetKey 7dd7364cd842ad18c17c2b820c84c3d6, address 0x1201, random 34ae608fbbc1f2c6 and hash
+ * 00861765aefcc57b.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class NodeIdentityReconnectorTest {
+    private static final byte[] NETWORK_KEY = HexUtils.toByteArray("7dd7364cd842ad18c17c2b820c84c3d6");
+    private static final byte[] SERVICE_DATA = HexUtils.toByteArray("01" + "00861765aefcc57b" + "34ae608fbbc1f2c6");
+    private static final int ADDRESS = 0x1201;
+
+    private NodeIdentityReconnector mReconnector;
+
+    @Before
+    public void setUp() {
+        mReconnector = new NodeIdentityReconnector(new Handler(Looper.getMainLooper()), new NodeIdentityReconnector.Listener() {
+            @Override
+            public void onNodeFound(@NonNull final ScanResult result, final long elapsedMs) {
+            }
+
+            @Override
+            public void onTimeout(final long timeoutMs) {
+            }
+        });
+    }
+
+    @Test
+    public void matchesTheSampleNodeIdentity() {
+        assertTrue(mReconnector.setTarget(Collections.singletonList(new NetworkKey(0, NETWORK_KEY)), ADDRESS));
+
+        assertTrue(mReconnector.matches(SERVICE_DATA));
+    }
+
+    @Test
+    public void doesNotMatchAnotherNode() {
+        mReconnector.setTarget(Collections.singletonList(new NetworkKey(0, NETWORK_KEY)), ADDRESS + 1);
+
+        assertFalse(mReconnector.matches(SERVICE_DATA));
+    }
+
+    @Test
+    public void doesNotMatchAnotherNetwork() {
+        mReconnector.setTarget(Collections.singletonList(new NetworkKey(0, HexUtils.toByteArray("f7a2a44f8e8a8029064f173ddc1e2b00"))), ADDRESS);
+
+        assertFalse(mReconnector.matches(SERVICE_DATA));
+    }
+
+    @Test
+    public void ignoresNetworkIdAndTruncatedAdvertisements() {
+        mReconnector.setTarget(Collections.singletonList(new NetworkKey(0, NETWORK_KEY)), ADDRESS);
+
+        // Network ID advertisement of the sample network
+        assertFalse(mReconnector.matches(HexUtils.toByteArray("003ecaff672f673370")));
+        assertFalse(mReconnector.matches(HexUtils.toByteArray("0100861765aefcc57b34ae608fbbc1f2")));
+        assertFalse(mReconnector.matches(null));
+    }
+}
@@ -0,0 +1,64 @@
+package com.ti.simplelinkconnect.mesh;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PduCaptureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsPdusAndNetworkSnapshotThroughFile() throws Exception {
+        final PduCapture capture = new PduCapture();
+        capture.setNetworkSnapshot("{\"meshUUID\": \"8A1B5E2C9D7F4E6B8C3A2F1E0D9C8B7A\",\n \"meshName\": \"Lab\"}");
+        capture.recordWriteCallback(20, new byte[]{0x00, (byte) 0x80, 0x01});
+        capture.recordNotification(33, new byte[]{0x00, (byte) 0x81, 0x02, 0x03});
+
+        final File file = new File(folder.getRoot(), "written.txt");
+        capture.writeTo(file);
+        final PduCapture read = PduCapture.readFrom(file);
+
+        assertEquals("{\"meshUUID\": \"8A1B5E2C9D7F4E6B8C3A2F1E0D9C8B7A\",  \"meshName\": \"Lab\"}", read.getNetworkSnapshot());
+        assertEquals(2, read.size());
+        assertEquals(PduCapture.Direction.TX, read.getEntries().get(0).getDirection());
+        assertArrayEquals(new byte[]{0x00, (byte) 0x80, 0x01}, read.getEntries().get(0).getPdu());
+        assertEquals(33, read.getEntries().get(1).getMtu());
+        assertArrayEquals(new byte[]{0x00, (byte) 0x81, 0x02, 0x03}, read.getEntries().get(1).getPdu());
+    }
+
+    @Test
+    public void readsCaptureWithoutNetworkSnapshot() throws Exception {
+        final File file = folder.newFile("old.txt");
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("# pdu-capture v1\n0 RX 20 0001\n");
+        }
+        final PduCapture capture = PduCapture.readFrom(file);
+
+        assertNull(capture.getNetworkSnapshot());
+        assertEquals(1, capture.size());
+    }
+
+    @Test
+    public void readsRecordedFixture() throws Exception {
+        final PduCapture capture = PduCapture.readFrom(new File(getClass().getClassLoader().getResource("pdu-captures/config-session.txt").toURI()));
+
+        assertEquals(11, capture.size());
+        assertEquals(PduCapture.Direction.RX, capture.getEntries().get(0).getDirection());
+        assertEquals(66, capture.getEntries().get(0).getMtu());
+        // Secure network beacon of the node
+        assertEquals(0x01, capture.getEntries().get(0).getPdu()[0]);
+        assertEquals(192000, capture.getEntries().get(10).getOffsetMicros());
+        assertTrue(capture.getNetworkSnapshot().contains("\"meshUUID\""));
+    }
+}
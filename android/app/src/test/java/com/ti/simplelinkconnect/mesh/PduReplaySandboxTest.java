@@ -0,0 +1,123 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.mesh.utils.MeshParserUtils;
+
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.APP_KEYS_UPDATED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.COMPOSITION_DATA_STATUS_GET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Replays a capture of a configuration session with a proxy node through the repository. The capture holds the
+ * node's secure network beacon, the composition data, default TTL and app key add exchanges, the statuses being
+ * segmented or not, and the network exported when it started.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33, shadows = ShadowArguments.class, instrumentedPackages = "com.facebook.react.bridge")
+public class PduReplaySandboxTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final int NODE_ADDRESS = 0x0002;
+
+    private RecordingMeshModule mModule;
+    private PduReplaySandbox mSandbox;
+    private PduCapture mCapture;
+
+    /**
+     * Runs the call on another thread, as the sandbox blocks until the main looper has delivered to the repository.
+     */
+    private static <V> V runInBackground(final Callable<V> call) throws Exception {
+        final FutureTask<V> task = new FutureTask<>(call);
+        new Thread(task).start();
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!task.isDone()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(5);
+        }
+        return task.get();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = ApplicationProvider.getApplicationContext();
+        mModule = new RecordingMeshModule(new ReactApplicationContext(context));
+        mSandbox = new PduReplaySandbox(context, mModule);
+        mCapture = PduCapture.readFrom(new File(getClass().getClassLoader().getResource("pdu-captures/config-session.txt").toURI()));
+        runInBackground(() -> {
+            mSandbox.open(mCapture);
+            return null;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mSandbox.close();
+    }
+
+    @Test
+    public void importsTheNetworkUnderANewMeshUuid() {
+        final MeshNetwork network = mSandbox.getRepository().getMeshManagerApi().getMeshNetwork();
+
+        assertNotEquals("9B6D4E2A5C714F83A0D93E8B1C6F7A52", network.getMeshUUID().replace("-", "").toUpperCase());
+        assertTrue(network.getMeshName().endsWith("(replay)"));
+        assertNotNull(network.getNode(NODE_ADDRESS));
+    }
+
+    @Test
+    public void replaysTheSessionThroughTheRepository() throws Exception {
+        final PduReplaySandbox.Report report = runInBackground(() -> mSandbox.replay(mCapture, 0));
+
+        assertEquals(7, report.getResult().getNotifications());
+        assertEquals(4, report.getResult().getWriteCallbacks());
+        assertEquals(0, report.getDecryptionFailures());
+        // Composition data, default TTL and app key statuses, the block acknowledgement is not a message
+        assertEquals(3, report.getMessagesReceived());
+
+        final ReadableMap composition = (ReadableMap) mModule.getLast(COMPOSITION_DATA_STATUS_GET);
+        assertNotNull(composition);
+        assertEquals("000D00010001002000020000000300000002000010", composition.getString("parameters").toUpperCase());
+        assertFalse(composition.getBoolean("cached"));
+        assertEquals("success", mModule.getLast(APP_KEYS_UPDATED));
+
+        final ProvisionedMeshNode node = mSandbox.getRepository().getMeshManagerApi().getMeshNetwork().getNode(NODE_ADDRESS);
+        assertEquals(Integer.valueOf(0x000D), node.getCompanyIdentifier());
+        assertEquals(1, node.getElements().size());
+        assertEquals(Integer.valueOf(5), node.getTtl());
+        assertTrue(MeshParserUtils.isNodeKeyExists(node.getAddedAppKeys(), 0));
+    }
+
+    @Test
+    public void replaysAtAcceleratedTiming() throws Exception {
+        final PduReplaySandbox.Report report = runInBackground(() -> mSandbox.replay(mCapture, 4));
+
+        // The last PDU was recorded 192 ms in, it is due 48 ms in at four times the speed
+        assertEquals(192000, report.getResult().getRecordedMicros());
+        assertTrue(report.getResult().getElapsedMicros() >= 48000);
+        assertEquals(0, report.getDecryptionFailures());
+    }
+}
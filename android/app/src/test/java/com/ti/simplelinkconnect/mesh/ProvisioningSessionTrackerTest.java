@@ -0,0 +1,94 @@
+package com.ti.simplelinkconnect.mesh;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walks the sessions through the pipelined provisioning flow of the repository. The tracker never looks at the
+ * device, the progress or the node of a session, they are left out.
+ */
+public class ProvisioningSessionTrackerTest {
+
+    private final ProvisioningSessionTracker mTracker = new ProvisioningSessionTracker();
+
+    /**
+     * Provisions a device and hands it to the proxy bearer, or queues it if the bearer is busy, as
+     * MeshRepository.onProvisioningCompleted does with the pipeline enabled.
+     */
+    private ProvisioningSession provision() {
+        mTracker.startProvisioning(null, null);
+        final ProvisioningSession session = mTracker.onProvisioned(null, null, null);
+        if (mTracker.isConfiguring()) {
+            mTracker.addPending(session);
+        }
+        else {
+            mTracker.startConfiguration(session);
+        }
+        return session;
+    }
+
+    @Test
+    public void queuesNodesWhileTheProxyBearerIsBusy() {
+        final ProvisioningSession first = provision();
+        final ProvisioningSession second = provision();
+
+        assertSame(first, mTracker.getConfigurationSession());
+        assertEquals(ProvisioningSession.Stage.WAITING_FOR_PROXY, second.getStage());
+        assertEquals(1, mTracker.getPendingSessionCount());
+        assertNull(mTracker.pollPending());
+
+        assertTrue(mTracker.finishConfiguration(true));
+        assertEquals(ProvisioningSession.Stage.COMPLETED, first.getStage());
+        assertSame(second, mTracker.pollPending());
+    }
+
+    @Test
+    public void retryStartsConfiguringRightAwayAfterReset() {
+        final ProvisioningSession reconnecting = provision();
+        final ProvisioningSession waiting = provision();
+        mTracker.startProvisioning(null, null);
+        final ProvisioningSession provisioning = mTracker.getProvisioningSession();
+
+        // The user gives up and disconnects, then tries again
+        mTracker.reset();
+
+        assertEquals(ProvisioningSession.Stage.FAILED, reconnecting.getStage());
+        assertEquals(ProvisioningSession.Stage.FAILED, waiting.getStage());
+        assertEquals(ProvisioningSession.Stage.FAILED, provisioning.getStage());
+        assertNull(mTracker.getProvisioningSession());
+        assertFalse(mTracker.isConfiguring());
+        assertEquals(0, mTracker.getPendingSessionCount());
+
+        final ProvisioningSession retry = provision();
+        assertSame(retry, mTracker.getConfigurationSession());
+        assertEquals(ProvisioningSession.Stage.RECONNECTING, retry.getStage());
+        assertEquals(0, mTracker.getPendingSessionCount());
+    }
+
+    @Test
+    public void retryWithoutInviteGetsANewSession() {
+        mTracker.startProvisioning(null, null);
+        final ProvisioningSession failed = mTracker.getProvisioningSession();
+        mTracker.reset();
+
+        final ProvisioningSession retry = mTracker.onProvisioned(null, null, null);
+
+        assertNotSame(failed, retry);
+        assertEquals(ProvisioningSession.Stage.PROVISIONING, retry.getStage());
+    }
+
+    @Test
+    public void finishingTwiceIsIgnored() {
+        provision();
+
+        assertTrue(mTracker.finishConfiguration(false));
+        assertFalse(mTracker.finishConfiguration(true));
+        assertEquals(ProvisioningSession.Stage.FAILED, mTracker.getConfigurationSession().getStage());
+    }
+}
@@ -0,0 +1,30 @@
+package com.ti.simplelinkconnect.mesh;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.ti.connectivity.simplelinkconnect.MeshModule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the events sent to the app instead of emitting them.
+ */
+class RecordingMeshModule extends MeshModule {
+    private final List<MeshModuleEvents> mEvents = new ArrayList<>();
+    private final List<Object> mMessages = new ArrayList<>();
+
+    RecordingMeshModule(final ReactApplicationContext context) {
+        super(context);
+    }
+
+    @Override
+    public synchronized void sendEvent(final MeshModuleEvents eventName, final Object message) {
+        mEvents.add(eventName);
+        mMessages.add(message);
+    }
+
+    synchronized Object getLast(final MeshModuleEvents eventName) {
+        final int index = mEvents.lastIndexOf(eventName);
+        return index < 0 ? null : mMessages.get(index);
+    }
+}
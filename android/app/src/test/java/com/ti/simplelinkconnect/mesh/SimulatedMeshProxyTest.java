@@ -0,0 +1,232 @@
+package com.ti.simplelinkconnect.mesh;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import no.nordicsemi.android.mesh.Group;
+import no.nordicsemi.android.mesh.MeshManagerApi;
+import no.nordicsemi.android.mesh.MeshNetwork;
+import no.nordicsemi.android.mesh.transport.MeshModel;
+import no.nordicsemi.android.mesh.transport.ProvisionedMeshNode;
+import no.nordicsemi.android.mesh.utils.MeshParserUtils;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.CONFIGURATION_FINISHED;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.MODELS_SUBSCRIBE_DONE;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.MODEL_BIND_DONE;
+import static com.ti.simplelinkconnect.mesh.MeshModuleEvents.PROVISION_COMPLETED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Provisions and sets up the simulated device through the repository, the mesh stack decoding every PDU the
+ * simulated proxy sends as it would decode the notifications of a real one.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33, shadows = ShadowArguments.class, instrumentedPackages = "com.facebook.react.bridge")
+public class SimulatedMeshProxyTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final int GROUP = 0xC000;
+    private static final int GENERIC_ON_OFF_SERVER = 0x1000;
+
+    private Context mContext;
+    private RecordingMeshModule mModule;
+    private MeshManagerApi mMeshManagerApi;
+    private MeshRepository mRepository;
+    private SimulatedMeshProxy mProxy;
+    private ExtendedBluetoothDevice mDevice;
+
+    /**
+     * Runs the main looper until the condition holds, the simulated proxy posting its traffic to it.
+     */
+    private static void idleUntil(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(5);
+        }
+    }
+
+    private Object awaitEvent(final MeshModuleEvents eventName) throws InterruptedException {
+        idleUntil(() -> mModule.getLast(eventName) != null);
+        return mModule.getLast(eventName);
+    }
+
+    /**
+     * Runs a quick setup call on another thread, it blocks until every status is received on the main looper.
+     */
+    private Object runQuickSetup(final Runnable call, final MeshModuleEvents doneEvent) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(() -> {
+            call.run();
+            done.countDown();
+        }).start();
+        idleUntil(() -> done.getCount() == 0);
+        return mModule.getLast(doneEvent);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = ApplicationProvider.getApplicationContext();
+        mModule = new RecordingMeshModule(new ReactApplicationContext(mContext));
+        mMeshManagerApi = new MeshManagerApi(mContext);
+        mRepository = new MeshRepository(mMeshManagerApi, new BleMeshManagerProvider(), mContext, mModule);
+        idleUntil(() -> mRepository.isNetworkLoaded);
+        mProxy = mRepository.startSimulation(0, 2, 0, 1);
+        mDevice = new ExtendedBluetoothDevice(new ScanResult(ShadowBluetoothDevice.newInstance("00:11:22:33:44:55"), null, -50, 0));
+        mDevice.setName("Simulated node");
+    }
+
+    @After
+    public void tearDown() {
+        mRepository.stopSimulation();
+    }
+
+    /**
+     * Provisions the simulated device and waits for its configuration to finish.
+     */
+    private ReadableMap provisionAndConfigure() throws InterruptedException {
+        mRepository.setSelectedBluetoothDevice(mDevice);
+        mRepository.connect(mContext, mDevice, false);
+        idleUntil(mProxy::isConnected);
+        assertFalse(mProxy.isProvisioningComplete());
+
+        mRepository.identifyNode(mDevice);
+        idleUntil(() -> mRepository.getUnprovisionedMeshNode() != null && mRepository.getUnprovisionedMeshNode().getProvisioningCapabilities() != null);
+        mMeshManagerApi.startProvisioning(mRepository.getUnprovisionedMeshNode());
+
+        return (ReadableMap) awaitEvent(CONFIGURATION_FINISHED);
+    }
+
+    private ProvisionedMeshNode provisionSimulatedDevice() throws InterruptedException {
+        final ReadableMap result = provisionAndConfigure();
+        assertTrue(result.getBoolean("success"));
+        assertTrue(mProxy.isProvisioningComplete());
+        final ProvisionedMeshNode node = mMeshManagerApi.getMeshNetwork().getNode(result.getInt("unicastAddress"));
+        assertNotNull(node);
+        return node;
+    }
+
+    private static ReadableArray onOffServer(final int elementAddress) {
+        final JavaOnlyMap model = new JavaOnlyMap();
+        model.putInt("elementId", elementAddress);
+        model.putInt("modelId", GENERIC_ON_OFF_SERVER);
+        model.putString("modelType", "SIG");
+        final JavaOnlyArray models = new JavaOnlyArray();
+        models.pushMap(model);
+        return models;
+    }
+
+    private static void assertAllSucceeded(final Object result) {
+        final ReadableArray tasks = (ReadableArray) result;
+        assertTrue(tasks.size() > 0);
+        for (int i = 0; i < tasks.size(); i++) {
+            assertTrue(tasks.getMap(i).getString("task"), tasks.getMap(i).getBoolean("success"));
+        }
+    }
+
+    @Test
+    public void provisionsAndConfiguresTheSimulatedDevice() throws Exception {
+        final ProvisionedMeshNode node = provisionSimulatedDevice();
+
+        assertEquals(Integer.valueOf(0x000D), node.getCompanyIdentifier());
+        assertEquals(1, node.getElements().size());
+        assertNotNull(node.getElements().get(node.getUnicastAddress()).getMeshModels().get(GENERIC_ON_OFF_SERVER));
+        assertEquals(Integer.valueOf(5), node.getTtl());
+        assertTrue(MeshParserUtils.isNodeKeyExists(node.getAddedAppKeys(), 0));
+        assertTrue(mProxy.getMessagesAnswered() >= 4);
+        assertEquals(0, mProxy.getMessagesDropped());
+    }
+
+    @Test
+    public void failsTheConfigurationWhenTheAppKeyIsRejected() throws Exception {
+        // Another key is already stored at the index the app key is added at
+        mProxy.storeAppKey(0, new byte[16]);
+
+        final ReadableMap result = provisionAndConfigure();
+
+        assertFalse(result.getBoolean("success"));
+        assertEquals(ProvisioningConfigurator.Step.APP_KEY_ADD.name(), result.getString("failedStep"));
+        assertNull(mModule.getLast(PROVISION_COMPLETED));
+    }
+
+    @Test
+    public void bindsAndSubscribesModelsOfTheSimulatedDevice() throws Exception {
+        final ProvisionedMeshNode node = provisionSimulatedDevice();
+        final int address = node.getUnicastAddress();
+        final MeshNetwork network = mMeshManagerApi.getMeshNetwork();
+        final Group group = network.createGroup(network.getSelectedProvisioner(), GROUP, "Simulated group");
+        network.addGroup(group);
+
+        assertAllSucceeded(runQuickSetup(() -> mRepository.bindAppKeyToModels(address, 0, onOffServer(address)), MODEL_BIND_DONE));
+        assertAllSucceeded(runQuickSetup(() -> mRepository.subscribeToModels(address, Integer.toHexString(GROUP), onOffServer(address)), MODELS_SUBSCRIBE_DONE));
+
+        final MeshModel model = network.getNode(address).getElements().get(address).getMeshModels().get(GENERIC_ON_OFF_SERVER);
+        assertTrue(model.getBoundAppKeyIndexes().contains(0));
+        assertTrue(model.getSubscribedAddresses().contains(GROUP));
+    }
+
+    @Test
+    public void acknowledgesWritesAfterLatency() throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        final int[] writtenMtu = new int[1];
+        final SimulatedMeshProxy proxy = new SimulatedMeshProxy(new SimulatedMeshProxy.Callbacks() {
+            @Override
+            public void onConnected() {
+            }
+
+            @Override
+            public void onDataSent(final int mtu, final byte[] pdu) {
+                writtenMtu[0] = mtu;
+                written.countDown();
+            }
+
+            @Override
+            public void onDataReceived(final int mtu, final byte[] pdu) {
+            }
+
+            @Override
+            public void onDisconnected() {
+            }
+        }, () -> null);
+        try {
+            proxy.setLatency(5, 5);
+            proxy.setMtu(23);
+
+            final long start = System.nanoTime();
+            proxy.sendPdu(new byte[]{0x00, 0x01, 0x02});
+
+            assertTrue(written.await(1, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(5));
+            assertEquals(20, writtenMtu[0]);
+            assertEquals(1, proxy.getPdusSent());
+        } finally {
+            proxy.shutdown();
+        }
+    }
+}
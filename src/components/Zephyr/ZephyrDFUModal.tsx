@@ -42,6 +42,25 @@ type DeviceDetails = {
   bootloader: number | "N/A";
   rc: number | "N/A";
   mode: string | "N/A";
+  autoWindowCapacity?: number;
+  autoMemoryAlignment?: number;
+};
+
+type TuningRun = {
+  auto: boolean;
+  windowCapacity: number;
+  memoryAlignment: number;
+  throughput: number;
+  finalWindow?: number;
+  chunkSize?: number;
+};
+
+type TuningReport = {
+  autoWindowCapacity: number;
+  autoMemoryAlignment: number;
+  chunkSize?: number;
+  auto?: TuningRun;
+  manual?: TuningRun;
 };
 
 type ImageType = 'bim' | 'mcuboot' | null;
@@ -100,6 +119,8 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
   const [swapTime, setSwapTime] = useState<number>(10)
   const [numBuffers, setBufferNum] = useState<number>(4)
   const [memoryAlignment, setMemoryAlignment] = useState<number>(4)
+  const [autoTune, setAutoTune] = useState(true)
+  const [tuningReport, setTuningReport] = useState<TuningReport>()
   const [upgradeMode, setUpgradeMode] = useState('Confirm Only')
   const [isMemAlignDropdownFocused, setMemAlignDropdownFocused] = useState(false);
   const [isUpgradeModeDropdownFocused, setUpgradeModeDropdownFocused] = useState(false);
@@ -126,6 +147,23 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
   }, [updatingRef.current]
   );
 
+  // Settings auto mode uses for the device and throughput of the last automatic and manual upgrades
+  const refreshTuningReport = () => {
+    if (Platform.OS !== 'android') return
+    callDFUModuleFunction('getDfuTuningReport')
+      .then((report: any) => setTuningReport(report))
+      .catch((e) => console.log(e))
+  }
+
+  // Alignment auto mode uses, an alignment of 1 byte being shown as disabled
+  const autoAlignmentBytes = deviceDetails.autoMemoryAlignment ?? tuningReport?.autoMemoryAlignment ?? memoryAlignment
+  const autoMemoryAlignment = autoAlignmentBytes > 1 ? autoAlignmentBytes : 0
+
+  const formatTuningRun = (run: TuningRun) => {
+    return `${(run.throughput / 1024).toFixed(1)} kB/s (window ${run.finalWindow ?? run.windowCapacity}, ` +
+      `${run.memoryAlignment > 1 ? run.memoryAlignment + '-byte align' : 'no align'})`
+  }
+
   useEffect(() => {
 
     // Monitor DFU progress
@@ -146,6 +184,7 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
         setStatus('Operation completed!');
         setProgress(1);
         callDFUModuleFunction('getDeviceImagesList')
+        refreshTuningReport()
         updatingRef.current = false
 
         setStatusColor('green')
@@ -164,9 +203,29 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
           setProgress(0);
         }
       }
+      else if (data.state === 'skipped') {
+        setStatus(`${data.version ? 'Image ' + data.version : 'Image'} already in slot ${data.slot}, nothing to upload`);
+        setStatusColor('green')
+        updatingRef.current = false
+        setProgress(1);
+        callDFUModuleFunction('getDeviceImagesList')
+      }
+      else if (data.state === 'alreadyUploaded') {
+        // The upgrade goes on with the image already in the slot, testing or confirming it as the mode requires
+        setStatus(`${data.version ? 'Image ' + data.version : 'Image'} already in slot ${data.slot}, upload skipped`);
+        setStatusColor('black')
+      }
+      else if (data.state === 'uploaded') {
+        setStatus('Upload completed!');
+        setStatusColor('green')
+        updatingRef.current = false
+        setProgress(1);
+        callDFUModuleFunction('getDeviceImagesList')
+        refreshTuningReport()
+      }
       else {
         setStatusColor('black')
-        setStatus(data);
+        setStatus(typeof data === 'string' ? data : String(data.state));
       }
     });
 
@@ -208,6 +267,7 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
       try {
         await callDFUModuleFunction('dfuInit', peripheralId);
         await callDFUModuleFunction('readMcuMgrInfo')
+        refreshTuningReport()
         await callDFUModuleFunction('getDeviceImagesList')
       } catch (e) {
         console.log(e)
@@ -400,8 +460,14 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
 
     try {
       console.log("Starting DFU")
+      // Android derives the window and alignment from the device parameters when given 0 buffers,
+      // iOS caps the given number of buffers to what the device reports
+      const buffers = !autoTune ? numBuffers
+        : Platform.OS === 'android' ? 0
+          : typeof deviceDetails.bufCount === 'number' ? deviceDetails.bufCount : numBuffers
+      const alignment = autoTune ? autoMemoryAlignment : memoryAlignment
       // Call dfu module
-      await callDFUModuleFunction('startDfu', selectedFW?.uri, eraseApplication, swapTime, memoryAlignment, numBuffers, upgradeMode)
+      await callDFUModuleFunction('startDfu', selectedFW?.uri, eraseApplication, swapTime, alignment, buffers, upgradeMode)
     } catch (err) {
       console.error("DFU error:", err);
       setStatus(`DFU failed: ${err}`);
@@ -427,18 +493,31 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
     setMemoryAlignment(4)
     setUpgradeMode('Confirm Only')
     setBufferNum(4)
+    setAutoTune(true)
+  }
+
+  const onImageOperationError = (error: any) => {
+    console.log('image operation failed', error)
+    const message = typeof error === 'string' ? error : error?.message ?? 'Image operation failed'
+    setStatusColor('red')
+    setStatus(message)
+    setSnackbarMessage({ message: message, color: 'red' })
+    setSnackbarStatusVisible(true)
   }
 
   const eraseImage = (imgPosition: Number) => {
     callDFUModuleFunction('eraseImage', imgPosition)
+      .catch(onImageOperationError)
   }
 
   const confirmImage = (imgHash: string, imgPosition: Number) => {
     callDFUModuleFunction('confirmImage', imgHash, imgPosition)
+      .catch(onImageOperationError)
   }
 
   const testImage = (imgHash: string, imgPosition: Number) => {
     callDFUModuleFunction('testImage', imgHash, imgPosition)
+      .catch(onImageOperationError)
   }
 
   const DisplayImage = ({ img, index }: { img: Image; index: number }) => {
@@ -595,15 +674,33 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
               underlineColor="gray"
               activeOutlineColor={Colors.active}
             />
+            {/* automatic window and alignment */}
+            <View style={{ marginBottom: 15, opacity: updating ? 0.3 : 1 }}>
+              <CheckBox
+                disabled={updating}
+                checked={autoTune}
+                iconType="material-community"
+                checkedIcon="checkbox-outline"
+                uncheckedIcon="checkbox-blank-outline"
+                checkedColor={Colors.blue}
+                uncheckedColor={Colors.darkGray}
+                onPress={() => setAutoTune(!autoTune)}
+                title={"Tune buffers and alignment automatically"}
+                containerStyle={{ margin: 0, padding: 0, left: -10 }}
+                textStyle={{ color: 'black', fontWeight: 'normal', fontSize: 16 }}
+                center={false}
+                right={false}
+              />
+            </View>
             {/* number of mcumgr buffers */}
             <TextInput
               mode='outlined'
-              disabled={updating}
+              disabled={updating || autoTune}
               keyboardType='number-pad'
               returnKeyType="done"
               style={[styles.textInput]}
               label={'Number of MCU Manager Buffers'}
-              value={numBuffers.toString()}
+              value={autoTune ? (deviceDetails.autoWindowCapacity ?? tuningReport?.autoWindowCapacity ?? 'Auto').toString() : numBuffers.toString()}
               onChangeText={(v) => {
                 if (v) {
                   setBufferNum(parseInt(v))
@@ -619,13 +716,13 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
                 Memory Alignment
               </Text>
               <Dropdown
-                style={[styles.dropdown, isMemAlignDropdownFocused && { borderColor: Colors.active }, { opacity: updating ? 0.3 : 1 }]}
+                style={[styles.dropdown, isMemAlignDropdownFocused && { borderColor: Colors.active }, { opacity: updating || autoTune ? 0.3 : 1 }]}
                 placeholderStyle={styles.placeholderStyle}
                 selectedTextStyle={styles.selectedTextStyle}
                 itemTextStyle={styles.item}
                 data={MEM_ALIGN_OPTIONS}
                 placeholder={!isMemAlignDropdownFocused ? 'Select memory alignment' : '...'}
-                value={memoryAlignment}
+                value={autoTune ? autoMemoryAlignment : memoryAlignment}
                 onChange={(v: any) => {
                   setMemoryAlignment(v.value)
                 }}
@@ -633,7 +730,7 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
                 valueField="value"
                 onFocus={() => setMemAlignDropdownFocused(true)}
                 onBlur={() => setMemAlignDropdownFocused(false)}
-                disable={updating}
+                disable={updating || autoTune}
               />
             </View>
             {/* Test Mode */}
@@ -660,6 +757,23 @@ const ZephyrDFUModal: React.FC<Props> = ({ peripheralId }: any) => {
               />
             </View>
 
+            {/* throughput of the last automatic and manual upgrades */}
+            {(tuningReport?.auto || tuningReport?.manual) && (
+              <View style={{ marginTop: 15 }}>
+                <Text style={{ fontWeight: "bold" }}>Achieved throughput:</Text>
+                {tuningReport?.auto && (
+                  <Text style={{ marginTop: 5 }}>
+                    <Text style={{ fontWeight: "bold" }} >Auto: </Text>{formatTuningRun(tuningReport.auto)}
+                  </Text>
+                )}
+                {tuningReport?.manual && (
+                  <Text style={{ marginTop: 5 }}>
+                    <Text style={{ fontWeight: "bold" }} >Manual: </Text>{formatTuningRun(tuningReport.manual)}
+                  </Text>
+                )}
+              </View>
+            )}
+
             <TouchableOpacity style={[styles.button, { opacity: updating ? 0.3 : 1 }]} onPress={resetToDefaultConfig} disabled={updating}>
               <Text style={[styles.buttonText]}>Reset to defaults</Text>
             </TouchableOpacity>